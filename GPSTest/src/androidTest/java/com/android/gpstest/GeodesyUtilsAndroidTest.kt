@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest
+
+import android.location.Location
+import androidx.test.internal.runner.junit4.AndroidJUnit4ClassRunner
+import com.android.gpstest.library.util.GeodesyUtils
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.Random
+
+/**
+ * Checks GeodesyUtils against the distances and bearings computed by the platform Location class
+ */
+@RunWith(AndroidJUnit4ClassRunner::class)
+class GeodesyUtilsAndroidTest {
+
+    private fun location(lat: Double, lon: Double): Location {
+        val l = Location("test")
+        l.latitude = lat
+        l.longitude = lon
+        return l
+    }
+
+    private fun assertMatchesLocation(lat1: Double, lon1: Double, lat2: Double, lon2: Double) {
+        val loc1 = location(lat1, lon1)
+        val loc2 = location(lat2, lon2)
+
+        // Location returns floats, so allow for their precision
+        val expectedDistance = loc1.distanceTo(loc2).toDouble()
+        val distance = GeodesyUtils.distance(lat1, lon1, lat2, lon2)
+        assertEquals(expectedDistance, distance, Math.max(1e-3, expectedDistance * 1e-6))
+
+        if (expectedDistance > 1.0) {
+            val expectedBearing = (loc1.bearingTo(loc2).toDouble() + 360.0) % 360.0
+            var delta = Math.abs(expectedBearing - GeodesyUtils.bearing(lat1, lon1, lat2, lon2))
+            delta = Math.min(delta, 360.0 - delta)
+            assertEquals(0.0, delta, 1e-4)
+        }
+    }
+
+    @Test
+    fun testKnownPoints() {
+        // Flinders Peak to Buninyong
+        assertMatchesLocation(-37.95103341666667, 144.42486788888888, -37.65282113888889, 143.92649552777777)
+        // Along the equator and a meridian
+        assertMatchesLocation(0.0, 0.0, 0.0, 1.0)
+        assertMatchesLocation(0.0, 0.0, 1.0, 0.0)
+        // Short distances typical of benchmark errors
+        assertMatchesLocation(28.0587, -82.4139, 28.05871, -82.41391)
+        assertMatchesLocation(28.0587, -82.4139, 28.0587, -82.4139)
+    }
+
+    @Test
+    fun testRandomPoints() {
+        val random = Random(42)
+        for (i in 0 until 1000) {
+            val lat1 = random.nextDouble() * 170 - 85
+            val lon1 = random.nextDouble() * 360 - 180
+            // Mix of short and long distances, avoiding near-antipodal points where Vincenty may
+            // not converge
+            val scale = if (i % 2 == 0) 0.01 else 10.0
+            val lat2 = (lat1 + (random.nextDouble() - 0.5) * scale).coerceIn(-89.0, 89.0)
+            val lon2 = lon1 + (random.nextDouble() - 0.5) * scale
+            assertMatchesLocation(lat1, lon1, lat2, lon2)
+        }
+    }
+}
@@ -28,6 +28,8 @@ import com.android.gpstest.library.data.*
 import com.android.gpstest.library.model.GnssType
 import com.android.gpstest.library.model.SbasType
 import com.android.gpstest.library.ui.SignalInfoViewModel
+import com.android.gpstest.library.util.EphemerisCache
+import com.android.gpstest.library.util.SkyPredictor
 import kotlinx.coroutines.GlobalScope
 import org.junit.Assert.*
 import org.junit.Rule
@@ -51,17 +53,19 @@ class SignalInfoViewModelTest {
         SharedAntennaManager(InstrumentationRegistry.getTargetContext().applicationContext, GlobalScope, PreferenceManager.getDefaultSharedPreferences(getTargetContext()))
     )
 
+    private val skyPredictor = SkyPredictor(EphemerisCache())
+
     /**
      * Test aggregating signal information into satellites
      */
     @Test
     fun testDeviceInfoViewModel() {
         val context = getTargetContext()
-        val modelEmpty = SignalInfoViewModel(context, context.applicationContext as Application, repository, PreferenceManager.getDefaultSharedPreferences(context))
+        val modelEmpty = SignalInfoViewModel(context, context.applicationContext as Application, repository, skyPredictor, PreferenceManager.getDefaultSharedPreferences(context))
         modelEmpty.updateStatus(context,emptyList(), PreferenceManager.getDefaultSharedPreferences(context))
 
         // Test GPS L1 - should be 1 satellite, no L5 or dual-frequency
-        val modelGpsL1 = SignalInfoViewModel(context, InstrumentationRegistry.getTargetContext().applicationContext as Application, repository, PreferenceManager.getDefaultSharedPreferences(context))
+        val modelGpsL1 = SignalInfoViewModel(context, InstrumentationRegistry.getTargetContext().applicationContext as Application, repository, skyPredictor, PreferenceManager.getDefaultSharedPreferences(context))
         modelGpsL1.updateStatus(context, listOf(gpsL1(1, true)), PreferenceManager.getDefaultSharedPreferences(getTargetContext()))
         assertEquals(1, modelGpsL1.filteredGnssSatellites.value?.size)
         assertFalse(modelGpsL1.isNonPrimaryCarrierFreqInView)
@@ -113,7 +117,7 @@ class SignalInfoViewModelTest {
 
 
         // Test GPS L1 + L5 same sv - should be 1 satellite, dual frequency in view and but not in use
-        val modelGpsL1L5 = SignalInfoViewModel(context, context.applicationContext as Application, repository , PreferenceManager.getDefaultSharedPreferences(context))
+        val modelGpsL1L5 = SignalInfoViewModel(context, context.applicationContext as Application, repository, skyPredictor, PreferenceManager.getDefaultSharedPreferences(context))
         modelGpsL1L5.updateStatus(context, listOf(gpsL1(1, false), gpsL5(1, true)), PreferenceManager.getDefaultSharedPreferences(context))
         assertEquals(1, modelGpsL1L5.filteredGnssSatellites.value?.size)
         assertEquals(1, modelGpsL1L5.getSupportedGnss().size)
@@ -283,7 +287,7 @@ class SignalInfoViewModelTest {
         modelGpsL1L5.reset();
 
         // Test GPS L5 not in use - should be 1 satellites, non-primary frequency in view, but not dual-frequency in view or use
-        val modelGpsL5 = SignalInfoViewModel(context, context.applicationContext as Application, repository, PreferenceManager.getDefaultSharedPreferences(context))
+        val modelGpsL5 = SignalInfoViewModel(context, context.applicationContext as Application, repository, skyPredictor, PreferenceManager.getDefaultSharedPreferences(context))
         modelGpsL5.updateStatus(context, listOf(gpsL5(1, false)), PreferenceManager.getDefaultSharedPreferences(context))
         assertEquals(1, modelGpsL5.filteredGnssSatellites.value?.size)
         assertEquals(1, modelGpsL5.getSupportedGnss().size)
@@ -318,7 +322,7 @@ class SignalInfoViewModelTest {
         }
 
         // Test GPS L1 + GLONASS L1 - should be 2 satellites, no non-primary carrier of dual-freq
-        val modelGpsL1GlonassL1 = SignalInfoViewModel(context, context.applicationContext as Application, repository, PreferenceManager.getDefaultSharedPreferences(context))
+        val modelGpsL1GlonassL1 = SignalInfoViewModel(context, context.applicationContext as Application, repository, skyPredictor, PreferenceManager.getDefaultSharedPreferences(context))
         modelGpsL1GlonassL1.updateStatus(context, listOf(gpsL1(1, true), glonassL1variant1()), PreferenceManager.getDefaultSharedPreferences(context))
         assertEquals(2, modelGpsL1GlonassL1.filteredGnssSatellites.value?.size)
         assertFalse(modelGpsL1GlonassL1.isNonPrimaryCarrierFreqInView)
@@ -344,7 +348,7 @@ class SignalInfoViewModelTest {
         }
 
         // Test Galileo E1 + E5a - should be 2 satellites, dual frequency not in use, non-primary carrier of dual-freq
-        val modelGalileoE1E5a = SignalInfoViewModel(context, context.applicationContext as Application, repository, PreferenceManager.getDefaultSharedPreferences(context))
+        val modelGalileoE1E5a = SignalInfoViewModel(context, context.applicationContext as Application, repository, skyPredictor, PreferenceManager.getDefaultSharedPreferences(context))
         modelGalileoE1E5a.updateStatus(context, listOf(galileoE1(1, true), galileoE5a(2, true)), PreferenceManager.getDefaultSharedPreferences(context))
         assertEquals(2, modelGalileoE1E5a.filteredGnssSatellites.value?.size)
         assertEquals(1, modelGalileoE1E5a.getSupportedGnss().size)
@@ -414,7 +418,7 @@ class SignalInfoViewModelTest {
         modelGalileoE1E5a.reset()
 
         // Test WAAS SBAS - L1 - should be 1 satellite, dual frequency not in use, no non-primary carrier of dual-freq
-        val modelWaasL1L5 = SignalInfoViewModel(context, InstrumentationRegistry.getTargetContext().applicationContext as Application, repository, PreferenceManager.getDefaultSharedPreferences(context))
+        val modelWaasL1L5 = SignalInfoViewModel(context, InstrumentationRegistry.getTargetContext().applicationContext as Application, repository, skyPredictor, PreferenceManager.getDefaultSharedPreferences(context))
         modelWaasL1L5.updateStatus(context, listOf(galaxy15_135L1(true)), PreferenceManager.getDefaultSharedPreferences(context))
         assertEquals(1, modelWaasL1L5.filteredSbasSatellites.value?.size)
         assertFalse(modelWaasL1L5.isNonPrimaryCarrierFreqInView)
@@ -22,6 +22,8 @@ import android.graphics.Color
 import android.location.Location
 import android.net.Uri
 import android.os.Bundle
+import android.os.Handler
+import android.os.Looper
 import android.util.Log
 import android.view.LayoutInflater
 import android.view.View
@@ -41,7 +43,9 @@ import com.android.gpstest.map.MapViewModelController.MapInterface
 import com.android.gpstest.map.OnMapClickListener
 import com.android.gpstest.util.MapUtils
 import com.android.gpstest.library.util.MathUtils
+import com.android.gpstest.library.util.OrientationFramePacer.Companion.pacedToFrames
 import com.android.gpstest.library.util.PreferenceUtil
+import com.android.gpstest.library.util.SimplifiedPath
 import com.google.android.gms.common.ConnectionResult
 import com.google.android.gms.common.GoogleApiAvailability
 import com.google.android.gms.maps.CameraUpdateFactory
@@ -59,6 +63,7 @@ import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.onEach
 import javax.inject.Inject
+import kotlin.math.hypot
 
 @AndroidEntryPoint
 class MapFragment : SupportMapFragment(), View.OnClickListener, LocationSource,
@@ -81,8 +86,12 @@ class MapFragment : SupportMapFragment(), View.OnClickListener, LocationSource,
     private var onMapClickListener: OnMapClickListener? = null
     private var groundTruthMarker: Marker? = null
     private var errorLine: Polyline? = null
-    private var lastLocation: Location? = null
     private var pathLines: MutableList<Polyline> = ArrayList()
+    private val pathRuns = SimplifiedPath.Runs()
+
+    // Re-clips the path once the camera stops changing, rather than on every frame it moves
+    private val pathUpdateHandler = Handler(Looper.getMainLooper())
+    private val pathUpdateRunnable = Runnable { updatePath() }
     var mapController: MapViewModelController? = null
 
     // Repository of location data that the service will observe, injected via Hilt
@@ -103,8 +112,6 @@ class MapFragment : SupportMapFragment(), View.OnClickListener, LocationSource,
     ): View? {
         val v = super.onCreateView(inflater, container, savedInstanceState)
 
-        lastLocation = null
-
         Application.prefs.registerOnSharedPreferenceChangeListener(trackingListener)
 
         if (isGooglePlayServicesInstalled) {
@@ -165,6 +172,11 @@ class MapFragment : SupportMapFragment(), View.OnClickListener, LocationSource,
         super.onResume()
     }
 
+    override fun onDestroyView() {
+        pathUpdateHandler.removeCallbacks(pathUpdateRunnable)
+        super.onDestroyView()
+    }
+
     override fun onClick(v: View) {}
 
     private fun setupMap(mapFragment: MapFragment, googleMap: GoogleMap) {
@@ -249,6 +261,8 @@ class MapFragment : SupportMapFragment(), View.OnClickListener, LocationSource,
         }
         // Observe locations via Flow as they are generated by the repository
         sensorFlow = repository.getSensorUpdates()
+            // Coalesce sensor updates to one per display frame, measuring rotation at the map corners
+            .pacedToFrames({ view?.let { hypot(it.width.toFloat(), it.height.toFloat()) / 2f } ?: 0f })
             .flowWithLifecycle(lifecycle, Lifecycle.State.STARTED)
             .onEach {
                 //Log.d(TAG, "Map sensor: orientation ${it.values[0]}, tilt ${it.values[1]}")
@@ -297,17 +311,11 @@ class MapFragment : SupportMapFragment(), View.OnClickListener, LocationSource,
                     errorLine!!.points = listOf(gt, current)
                 }
             }
-            if (mapController!!.mode == MapConstants.MODE_ACCURACY && lastLocation != null) {
+            if (mapController!!.mode == MapConstants.MODE_ACCURACY && mapController!!.addPathLocation(loc)) {
                 // Draw line between this and last location
-                val drawn = drawPathLine(lastLocation!!, loc)
-                if (drawn) {
-                    lastLocation = loc
-                }
+                updatePath()
             }
         }
-        if (lastLocation == null) {
-            lastLocation = loc
-        }
     }
 
     private fun onOrientationChanged(orientation: Double, tilt: Double) {
@@ -378,6 +386,12 @@ class MapFragment : SupportMapFragment(), View.OnClickListener, LocationSource,
             lastMapTouchTime = System.currentTimeMillis()
         }
         lastCameraPosition = cameraPosition
+        if (mapController!!.mode == MapConstants.MODE_ACCURACY) {
+            // Re-clip the path to the new viewport and zoom level after the camera settles, as
+            // the camera changes on every frame while the map is rotated with the sensors
+            pathUpdateHandler.removeCallbacks(pathUpdateRunnable)
+            pathUpdateHandler.postDelayed(pathUpdateRunnable, PATH_UPDATE_DELAY_MS)
+        }
     }
 
     override fun onMapClick(latLng: LatLng) {
@@ -467,24 +481,51 @@ class MapFragment : SupportMapFragment(), View.OnClickListener, LocationSource,
     }
 
     /**
-     * Draws a line on the map between the two locations if its greater than a threshold value defined
-     * by DRAW_LINE_THRESHOLD_METERS
-     * @param loc1
-     * @param loc2
+     * Draws the path from the map controller as polylines, clipped to the visible region and
+     * simplified for the current zoom level so the number of vertices is bounded no matter how long
+     * the path is. Existing polylines are reused, and nothing is redrawn if the path and the clipped
+     * region haven't changed.
      */
-    override fun drawPathLine(loc1: Location, loc2: Location): Boolean {
-        if (loc1.distanceTo(loc2) < MapConstants.DRAW_LINE_THRESHOLD_METERS) {
-            return false
+    override fun updatePath() {
+        val googleMap = map ?: return
+        val path = mapController?.path ?: return
+        val bounds = googleMap.projection.visibleRegion.latLngBounds
+        var west = bounds.southwest.longitude
+        var east = bounds.northeast.longitude
+        if (west > east) {
+            // Visible region crosses the antimeridian - clip by latitude only
+            west = -180.0
+            east = 180.0
+        }
+        val camera = googleMap.cameraPosition
+        val metersPerPixel = SimplifiedPath.metersPerPixel(camera.target.latitude, camera.zoom.toDouble())
+        if (!path.clip(bounds.southwest.latitude, west, bounds.northeast.latitude, east, metersPerPixel, pathRuns)) {
+            return
+        }
+        for (run in 0 until pathRuns.runCount) {
+            val start = pathRuns.runStart(run)
+            val end = pathRuns.runEnd(run)
+            val points = ArrayList<LatLng>(end - start)
+            for (i in start until end) {
+                points.add(LatLng(pathRuns.latitude(i), pathRuns.longitude(i)))
+            }
+            if (run < pathLines.size) {
+                pathLines[run].points = points
+            } else {
+                pathLines.add(
+                    googleMap.addPolyline(
+                        PolylineOptions()
+                            .addAll(points)
+                            .color(Color.RED)
+                            .width(2.0f)
+                            .geodesic(true)
+                    )
+                )
+            }
+        }
+        while (pathLines.size > pathRuns.runCount) {
+            pathLines.removeAt(pathLines.size - 1).remove()
         }
-        val line = map!!.addPolyline(
-            PolylineOptions()
-                .add(MapUtils.makeLatLng(loc1), MapUtils.makeLatLng(loc2))
-                .color(Color.RED)
-                .width(2.0f)
-                .geodesic(true)
-        )
-        pathLines.add(line)
-        return true
     }
 
     /**
@@ -495,10 +536,12 @@ class MapFragment : SupportMapFragment(), View.OnClickListener, LocationSource,
             line.remove()
         }
         pathLines = ArrayList()
+        pathRuns.clear()
     }
 
     companion object {
         private const val TAG = "GpsMapFragment"
+        private const val PATH_UPDATE_DELAY_MS = 100L
 
         /**
          * Returns true if Google Play Services is available, false if it is not
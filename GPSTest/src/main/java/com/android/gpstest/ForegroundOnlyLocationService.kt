@@ -16,14 +16,10 @@
 package com.android.gpstest
 
 import android.annotation.SuppressLint
-import android.app.Notification
 import android.app.NotificationChannel
 import android.app.NotificationManager
-import android.app.PendingIntent
 import android.content.Context
 import android.content.Intent
-import android.content.Intent.FLAG_ACTIVITY_CLEAR_TASK
-import android.content.Intent.FLAG_ACTIVITY_NEW_TASK
 import android.content.SharedPreferences
 import android.content.res.Configuration
 import android.location.Location
@@ -34,10 +30,6 @@ import android.os.IBinder
 import android.os.SystemClock
 import android.util.Log
 import androidx.annotation.RequiresApi
-import androidx.core.app.NotificationCompat
-import androidx.core.app.NotificationCompat.PRIORITY_LOW
-import androidx.core.app.PendingIntentCompat
-import androidx.core.content.ContextCompat
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleService
 import androidx.lifecycle.flowWithLifecycle
@@ -49,9 +41,8 @@ import com.android.gpstest.io.JsonFileLogger
 import com.android.gpstest.library.data.LocationRepository
 import com.android.gpstest.library.model.SatelliteGroup
 import com.android.gpstest.library.model.SatelliteMetadata
-import com.android.gpstest.library.util.FormatUtils.toNotificationTitle
 import com.android.gpstest.library.util.IOUtils.*
-import com.android.gpstest.library.util.LibUIUtils.toNotificationSummary
+import com.android.gpstest.library.util.NavMessageDecoder
 import com.android.gpstest.library.util.PreferenceUtil
 import com.android.gpstest.library.util.PreferenceUtil.isCsvLoggingEnabled
 import com.android.gpstest.library.util.PreferenceUtil.isJsonLoggingEnabled
@@ -71,12 +62,12 @@ import com.android.gpstest.library.util.PreferenceUtils
 import com.android.gpstest.library.util.SatelliteUtil.toSatelliteGroup
 import com.android.gpstest.library.util.SatelliteUtil.toSatelliteStatus
 import com.android.gpstest.library.util.SatelliteUtils
-import com.android.gpstest.ui.MainActivity
 import dagger.hilt.android.AndroidEntryPoint
 import java.io.File
 import java.util.*
 import javax.inject.Inject
 import kotlinx.coroutines.*
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.onEach
@@ -101,6 +92,7 @@ class ForegroundOnlyLocationService : LifecycleService() {
     private var isStarted = false
     private var isForeground = false
     private lateinit var notificationManager: NotificationManager
+    private lateinit var notificationUpdater: LocationNotificationUpdater
 
     // We save a local reference to last location and SatelliteStatus to create a Notification
     private var currentLocation: Location? = null
@@ -110,6 +102,10 @@ class ForegroundOnlyLocationService : LifecycleService() {
     @Inject
     lateinit var repository: LocationRepository
 
+    // Decodes ephemerides from navigation messages into the shared EphemerisCache
+    @Inject
+    lateinit var navMessageDecoder: NavMessageDecoder
+
     // Get a reference to the Job from the Flow so we can stop it from UI events
     private var locationFlow: Job? = null
     private var nmeaFlow: Job? = null
@@ -132,6 +128,17 @@ class ForegroundOnlyLocationService : LifecycleService() {
         super.onCreate()
         Log.d(TAG, "onCreate()")
         notificationManager = getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
+        val cancelIntent = Intent(this, ForegroundOnlyLocationService::class.java).apply {
+            putExtra(EXTRA_CANCEL_LOCATION_TRACKING_FROM_NOTIFICATION, true)
+        }
+        notificationUpdater = LocationNotificationUpdater(
+            this,
+            notificationManager,
+            prefs,
+            NOTIFICATION_ID,
+            NOTIFICATION_CHANNEL,
+            cancelIntent
+        )
 
         csvFileLogger = CsvFileLogger(applicationContext)
         jsonFileLogger = JsonFileLogger(applicationContext)
@@ -153,6 +160,7 @@ class ForegroundOnlyLocationService : LifecycleService() {
                 isStarted = true
                 GlobalScope.launch(Dispatchers.IO) {
                     initLogging()
+                    navMessageDecoder.cache.load()
                 }
                 try {
                     observeFlows()
@@ -218,7 +226,11 @@ class ForegroundOnlyLocationService : LifecycleService() {
 
     override fun onDestroy() {
         Log.d(TAG, "onDestroy()")
+        notificationUpdater.reset()
         stopLogging()
+        // Save synchronously - it's a small file written to a temporary file and renamed, and a
+        // coroutine launched here could outlive the process
+        navMessageDecoder.cache.save()
         super.onDestroy()
     }
 
@@ -248,6 +260,7 @@ class ForegroundOnlyLocationService : LifecycleService() {
             isStarted = false
             PreferenceUtils.saveTrackingStarted(false, prefs)
             removeOngoingActivityNotification()
+            notificationUpdater.reset()
             currentLocation = null
             currentSatellites = SatelliteGroup(emptyMap(), SatelliteMetadata())
         } catch (unlikely: SecurityException) {
@@ -294,10 +307,7 @@ class ForegroundOnlyLocationService : LifecycleService() {
                 currentLocation = it
 
                 // Show location in notification
-                notificationManager.notify(
-                    NOTIFICATION_ID,
-                    buildNotification(it, currentSatellites)
-                )
+                notificationUpdater.update(it, currentSatellites)
 
                 GlobalScope.launch(Dispatchers.IO) {
                     if (writeLocationToFile(app, prefs)) {
@@ -326,10 +336,7 @@ class ForegroundOnlyLocationService : LifecycleService() {
                 currentSatellites = it.toSatelliteGroup()
 
                 // Show location in notification
-                notificationManager.notify(
-                    NOTIFICATION_ID,
-                    buildNotification(currentLocation, currentSatellites)
-                )
+                notificationUpdater.update(currentLocation, currentSatellites)
                 // Log Status
                 GlobalScope.launch(Dispatchers.IO) {
                     if (writeStatusToFile(app, prefs)) {
@@ -376,6 +383,11 @@ class ForegroundOnlyLocationService : LifecycleService() {
         }
         // Observe via Flow as they are generated by the repository
         navMessageFlow = repository.getNavMessages()
+            .onEach {
+                // Decode off the main thread
+                navMessageDecoder.decode(it)
+            }
+            .flowOn(Dispatchers.Default)
             .flowWithLifecycle(lifecycle, Lifecycle.State.STARTED)
             .onEach {
                 //Log.d(TAG, "Service nav message: $it")
@@ -456,11 +468,13 @@ class ForegroundOnlyLocationService : LifecycleService() {
             .flowWithLifecycle(lifecycle, Lifecycle.State.STARTED)
             .onEach {
                 //Log.d(TAG, "Service sensor: orientation ${it.values[0]}, tilt ${it.values[1]}")
-                GlobalScope.launch(Dispatchers.IO) {
-                    if (writeOrientationToFile(app, prefs)) {
+                if (writeOrientationToFile(app, prefs)) {
+                    // Orientations are recycled by the sensor manager, so copy before leaving this thread
+                    val orientation = it.snapshot()
+                    GlobalScope.launch(Dispatchers.IO) {
                         initLogging()
                         csvFileLogger.onOrientationChanged(
-                            it,
+                            orientation,
                             System.currentTimeMillis(),
                             SystemClock.elapsedRealtime()
                         )
@@ -490,7 +504,7 @@ class ForegroundOnlyLocationService : LifecycleService() {
             Log.d(TAG, "Posting ongoing activity notification")
 
             createNotificationChannel()
-            startForeground(NOTIFICATION_ID, buildNotification(currentLocation, currentSatellites))
+            startForeground(NOTIFICATION_ID, notificationUpdater.build(currentLocation, currentSatellites))
         }
     }
 
@@ -509,73 +523,6 @@ class ForegroundOnlyLocationService : LifecycleService() {
         }
     }
 
-    /*
-     * Generates a BIG_TEXT_STYLE Notification that represent latest location.
-     */
-    private fun buildNotification(location: Location?, satellites: SatelliteGroup): Notification {
-        val titleText = satellites.toNotificationTitle(app)
-        val summaryText = location?.toNotificationSummary(app, prefs) ?: getString(R.string.no_location_text)
-
-        // 2. Build the BIG_TEXT_STYLE.
-        val bigTextStyle = NotificationCompat.BigTextStyle()
-            .bigText(summaryText)
-            .setBigContentTitle(titleText)
-
-        // 3. Set up main Intent/Pending Intents for notification
-        val launchActivityIntent = Intent(this, MainActivity::class.java).apply {
-            flags = FLAG_ACTIVITY_NEW_TASK or FLAG_ACTIVITY_CLEAR_TASK
-            // NOTE: The above causes the activity/viewmodel to be recreated from scratch for Accuracy when it's already visible
-            // and the notification is tapped (strangely if it's destroyed Accuracy viewmodel seems to keep it's state)
-            // FLAG_ACTIVITY_REORDER_TO_FRONT seems like it should work, but if this is used then onResume() is called
-            // again (and onPause() is never called). This seems to freeze up Status into a blank state because GNSS inits again.
-        }
-        val openActivityPendingIntent = PendingIntentCompat.getActivity(
-            applicationContext,
-            System.currentTimeMillis().toInt(),
-            launchActivityIntent,
-            0,
-            false
-        )
-
-        val cancelIntent = Intent(this, ForegroundOnlyLocationService::class.java).apply {
-            putExtra(EXTRA_CANCEL_LOCATION_TRACKING_FROM_NOTIFICATION, true)
-        }
-        val stopServicePendingIntent = PendingIntentCompat.getService(
-            applicationContext,
-            System.currentTimeMillis().toInt(),
-            cancelIntent,
-            PendingIntent.FLAG_UPDATE_CURRENT,
-            false
-        )
-
-        // 4. Build and issue the notification.
-        // Notification Channel Id is ignored for Android pre O (26).
-        val notificationCompatBuilder =
-            NotificationCompat.Builder(applicationContext, NOTIFICATION_CHANNEL)
-
-        return notificationCompatBuilder
-            .setStyle(bigTextStyle)
-            .setContentTitle(titleText)
-            .setContentText(summaryText)
-            .setSmallIcon(R.drawable.ic_sat_notification)
-            .setColor(ContextCompat.getColor(this, R.color.colorPrimary))
-            .setOngoing(true)
-            .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
-            .setPriority(PRIORITY_LOW) // For < API 26
-            .setDefaults(NotificationCompat.DEFAULT_LIGHTS) // For < API 26
-            .setContentIntent(openActivityPendingIntent)
-            .addAction(
-                R.drawable.ic_baseline_launch_24, getString(R.string.open),
-                openActivityPendingIntent
-            )
-            .addAction(
-                R.drawable.ic_baseline_cancel_24,
-                getString(R.string.stop),
-                stopServicePendingIntent
-            )
-            .build()
-    }
-
     private fun removeOngoingActivityNotification() {
         if (isForeground) {
             Log.d(TAG, "Removing ongoing activity notification")
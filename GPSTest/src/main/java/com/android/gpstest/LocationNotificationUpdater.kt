@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest
+
+import android.app.Notification
+import android.app.NotificationManager
+import android.app.PendingIntent
+import android.content.Context
+import android.content.Intent
+import android.content.Intent.FLAG_ACTIVITY_CLEAR_TASK
+import android.content.Intent.FLAG_ACTIVITY_NEW_TASK
+import android.content.SharedPreferences
+import android.location.Location
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import androidx.core.app.NotificationCompat
+import androidx.core.app.NotificationCompat.PRIORITY_LOW
+import androidx.core.app.PendingIntentCompat
+import androidx.core.content.ContextCompat
+import com.android.gpstest.library.model.SatelliteGroup
+import com.android.gpstest.library.util.FormatUtils.toNotificationTitle
+import com.android.gpstest.library.util.LibUIUtils.toNotificationSummary
+import com.android.gpstest.ui.MainActivity
+
+/**
+ * Builds and posts the ongoing notification for [ForegroundOnlyLocationService]. The PendingIntents
+ * and NotificationCompat.Builder are created once and reused, a new Notification is only posted when
+ * the title or summary text actually changes, and posts are limited to one per [minIntervalMillis]
+ * so long background sessions don't flood the system server with binder calls. An update that
+ * arrives within the interval is deferred (not dropped), so the notification always ends up showing
+ * the latest location and satellites.
+ *
+ * All methods must be called from the main thread.
+ */
+class LocationNotificationUpdater(
+    private val context: Context,
+    private val notificationManager: NotificationManager,
+    private val prefs: SharedPreferences,
+    private val notificationId: Int,
+    channelId: String,
+    cancelIntent: Intent,
+    var minIntervalMillis: Long = DEFAULT_MIN_INTERVAL_MILLIS
+) {
+    private val handler = Handler(Looper.getMainLooper())
+
+    private val bigTextStyle = NotificationCompat.BigTextStyle()
+
+    private val builder: NotificationCompat.Builder
+
+    // Latest data provided to update(), rendered when the interval has elapsed
+    private var location: Location? = null
+    private var satellites: SatelliteGroup? = null
+
+    private var lastTitleText: String? = null
+    private var lastSummaryText: String? = null
+    private var lastPostMillis = 0L
+    private var isUpdatePending = false
+
+    private val deferredUpdate = Runnable {
+        isUpdatePending = false
+        post()
+    }
+
+    init {
+        val launchActivityIntent = Intent(context, MainActivity::class.java).apply {
+            flags = FLAG_ACTIVITY_NEW_TASK or FLAG_ACTIVITY_CLEAR_TASK
+            // NOTE: The above causes the activity/viewmodel to be recreated from scratch for Accuracy when it's already visible
+            // and the notification is tapped (strangely if it's destroyed Accuracy viewmodel seems to keep it's state)
+            // FLAG_ACTIVITY_REORDER_TO_FRONT seems like it should work, but if this is used then onResume() is called
+            // again (and onPause() is never called). This seems to freeze up Status into a blank state because GNSS inits again.
+        }
+        val openActivityPendingIntent = PendingIntentCompat.getActivity(
+            context.applicationContext,
+            OPEN_ACTIVITY_REQUEST_CODE,
+            launchActivityIntent,
+            0,
+            false
+        )
+        val stopServicePendingIntent = PendingIntentCompat.getService(
+            context.applicationContext,
+            STOP_SERVICE_REQUEST_CODE,
+            cancelIntent,
+            PendingIntent.FLAG_UPDATE_CURRENT,
+            false
+        )
+
+        // Notification Channel Id is ignored for Android pre O (26).
+        builder = NotificationCompat.Builder(context.applicationContext, channelId)
+            .setStyle(bigTextStyle)
+            .setSmallIcon(R.drawable.ic_sat_notification)
+            .setColor(ContextCompat.getColor(context, R.color.colorPrimary))
+            .setOngoing(true)
+            .setOnlyAlertOnce(true)
+            .setShowWhen(false)
+            .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+            .setPriority(PRIORITY_LOW) // For < API 26
+            .setDefaults(NotificationCompat.DEFAULT_LIGHTS) // For < API 26
+            .setContentIntent(openActivityPendingIntent)
+            .addAction(
+                R.drawable.ic_baseline_launch_24, context.getString(R.string.open),
+                openActivityPendingIntent
+            )
+            .addAction(
+                R.drawable.ic_baseline_cancel_24,
+                context.getString(R.string.stop),
+                stopServicePendingIntent
+            )
+    }
+
+    /**
+     * Returns a BIG_TEXT_STYLE Notification for the provided [location] and [satellites], for use
+     * with startForeground(). Subsequent calls to update() are diffed against this notification.
+     */
+    fun build(location: Location?, satellites: SatelliteGroup): Notification {
+        this.location = location
+        this.satellites = satellites
+        handler.removeCallbacks(deferredUpdate)
+        isUpdatePending = false
+        lastPostMillis = SystemClock.elapsedRealtime()
+        return render()
+    }
+
+    /**
+     * Updates the notification with the provided [location] and [satellites]. The notification is
+     * posted immediately if [minIntervalMillis] has elapsed since the last post, and otherwise when
+     * the interval elapses.
+     */
+    fun update(location: Location?, satellites: SatelliteGroup) {
+        this.location = location
+        this.satellites = satellites
+        if (isUpdatePending) {
+            // The deferred update will pick up the latest data
+            return
+        }
+        val elapsed = SystemClock.elapsedRealtime() - lastPostMillis
+        if (elapsed >= minIntervalMillis) {
+            post()
+        } else {
+            isUpdatePending = true
+            handler.postDelayed(deferredUpdate, minIntervalMillis - elapsed)
+        }
+    }
+
+    /**
+     * Cancels any deferred update and forgets the last posted text, so the next call to update()
+     * or build() renders a new notification
+     */
+    fun reset() {
+        handler.removeCallbacks(deferredUpdate)
+        isUpdatePending = false
+        location = null
+        satellites = null
+        lastTitleText = null
+        lastSummaryText = null
+        lastPostMillis = 0L
+    }
+
+    private fun post() {
+        val satellites = satellites ?: return
+        val titleText = satellites.toNotificationTitle(context)
+        val summaryText = summaryText()
+        if (titleText == lastTitleText && summaryText == lastSummaryText) {
+            // Nothing visible changed
+            return
+        }
+        lastPostMillis = SystemClock.elapsedRealtime()
+        notificationManager.notify(notificationId, render(titleText, summaryText))
+    }
+
+    private fun render(
+        titleText: String = satellites?.toNotificationTitle(context) ?: "",
+        summaryText: String = summaryText()
+    ): Notification {
+        lastTitleText = titleText
+        lastSummaryText = summaryText
+        bigTextStyle
+            .bigText(summaryText)
+            .setBigContentTitle(titleText)
+        return builder
+            .setContentTitle(titleText)
+            .setContentText(summaryText)
+            .build()
+    }
+
+    private fun summaryText(): String {
+        return location?.toNotificationSummary(context, prefs)
+            ?: context.getString(R.string.no_location_text)
+    }
+
+    companion object {
+        /**
+         * Default minimum time between posted notifications
+         */
+        const val DEFAULT_MIN_INTERVAL_MILLIS = 1_000L
+
+        private const val OPEN_ACTIVITY_REQUEST_CODE = 0
+        private const val STOP_SERVICE_REQUEST_CODE = 1
+    }
+}
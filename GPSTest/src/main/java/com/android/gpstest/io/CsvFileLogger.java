@@ -39,8 +39,11 @@ import com.android.gpstest.BuildConfig;
 import com.android.gpstest.R;
 import com.android.gpstest.library.model.Orientation;
 import com.android.gpstest.library.model.SatelliteStatus;
+import com.android.gpstest.library.util.CycleSlipDetector;
 import com.android.gpstest.library.util.FormatUtils;
+import com.android.gpstest.library.util.HatchFilter;
 import com.android.gpstest.library.util.IOUtils;
+import com.android.gpstest.library.util.PseudorangeCalculator;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -56,6 +59,11 @@ public class CsvFileLogger extends BaseFileLogger implements FileLogger {
     private static final char RECORD_DELIMITER = ',';
     private static final String VERSION_TAG = "Version: ";
 
+    // Carrier-smoothed pseudoranges and cycle slips, logged after the raw measurements of each epoch
+    private final PseudorangeCalculator pseudorangeCalculator = new PseudorangeCalculator();
+    private final HatchFilter hatchFilter = new HatchFilter();
+    private final CycleSlipDetector cycleSlipDetector = new CycleSlipDetector();
+
     public CsvFileLogger(Context context) {
         super(context);
     }
@@ -142,6 +150,24 @@ public class CsvFileLogger extends BaseFileLogger implements FileLogger {
             writer.write(COMMENT_START);
             writer.newLine();
             writer.write(COMMENT_START);
+            writer.write("Carrier-smoothed pseudorange format (after the Raw lines of each epoch):");
+            writer.newLine();
+            writer.write(COMMENT_START);
+            writer.write(
+                    "  Smoothed,utcTimeMillis,TimeNanos,Svid,ConstellationType,CarrierFrequencyHz,PseudorangeMeters,SmoothedPseudorangeMeters,SmoothingCount");
+            writer.newLine();
+            writer.write(COMMENT_START);
+            writer.newLine();
+            writer.write(COMMENT_START);
+            writer.write("Carrier phase arc break format (after the Raw lines of each epoch, Breaks: 1 = ADR state, 2 = Doppler, 4 = geometry-free, 8 = phase lost):");
+            writer.newLine();
+            writer.write(COMMENT_START);
+            writer.write(
+                    "  CycleSlip,utcTimeMillis,TimeNanos,Svid,ConstellationType,CarrierFrequencyHz,Breaks,EndedArcEpochs,SlipCount");
+            writer.newLine();
+            writer.write(COMMENT_START);
+            writer.newLine();
+            writer.write(COMMENT_START);
             writer.write("Location fix format:");
             writer.newLine();
             writer.write(COMMENT_START);
@@ -246,6 +272,28 @@ public class CsvFileLogger extends BaseFileLogger implements FileLogger {
                 logException(Application.Companion.getApp().getString(R.string.error_writing_file), e);
             }
         }
+        writeCarrierPhaseToFile(event);
+    }
+
+    private void writeCarrierPhaseToFile(GnssMeasurementsEvent event) {
+        pseudorangeCalculator.update(event);
+        PseudorangeCalculator.Epoch epoch = pseudorangeCalculator.getEpoch();
+        hatchFilter.update(epoch);
+        cycleSlipDetector.update(epoch);
+        try {
+            for (int i = 0; i < epoch.getSize(); i++) {
+                fileWriter.write(FormatUtils.toLog(epoch, hatchFilter, i));
+                fileWriter.newLine();
+            }
+            for (int i = 0; i < epoch.getSize(); i++) {
+                if (cycleSlipDetector.breaks(i) != 0) {
+                    fileWriter.write(FormatUtils.toLog(epoch, cycleSlipDetector, i));
+                    fileWriter.newLine();
+                }
+            }
+        } catch (IOException e) {
+            logException(Application.Companion.getApp().getString(R.string.error_writing_file), e);
+        }
     }
 
     public synchronized void onGnssNavigationMessageReceived(GnssNavigationMessage navigationMessage) {
@@ -37,6 +37,9 @@ public class MapConstants {
 
     public static final float DRAW_LINE_THRESHOLD_METERS = 0.01f;
 
+    // Maximum size of the offline map tile cache for each tile source
+    public static final long TILE_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+
     // Amount of time the user must not touch the map for the automatic camera movements to kick in
     public static final long MOVE_MAP_INTERACTION_THRESHOLD = 5 * 1000; // milliseconds
 
@@ -1,6 +1,7 @@
 package com.android.gpstest.map;
 
 import static com.android.gpstest.map.MapConstants.ALLOW_GROUND_TRUTH_CHANGE;
+import static com.android.gpstest.map.MapConstants.DRAW_LINE_THRESHOLD_METERS;
 import static com.android.gpstest.map.MapConstants.GROUND_TRUTH;
 import static com.android.gpstest.map.MapConstants.MODE;
 import static com.android.gpstest.map.MapConstants.MODE_ACCURACY;
@@ -8,14 +9,15 @@ import static com.android.gpstest.map.MapConstants.MODE_MAP;
 
 import android.location.Location;
 import android.os.Bundle;
-import android.util.Pair;
 
 import androidx.annotation.Nullable;
 import androidx.fragment.app.FragmentActivity;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProviders;
 
-import com.android.gpstest.library.model.MeasuredError;
+import com.android.gpstest.library.util.GeodesyUtils;
+import com.android.gpstest.library.util.LocationErrorHistory;
+import com.android.gpstest.library.util.SimplifiedPath;
 import com.android.gpstest.ui.BenchmarkViewModel;
 
 import java.lang.ref.WeakReference;
@@ -30,12 +32,9 @@ public class MapViewModelController {
         void addGroundTruthMarker(Location location);
 
         /**
-         * Draws a path line on the map between the two points if the distance between the two points
-         * exceeds a threshold
-         * @return true if the line was drawn, or false if the distance between the points didn't
-         * exceed the threshold and the line was not drawn
+         * Redraws the path lines on the map from {@link #getPath()} for the current map viewport
          */
-        boolean drawPathLine(Location loc1, Location loc2);
+        void updatePath();
 
         void removePathLines();
     }
@@ -46,6 +45,12 @@ public class MapViewModelController {
 
     private Location mGroundTruthLocation;
 
+    private final SimplifiedPath mPath = new SimplifiedPath();
+
+    private double mLastPathLatitude;
+
+    private double mLastPathLongitude;
+
     BenchmarkViewModel mViewModel;
 
     MapInterface mMap;
@@ -62,6 +67,7 @@ public class MapViewModelController {
         public void onChanged(@Nullable final Location newValue) {
             mGroundTruthLocation = newValue;
             mMap.addGroundTruthMarker(mGroundTruthLocation);
+            mPath.reset();
             mMap.removePathLines();
         }
     };
@@ -109,17 +115,13 @@ public class MapViewModelController {
             }
         }
         if (mMode.equals(MODE_ACCURACY) && isTestInProgress()) {
-            Location lastLocation = null;
             // Restore the path lines on the map
-            for (Pair<Location, MeasuredError> pair : mViewModel.getLocationErrorPairs()) {
-                boolean drawn = false;
-                if (lastLocation != null) {
-                    drawn = mMap.drawPathLine(lastLocation, pair.first);
-                }
-                if (lastLocation == null || drawn) {
-                    lastLocation = pair.first;
-                }
+            mPath.reset();
+            LocationErrorHistory history = mViewModel.getLocationErrorHistory();
+            for (long i = history.getFirstIndex(); i < history.getSize(); i++) {
+                addPathPoint(history.latitude(i), history.longitude(i));
             }
+            mMap.updatePath();
         }
     }
 
@@ -129,6 +131,36 @@ public class MapViewModelController {
         mViewModel.getAllowGroundTruthEdit().observe(mActivity.get(), mAllowGroundTruthEditObserver);
     }
 
+    /**
+     * Adds the location to the path drawn on the map if it's further than
+     * DRAW_LINE_THRESHOLD_METERS from the last point of the path. The map should call
+     * {@link MapInterface#updatePath()} to redraw the path afterwards.
+     * @param location the new location
+     * @return true if the location was added to the path, or false if it was too close to the last point
+     */
+    public boolean addPathLocation(Location location) {
+        return addPathPoint(location.getLatitude(), location.getLongitude());
+    }
+
+    private boolean addPathPoint(double latitude, double longitude) {
+        if (mPath.getSize() > 0 && GeodesyUtils.distance(mLastPathLatitude, mLastPathLongitude,
+                latitude, longitude) < DRAW_LINE_THRESHOLD_METERS) {
+            return false;
+        }
+        mPath.add(latitude, longitude);
+        mLastPathLatitude = latitude;
+        mLastPathLongitude = longitude;
+        return true;
+    }
+
+    /**
+     * Returns the path of locations to draw on the map, simplified for each zoom level
+     * @return the path of locations to draw on the map
+     */
+    public SimplifiedPath getPath() {
+        return mPath;
+    }
+
     public String getMode() {
         return mMode;
     }
@@ -47,6 +47,12 @@ interface BenchmarkController {
      */
     void onLocationChanged(Location location);
 
+    /**
+     * Called from the hosting Activity when a location computed from raw measurements should be
+     * added to the benchmark session
+     */
+    void onRawLocationChanged(Location location);
+
     /**
      * Show the Benchmark views
      */
@@ -21,14 +21,15 @@ import static android.view.View.INVISIBLE;
 import static android.view.View.VISIBLE;
 
 import android.animation.LayoutTransition;
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.graphics.drawable.GradientDrawable;
 import android.location.Location;
-import android.os.Build;
 import android.util.Log;
 import android.util.Pair;
 import android.util.TypedValue;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
@@ -52,6 +53,9 @@ import com.android.gpstest.library.util.IOUtils;
 import com.android.gpstest.library.util.MathUtils;
 import com.android.gpstest.library.util.PreferenceUtils;
 import com.android.gpstest.library.util.LibUIUtils;
+import com.android.gpstest.library.util.LocationErrorHistory;
+import com.android.gpstest.library.util.Lttb;
+import com.android.gpstest.library.util.TrajectoryGroundTruth;
 import com.android.gpstest.util.UIUtils;
 import com.github.mikephil.charting.charts.LineChart;
 import com.github.mikephil.charting.components.Legend;
@@ -61,12 +65,20 @@ import com.github.mikephil.charting.data.Entry;
 import com.github.mikephil.charting.data.LineData;
 import com.github.mikephil.charting.data.LineDataSet;
 import com.github.mikephil.charting.interfaces.datasets.ILineDataSet;
+import com.github.mikephil.charting.listener.ChartTouchListener;
+import com.github.mikephil.charting.listener.OnChartGestureListener;
 import com.github.mikephil.charting.utils.ColorTemplate;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.card.MaterialCardView;
 import com.google.android.material.textfield.TextInputLayout;
 import com.sothree.slidinguppanel.SlidingUpPanelLayout;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This class encapsulates logic used for the benchmarking feature that compares a user-entered
  * ground truth value against the GPS location.
@@ -85,10 +97,23 @@ public class BenchmarkControllerImpl implements BenchmarkController {
 
     private static final int ESTIMATED_ACCURACY_SET = 1;
 
+    private static final int RAW_ERROR_SET = 2;
+
     private static final float UNIT_VERT_BIAS_HOR_ERROR_ONLY = 0.582f;
 
     private static final float UNIT_VERT_BIAS_INCL_VERT_ERROR = 0.25f;
 
+    /**
+     * Maximum number of fixes visible on the x-axis of the graphs at once
+     */
+    private static final int VISIBLE_X_RANGE = 40;
+
+    /**
+     * Maximum number of entries in each graph data set for each range of the history - before,
+     * within and after the visible range. Longer ranges are downsampled.
+     */
+    private static final int MAX_POINTS_PER_RANGE = 150;
+
     MaterialCardView mGroundTruthCardView, mVerticalErrorCardView;
 
     MotionLayout mMotionLayout;
@@ -106,6 +131,12 @@ public class BenchmarkControllerImpl implements BenchmarkController {
 
     LineChart mErrorChart, mVertErrorChart;
 
+    // Reused to hold the indices of fixes selected when downsampling the history for the graphs
+    private final long[] mSampledIndices = new long[MAX_POINTS_PER_RANGE];
+
+    // Number of fixes appended to the graphs since they were last downsampled
+    private int mFixesSinceResample;
+
     int mChartTextColor;
 
     String mPrefDistanceUnits;
@@ -171,7 +202,6 @@ public class BenchmarkControllerImpl implements BenchmarkController {
             if (locationErrorPair == null || locationErrorPair.first == null || locationErrorPair.second == null) {
                 return;
             }
-            Location location = locationErrorPair.first;
             MeasuredError error = locationErrorPair.second;
             if (mErrorView != null) {
                 mErrorUnit.setVisibility(VISIBLE);
@@ -206,7 +236,28 @@ public class BenchmarkControllerImpl implements BenchmarkController {
                 mVertErrorView.setVisibility(GONE);
                 mVerticalErrorCardView.setVisibility(GONE);
             }
-            addErrorToGraphs(mViewModel.getAvgError().getValue().getCount(), error, location);
+            LocationErrorHistory history = mViewModel.getLocationErrorHistory();
+            if (history.getSize() > 0) {
+                addErrorToGraphs(history, history.getSize() - 1);
+                mFixesSinceResample++;
+                if (mFixesSinceResample >= MAX_POINTS_PER_RANGE) {
+                    // Keep the number of entries bounded by downsampling older fixes
+                    restoreGraphData();
+                }
+            }
+        }
+    };
+
+    private final Observer<Pair<Location, MeasuredError>> mRawLocationErrorPairObserver = new Observer<Pair<Location, MeasuredError>>() {
+        @Override
+        public void onChanged(@Nullable final Pair<Location, MeasuredError> locationErrorPair) {
+            if (locationErrorPair == null || locationErrorPair.first == null || locationErrorPair.second == null) {
+                return;
+            }
+            LocationErrorHistory history = mViewModel.getRawLocationErrorHistory();
+            if (history.getSize() > 0) {
+                addRawErrorToGraphs(history, history.getSize() - 1);
+            }
         }
     };
 
@@ -308,6 +359,8 @@ public class BenchmarkControllerImpl implements BenchmarkController {
                     return;
                 }
                 resetError();
+                // The user entered a static location, so stop using any route from an Intent
+                mViewModel.setGroundTruthTrajectory(null);
                 saveGroundTruth();
             } else {
                 editGroundTruth();
@@ -328,6 +381,7 @@ public class BenchmarkControllerImpl implements BenchmarkController {
         mViewModel = ViewModelProviders.of(activity).get(BenchmarkViewModel.class);
         mViewModel.getAllowGroundTruthEdit().observe(activity, mAllowGroundTruthEditObserver);
         mViewModel.getLocationErrorPair().observe(activity, mLocationErrorPairObserver);
+        mViewModel.getRawLocationErrorPair().observe(activity, mRawLocationErrorPairObserver);
         mViewModel.getAvgError().observe(activity, mAvgErrorObserver);
         if (isTestInProgress()) {
             // Test is already in progress (e.g., due to device rotation), restore model to views
@@ -337,8 +391,11 @@ public class BenchmarkControllerImpl implements BenchmarkController {
             onCardCollapsed();
         } else {
             Location groundTruth;
-            // If a SHOW_RADAR or geo: URI was passed via an Intent (e.g., from BenchMap or OsmAnd app), use that as ground truth
-            if (IOUtils.isShowRadarIntent(Application.Companion.getApp(), activity.getIntent()) || IOUtils.isGeoIntent(Application.Companion.getApp(), activity.getIntent())) {
+            android.net.Uri trajectoryUri = IOUtils.getTrajectoryUriFromIntent(Application.Companion.getApp(), activity.getIntent());
+            if (trajectoryUri != null) {
+                // A route was passed via a SHOW_RADAR Intent, so measure error against it
+                loadGroundTruthTrajectory(activity, trajectoryUri);
+            } else if (IOUtils.isShowRadarIntent(Application.Companion.getApp(), activity.getIntent()) || IOUtils.isGeoIntent(Application.Companion.getApp(), activity.getIntent())) {
                 groundTruth = IOUtils.getLocationFromIntent(Application.Companion.getApp(), activity.getIntent());
                 if (IOUtils.isGeoIntent(Application.Companion.getApp(), activity.getIntent())) {
                     groundTruth.removeAltitude(); // TODO - RFC 5870 requires altitude height above geoid, which we can't support yet (see #296 and #530), so remove altitude here
@@ -362,6 +419,49 @@ public class BenchmarkControllerImpl implements BenchmarkController {
         }
     }
 
+    /**
+     * Reads the ground truth route at the provided URI on a background thread and then starts a
+     * test that measures error against it, with the first position of the route shown as the
+     * ground truth location
+     *
+     * @param activity activity hosting the controller
+     * @param uri URI of CSV text that can be read by TrajectoryGroundTruth.fromCsv()
+     */
+    private void loadGroundTruthTrajectory(AppCompatActivity activity, android.net.Uri uri) {
+        Context context = activity.getApplicationContext();
+        new Thread(() -> {
+            TrajectoryGroundTruth trajectory = null;
+            try {
+                InputStream in = context.getContentResolver().openInputStream(uri);
+                if (in == null) {
+                    throw new IOException("No content");
+                }
+                trajectory = TrajectoryGroundTruth.fromCsv(new InputStreamReader(in));
+            } catch (IOException | SecurityException e) {
+                Log.e(TAG, "Can't read ground truth route from " + uri + ": " + e);
+            }
+            TrajectoryGroundTruth result = trajectory;
+            ContextCompat.getMainExecutor(context).execute(() -> {
+                if (activity.isDestroyed()) {
+                    return;
+                }
+                if (result == null) {
+                    Toast.makeText(activity, context.getString(R.string.show_radar_invalid_trajectory), Toast.LENGTH_LONG).show();
+                    return;
+                }
+                Toast.makeText(activity, context.getString(R.string.show_radar_valid_trajectory), Toast.LENGTH_LONG).show();
+                mViewModel.setGroundTruthTrajectory(result);
+                Location start = new Location("ground_truth");
+                start.setLatitude(result.latitude(0));
+                start.setLongitude(result.longitude(0));
+                if (!Double.isNaN(result.altitude(0))) {
+                    start.setAltitude(result.altitude(0));
+                }
+                restoreGroundTruth(start);
+            });
+        }, "GroundTruthRouteLoader").start();
+    }
+
     /**
      * Initializes a test with a pre-existing ground truth location (e.g., from an Intent or preferences)
      *
@@ -481,6 +581,8 @@ public class BenchmarkControllerImpl implements BenchmarkController {
 
         YAxis rightAxis = errorChart.getAxisRight();
         rightAxis.setEnabled(false);
+
+        errorChart.setOnChartGestureListener(new ResampleGestureListener(errorChart));
     }
 
     private void initChartUnits(LineChart errorChart) {
@@ -509,18 +611,127 @@ public class BenchmarkControllerImpl implements BenchmarkController {
 
         mErrorChart.clearValues();
         mVertErrorChart.clearValues();
+        mFixesSinceResample = 0;
     }
 
     /**
      * Load data from the view model into the graphs, for example after rotation
      */
     private void restoreGraphData() {
-        mErrorChart.clearValues();
-        mVertErrorChart.clearValues();
-        int i = 1;
-        for (Pair<Location, MeasuredError> pair : mViewModel.getLocationErrorPairs()) {
-            addErrorToGraphs(i, pair.second, pair.first);
-            i++;
+        LocationErrorHistory history = mViewModel.getLocationErrorHistory();
+        long end = history.getSize();
+        long start = Math.max(history.getFirstIndex(), end - VISIBLE_X_RANGE);
+        resampleGraph(mErrorChart, false, start, end);
+        resampleGraph(mVertErrorChart, true, start, end);
+        refreshGraph(mErrorChart);
+        refreshGraph(mVertErrorChart);
+        mFixesSinceResample = 0;
+    }
+
+    /**
+     * Replaces the entries of the graph with a downsampled copy of the history that keeps at most
+     * MAX_POINTS_PER_RANGE entries before, within, and after the visible range of fixes
+     * @param chart graph to update
+     * @param vertical true if the graph shows vertical error, false for horizontal error
+     * @param visibleStart index of the first visible fix
+     * @param visibleEnd index after the last visible fix
+     */
+    private void resampleGraph(LineChart chart, boolean vertical, long visibleStart, long visibleEnd) {
+        LineData data = chart.getData();
+        if (data == null) {
+            return;
+        }
+        LocationErrorHistory history = mViewModel.getLocationErrorHistory();
+        Lttb.Series errorSeries;
+        Lttb.Series accuracySeries;
+        if (vertical) {
+            errorSeries = i -> toDistanceUnits(Math.abs(history.vertError(i)));
+            // Only show vertical accuracy for fixes with vertical error
+            accuracySeries = i -> Double.isNaN(history.vertError(i)) ? Double.NaN : toDistanceUnits(history.vertAccuracy(i));
+        } else {
+            errorSeries = i -> toDistanceUnits(history.error(i));
+            accuracySeries = i -> toDistanceUnits(history.horAccuracy(i));
+        }
+        setGraphEntries(data, ERROR_SET, sampleGraphEntries(errorSeries, history, visibleStart, visibleEnd, false));
+        setGraphEntries(data, ESTIMATED_ACCURACY_SET, sampleGraphEntries(accuracySeries, history, visibleStart, visibleEnd, false));
+
+        // Locations from raw measurements have their own history, with about one per fix, and are
+        // placed at the index of the Android fix with the same time
+        LocationErrorHistory rawHistory = mViewModel.getRawLocationErrorHistory();
+        if (rawHistory.getSize() > 0) {
+            Lttb.Series rawErrorSeries;
+            if (vertical) {
+                rawErrorSeries = i -> toDistanceUnits(Math.abs(rawHistory.vertError(i)));
+            } else {
+                rawErrorSeries = i -> toDistanceUnits(rawHistory.error(i));
+            }
+            // Raw locations between the times of the first visible fix and the fix after the last
+            // visible one are within the visible range
+            long rawStart = visibleStart < history.getSize()
+                    ? rawHistory.firstIndexAtOrAfter(history.timeMillis(visibleStart))
+                    : rawHistory.getSize();
+            long rawEnd = visibleEnd < history.getSize()
+                    ? rawHistory.firstIndexAtOrAfter(history.timeMillis(visibleEnd))
+                    : rawHistory.getSize();
+            ((LineDataSet) getOrCreateDataSet(data, RAW_ERROR_SET)).setValues(
+                    sampleGraphEntries(rawErrorSeries, rawHistory, rawStart, rawEnd, true));
+        }
+    }
+
+    /**
+     * Returns the x-axis value of the location at the provided index of the raw history, which is
+     * the index of the Android fix at the same time (interpolated between fixes), or NaN if it's
+     * before the first Android fix
+     * @param rawHistory history of errors of locations computed from raw measurements
+     * @param index index of the location in the raw history
+     */
+    private float rawErrorX(LocationErrorHistory rawHistory, long index) {
+        double fixIndex = mViewModel.getLocationErrorHistory().indexAt(rawHistory.timeMillis(index));
+        // x-axis index starts at 1
+        return (float) (fixIndex + 1);
+    }
+
+    private List<Entry> sampleGraphEntries(Lttb.Series series, LocationErrorHistory history, long visibleStart, long visibleEnd, boolean isRaw) {
+        List<Entry> entries = new ArrayList<>();
+        addSampledEntries(entries, series, history, history.getFirstIndex(), visibleStart, isRaw);
+        addSampledEntries(entries, series, history, visibleStart, visibleEnd, isRaw);
+        addSampledEntries(entries, series, history, visibleEnd, history.getSize(), isRaw);
+        return entries;
+    }
+
+    private void addSampledEntries(List<Entry> entries, Lttb.Series series, LocationErrorHistory history, long start, long end, boolean isRaw) {
+        if (start >= end) {
+            return;
+        }
+        int count = Lttb.downsample(series, start, end, MAX_POINTS_PER_RANGE, mSampledIndices);
+        for (int i = 0; i < count; i++) {
+            long index = mSampledIndices[i];
+            // x-axis index starts at 1
+            float x = isRaw ? rawErrorX(history, index) : index + 1;
+            if (!Float.isNaN(x)) {
+                entries.add(new Entry(x, (float) series.y(index)));
+            }
+        }
+    }
+
+    private void setGraphEntries(LineData data, int setType, List<Entry> entries) {
+        ILineDataSet set = data.getDataSetByIndex(setType);
+        if (set == null) {
+            if (entries.isEmpty()) {
+                return;
+            }
+            set = createGraphDataSet(setType);
+            data.addDataSet(set);
+        }
+        ((LineDataSet) set).setValues(entries);
+    }
+
+    private double toDistanceUnits(double meters) {
+        if (METERS.equalsIgnoreCase(mPrefDistanceUnits)) {
+            return meters;
+        } else {
+            // Feet
+            return LibUIUtils.toFeet(meters);
         }
     }
 
@@ -582,44 +793,44 @@ public class BenchmarkControllerImpl implements BenchmarkController {
         mViewModel.addLocation(location);
     }
 
+    @Override
+    public void onRawLocationChanged(Location location) {
+        mViewModel.addRawLocation(location);
+    }
+
     /**
-     * Add the provided error and estimated accuracy info (from Location) to the graph with the given x-axis index
-     * @param index x-axis index
-     * @param error
-     * @param location
+     * Add the error and estimated accuracy at the provided index of the history to the graphs
+     * @param history history of errors from the current test
+     * @param index index of the fix in the history
      */
-    private void addErrorToGraphs(int index, MeasuredError error, Location location) {
+    private void addErrorToGraphs(LocationErrorHistory history, long index) {
+        // x-axis index starts at 1
+        int x = (int) (index + 1);
         float horError;
         float horAccuracy;
         if (METERS.equalsIgnoreCase(mPrefDistanceUnits)) {
-            horError = error.getError();
-            horAccuracy = location.getAccuracy();
+            horError = history.error(index);
+            horAccuracy = history.horAccuracy(index);
         } else {
             // Feet
-            horError = (float) LibUIUtils.toFeet(error.getError());
-            horAccuracy = (float) LibUIUtils.toFeet(location.getAccuracy());
+            horError = (float) LibUIUtils.toFeet(history.error(index));
+            horAccuracy = (float) LibUIUtils.toFeet(history.horAccuracy(index));
         }
-        addErrorToGraph(index, mErrorChart, horError, horAccuracy);
+        addErrorToGraph(x, mErrorChart, horError, horAccuracy);
 
-        if (!Double.isNaN(error.getVertError())) {
-            double vertError;
-            float vertAccuracy = Float.NaN;
+        double vertError = history.vertError(index);
+        if (!Double.isNaN(vertError)) {
+            float vertAccuracy;
             if (METERS.equalsIgnoreCase(mPrefDistanceUnits)) {
-                vertError = Math.abs(error.getVertError());
+                vertError = Math.abs(vertError);
+                vertAccuracy = history.vertAccuracy(index);
             } else {
                 // Feet
-                vertError = LibUIUtils.toFeet(Math.abs(error.getVertError()));
-            }
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                if (METERS.equalsIgnoreCase(mPrefDistanceUnits)) {
-                    vertAccuracy = location.getVerticalAccuracyMeters();
-                } else {
-                    // Feet
-                    vertAccuracy = (float) LibUIUtils.toFeet(location.getVerticalAccuracyMeters());
-                }
+                vertError = LibUIUtils.toFeet(Math.abs(vertError));
+                vertAccuracy = (float) LibUIUtils.toFeet(history.vertAccuracy(index));
             }
 
-            addErrorToGraph(index, mVertErrorChart, vertError, vertAccuracy);
+            addErrorToGraph(x, mVertErrorChart, vertError, vertAccuracy);
         }
     }
 
@@ -644,33 +855,88 @@ public class BenchmarkControllerImpl implements BenchmarkController {
             if (!Float.isNaN(estimatedAccuracy)) {
                 data.addEntry(new Entry(index, estimatedAccuracy), ESTIMATED_ACCURACY_SET);
             }
-            data.notifyDataChanged();
+            refreshGraph(chart);
+        }
+    }
 
-            // let the chart know it's data has changed
-            chart.notifyDataSetChanged();
+    /**
+     * Add the error of the location computed from raw measurements at the provided index of the
+     * raw history to the graphs
+     * @param history history of errors of locations computed from raw measurements
+     * @param index index of the location in the history
+     */
+    private void addRawErrorToGraphs(LocationErrorHistory history, long index) {
+        float x = rawErrorX(history, index);
+        if (Float.isNaN(x)) {
+            return;
+        }
+        addRawErrorToGraph(x, mErrorChart, toDistanceUnits(history.error(index)));
+        double vertError = history.vertError(index);
+        if (!Double.isNaN(vertError)) {
+            addRawErrorToGraph(x, mVertErrorChart, toDistanceUnits(Math.abs(vertError)));
+        }
+    }
 
-            // limit the number of visible entries
-            chart.setVisibleXRangeMaximum(40);
-            // chart.setVisibleYRange(30, AxisDependency.LEFT);
+    private void addRawErrorToGraph(float x, LineChart chart, double error) {
+        LineData data = chart.getData();
+        if (data != null) {
+            getOrCreateDataSet(data, RAW_ERROR_SET);
+            data.addEntry(new Entry(x, (float) error), RAW_ERROR_SET);
+            refreshGraph(chart);
+        }
+    }
 
-            // move to the latest entry
-            chart.moveViewToX(data.getEntryCount());
+    /**
+     * Returns the data set for setType, creating it (and the data sets before it, so the index of
+     * each data set matches its type) if needed
+     */
+    private ILineDataSet getOrCreateDataSet(LineData data, int setType) {
+        while (data.getDataSetCount() <= setType) {
+            data.addDataSet(createGraphDataSet(data.getDataSetCount()));
+        }
+        return data.getDataSetByIndex(setType);
+    }
 
-            // this automatically refreshes the chart (calls invalidate())
-            // chart.moveViewTo(data.getXValCount()-7, 55f,
-            // AxisDependency.LEFT);
+    /**
+     * Tells the chart its data has changed and moves the chart to the latest entry
+     * @param chart chart to refresh
+     */
+    private void refreshGraph(LineChart chart) {
+        LineData data = chart.getData();
+        if (data == null) {
+            return;
         }
+        data.notifyDataChanged();
+
+        // let the chart know it's data has changed
+        chart.notifyDataSetChanged();
+
+        // limit the number of visible entries
+        chart.setVisibleXRangeMaximum(VISIBLE_X_RANGE);
+        // chart.setVisibleYRange(30, AxisDependency.LEFT);
+
+        // move to the latest entry (entry counts include every data set and downsampled entries
+        // are spaced out, so use the largest x value instead)
+        chart.moveViewToX(data.getXMax());
+
+        // this automatically refreshes the chart (calls invalidate())
+        // chart.moveViewTo(data.getXValCount()-7, 55f,
+        // AxisDependency.LEFT);
     }
 
     /**
-     * Creates a graph dataset, for error if set is ERROR_SET, or for estimated accuracy if ESTIMATED_ACCURACY_SET
-     * @param setType creates a data set for error if set is ERROR_SET, and for estimated accuracy if ESTIMATED_ACCURACY_SET
+     * Creates a graph dataset, for error if set is ERROR_SET, for estimated accuracy if
+     * ESTIMATED_ACCURACY_SET, or for the error of locations from raw measurements if RAW_ERROR_SET
+     * @param setType creates a data set for error if set is ERROR_SET, for estimated accuracy if
+     *                ESTIMATED_ACCURACY_SET, and for raw measurement error if RAW_ERROR_SET
      * @return a graph dataset
      */
     private LineDataSet createGraphDataSet(int setType) {
         String label;
         if (setType == ERROR_SET) {
             label = Application.Companion.getApp().getResources().getString(R.string.measured_error_graph_label);
+        } else if (setType == RAW_ERROR_SET) {
+            label = Application.Companion.getApp().getResources().getString(R.string.raw_measured_error_graph_label);
         } else {
             label = Application.Companion.getApp().getResources().getString(R.string.estimated_accuracy_graph_label);
         }
@@ -679,6 +945,8 @@ public class BenchmarkControllerImpl implements BenchmarkController {
         set.setAxisDependency(YAxis.AxisDependency.LEFT);
         if (setType == ERROR_SET) {
             set.setColor(Color.RED);
+        } else if (setType == RAW_ERROR_SET) {
+            set.setColor(Color.rgb(255, 152, 0));
         } else {
             set.setColor(ColorTemplate.getHoloBlue());
         }
@@ -805,4 +1073,66 @@ public class BenchmarkControllerImpl implements BenchmarkController {
         shape.setColor(Application.Companion.getApp().getResources().getColor(R.color.colorPrimary));
         mSlidingPanelHeader.setBackground(shape);
     }
+
+    /**
+     * Downsamples the history again for the new visible range after the user pans or zooms a graph,
+     * so the visible fixes are shown at full resolution
+     */
+    private class ResampleGestureListener implements OnChartGestureListener {
+
+        private final LineChart mChart;
+
+        ResampleGestureListener(LineChart chart) {
+            mChart = chart;
+        }
+
+        @Override
+        public void onChartGestureEnd(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+            if (lastPerformedGesture != ChartTouchListener.ChartGesture.DRAG
+                    && lastPerformedGesture != ChartTouchListener.ChartGesture.X_ZOOM
+                    && lastPerformedGesture != ChartTouchListener.ChartGesture.PINCH_ZOOM
+                    && lastPerformedGesture != ChartTouchListener.ChartGesture.FLING) {
+                return;
+            }
+            LocationErrorHistory history = mViewModel.getLocationErrorHistory();
+            // x-axis index starts at 1
+            long start = Math.max(history.getFirstIndex(), (long) Math.floor(mChart.getLowestVisibleX()) - 1);
+            long end = Math.min(history.getSize(), (long) Math.ceil(mChart.getHighestVisibleX()));
+            resampleGraph(mChart, mChart == mVertErrorChart, start, end);
+            LineData data = mChart.getData();
+            if (data != null) {
+                data.notifyDataChanged();
+                mChart.notifyDataSetChanged();
+                mChart.invalidate();
+            }
+        }
+
+        @Override
+        public void onChartGestureStart(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+        }
+
+        @Override
+        public void onChartLongPressed(MotionEvent me) {
+        }
+
+        @Override
+        public void onChartDoubleTapped(MotionEvent me) {
+        }
+
+        @Override
+        public void onChartSingleTapped(MotionEvent me) {
+        }
+
+        @Override
+        public void onChartFling(MotionEvent me1, MotionEvent me2, float velocityX, float velocityY) {
+        }
+
+        @Override
+        public void onChartScale(MotionEvent me, float scaleX, float scaleY) {
+        }
+
+        @Override
+        public void onChartTranslate(MotionEvent me, float dX, float dY) {
+        }
+    }
 }
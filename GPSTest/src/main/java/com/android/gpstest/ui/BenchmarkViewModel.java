@@ -27,17 +27,24 @@ import androidx.lifecycle.MutableLiveData;
 import com.android.gpstest.library.model.AvgError;
 import com.android.gpstest.library.model.MeasuredError;
 import com.android.gpstest.library.util.BenchmarkUtils;
+import com.android.gpstest.library.util.LocationErrorHistory;
+import com.android.gpstest.library.util.TrajectoryGroundTruth;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
 
 /**
  * View model that holds GNSS benchmarking (ground truth and error measurement) information
  */
 public class BenchmarkViewModel extends AndroidViewModel {
 
+    private static final String HISTORY_FILE = "benchmark_history.bin";
+
+    private static final String RAW_HISTORY_FILE = "benchmark_raw_history.bin";
+
     private MutableLiveData<Location> mGroundTruthLocation = new MutableLiveData<>();
 
+    private TrajectoryGroundTruth mGroundTruthTrajectory;
+
     private MutableLiveData<AvgError> mAvgError = new MutableLiveData<>();
 
     private MutableLiveData<Boolean> mAllowGroundTruthEdit = new MutableLiveData<>(true);
@@ -46,10 +53,19 @@ public class BenchmarkViewModel extends AndroidViewModel {
 
     private MutableLiveData<Pair<Location, MeasuredError>> mLocationErrorPair = new MutableLiveData<>();
 
-    private List<Pair<Location, MeasuredError>> mLocationErrorPairs = new ArrayList<>();
+    private final LocationErrorHistory mLocationErrorHistory;
+
+    private MutableLiveData<AvgError> mRawAvgError = new MutableLiveData<>();
+
+    private MutableLiveData<Pair<Location, MeasuredError>> mRawLocationErrorPair = new MutableLiveData<>();
+
+    private final LocationErrorHistory mRawLocationErrorHistory;
 
     public BenchmarkViewModel(@NonNull Application application) {
         super(application);
+        // Older fixes from long tests are spilled to a memory-mapped file in the cache
+        mLocationErrorHistory = new LocationErrorHistory(new File(application.getCacheDir(), HISTORY_FILE));
+        mRawLocationErrorHistory = new LocationErrorHistory(new File(application.getCacheDir(), RAW_HISTORY_FILE));
     }
 
     public void setGroundTruthLocation(Location groundTruthLocation) {
@@ -60,6 +76,19 @@ public class BenchmarkViewModel extends AndroidViewModel {
         return mGroundTruthLocation;
     }
 
+    /**
+     * Sets a route to measure error against instead of the static ground truth location, or null
+     * to use the static ground truth location again
+     * @param trajectory timestamped reference positions for a moving test, or null
+     */
+    public void setGroundTruthTrajectory(TrajectoryGroundTruth trajectory) {
+        mGroundTruthTrajectory = trajectory;
+    }
+
+    public TrajectoryGroundTruth getGroundTruthTrajectory() {
+        return mGroundTruthTrajectory;
+    }
+
     public void setAllowGroundTruthEdit(boolean allowGroundTruthEdit) {
         mAllowGroundTruthEdit.setValue(allowGroundTruthEdit);
     }
@@ -85,11 +114,32 @@ public class BenchmarkViewModel extends AndroidViewModel {
     }
 
     /**
-     * Get history of all location and error pairs from the most recent test
-     * @return history of all location and error pairs from the most recent test
+     * Get history of all locations and errors from the most recent test
+     * @return history of all locations and errors from the most recent test
+     */
+    public LocationErrorHistory getLocationErrorHistory() {
+        return mLocationErrorHistory;
+    }
+
+    /**
+     * Get the average error of locations computed from raw measurements
+     * @return the average error of locations computed from raw measurements
      */
-    public List<Pair<Location, MeasuredError>> getLocationErrorPairs() {
-        return mLocationErrorPairs;
+    public LiveData<AvgError> getRawAvgError() {
+        return mRawAvgError;
+    }
+
+    public LiveData<Pair<Location, MeasuredError>> getRawLocationErrorPair() {
+        return mRawLocationErrorPair;
+    }
+
+    /**
+     * Get history of all locations computed from raw measurements and their errors from the most
+     * recent test
+     * @return history of all locations computed from raw measurements and their errors
+     */
+    public LocationErrorHistory getRawLocationErrorHistory() {
+        return mRawLocationErrorHistory;
     }
 
     /**
@@ -97,26 +147,45 @@ public class BenchmarkViewModel extends AndroidViewModel {
      * @param location
      */
     public void addLocation(Location location) {
-        if (mGroundTruthLocation.getValue() == null || !mBenchmarkCardCollapsed) {
+        addLocation(location, mAvgError, mLocationErrorHistory, mLocationErrorPair);
+    }
+
+    /**
+     * Adds a location computed from raw measurements (by RawLocationCalculator) to the view model and
+     * calculates its errors as a second series, so it can be compared with the Android location
+     * @param location location computed from raw measurements
+     */
+    public void addRawLocation(Location location) {
+        addLocation(location, mRawAvgError, mRawLocationErrorHistory, mRawLocationErrorPair);
+    }
+
+    private void addLocation(Location location, MutableLiveData<AvgError> avgErrorData,
+                             LocationErrorHistory history,
+                             MutableLiveData<Pair<Location, MeasuredError>> locationErrorPair) {
+        if ((mGroundTruthTrajectory == null && mGroundTruthLocation.getValue() == null) || !mBenchmarkCardCollapsed) {
             // If we don't have a ground truth location yet, or if the user is editing the location,
             // don't update the errors
             return;
         }
         // Calculate and update error
-        MeasuredError error = BenchmarkUtils.Companion.measureError(location, mGroundTruthLocation.getValue());
+        MeasuredError error;
+        if (mGroundTruthTrajectory != null) {
+            error = mGroundTruthTrajectory.measureError(location);
+        } else {
+            error = BenchmarkUtils.Companion.measureError(location, mGroundTruthLocation.getValue());
+        }
 
         // Update avg error
-        AvgError avgError = mAvgError.getValue();
+        AvgError avgError = avgErrorData.getValue();
         if (avgError == null) {
             avgError = new AvgError();
         }
         avgError.addMeasurement(error);
-        mAvgError.setValue(avgError);
+        avgErrorData.setValue(avgError);
 
-        // Set location and error pairs
-        Pair<Location, MeasuredError> pair = new Pair<>(location, error);
-        mLocationErrorPair.setValue(pair);
-        mLocationErrorPairs.add(pair);
+        // Add to history before setting the pair, so observers can read it from the history
+        history.add(location, error);
+        locationErrorPair.setValue(new Pair<>(location, error));
     }
 
     public void reset() {
@@ -127,9 +196,17 @@ public class BenchmarkViewModel extends AndroidViewModel {
             mAvgError.setValue(avgError);
         }
 
-        // Reset location and error pair and pair list
+        AvgError rawAvgError = mRawAvgError.getValue();
+        if (rawAvgError != null) {
+            rawAvgError.reset();
+            mRawAvgError.setValue(rawAvgError);
+        }
+
+        // Reset location and error pair and history
         mLocationErrorPair.setValue(null);
-        mLocationErrorPairs = new ArrayList<>();
+        mLocationErrorHistory.reset();
+        mRawLocationErrorPair.setValue(null);
+        mRawLocationErrorHistory.reset();
     }
 
     /**
@@ -77,10 +77,14 @@ import com.google.zxing.integration.android.IntentIntegrator
 import dagger.hilt.android.AndroidEntryPoint
 import javax.inject.Inject
 import kotlin.system.exitProcess
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.launch
 
@@ -145,8 +149,13 @@ class MainActivity : AppCompatActivity(), NavigationDrawerCallbacks {
     @Inject
     lateinit var repository: LocationRepository
 
+    // Satellite positions for locations computed from raw measurements
+    @Inject
+    lateinit var satellitePropagator: SatellitePropagator
+
     // Get a reference to the Job from the Flow so we can stop it from UI events
     private var locationFlow: Job? = null
+    private var rawLocationFlow: Job? = null
 
     // Preference listener that will cancel the above flows when the user turns off tracking via service notification
     private val stopTrackingListener: SharedPreferences.OnSharedPreferenceChangeListener =
@@ -363,6 +372,8 @@ class MainActivity : AppCompatActivity(), NavigationDrawerCallbacks {
     }
 
     private fun init() {
+        // Permissions are granted, so let sensor updates that started without them finish setup
+        repository.onLocationPermissionGranted()
         val locationManager = getSystemService(LOCATION_SERVICE) as LocationManager
         val provider = locationManager.getProvider(LocationManager.GPS_PROVIDER)
         if (provider == null) {
@@ -731,6 +742,7 @@ class MainActivity : AppCompatActivity(), NavigationDrawerCallbacks {
 
         // Observe flows
         observeLocationFlow()
+        observeRawLocationFlow()
         observeGnssStates()
 
         // Show Toast only if the user has set minTime or minDistance to something other than default values
@@ -776,6 +788,26 @@ class MainActivity : AppCompatActivity(), NavigationDrawerCallbacks {
             .launchIn(lifecycleScope)
     }
 
+    @ExperimentalCoroutinesApi
+    private fun observeRawLocationFlow() {
+        if (rawLocationFlow?.isActive == true) {
+            // If we're already observing updates, don't register again
+            return
+        }
+        // Compute locations from raw measurements off the main thread, to compare with the
+        // Android locations in the Accuracy screen
+        val calculator = RawLocationCalculator(satellitePropagator)
+        rawLocationFlow = repository.getMeasurements()
+            .map { calculator.update(it) }
+            .flowOn(Dispatchers.Default)
+            .filterNotNull()
+            .flowWithLifecycle(lifecycle, Lifecycle.State.STARTED)
+            .onEach {
+                benchmarkController?.onRawLocationChanged(it)
+            }
+            .launchIn(lifecycleScope)
+    }
+
     @OptIn(ExperimentalCoroutinesApi::class)
     private fun observeGnssStates() {
         // Use ViewModel here to ensure that it's populated for fragments as well -
@@ -795,6 +827,7 @@ class MainActivity : AppCompatActivity(), NavigationDrawerCallbacks {
     private fun gpsStop() {
         PreferenceUtils.saveTrackingStarted(false, prefs)
         locationFlow?.cancel()
+        rawLocationFlow?.cancel()
 
         // Reset the options menu to trigger updates to action bar menu items
         invalidateOptionsMenu()
@@ -871,7 +904,7 @@ class MainActivity : AppCompatActivity(), NavigationDrawerCallbacks {
                 return true
             }
             R.id.filter_sats -> {
-                UIUtils.showFilterDialog(this)
+                UIUtils.showFilterDialog(this, signalInfoViewModel.displayConfig)
             }
         }
         return super.onOptionsItemSelected(item)
@@ -29,6 +29,7 @@ import android.view.animation.Animation
 import android.view.animation.Transformation
 import android.widget.ImageView
 import android.widget.RelativeLayout
+import android.widget.TextView
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.livedata.observeAsState
 import androidx.compose.ui.platform.ViewCompositionStrategy.DisposeOnViewTreeLifecycleDestroyed
@@ -49,6 +50,7 @@ import com.android.gpstest.library.data.LocationRepository
 import com.android.gpstest.databinding.GpsSkyBinding
 import com.android.gpstest.databinding.GpsSkyLegendCardBinding
 import com.android.gpstest.databinding.GpsSkySignalMeterBinding
+import com.android.gpstest.library.model.Cn0Averages
 import com.android.gpstest.library.model.SatelliteMetadata
 import com.android.gpstest.library.model.SatelliteStatus
 import com.android.gpstest.library.ui.SignalInfoViewModel
@@ -59,13 +61,15 @@ import com.android.gpstest.library.util.PreferenceUtil
 import com.android.gpstest.library.util.PreferenceUtil.darkTheme
 import com.android.gpstest.library.util.PreferenceUtils
 import com.android.gpstest.library.util.PreferenceUtils.clearGnssFilter
-import com.android.gpstest.library.util.PreferenceUtils.gnssFilter
 import com.android.gpstest.library.util.LibUIUtils
+import com.android.gpstest.library.util.OrientationFramePacer.Companion.pacedToFrames
 import dagger.hilt.android.AndroidEntryPoint
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.onEach
+import java.math.RoundingMode
+import java.text.DecimalFormat
 import javax.inject.Inject
 import kotlin.math.abs
 
@@ -92,6 +96,25 @@ class SkyFragment : Fragment() {
     private var usedCn0Background = R.drawable.cn0_round_corner_background_used
     private var usedCn0IndicatorColor = Color.BLACK
 
+    // Cached C/N0 meter backgrounds - only their colors change with each update
+    private var inViewCn0Fill: GradientDrawable? = null
+    private var inViewCn0Border: GradientDrawable? = null
+    private var usedCn0Fill: GradientDrawable? = null
+    private var usedCn0BackgroundRes = 0
+
+    // C/N0 meter pixel metrics, computed when the view is created
+    private var minIndicatorMarginPx = 0
+    private var maxIndicatorMarginPx = 0
+    private var minTextViewMarginPx = 0
+    private var maxTextViewMarginPx = 0
+    private var textViewNonOverlapOffsetPx = 0
+    private var textViewPaddingSidesPx = 0
+    private var textViewPaddingTopBottomPx = 0
+
+    private val cn0Format = DecimalFormat("0.0").apply { roundingMode = RoundingMode.HALF_UP }
+
+    private val cn0AveragesObserver = Observer<Cn0Averages> { updateCn0Avgs(it) }
+
     // Repository of location data that the service will observe, injected via Hilt
     @Inject
     lateinit var repository: LocationRepository
@@ -113,7 +136,10 @@ class SkyFragment : Fragment() {
         val v = binding!!.root
         meter = binding!!.skyCn0IndicatorCard.gpsSkySignalMeter
         legend = binding!!.skyLegendCard
-        
+        binding!!.skyView.setTracks(viewModel.skyTracks, viewModel.displayConfig)
+        initCn0Meter()
+        updateCn0AvgMeterText()
+
         initFilterView(viewModel)
 
         initLegendViews()
@@ -141,6 +167,7 @@ class SkyFragment : Fragment() {
             usedCn0Background = R.drawable.cn0_round_corner_background_used
             usedCn0IndicatorColor = Color.BLACK
         }
+        initUsedCn0Background()
         for (v in legendLines) {
             v.setBackgroundColor(color)
         }
@@ -152,6 +179,9 @@ class SkyFragment : Fragment() {
     override fun onDestroyView() {
         super.onDestroyView()
         _binding = null
+        inViewCn0Fill = null
+        inViewCn0Border = null
+        usedCn0Fill = null
     }
 
     @ExperimentalCoroutinesApi
@@ -176,6 +206,10 @@ class SkyFragment : Fragment() {
         viewModel.filteredStatuses.observe(
             viewLifecycleOwner, gnssStatusObserver
         )
+        viewModel.cn0Averages.observe(viewLifecycleOwner, cn0AveragesObserver)
+        viewModel.skyPrediction.observe(viewLifecycleOwner) { prediction ->
+            binding?.skyView?.setPrediction(prediction)
+        }
     }
 
     private fun observeGnssStates() {
@@ -198,6 +232,8 @@ class SkyFragment : Fragment() {
         }
         // Observe locations via Flow as they are generated by the repository
         sensorFlow = repository.getSensorUpdates()
+            // Coalesce sensor updates to one per display frame
+            .pacedToFrames({ (binding?.skyView?.width ?: 0) / 2f })
             .flowWithLifecycle(lifecycle, Lifecycle.State.STARTED)
             .onEach {
                 //Log.d(TAG, "Sky sensor: orientation ${it[0]}, tilt ${it[1]}")
@@ -216,8 +252,6 @@ class SkyFragment : Fragment() {
 
     private fun updateGnssStatus(statuses: List<SatelliteStatus>) {
         binding?.skyView?.setStatus(statuses)
-        updateCn0AvgMeterText()
-        updateCn0Avgs()
     }
 
     @ExperimentalCoroutinesApi
@@ -260,8 +294,8 @@ class SkyFragment : Fragment() {
                         SatelliteMetadata()
                     )
                     // Order of arguments seems to matter in below IF statement - it doesn't seem
-                    // to recompose if gnssFilter().isNotEmpty() is first
-                    if (allStatuses.isNotEmpty() && gnssFilter(app, prefs).isNotEmpty()) {
+                    // to recompose if isFilterActive() is first
+                    if (allStatuses.isNotEmpty() && viewModel.displayConfig.isFilterActive()) {
                         Filter(allStatuses.size, satelliteMetadata) { clearGnssFilter(app, prefs) }
                     }
                 }
@@ -349,83 +383,103 @@ class SkyFragment : Fragment() {
         }
     }
 
-    private fun updateCn0Avgs() {
-        if (binding == null) {
-            return
-        }
+    /**
+     * Computes the pixel metrics of the C/N0 meter and sets up its cached backgrounds. Called once
+     * when the view is created so updates only need to change margins and colors.
+     */
+    private fun initCn0Meter() {
+        val res = Application.app.resources
         // Based on the avg C/N0 for "in view" and "used" satellites the left margins need to be adjusted accordingly
-        val meterWidthPx = (Application.app.resources.getDimension(R.dimen.cn0_meter_width)
-            .toInt()
+        val meterWidthPx = (res.getDimension(R.dimen.cn0_meter_width).toInt()
                 - LibUIUtils.dpToPixels(Application.app, 7.0f)) // Reduce width for padding
-        val minIndicatorMarginPx = Application.app.resources
-            .getDimension(R.dimen.cn0_indicator_min_left_margin).toInt()
-        val maxIndicatorMarginPx = meterWidthPx + minIndicatorMarginPx
-        val minTextViewMarginPx = Application.app.resources
-            .getDimension(R.dimen.cn0_textview_min_left_margin).toInt()
-        val maxTextViewMarginPx = meterWidthPx + minTextViewMarginPx
+        minIndicatorMarginPx = res.getDimension(R.dimen.cn0_indicator_min_left_margin).toInt()
+        maxIndicatorMarginPx = meterWidthPx + minIndicatorMarginPx
+        minTextViewMarginPx = res.getDimension(R.dimen.cn0_textview_min_left_margin).toInt()
+        maxTextViewMarginPx = meterWidthPx + minTextViewMarginPx
+        textViewNonOverlapOffsetPx = LibUIUtils.dpToPixels(Application.app, TEXTVIEW_NON_OVERLAP_OFFSET_DP)
+        textViewPaddingSidesPx = LibUIUtils.dpToPixels(Application.app, 7f)
+        textViewPaddingTopBottomPx = LibUIUtils.dpToPixels(Application.app, 4f)
+
+        // Mutate so changing colors doesn't affect other users of the drawable
+        val background = ContextCompat.getDrawable(
+            Application.app,
+            R.drawable.cn0_round_corner_background_in_view
+        )!!.mutate() as LayerDrawable
+        inViewCn0Fill =
+            background.findDrawableByLayerId(R.id.cn0_avg_in_view_fill) as GradientDrawable
+        inViewCn0Border =
+            background.findDrawableByLayerId(R.id.cn0_avg_in_view_border) as GradientDrawable
+        setCn0TextBackground(meter.cn0TextInView.cn0TextInView, background)
+    }
 
-        // When both "in view" and "used" indicators and TextViews are shown, slide the "in view" TextView by this amount to the left to avoid overlap
-        val TEXTVIEW_NON_OVERLAP_OFFSET_DP = -16.0f
+    /**
+     * Sets the cached background for the "used" C/N0 TextView, which depends on the theme
+     */
+    private fun initUsedCn0Background() {
+        if (usedCn0BackgroundRes == usedCn0Background && usedCn0Fill != null) {
+            return
+        }
+        val background = ContextCompat.getDrawable(Application.app, usedCn0Background)!!
+            .mutate() as LayerDrawable
+        usedCn0Fill = background.findDrawableByLayerId(R.id.cn0_avg_used_fill) as GradientDrawable
+        usedCn0BackgroundRes = usedCn0Background
+        setCn0TextBackground(meter.cn0TextUsed.cn0TextUsed, background)
+        meter.cn0IndicatorUsed.setColorFilter(usedCn0IndicatorColor)
+    }
+
+    private fun setCn0TextBackground(textView: TextView, background: LayerDrawable) {
+        textView.background = background
+        // Setting the background resets padding
+        textView.setPadding(
+            textViewPaddingSidesPx,
+            textViewPaddingTopBottomPx,
+            textViewPaddingSidesPx,
+            textViewPaddingTopBottomPx
+        )
+    }
+
+    private fun updateCn0Avgs(averages: Cn0Averages) {
+        if (binding == null) {
+            return
+        }
+        val cn0InViewAvg = averages.inViewAvg
+        val cn0UsedAvg = averages.usedAvg
 
         // Calculate normal offsets for avg in view satellite C/N0 value TextViews
         var leftInViewTextViewMarginPx: Int? = null
-        if (MathUtils.isValidFloat(binding!!.skyView.cn0InViewAvg)) {
+        if (MathUtils.isValidFloat(cn0InViewAvg)) {
             leftInViewTextViewMarginPx = LibUIUtils.cn0ToTextViewLeftMarginPx(
-                binding!!.skyView.cn0InViewAvg,
+                cn0InViewAvg,
                 minTextViewMarginPx, maxTextViewMarginPx
             )
         }
 
         // Calculate normal offsets for avg used satellite C/N0 value TextViews
         var leftUsedTextViewMarginPx: Int? = null
-        if (MathUtils.isValidFloat(binding!!.skyView.cn0UsedAvg)) {
+        if (MathUtils.isValidFloat(cn0UsedAvg)) {
             leftUsedTextViewMarginPx = LibUIUtils.cn0ToTextViewLeftMarginPx(
-                binding!!.skyView.cn0UsedAvg,
+                cn0UsedAvg,
                 minTextViewMarginPx, maxTextViewMarginPx
             )
         }
 
         // See if we need to apply the offset margin to try and keep the two TextViews from overlapping by shifting one of the two left
         if (leftInViewTextViewMarginPx != null && leftUsedTextViewMarginPx != null) {
-            val offset = LibUIUtils.dpToPixels(Application.app, TEXTVIEW_NON_OVERLAP_OFFSET_DP)
             if (leftInViewTextViewMarginPx <= leftUsedTextViewMarginPx) {
-                leftInViewTextViewMarginPx += offset
+                leftInViewTextViewMarginPx += textViewNonOverlapOffsetPx
             } else {
-                leftUsedTextViewMarginPx += offset
+                leftUsedTextViewMarginPx += textViewNonOverlapOffsetPx
             }
         }
 
-        // Define paddings used for TextViews
-        val pSides = LibUIUtils.dpToPixels(Application.app, 7f)
-        val pTopBottom = LibUIUtils.dpToPixels(Application.app, 4f)
-
         // Set avg C/N0 of satellites in view of device
-        if (MathUtils.isValidFloat(binding!!.skyView.cn0InViewAvg)) {
-            meter.cn0TextInView.cn0TextInView.text =
-                String.format("%.1f", binding!!.skyView.cn0InViewAvg)
-
-            // Set color of TextView
-            val color = binding!!.skyView.getSatelliteColor(binding!!.skyView.cn0InViewAvg)
-            val background = ContextCompat.getDrawable(
-                Application.app,
-                R.drawable.cn0_round_corner_background_in_view
-            ) as LayerDrawable?
-
-            // Fill
-            val backgroundGradient =
-                background!!.findDrawableByLayerId(R.id.cn0_avg_in_view_fill) as GradientDrawable
-            backgroundGradient.setColor(color)
-
-            // Stroke
-            val borderGradient =
-                background.findDrawableByLayerId(R.id.cn0_avg_in_view_border) as GradientDrawable
-            borderGradient.setColor(color)
-            meter.cn0TextInView.cn0TextInView.background = background
-
-            // Set padding
-            meter.cn0TextInView.cn0TextInView.setPadding(pSides, pTopBottom, pSides, pTopBottom)
-
-            // Set color of indicator
+        if (MathUtils.isValidFloat(cn0InViewAvg)) {
+            meter.cn0TextInView.cn0TextInView.text = cn0Format.format(cn0InViewAvg)
+
+            // Set color of TextView fill and stroke, and indicator
+            val color = binding!!.skyView.getSatelliteColor(cn0InViewAvg)
+            inViewCn0Fill?.setColor(color)
+            inViewCn0Border?.setColor(color)
             meter.cn0IndicatorInView.setColorFilter(color)
 
             // Set position and visibility of TextView
@@ -450,7 +504,7 @@ class SkyFragment : Fragment() {
 
             // Set position and visibility of indicator
             val leftIndicatorMarginPx = LibUIUtils.cn0ToIndicatorLeftMarginPx(
-                binding!!.skyView.cn0InViewAvg,
+                cn0InViewAvg,
                 minIndicatorMarginPx, maxIndicatorMarginPx
             )
 
@@ -474,24 +528,10 @@ class SkyFragment : Fragment() {
         }
 
         // Set avg C/N0 of satellites used in fix
-        if (MathUtils.isValidFloat(binding!!.skyView.cn0UsedAvg)) {
-            meter.cn0TextUsed.cn0TextUsed.text = String.format("%.1f", binding!!.skyView.cn0UsedAvg)
-            // Set color of TextView
-            val color = binding!!.skyView.getSatelliteColor(binding!!.skyView.cn0UsedAvg)
-            val background =
-                ContextCompat.getDrawable(Application.app, usedCn0Background) as LayerDrawable?
-
-            // Fill
-            val backgroundGradient =
-                background!!.findDrawableByLayerId(R.id.cn0_avg_used_fill) as GradientDrawable
-            backgroundGradient.setColor(color)
-            meter.cn0TextUsed.cn0TextUsed.background = background
-
-            // Set padding
-            meter.cn0TextUsed.cn0TextUsed.setPadding(pSides, pTopBottom, pSides, pTopBottom)
-
-            // Set color of indicator
-            meter.cn0IndicatorUsed.setColorFilter(usedCn0IndicatorColor)
+        if (MathUtils.isValidFloat(cn0UsedAvg)) {
+            meter.cn0TextUsed.cn0TextUsed.text = cn0Format.format(cn0UsedAvg)
+            // Set color of TextView fill
+            usedCn0Fill?.setColor(binding!!.skyView.getSatelliteColor(cn0UsedAvg))
 
             // Set position and visibility of TextView
             if (meter.cn0TextUsed.cn0TextUsed.visibility == View.VISIBLE) {
@@ -514,7 +554,7 @@ class SkyFragment : Fragment() {
 
             // Set position and visibility of indicator
             val leftMarginPx = LibUIUtils.cn0ToIndicatorLeftMarginPx(
-                binding!!.skyView.cn0UsedAvg,
+                cn0UsedAvg,
                 minIndicatorMarginPx, maxIndicatorMarginPx
             )
 
@@ -583,5 +623,8 @@ class SkyFragment : Fragment() {
 
     companion object {
         const val TAG = "GpsSkyFragment"
+
+        // When both "in view" and "used" indicators and TextViews are shown, slide the "in view" TextView by this amount to the left to avoid overlap
+        private const val TEXTVIEW_NON_OVERLAP_OFFSET_DP = -16.0f
     }
 }
\ No newline at end of file
@@ -71,7 +71,6 @@ import com.android.gpstest.library.util.FormatUtils.formatSpeed
 import com.android.gpstest.library.util.FormatUtils.formatSpeedAccuracy
 import com.android.gpstest.library.util.PreferenceUtil.coordinateFormat
 import com.android.gpstest.library.util.PreferenceUtil.shareIncludeAltitude
-import com.android.gpstest.library.util.PreferenceUtils.gnssFilter
 import com.android.gpstest.library.util.SatelliteUtil.isVerticalAccuracySupported
 import java.text.SimpleDateFormat
 
@@ -86,7 +85,8 @@ fun LocationCardPreview(
         1.4,
         DilutionOfPrecision(1.0, 2.0, 3.0),
         SatelliteMetadata(),
-        FixState.Acquired
+        FixState.Acquired,
+        false
     )
 }
 
@@ -120,6 +120,7 @@ fun LocationCard(
     dop: DilutionOfPrecision,
     satelliteMetadata: SatelliteMetadata,
     fixState: FixState,
+    isFilterActive: Boolean,
 ) {
     val context = LocalContext.current
     Card(
@@ -139,7 +140,7 @@ fun LocationCard(
                 LabelColumn1()
                 ValueColumn1(context, location, altitudeMsl, dop)
                 LabelColumn2(location)
-                ValueColumn2(location, ttff, dop, satelliteMetadata)
+                ValueColumn2(location, ttff, dop, satelliteMetadata, isFilterActive)
             }
             LockIcon(fixState)
         }
@@ -212,6 +213,7 @@ fun ValueColumn2(
     ttff: String,
     dop: DilutionOfPrecision,
     satelliteMetadata: SatelliteMetadata,
+    isFilterActive: Boolean,
 ) {
     Column(
         modifier = Modifier
@@ -224,7 +226,7 @@ fun ValueColumn2(
         Time(location)
         TTFF(ttff)
         Accuracy(location)
-        NumSats(satelliteMetadata)
+        NumSats(satelliteMetadata, isFilterActive)
         Bearing(location)
         BearingAccuracy(location)
         HVDOP(dop)
@@ -297,8 +299,8 @@ fun Accuracy(location: Location) {
 }
 
 @Composable
-fun NumSats(satelliteMetadata: SatelliteMetadata) {
-    val fontStyle = if (gnssFilter(app, prefs).isNotEmpty()) {
+fun NumSats(satelliteMetadata: SatelliteMetadata, isFilterActive: Boolean) {
+    val fontStyle = if (isFilterActive) {
         // Make text italic so it matches filter text
         FontStyle.Italic
     } else {
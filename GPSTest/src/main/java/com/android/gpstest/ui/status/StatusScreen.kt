@@ -25,6 +25,7 @@ import androidx.compose.material.MaterialTheme
 import androidx.compose.material.Text
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.getValue
+import androidx.compose.runtime.key
 import androidx.compose.runtime.livedata.observeAsState
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
@@ -50,7 +51,6 @@ import com.android.gpstest.library.ui.SignalInfoViewModel
 import com.android.gpstest.library.util.CarrierFreqUtils
 import com.android.gpstest.library.util.MathUtils
 import com.android.gpstest.library.util.PreferenceUtils
-import com.android.gpstest.library.util.PreferenceUtils.gnssFilter
 
 @Composable
 fun StatusScreen(viewModel: SignalInfoViewModel) {
@@ -65,9 +65,12 @@ fun StatusScreen(viewModel: SignalInfoViewModel) {
         SatelliteMetadata()
     )
     val fixState: FixState by viewModel.fixState.observeAsState(FixState.NotAcquired)
-    val gnssStatuses: List<SatelliteStatus> by viewModel.filteredGnssStatuses.observeAsState(emptyList())
-    val sbasStatuses: List<SatelliteStatus> by viewModel.filteredSbasStatuses.observeAsState(emptyList())
+    val gnssStatusRows: SatelliteStatusRows by viewModel.gnssStatusRows.observeAsState(SatelliteStatusRows())
+    val sbasStatusRows: SatelliteStatusRows by viewModel.sbasStatusRows.observeAsState(SatelliteStatusRows())
     val allStatuses: List<SatelliteStatus> by viewModel.allStatuses.observeAsState(emptyList())
+    val carrierPhaseRows: List<CarrierPhaseRow> by viewModel.carrierPhaseRows.observeAsState(emptyList())
+
+    val isFilterActive = viewModel.displayConfig.isFilterActive()
 
     Box(
         modifier = Modifier
@@ -81,12 +84,14 @@ fun StatusScreen(viewModel: SignalInfoViewModel) {
                 altitudeMsl,
                 dop,
                 satelliteMetadata,
-                fixState)
-            if (gnssFilter(app, prefs).isNotEmpty()) {
+                fixState,
+                isFilterActive)
+            if (isFilterActive) {
                 Filter(allStatuses.size, satelliteMetadata) { PreferenceUtils.clearGnssFilter(app, prefs) }
             }
-            GnssStatusCard(gnssStatuses)
-            SbasStatusCard(sbasStatuses)
+            GnssStatusCard(gnssStatusRows)
+            SbasStatusCard(sbasStatusRows)
+            CarrierPhaseCard(carrierPhaseRows)
         }
     }
 }
@@ -135,20 +140,21 @@ fun Filter(totalNumSignals: Int, satelliteMetadata: SatelliteMetadata, onClick:
 }
 
 @Composable
-fun GnssStatusCard(satStatuses: List<SatelliteStatus>) {
-    StatusCard(satStatuses, true)
+fun GnssStatusCard(statusRows: SatelliteStatusRows) {
+    StatusCard(statusRows, true)
 }
 
 @Composable
-fun SbasStatusCard(satStatuses: List<SatelliteStatus>) {
-    StatusCard(satStatuses, false)
+fun SbasStatusCard(statusRows: SatelliteStatusRows) {
+    StatusCard(statusRows, false)
 }
 
 @Composable
 fun StatusCard(
-    satStatuses: List<SatelliteStatus>,
+    statusRows: SatelliteStatusRows,
     isGnss: Boolean,
 ) {
+    val satStatuses = statusRows.rows
     val modifier = Modifier
         .fillMaxWidth()
         .padding(5.dp)
@@ -166,7 +172,10 @@ fun StatusCard(
             Column {
                 StatusRowHeader(isGnss)
                 satStatuses.forEach {
-                    StatusRow(it)
+                    // Key rows by signal so unchanged (immutable) rows are skipped on recomposition
+                    key(it.key) {
+                        StatusRow(it)
+                    }
                 }
                 StatusRowFooter()
             }
@@ -176,13 +185,13 @@ fun StatusCard(
     }
 }
 
-private fun showList(isGnss: Boolean, satStatuses: List<SatelliteStatus>): Boolean {
+private fun showList(isGnss: Boolean, satStatuses: List<SatelliteStatusRow>): Boolean {
     return isGnss ||
             (!isGnss && satStatuses.isNotEmpty())
 }
 
 @Composable
-fun StatusRow(satelliteStatus: SatelliteStatus) {
+fun StatusRow(satelliteStatus: SatelliteStatusRow) {
     Row(
         modifier = Modifier
             .fillMaxWidth()
@@ -205,13 +214,22 @@ fun StatusRow(satelliteStatus: SatelliteStatus) {
 }
 
 @Composable
-fun Svid(satelliteStatus: SatelliteStatus, modifier: Modifier) {
+fun Svid(satelliteStatus: SatelliteStatusRow, modifier: Modifier) {
     StatusValue(satelliteStatus.svid.toString(), modifier = modifier)
 }
 
 @Composable
-fun Flag(satelliteStatus: SatelliteStatus, modifier: Modifier) {
-    when (satelliteStatus.gnssType) {
+fun Flag(satelliteStatus: SatelliteStatusRow, modifier: Modifier) {
+    if (satelliteStatus.gnssType == GnssType.SBAS) {
+        SbasFlag(satelliteStatus, modifier)
+    } else {
+        GnssFlag(satelliteStatus.gnssType, modifier)
+    }
+}
+
+@Composable
+fun GnssFlag(gnssType: GnssType, modifier: Modifier) {
+    when (gnssType) {
         GnssType.NAVSTAR -> {
             FlagImage(R.drawable.ic_flag_usa, R.string.gps_content_description, modifier)
         }
@@ -230,8 +248,7 @@ fun Flag(satelliteStatus: SatelliteStatus, modifier: Modifier) {
         GnssType.IRNSS -> {
             FlagImage(R.drawable.ic_flag_india, R.string.irnss_content_description, modifier)
         }
-        GnssType.SBAS -> SbasFlag(satelliteStatus, modifier)
-        GnssType.UNKNOWN -> {
+        GnssType.SBAS, GnssType.UNKNOWN -> {
             Box(
                 modifier = modifier
             )
@@ -240,7 +257,7 @@ fun Flag(satelliteStatus: SatelliteStatus, modifier: Modifier) {
 }
 
 @Composable
-fun SbasFlag(status: SatelliteStatus, modifier: Modifier = Modifier) {
+fun SbasFlag(status: SatelliteStatusRow, modifier: Modifier = Modifier) {
     when (status.sbasType) {
         SbasType.WAAS -> {
             FlagImage(R.drawable.ic_flag_usa, R.string.waas_content_description, modifier)
@@ -293,9 +310,9 @@ fun FlagImage(@DrawableRes flagId: Int, @StringRes contentDescriptionId: Int, mo
 }
 
 @Composable
-fun CarrierFrequency(satelliteStatus: SatelliteStatus, modifier: Modifier) {
+fun CarrierFrequency(satelliteStatus: SatelliteStatusRow, modifier: Modifier) {
     if (satelliteStatus.hasCarrierFrequency) {
-        val carrierLabel = CarrierFreqUtils.getCarrierFrequencyLabel(satelliteStatus)
+        val carrierLabel = satelliteStatus.carrierFrequencyLabel
         if (carrierLabel != CarrierFreqUtils.CF_UNKNOWN) {
             StatusValue(carrierLabel, modifier)
         } else {
@@ -316,7 +333,7 @@ fun CarrierFrequency(satelliteStatus: SatelliteStatus, modifier: Modifier) {
 }
 
 @Composable
-fun Cn0(satelliteStatus: SatelliteStatus, modifier: Modifier) {
+fun Cn0(satelliteStatus: SatelliteStatusRow, modifier: Modifier) {
     if (satelliteStatus.cn0DbHz != SatelliteStatus.NO_DATA) {
         StatusValue(String.format("%.1f", satelliteStatus.cn0DbHz), modifier)
     } else {
@@ -325,7 +342,7 @@ fun Cn0(satelliteStatus: SatelliteStatus, modifier: Modifier) {
 }
 
 @Composable
-fun AEU(satelliteStatus: SatelliteStatus, modifier: Modifier) {
+fun AEU(satelliteStatus: SatelliteStatusRow, modifier: Modifier) {
     val flags = CharArray(3)
     flags[0] = if (satelliteStatus.hasAlmanac) 'A' else ' '
     flags[1] = if (satelliteStatus.hasEphemeris) 'E' else ' '
@@ -334,7 +351,7 @@ fun AEU(satelliteStatus: SatelliteStatus, modifier: Modifier) {
 }
 
 @Composable
-fun Elevation(satelliteStatus: SatelliteStatus, modifier: Modifier) {
+fun Elevation(satelliteStatus: SatelliteStatusRow, modifier: Modifier) {
     if (satelliteStatus.elevationDegrees != SatelliteStatus.NO_DATA) {
         StatusValue(
             stringResource(
@@ -354,7 +371,7 @@ private fun String.trimZeros(): String {
 }
 
 @Composable
-fun Azimuth(satelliteStatus: SatelliteStatus, modifier: Modifier) {
+fun Azimuth(satelliteStatus: SatelliteStatusRow, modifier: Modifier) {
     if (satelliteStatus.azimuthDegrees != SatelliteStatus.NO_DATA) {
         StatusValue(
             stringResource(
@@ -395,6 +412,93 @@ fun StatusRowHeader(isGnss: Boolean) {
     }
 }
 
+/**
+ * Shows the carrier phase arc length and cycle slips of each signal in the raw measurements, if
+ * any signal has a valid carrier phase
+ */
+@Composable
+fun CarrierPhaseCard(rows: List<CarrierPhaseRow>) {
+    if (rows.isEmpty()) {
+        return
+    }
+    Card(
+        modifier = Modifier
+            .fillMaxWidth()
+            .padding(5.dp),
+        elevation = 2.dp
+    ) {
+        Column {
+            Text(
+                text = stringResource(com.android.gpstest.library.R.string.carrier_phase_title),
+                modifier = Modifier.padding(top = 5.dp, start = 16.dp, end = 16.dp),
+                fontWeight = FontWeight.Bold,
+                fontSize = 13.sp
+            )
+            CarrierPhaseRowHeader()
+            rows.forEach {
+                key(it.key) {
+                    CarrierPhaseStatusRow(it)
+                }
+            }
+            StatusRowFooter()
+        }
+    }
+}
+
+@Composable
+fun CarrierPhaseRowHeader() {
+    Row(
+        modifier = Modifier
+            .fillMaxWidth()
+            .wrapContentHeight()
+            .padding(top = 5.dp, start = 16.dp, end = 16.dp),
+        verticalAlignment = Alignment.CenterVertically
+    ) {
+        val small = Modifier.defaultMinSize(minWidth = dimensionResource(com.android.gpstest.library.R.dimen.min_column_width_small))
+        val medium = Modifier.defaultMinSize(minWidth = dimensionResource(com.android.gpstest.library.R.dimen.min_column_width_medium))
+        val large = Modifier.defaultMinSize(dimensionResource(com.android.gpstest.library.R.dimen.min_column_width_large))
+
+        StatusLabel(com.android.gpstest.library.R.string.id_column_label, small)
+        StatusLabel(com.android.gpstest.library.R.string.gnss_flag_image_label, large)
+        StatusLabel(com.android.gpstest.library.R.string.cf_column_label, small)
+        StatusLabel(com.android.gpstest.library.R.string.arc_column_label, medium)
+        StatusLabel(com.android.gpstest.library.R.string.slips_column_label, medium)
+    }
+}
+
+@Composable
+fun CarrierPhaseStatusRow(row: CarrierPhaseRow) {
+    Row(
+        modifier = Modifier
+            .fillMaxWidth()
+            .wrapContentHeight()
+            .padding(start = 16.dp, end = 16.dp),
+        verticalAlignment = Alignment.CenterVertically,
+    ) {
+        val small = Modifier.defaultMinSize(minWidth = 36.dp)
+        val medium = Modifier.defaultMinSize(minWidth = dimensionResource(R.dimen.min_column_width_medium))
+        val large = Modifier.defaultMinSize(minWidth = 50.dp)
+
+        StatusValue(row.svid.toString(), small)
+        GnssFlag(row.gnssType, large)
+        val carrierLabel = row.carrierFrequencyLabel
+        StatusValue(
+            if (carrierLabel != CarrierFreqUtils.CF_UNKNOWN && carrierLabel != CarrierFreqUtils.CF_UNSUPPORTED) carrierLabel else "",
+            small
+        )
+        StatusValue(if (row.arcSeconds > 0) String.format("%.0f", row.arcSeconds) else "", medium)
+        Text(
+            text = row.slipCount.toString(),
+            modifier = medium.padding(start = 3.dp, end = 3.dp),
+            fontSize = 13.sp,
+            // Highlight a slip in the latest measurements
+            fontWeight = if (row.isSlip) FontWeight.Bold else FontWeight.Normal,
+            color = if (row.isSlip) MaterialTheme.colors.error else Color.Unspecified,
+            textAlign = TextAlign.Start
+        )
+    }
+}
+
 @Composable
 fun StatusLabel(@StringRes id: Int, modifier: Modifier = Modifier) {
     Text(
@@ -37,6 +37,7 @@ import com.android.gpstest.Application.Companion.prefs
 import com.android.gpstest.io.CsvFileLogger
 import com.android.gpstest.io.JsonFileLogger
 import com.android.gpstest.library.model.GnssType
+import com.android.gpstest.library.util.DisplayConfig
 import com.android.gpstest.library.util.IOUtils
 import com.android.gpstest.library.util.LocationUtils
 import com.android.gpstest.library.util.PreferenceUtils
@@ -227,10 +228,10 @@ internal object UIUtils {
         return builder.create()
     }
 
-    fun showFilterDialog(activity: FragmentActivity) {
+    fun showFilterDialog(activity: FragmentActivity, displayConfig: DisplayConfig) {
         val gnssTypes = GnssType.values()
         val len = gnssTypes.size
-        val filter = PreferenceUtils.gnssFilter(app, prefs)
+        val filterMask = displayConfig.gnssFilterMask()
         val items = arrayOfNulls<String>(len)
         val checks = BooleanArray(len)
 
@@ -238,7 +239,7 @@ internal object UIUtils {
         for (i in 0 until len) {
             val gnssType = gnssTypes[i]
             items[i] = LibUIUtils.getGnssDisplayName(app, gnssType)
-            if (filter.contains(gnssType)) {
+            if ((filterMask and DisplayConfig.bit(gnssType)) != 0) {
                 checks[i] = true
             }
         }
@@ -4,13 +4,16 @@ import static com.android.gpstest.library.model.SatelliteStatus.NO_DATA;
 import static java.util.Collections.emptyList;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
+import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.RectF;
 import android.util.AttributeSet;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
 import android.view.View;
 import android.view.WindowManager;
 
@@ -21,8 +24,12 @@ import com.android.gpstest.Application;
 import com.android.gpstest.R;
 import com.android.gpstest.library.model.GnssType;
 import com.android.gpstest.library.model.SatelliteStatus;
+import com.android.gpstest.library.util.DisplayConfig;
 import com.android.gpstest.library.util.LibUIUtils;
+import com.android.gpstest.library.util.SkyPredictor;
+import com.android.gpstest.library.util.SkyTrackHistory;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -43,6 +50,11 @@ public class GpsSkyView extends View {
 
     private static int SAT_RADIUS;
 
+    // Number of samples in each cached track path segment
+    private static final int TRACK_SEGMENT_POINTS = 16;
+
+    private static final int TRACK_ALPHA = 0x99;
+
     private float[] mCn0Thresholds;
 
     private int[] mCn0Colors;
@@ -59,11 +71,68 @@ public class GpsSkyView extends View {
 
     private boolean mStarted;
 
-    private float mCn0UsedAvg = 0.0f;
+    private List<SatelliteStatus> statuses = emptyList();
 
-    private float mCn0InViewAvg = 0.0f;
+    // Horizon fill and elevation circles, which don't change with orientation. Re-rendered only
+    // when the size of the view or the started state changes.
+    private Bitmap mStaticLayer;
 
-    private List<SatelliteStatus> statuses = emptyList();
+    private int mStaticLayerSize;
+
+    private boolean mStaticLayerStarted;
+
+    // Grid line end points, reused for each frame
+    private final float[] mGridLines = new float[8];
+
+    // North indicator for the current view size with no rotation, rotated by the canvas when drawn
+    private final Path mNorthPath = new Path();
+
+    private int mNorthPathSize;
+
+    // Satellite shapes centered at 0,0, translated by the canvas when drawn
+    private final Path mTrianglePath = new Path();
+
+    private final Path mDiamondPath = new Path();
+
+    private final Path mPentagonPath = new Path();
+
+    private final Path mHexagonPath = new Path();
+
+    private final RectF mOvalRect = new RectF();
+
+    // Fill paint for satellites in view, the color is set for each satellite based on C/N0
+    private Paint mSatelliteCn0FillPaint;
+
+    // Cache of PRN label strings, keyed by PRN
+    private final SparseArray<String> mPrnLabels = new SparseArray<>();
+
+    // Recent satellite positions, and the filter used to decide which tracks are shown
+    private SkyTrackHistory mTrackHistory;
+
+    private DisplayConfig mDisplayConfig;
+
+    // Cached paths for each satellite track, keyed by satellite ID. Paths are only extended as
+    // samples are added to the history, and are rebuilt only if the size of the view changes.
+    private final LongSparseArray<TrackPath> mTrackPaths = new LongSparseArray<>();
+
+    // Segments whose samples have expired from the history, reused for new samples
+    private final ArrayList<TrackSegment> mTrackSegmentPool = new ArrayList<>();
+
+    private long mTrackVersion = -1;
+
+    private int mTrackSize;
+
+    private Paint mTrackPaint;
+
+    // Predicted tracks of satellites over the next few hours, and their paths for the size
+    // mPredictionSize - the paths are only built when the prediction or the size changes
+    private SkyPredictor.Prediction mPrediction;
+
+    private final ArrayList<Path> mPredictionPaths = new ArrayList<>();
+
+    private int mPredictionSize;
+
+    private Paint mPredictionPaint;
 
     public GpsSkyView(Context context) {
         super(context);
@@ -158,12 +227,30 @@ public class GpsSkyView extends View {
                 .setTextSize(LibUIUtils.dpToPixels(getContext(), SAT_RADIUS * PRN_TEXT_SCALE));
         mPrnIdPaint.setAntiAlias(true);
 
+        mSatelliteCn0FillPaint = new Paint(mSatelliteFillPaint);
+
+        mTrackPaint = new Paint();
+        mTrackPaint.setStyle(Paint.Style.STROKE);
+        mTrackPaint.setStrokeWidth(LibUIUtils.dpToPixels(context, 2));
+        mTrackPaint.setStrokeCap(Paint.Cap.ROUND);
+        mTrackPaint.setStrokeJoin(Paint.Join.ROUND);
+        mTrackPaint.setAntiAlias(true);
+
+        mPredictionPaint = new Paint(mTrackPaint);
+        mPredictionPaint.setStrokeWidth(LibUIUtils.dpToPixels(context, 1));
+        mPredictionPaint.setColor((ContextCompat.getColor(context, R.color.not_in_view_sat) & 0x00FFFFFF)
+                | (TRACK_ALPHA << 24));
+        mPredictionPaint.setPathEffect(new DashPathEffect(new float[]{
+                LibUIUtils.dpToPixels(context, 4), LibUIUtils.dpToPixels(context, 4)}, 0));
+
         mNotInViewPaint = new Paint();
         mNotInViewPaint.setColor(ContextCompat.getColor(context, R.color.not_in_view_sat));
         mNotInViewPaint.setStyle(Paint.Style.FILL);
         mNotInViewPaint.setStrokeWidth(4.0f);
         mNotInViewPaint.setAntiAlias(true);
 
+        initSatellitePaths();
+
         setFocusable(true);
 
         // Get the proper height and width of view before drawing
@@ -186,105 +273,125 @@ public class GpsSkyView extends View {
         invalidate();
     }
 
-    public synchronized void setStatus(List<SatelliteStatus> statuses) {
-        this.statuses = statuses;
-
-        int svInViewCount = 0;
-        int svUsedCount = 0;
-        float cn0InViewSum = 0.0f;
-        float cn0UsedSum = 0.0f;
-        mCn0InViewAvg = 0.0f;
-        mCn0UsedAvg = 0.0f;
-        for (SatelliteStatus s : statuses) {
-            // If satellite is in view, add signal to calculate avg
-            if (s.getCn0DbHz() != 0.0f) {
-                svInViewCount++;
-                cn0InViewSum = cn0InViewSum + s.getCn0DbHz();
-            }
-            if (s.getUsedInFix()) {
-                svUsedCount++;
-                cn0UsedSum = cn0UsedSum + s.getCn0DbHz();
-            }
-        }
+    /**
+     * Sets the history of satellite positions to draw as tracks in the sky, and the display config
+     * used to only show tracks for the satellites that pass the user's filter
+     */
+    public void setTracks(SkyTrackHistory history, DisplayConfig displayConfig) {
+        mTrackHistory = history;
+        mDisplayConfig = displayConfig;
+        mTrackVersion = -1;
+        invalidate();
+    }
 
-        if (svInViewCount > 0) {
-            mCn0InViewAvg = cn0InViewSum / svInViewCount;
-        }
-        if (svUsedCount > 0) {
-            mCn0UsedAvg = cn0UsedSum / svUsedCount;
+    /**
+     * Sets the predicted satellite tracks to draw as dashed lines where the satellites are above
+     * the horizon, or null to draw none
+     */
+    public void setPrediction(@Nullable SkyPredictor.Prediction prediction) {
+        if (prediction == mPrediction) {
+            return;
         }
+        mPrediction = prediction;
+        mPredictionPaths.clear();
+        mPredictionSize = -1;
+        invalidate();
+    }
 
+    public synchronized void setStatus(List<SatelliteStatus> statuses) {
+        this.statuses = statuses;
         mStarted = true;
         invalidate();
     }
 
-    private void drawLine(Canvas c, float x1, float y1, float x2, float y2) {
-        // rotate the line based on orientation
+    private void drawHorizon(Canvas c, int s) {
+        float radius = s / 2;
+
+        if (mStaticLayer == null || mStaticLayerSize != s || mStaticLayerStarted != mStarted) {
+            renderStaticLayer(s);
+        }
+        if (mStaticLayer != null) {
+            c.drawBitmap(mStaticLayer, 0, 0, null);
+        }
+
+        // Rotate the grid lines based on orientation
         double angle = Math.toRadians(-mOrientation);
         float cos = (float) Math.cos(angle);
         float sin = (float) Math.sin(angle);
+        // Horizontal line, from the left to the right edge of the horizon
+        mGridLines[0] = radius - cos * radius;
+        mGridLines[1] = radius - sin * radius;
+        mGridLines[2] = radius + cos * radius;
+        mGridLines[3] = radius + sin * radius;
+        // Vertical line, from the top to the bottom edge of the horizon
+        mGridLines[4] = radius + sin * radius;
+        mGridLines[5] = radius - cos * radius;
+        mGridLines[6] = radius - sin * radius;
+        mGridLines[7] = radius + cos * radius;
+        c.drawLines(mGridLines, mGridStrokePaint);
 
-        float centerX = (x1 + x2) / 2.0f;
-        float centerY = (y1 + y2) / 2.0f;
-        x1 -= centerX;
-        y1 = centerY - y1;
-        x2 -= centerX;
-        y2 = centerY - y2;
-
-        float X1 = cos * x1 + sin * y1 + centerX;
-        float Y1 = -(-sin * x1 + cos * y1) + centerY;
-        float X2 = cos * x2 + sin * y2 + centerX;
-        float Y2 = -(-sin * x2 + cos * y2) + centerY;
-
-        c.drawLine(X1, Y1, X2, Y2, mGridStrokePaint);
+        c.drawCircle(radius, radius, radius, mHorizonStrokePaint);
     }
 
-    private void drawHorizon(Canvas c, int s) {
+    /**
+     * Renders the parts of the horizon that don't depend on orientation to a bitmap, so they don't
+     * need to be redrawn for every orientation update
+     */
+    private void renderStaticLayer(int s) {
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+        }
+        mStaticLayerSize = s;
+        mStaticLayerStarted = mStarted;
+        if (s <= 0) {
+            return;
+        }
         float radius = s / 2;
-
+        mStaticLayer = Bitmap.createBitmap(s, s, Bitmap.Config.ARGB_8888);
+        Canvas c = new Canvas(mStaticLayer);
         c.drawCircle(radius, radius, radius,
                 mStarted ? mHorizonActiveFillPaint : mHorizonInactiveFillPaint);
-        drawLine(c, 0, radius, 2 * radius, radius);
-        drawLine(c, radius, 0, radius, 2 * radius);
         c.drawCircle(radius, radius, elevationToRadius(s, 60.0f), mGridStrokePaint);
         c.drawCircle(radius, radius, elevationToRadius(s, 30.0f), mGridStrokePaint);
         c.drawCircle(radius, radius, elevationToRadius(s, 0.0f), mGridStrokePaint);
-        c.drawCircle(radius, radius, radius, mHorizonStrokePaint);
     }
 
     private void drawNorthIndicator(Canvas c, int s) {
         float radius = s / 2;
-        double angle = Math.toRadians(-mOrientation);
-        final float ARROW_HEIGHT_SCALE = 0.05f;
-        final float ARROW_WIDTH_SCALE = 0.1f;
 
-        float x1, y1;  // Tip of arrow
-        x1 = radius;
-        y1 = elevationToRadius(s, 90.0f);
-
-        float x2, y2;
-        x2 = x1 + radius * ARROW_HEIGHT_SCALE;
-        y2 = y1 + radius * ARROW_WIDTH_SCALE;
-
-        float x3, y3;
-        x3 = x1 - radius * ARROW_HEIGHT_SCALE;
-        y3 = y1 + radius * ARROW_WIDTH_SCALE;
-
-        Path path = new Path();
-        path.setFillType(Path.FillType.EVEN_ODD);
-        path.moveTo(x1, y1);
-        path.lineTo(x2, y2);
-        path.lineTo(x3, y3);
-        path.lineTo(x1, y1);
-        path.close();
+        if (mNorthPathSize != s) {
+            final float ARROW_HEIGHT_SCALE = 0.05f;
+            final float ARROW_WIDTH_SCALE = 0.1f;
+
+            float x1, y1;  // Tip of arrow
+            x1 = radius;
+            y1 = elevationToRadius(s, 90.0f);
+
+            float x2, y2;
+            x2 = x1 + radius * ARROW_HEIGHT_SCALE;
+            y2 = y1 + radius * ARROW_WIDTH_SCALE;
+
+            float x3, y3;
+            x3 = x1 - radius * ARROW_HEIGHT_SCALE;
+            y3 = y1 + radius * ARROW_WIDTH_SCALE;
+
+            mNorthPath.reset();
+            mNorthPath.setFillType(Path.FillType.EVEN_ODD);
+            mNorthPath.moveTo(x1, y1);
+            mNorthPath.lineTo(x2, y2);
+            mNorthPath.lineTo(x3, y3);
+            mNorthPath.lineTo(x1, y1);
+            mNorthPath.close();
+            mNorthPathSize = s;
+        }
 
         // Rotate arrow around center point
-        Matrix matrix = new Matrix();
-        matrix.postRotate((float) -mOrientation, radius, radius);
-        path.transform(matrix);
-
-        c.drawPath(path, mNorthPaint);
-        c.drawPath(path, mNorthFillPaint);
+        c.save();
+        c.rotate((float) -mOrientation, radius, radius);
+        c.drawPath(mNorthPath, mNorthPaint);
+        c.drawPath(mNorthPath, mNorthFillPaint);
+        c.restore();
     }
 
     private void drawSatellite(Canvas c, int s, float elev, float azim, float cn0, int prn,
@@ -301,7 +408,8 @@ public class GpsSkyView extends View {
             fillPaint = mNotInViewPaint;
         } else {
             // Calculate fill color based on signal strength
-            fillPaint = getSatellitePaint(mSatelliteFillPaint, cn0);
+            fillPaint = mSatelliteCn0FillPaint;
+            fillPaint.setColor(getSatelliteColor(cn0));
         }
 
         Paint strokePaint;
@@ -331,23 +439,23 @@ public class GpsSkyView extends View {
                         strokePaint);
                 break;
             case QZSS:
-                drawHexagon(c, x, y, fillPaint, strokePaint);
+                drawShape(c, x, y, mHexagonPath, fillPaint, strokePaint);
                 break;
             case BEIDOU:
-                drawPentagon(c, x, y, fillPaint, strokePaint);
+                drawShape(c, x, y, mPentagonPath, fillPaint, strokePaint);
                 break;
             case GALILEO:
-                drawTriangle(c, x, y, fillPaint, strokePaint);
+                drawShape(c, x, y, mTrianglePath, fillPaint, strokePaint);
                 break;
             case IRNSS:
                 drawOval(c, x, y, fillPaint, strokePaint);
                 break;
             case SBAS:
-                drawDiamond(c, x, y, fillPaint, strokePaint);
+                drawShape(c, x, y, mDiamondPath, fillPaint, strokePaint);
                 break;
         }
 
-        c.drawText(String.valueOf(prn), x - (int) (SAT_RADIUS * PRN_X_SCALE),
+        c.drawText(getPrnLabel(prn), x - (int) (SAT_RADIUS * PRN_X_SCALE),
                 y + (int) (SAT_RADIUS * PRN_Y_SCALE), mPrnIdPaint);
     }
 
@@ -355,88 +463,266 @@ public class GpsSkyView extends View {
         return ((s / 2) - SAT_RADIUS) * (1.0f - (elev / 90.0f));
     }
 
-    private void drawTriangle(Canvas c, float x, float y, Paint fillPaint, Paint strokePaint) {
-        float x1, y1;  // Top
-        x1 = x;
-        y1 = y - SAT_RADIUS;
-
-        float x2, y2; // Lower left
-        x2 = x - SAT_RADIUS;
-        y2 = y + SAT_RADIUS;
+    /**
+     * Builds the satellite shape paths centered at 0,0 - these only depend on SAT_RADIUS
+     */
+    private void initSatellitePaths() {
+        // Triangle - top, lower left, lower right
+        mTrianglePath.reset();
+        mTrianglePath.setFillType(Path.FillType.EVEN_ODD);
+        mTrianglePath.moveTo(0, -SAT_RADIUS);
+        mTrianglePath.lineTo(-SAT_RADIUS, SAT_RADIUS);
+        mTrianglePath.lineTo(SAT_RADIUS, SAT_RADIUS);
+        mTrianglePath.lineTo(0, -SAT_RADIUS);
+        mTrianglePath.close();
+
+        mDiamondPath.reset();
+        mDiamondPath.moveTo(0, -SAT_RADIUS);
+        mDiamondPath.lineTo(-SAT_RADIUS * 1.5f, 0);
+        mDiamondPath.lineTo(0, SAT_RADIUS);
+        mDiamondPath.lineTo(SAT_RADIUS * 1.5f, 0);
+        mDiamondPath.close();
+
+        mPentagonPath.reset();
+        mPentagonPath.moveTo(0, -SAT_RADIUS);
+        mPentagonPath.lineTo(-SAT_RADIUS, -(SAT_RADIUS / 3));
+        mPentagonPath.lineTo(-2 * (SAT_RADIUS / 3), SAT_RADIUS);
+        mPentagonPath.lineTo(2 * (SAT_RADIUS / 3), SAT_RADIUS);
+        mPentagonPath.lineTo(SAT_RADIUS, -(SAT_RADIUS / 3));
+        mPentagonPath.close();
 
-        float x3, y3; // Lower right
-        x3 = x + SAT_RADIUS;
-        y3 = y + SAT_RADIUS;
+        final float MULTIPLIER = 0.6f;
+        final float SIDE_MULTIPLIER = 1.4f;
+        mHexagonPath.reset();
+        // Top-left
+        mHexagonPath.moveTo(-SAT_RADIUS * MULTIPLIER, -SAT_RADIUS);
+        // Left
+        mHexagonPath.lineTo(-SAT_RADIUS * SIDE_MULTIPLIER, 0);
+        // Bottom
+        mHexagonPath.lineTo(-SAT_RADIUS * MULTIPLIER, SAT_RADIUS);
+        mHexagonPath.lineTo(SAT_RADIUS * MULTIPLIER, SAT_RADIUS);
+        // Right
+        mHexagonPath.lineTo(SAT_RADIUS * SIDE_MULTIPLIER, 0);
+        // Top-right
+        mHexagonPath.lineTo(SAT_RADIUS * MULTIPLIER, -SAT_RADIUS);
+        mHexagonPath.close();
 
-        Path path = new Path();
-        path.setFillType(Path.FillType.EVEN_ODD);
-        path.moveTo(x1, y1);
-        path.lineTo(x2, y2);
-        path.lineTo(x3, y3);
-        path.lineTo(x1, y1);
-        path.close();
+        mOvalRect.set(-SAT_RADIUS * 1.5f, -SAT_RADIUS, SAT_RADIUS * 1.5f, SAT_RADIUS);
+    }
 
+    private void drawShape(Canvas c, float x, float y, Path path, Paint fillPaint, Paint strokePaint) {
+        c.save();
+        c.translate(x, y);
         c.drawPath(path, fillPaint);
         c.drawPath(path, strokePaint);
+        c.restore();
     }
 
-    private void drawDiamond(Canvas c, float x, float y, Paint fillPaint, Paint strokePaint) {
-        Path path = new Path();
-        path.moveTo(x, y - SAT_RADIUS);
-        path.lineTo(x - SAT_RADIUS * 1.5f, y);
-        path.lineTo(x, y + SAT_RADIUS);
-        path.lineTo(x + SAT_RADIUS * 1.5f, y);
-        path.close();
+    private void drawOval(Canvas c, float x, float y, Paint fillPaint, Paint strokePaint) {
+        c.save();
+        c.translate(x, y);
+        c.drawOval(mOvalRect, fillPaint);
+        c.drawOval(mOvalRect, strokePaint);
+        c.restore();
+    }
 
-        c.drawPath(path, fillPaint);
-        c.drawPath(path, strokePaint);
+    private void drawTracks(Canvas c, int s) {
+        if (mTrackHistory == null) {
+            return;
+        }
+        syncTracks(s);
+
+        // Paths are in the sky frame (north up), so rotate them based on orientation
+        float radius = s / 2;
+        c.save();
+        c.rotate((float) -mOrientation, radius, radius);
+        for (int i = 0; i < mTrackPaths.size(); i++) {
+            TrackPath trackPath = mTrackPaths.valueAt(i);
+            if (mDisplayConfig != null && !mDisplayConfig.isShown(trackPath.track.getGnssType())) {
+                continue;
+            }
+            for (int j = 0; j < trackPath.segments.size(); j++) {
+                TrackSegment segment = trackPath.segments.get(j);
+                mTrackPaint.setColor(segment.color);
+                c.drawPath(segment.path, mTrackPaint);
+            }
+        }
+        c.restore();
     }
 
-    private void drawPentagon(Canvas c, float x, float y, Paint fillPaint, Paint strokePaint) {
-        Path path = new Path();
-        path.moveTo(x, y - SAT_RADIUS);
-        path.lineTo(x - SAT_RADIUS, y - (SAT_RADIUS / 3));
-        path.lineTo(x - 2 * (SAT_RADIUS / 3), y + SAT_RADIUS);
-        path.lineTo(x + 2 * (SAT_RADIUS / 3), y + SAT_RADIUS);
-        path.lineTo(x + SAT_RADIUS, y - (SAT_RADIUS / 3));
-        path.close();
+    private void drawPrediction(Canvas c, int s) {
+        if (mPrediction == null) {
+            return;
+        }
+        if (mPredictionSize != s) {
+            buildPredictionPaths(s);
+        }
 
-        c.drawPath(path, fillPaint);
-        c.drawPath(path, strokePaint);
+        // Paths are in the sky frame (north up), so rotate them based on orientation
+        float radius = s / 2;
+        c.save();
+        c.rotate((float) -mOrientation, radius, radius);
+        List<SkyPredictor.Track> tracks = mPrediction.getTracks();
+        for (int i = 0; i < tracks.size(); i++) {
+            if (mDisplayConfig != null && !mDisplayConfig.isShown(tracks.get(i).getGnssType())) {
+                continue;
+            }
+            c.drawPath(mPredictionPaths.get(i), mPredictionPaint);
+        }
+        c.restore();
     }
 
-    private void drawHexagon(Canvas c, float x, float y, Paint fillPaint, Paint strokePaint) {
-        final float MULTIPLIER = 0.6f;
-        final float SIDE_MULTIPLIER = 1.4f;
-        Path path = new Path();
-        // Top-left
-        path.moveTo(x - SAT_RADIUS * MULTIPLIER, y - SAT_RADIUS);
-        // Left
-        path.lineTo(x - SAT_RADIUS * SIDE_MULTIPLIER, y);
-        // Bottom
-        path.lineTo(x - SAT_RADIUS * MULTIPLIER, y + SAT_RADIUS);
-        path.lineTo(x + SAT_RADIUS * MULTIPLIER, y + SAT_RADIUS);
-        // Right
-        path.lineTo(x + SAT_RADIUS * SIDE_MULTIPLIER, y);
-        // Top-right
-        path.lineTo(x + SAT_RADIUS * MULTIPLIER, y - SAT_RADIUS);
-        path.close();
+    /**
+     * Builds a path for each predicted track from the samples above the horizon, starting a new
+     * contour each time the satellite rises
+     */
+    private void buildPredictionPaths(int s) {
+        List<SkyPredictor.Track> tracks = mPrediction.getTracks();
+        for (int i = 0; i < tracks.size(); i++) {
+            SkyPredictor.Track track = tracks.get(i);
+            Path path;
+            if (i < mPredictionPaths.size()) {
+                path = mPredictionPaths.get(i);
+                path.rewind();
+            } else {
+                path = new Path();
+                mPredictionPaths.add(path);
+            }
+            boolean drawing = false;
+            for (int k = 0; k < track.getSize(); k++) {
+                if (!track.isVisible(k)) {
+                    drawing = false;
+                    continue;
+                }
+                double radius = elevationToRadius(s, track.elevationDegrees(k));
+                double angle = Math.toRadians(track.azimuthDegrees(k));
+                float x = (float) ((s / 2) + (radius * Math.sin(angle)));
+                float y = (float) ((s / 2) - (radius * Math.cos(angle)));
+                if (drawing) {
+                    path.lineTo(x, y);
+                } else {
+                    path.moveTo(x, y);
+                    drawing = true;
+                }
+            }
+        }
+        mPredictionSize = s;
+    }
 
-        c.drawPath(path, fillPaint);
-        c.drawPath(path, strokePaint);
+    /**
+     * Extends the cached track paths with samples added to the history since the last frame
+     */
+    private void syncTracks(int s) {
+        boolean resized = s != mTrackSize;
+        if (!resized && mTrackVersion == mTrackHistory.getVersion()) {
+            return;
+        }
+
+        // Drop tracks of satellites that were removed from the history
+        for (int i = mTrackPaths.size() - 1; i >= 0; i--) {
+            TrackPath trackPath = mTrackPaths.valueAt(i);
+            if (mTrackHistory.track(mTrackPaths.keyAt(i)) != trackPath.track) {
+                recycleSegments(trackPath);
+                mTrackPaths.removeAt(i);
+            }
+        }
+
+        for (SkyTrackHistory.Track track : mTrackHistory.tracks()) {
+            TrackPath trackPath = mTrackPaths.get(track.getId());
+            if (trackPath == null) {
+                trackPath = new TrackPath(track);
+                mTrackPaths.put(track.getId(), trackPath);
+            } else if (resized || trackPath.nextIndex < track.getFirstIndex()) {
+                // Points are for a different size, or samples expired before they were drawn
+                recycleSegments(trackPath);
+            }
+            extendTrack(trackPath, s);
+        }
+        mTrackSize = s;
+        mTrackVersion = mTrackHistory.getVersion();
     }
 
-    private void drawOval(Canvas c, float x, float y, Paint fillPaint, Paint strokePaint) {
-        RectF rect = new RectF(x - SAT_RADIUS * 1.5f, y - SAT_RADIUS, x + SAT_RADIUS * 1.5f, y + SAT_RADIUS);
+    /**
+     * Appends the samples that haven't been drawn yet to the end of the track path, and drops
+     * segments at the start of the path whose samples have expired from the history
+     */
+    private void extendTrack(TrackPath trackPath, int s) {
+        SkyTrackHistory.Track track = trackPath.track;
+        long count = track.getCount();
+        if (trackPath.nextIndex < track.getFirstIndex()) {
+            trackPath.nextIndex = track.getFirstIndex();
+        }
+        for (long i = trackPath.nextIndex; i < count; i++) {
+            double radius = elevationToRadius(s, track.elevationDegrees(i));
+            double angle = Math.toRadians(track.azimuthDegrees(i));
+            float x = (float) ((s / 2) + (radius * Math.sin(angle)));
+            float y = (float) ((s / 2) - (radius * Math.cos(angle)));
+
+            int last = trackPath.segments.size() - 1;
+            TrackSegment segment = last >= 0 ? trackPath.segments.get(last) : null;
+            if (segment == null || segment.points >= TRACK_SEGMENT_POINTS) {
+                // Start a new segment, connected to the end of the previous one
+                boolean connect = segment != null;
+                segment = obtainSegment(i);
+                if (connect) {
+                    segment.path.moveTo(trackPath.lastX, trackPath.lastY);
+                    segment.path.lineTo(x, y);
+                } else {
+                    segment.path.moveTo(x, y);
+                }
+                trackPath.segments.add(segment);
+            } else {
+                segment.path.lineTo(x, y);
+            }
+            segment.points++;
+            segment.cn0Sum += track.cn0DbHz(i);
+            segment.color = getTrackColor(segment.cn0Sum / segment.points);
+            trackPath.lastX = x;
+            trackPath.lastY = y;
+        }
+        trackPath.nextIndex = count;
+
+        long firstIndex = track.getFirstIndex();
+        while (trackPath.segments.size() > 1) {
+            TrackSegment first = trackPath.segments.get(0);
+            if (first.firstIndex + first.points > firstIndex) {
+                break;
+            }
+            mTrackSegmentPool.add(trackPath.segments.remove(0));
+        }
+    }
+
+    private TrackSegment obtainSegment(long firstIndex) {
+        int last = mTrackSegmentPool.size() - 1;
+        TrackSegment segment = last >= 0 ? mTrackSegmentPool.remove(last) : new TrackSegment();
+        segment.path.rewind();
+        segment.firstIndex = firstIndex;
+        segment.points = 0;
+        segment.cn0Sum = 0.0f;
+        return segment;
+    }
+
+    private void recycleSegments(TrackPath trackPath) {
+        mTrackSegmentPool.addAll(trackPath.segments);
+        trackPath.segments.clear();
+        trackPath.nextIndex = 0;
+    }
 
-        c.drawOval(rect, fillPaint);
-        c.drawOval(rect, strokePaint);
+    /**
+     * Returns a translucent version of the satellite color for the average C/N0 of a track segment
+     */
+    private int getTrackColor(float cn0) {
+        int color = cn0 == 0.0f ? mNotInViewPaint.getColor() : getSatelliteColor(cn0);
+        return (color & 0x00FFFFFF) | (TRACK_ALPHA << 24);
     }
 
-    private Paint getSatellitePaint(Paint base, float cn0) {
-        Paint newPaint = new Paint(base);
-        newPaint.setColor(getSatelliteColor(cn0));
-        return newPaint;
+    private String getPrnLabel(int prn) {
+        String label = mPrnLabels.get(prn);
+        if (label == null) {
+            label = String.valueOf(prn);
+            mPrnLabels.put(prn, label);
+        }
+        return label;
     }
 
     /**
@@ -502,6 +788,10 @@ public class GpsSkyView extends View {
 
         drawNorthIndicator(canvas, minScreenDimen);
 
+        drawPrediction(canvas, minScreenDimen);
+
+        drawTracks(canvas, minScreenDimen);
+
         for (SatelliteStatus s : statuses) {
             if (s.getElevationDegrees() != NO_DATA && s.getAzimuthDegrees() != NO_DATA) {
                 drawSatellite(canvas, minScreenDimen,
@@ -515,6 +805,15 @@ public class GpsSkyView extends View {
         }
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+        }
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         // Use the width of the screen as the measured dimension for width and height of view
@@ -529,18 +828,34 @@ public class GpsSkyView extends View {
     }
 
     /**
-     * Returns the average signal strength (C/N0) for satellites that are in view of the device (i.e., value is not 0), or 0 if the average can't be calculated
-     * @return the average signal strength (C/N0) for satellites that are in view of the device (i.e., value is not 0), or 0 if the average can't be calculated
+     * Cached path of a satellite track, split into segments so only the newest segment changes
+     * when samples are added and the oldest can be dropped when its samples expire
      */
-    public synchronized float getCn0InViewAvg() {
-        return mCn0InViewAvg;
+    private static final class TrackPath {
+        final SkyTrackHistory.Track track;
+
+        final ArrayList<TrackSegment> segments = new ArrayList<>();
+
+        // Index of the next sample in the track to add to the path
+        long nextIndex;
+
+        float lastX, lastY;
+
+        TrackPath(SkyTrackHistory.Track track) {
+            this.track = track;
+        }
     }
 
-    /**
-     * Returns the average signal strength (C/N0) for satellites that are being used to calculate a location fix, or 0 if the average can't be calculated
-     * @return the average signal strength (C/N0) for satellites that are being used to calculate a location fix, or 0 if the average can't be calculated
-     */
-    public synchronized float getCn0UsedAvg() {
-        return mCn0UsedAvg;
+    private static final class TrackSegment {
+        final Path path = new Path();
+
+        // Index of the first sample in this segment, and the number of samples
+        long firstIndex;
+
+        int points;
+
+        float cn0Sum;
+
+        int color;
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.map
+
+import android.content.Context
+import android.graphics.drawable.Drawable
+import android.util.Log
+import com.android.gpstest.library.util.TileCache
+import com.android.gpstest.library.util.TileDownloader
+import org.osmdroid.config.Configuration
+import org.osmdroid.tileprovider.MapTileProviderArray
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase
+import org.osmdroid.tileprovider.tilesource.BitmapTileSourceBase
+import org.osmdroid.tileprovider.tilesource.ITileSource
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver
+import org.osmdroid.util.MapTileIndex
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.IOException
+
+/**
+ * An osmdroid tile provider module backed by a [TileCache]. If [online] is false tiles are only
+ * served from the cache, and if it's true missing tiles are downloaded with [downloader] and added
+ * to the cache. Use [newTileProvider] to chain both, so cached tiles are drawn without waiting for
+ * (or having) a network connection.
+ */
+class CachedTileModuleProvider(
+    tileSource: ITileSource,
+    private val downloader: TileDownloader,
+    private val online: Boolean
+) : MapTileModuleProviderBase(
+    if (online) Configuration.getInstance().tileDownloadThreads.toInt() else Configuration.getInstance().tileFileSystemThreads.toInt(),
+    if (online) Configuration.getInstance().tileDownloadMaxQueueSize.toInt() else Configuration.getInstance().tileFileSystemMaxQueueSize.toInt()
+) {
+    @Volatile
+    private var tileSource: ITileSource = tileSource
+
+    override fun getUsesDataConnection(): Boolean = online
+
+    override fun getMinimumZoomLevel(): Int = tileSource.minimumZoomLevel
+
+    override fun getMaximumZoomLevel(): Int = tileSource.maximumZoomLevel
+
+    override fun getName(): String = if (online) "Cached Tile Downloader Provider" else "Tile Cache Provider"
+
+    override fun getThreadGroupName(): String = if (online) "cachedtiledownloader" else "tilecache"
+
+    override fun getTileLoader(): TileLoader = CachedTileLoader()
+
+    override fun setTileSource(tileSource: ITileSource) {
+        this.tileSource = tileSource
+    }
+
+    private inner class CachedTileLoader : TileLoader() {
+        @Throws(CantContinueException::class)
+        override fun loadTile(pMapTileIndex: Long): Drawable? {
+            val zoom = MapTileIndex.getZoom(pMapTileIndex)
+            val x = MapTileIndex.getX(pMapTileIndex)
+            val y = MapTileIndex.getY(pMapTileIndex)
+            val data = if (online) {
+                downloader.getTile(zoom, x, y)
+            } else {
+                downloader.cache[TileCache.key(zoom, x, y)]
+            } ?: return null
+            return try {
+                tileSource.getDrawable(ByteArrayInputStream(data))
+            } catch (e: BitmapTileSourceBase.LowMemoryException) {
+                Log.w(TAG, "Low memory loading tile " + MapTileIndex.toString(pMapTileIndex))
+                throw CantContinueException(e)
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "CachedTileProvider"
+
+        private const val TILE_CACHE_DIR = "tile_cache"
+
+        // One cache per tile source for the whole process, as tile providers come and go with the map
+        private val caches = HashMap<String, TileCache>()
+
+        /**
+         * Returns the cache of tiles from [tileSource], opening it if needed. Opening the cache
+         * reads its whole index from disk, so call this off the main thread.
+         * @throws IOException if the cache file couldn't be opened
+         */
+        @JvmStatic
+        @Synchronized
+        @Throws(IOException::class)
+        fun cacheFor(context: Context, tileSource: ITileSource): TileCache {
+            return caches.getOrPut(tileSource.name()) {
+                val fileName = tileSource.name().replace(Regex("[^A-Za-z0-9_-]"), "_") + ".tiles"
+                TileCache(File(File(context.filesDir, TILE_CACHE_DIR), fileName), MapConstants.TILE_CACHE_MAX_BYTES)
+            }
+        }
+
+        /**
+         * Returns a downloader for [tileSource] that adds tiles to its cache, which can also be used
+         * to prefetch a region for offline use. This opens the cache if needed, so call it off the
+         * main thread.
+         * @throws IOException if the cache file couldn't be opened
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun newDownloader(context: Context, tileSource: OnlineTileSourceBase): TileDownloader {
+            return TileDownloader(
+                cacheFor(context, tileSource),
+                { zoom, x, y -> tileSource.getTileURLString(MapTileIndex.getTileIndex(zoom, x, y)) },
+                Configuration.getInstance().userAgentValue
+            )
+        }
+
+        /**
+         * Returns a tile provider for [tileSource] that draws tiles from the cache of [downloader]
+         * if they're cached, and otherwise downloads and caches them
+         */
+        @JvmStatic
+        fun newTileProvider(
+            context: Context,
+            tileSource: OnlineTileSourceBase,
+            downloader: TileDownloader
+        ): MapTileProviderArray {
+            return MapTileProviderArray(
+                tileSource, SimpleRegisterReceiver(context), arrayOf(
+                    CachedTileModuleProvider(tileSource, downloader, false),
+                    CachedTileModuleProvider(tileSource, downloader, true)
+                )
+            )
+        }
+    }
+}
@@ -25,6 +25,8 @@ import android.util.Log
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import android.widget.Toast
+import androidx.appcompat.app.AlertDialog
 import androidx.core.content.ContextCompat
 import androidx.fragment.app.Fragment
 import androidx.lifecycle.Lifecycle
@@ -34,22 +36,34 @@ import com.android.gpstest.Application
 import com.android.gpstest.R
 import com.android.gpstest.library.data.LocationRepository
 import com.android.gpstest.library.util.MathUtils
+import com.android.gpstest.library.util.OrientationFramePacer.Companion.pacedToFrames
 import com.android.gpstest.library.util.PreferenceUtil
 import com.android.gpstest.library.util.PreferenceUtil.newStopTrackingListener
+import com.android.gpstest.library.util.SimplifiedPath
+import com.android.gpstest.library.util.TileDownloader
+import com.android.gpstest.map.CachedTileModuleProvider
 import com.android.gpstest.map.MapConstants
 import com.android.gpstest.map.MapViewModelController
 import com.android.gpstest.map.MapViewModelController.MapInterface
 import com.android.gpstest.map.OnMapClickListener
 import com.android.gpstest.util.MapUtils
 import dagger.hilt.android.AndroidEntryPoint
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import org.osmdroid.config.Configuration
+import org.osmdroid.events.DelayedMapListener
 import org.osmdroid.events.MapEventsReceiver
-import org.osmdroid.tileprovider.tilesource.ITileSource
+import org.osmdroid.events.MapListener
+import org.osmdroid.events.ScrollEvent
+import org.osmdroid.events.ZoomEvent
 import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase
+import org.osmdroid.tileprovider.tilesource.TileSourceFactory
 import org.osmdroid.util.GeoPoint
 import org.osmdroid.util.MapTileIndex
 import org.osmdroid.views.MapView
@@ -58,8 +72,10 @@ import org.osmdroid.views.overlay.Marker
 import org.osmdroid.views.overlay.Polygon
 import org.osmdroid.views.overlay.Polyline
 import org.osmdroid.views.overlay.gestures.RotationGestureOverlay
+import java.io.IOException
 import java.io.UnsupportedEncodingException
 import javax.inject.Inject
+import kotlin.math.hypot
 import org.osmdroid.views.overlay.CopyrightOverlay
 
 @AndroidEntryPoint
@@ -71,11 +87,11 @@ class MapFragment : Fragment(), MapInterface {
     var horAccPolygon: Polygon? = null
     var errorLine: Polyline? = null
     var pathLines: MutableList<Polyline> = ArrayList()
+    private val pathRuns = SimplifiedPath.Runs()
     private var gotFix = false
 
     // User preferences for map rotation based on sensors
     private var rotate = false
-    private var lastLocation: Location? = null
     private var onMapClickListener: OnMapClickListener? = null
     var mapController: MapViewModelController? = null
 
@@ -87,6 +103,13 @@ class MapFragment : Fragment(), MapInterface {
     private var locationFlow: Job? = null
     private var sensorFlow: Job? = null
 
+    // Opens the tile cache in the background, so the map isn't blocked while its index is read
+    private var tileProviderJob: Job? = null
+
+    // Downloader of the cached tile source shown on the map, used to save areas for offline use
+    private var tileDownloader: TileDownloader? = null
+    private var prefetchJob: Job? = null
+
     // Preference listener that will cancel the above flows when the user turns off tracking via UI
     private val trackingListener: SharedPreferences.OnSharedPreferenceChangeListener =
         newStopTrackingListener ({ onGnssStopped() }, Application.prefs)
@@ -112,7 +135,6 @@ class MapFragment : Fragment(), MapInterface {
             add(rotationGestureOverlay)
             add(CopyrightOverlay(inflater.context))
         }
-        lastLocation = null
         mapController = MapViewModelController(activity, this)
         mapController!!.restoreState(savedInstanceState, arguments, groundTruthMarker == null)
         map.invalidate()
@@ -120,6 +142,7 @@ class MapFragment : Fragment(), MapInterface {
         Application.prefs.registerOnSharedPreferenceChangeListener(trackingListener)
 
         addMapClickListener()
+        addPathViewportListener()
         observeLocationUpdateStates()
         return map
     }
@@ -206,18 +229,39 @@ class MapFragment : Fragment(), MapInterface {
             }
 
             override fun longPressHelper(p: GeoPoint): Boolean {
-                return false
+                // Offer to save the visible area for use without a network connection
+                confirmPrefetch()
+                return true
             }
         }
         map!!.overlays.add(MapEventsOverlay(mReceive))
     }
 
+    /**
+     * Re-clips the path lines when the map is first laid out and when it's scrolled or zoomed, so
+     * they match the new viewport and zoom level
+     */
+    private fun addPathViewportListener() {
+        map!!.addOnFirstLayoutListener { _, _, _, _, _ -> updatePath() }
+        map!!.addMapListener(DelayedMapListener(object : MapListener {
+            override fun onScroll(event: ScrollEvent?): Boolean {
+                updatePath()
+                return false
+            }
+
+            override fun onZoom(event: ZoomEvent?): Boolean {
+                updatePath()
+                return false
+            }
+        }, PATH_UPDATE_DELAY_MS))
+    }
+
     @Throws(UnsupportedEncodingException::class)
     private fun setMapBoxTileSource(mapType: String) {
         // To prevent web scrapers from easily finding the key, we store it encoded
         val keyBase64 = "amdXY2VockFndXc2R1R1U3dQTmk="
         val key = MathUtils.fromBase64(keyBase64)
-        val tileSource: ITileSource
+        val tileSource: OnlineTileSourceBase
         if (mapType == MAP_TYPE_SATELLITE) {
             // Use the Maptiler format
             tileSource = object : OnlineTileSourceBase(
@@ -240,7 +284,6 @@ class MapFragment : Fragment(), MapInterface {
                     return "© MapTiler © OpenStreetMap contributors"
                 }
             }
-            map!!.setTileSource(tileSource)
         } else {
             // Below is commented out due to Mapbox billing - until this is resolved, use default OSMDroid tiles
 
@@ -257,7 +300,83 @@ class MapFragment : Fragment(), MapInterface {
 //                }
 //            };
 //            mMap.setTileSource(tileSource);
+            tileSource = TileSourceFactory.DEFAULT_TILE_SOURCE
         }
+        setCachedTileSource(tileSource)
+    }
+
+    /**
+     * Shows tiles from [tileSource] on the map, served from the offline tile cache first and
+     * cached as they're downloaded
+     */
+    private fun setCachedTileSource(tileSource: OnlineTileSourceBase) {
+        if (tileDownloader?.let { map?.tileProvider?.tileSource?.name() } == tileSource.name() ||
+            tileProviderJob?.isActive == true) {
+            return
+        }
+        tileProviderJob = viewLifecycleOwner.lifecycleScope.launch {
+            val downloader = try {
+                withContext(Dispatchers.IO) {
+                    CachedTileModuleProvider.newDownloader(Application.app, tileSource)
+                }
+            } catch (e: IOException) {
+                Log.e(TAG, "Error opening tile cache, tiles won't be cached: $e")
+                null
+            }
+            val map = map ?: return@launch
+            tileDownloader = downloader
+            if (downloader != null) {
+                map.tileProvider = CachedTileModuleProvider.newTileProvider(Application.app, tileSource, downloader)
+            } else {
+                map.setTileSource(tileSource)
+            }
+        }
+    }
+
+    /**
+     * Asks the user whether to save the tiles of the visible area, from the current zoom level to
+     * [PREFETCH_ZOOM_LEVELS] levels closer, and then downloads them into the offline tile cache
+     */
+    private fun confirmPrefetch() {
+        val map = map ?: return
+        val downloader = tileDownloader
+        val tileSource = map.tileProvider.tileSource as? OnlineTileSourceBase
+        if (downloader == null || tileSource == null || !tileSource.tileSourcePolicy.acceptsBulkDownload()) {
+            Toast.makeText(requireContext(), R.string.offline_map_not_supported, Toast.LENGTH_SHORT).show()
+            return
+        }
+        if (prefetchJob?.isActive == true) {
+            Toast.makeText(requireContext(), R.string.offline_map_in_progress, Toast.LENGTH_SHORT).show()
+            return
+        }
+        val box = map.boundingBox
+        val minZoom = map.zoomLevelDouble.toInt().coerceIn(tileSource.minimumZoomLevel, tileSource.maximumZoomLevel)
+        val maxZoom = (minZoom + PREFETCH_ZOOM_LEVELS).coerceAtMost(tileSource.maximumZoomLevel)
+        val count = TileDownloader.tileCount(box.latSouth, box.lonWest, box.latNorth, box.lonEast, minZoom, maxZoom)
+        if (count > TileDownloader.DEFAULT_MAX_PREFETCH_TILES) {
+            Toast.makeText(requireContext(), R.string.offline_map_too_large, Toast.LENGTH_SHORT).show()
+            return
+        }
+        AlertDialog.Builder(requireActivity())
+            .setMessage(getString(R.string.offline_map_confirm, count))
+            .setPositiveButton(R.string.offline_map_save) { _, _ ->
+                prefetchJob = viewLifecycleOwner.lifecycleScope.launch {
+                    val result = withContext(Dispatchers.IO) {
+                        downloader.prefetch(
+                            box.latSouth, box.lonWest, box.latNorth, box.lonEast, minZoom, maxZoom,
+                            { _, _ -> isActive }
+                        )
+                    }
+                    val app = Application.app
+                    Toast.makeText(
+                        app,
+                        app.getString(R.string.offline_map_saved, result.downloaded + result.cached, result.total),
+                        Toast.LENGTH_LONG
+                    ).show()
+                }
+            }
+            .setNegativeButton(android.R.string.cancel, null)
+            .show()
     }
 
     private fun onGnssStarted() {
@@ -303,6 +422,8 @@ class MapFragment : Fragment(), MapInterface {
         }
         // Observe locations via Flow as they are generated by the repository
         sensorFlow = repository.getSensorUpdates()
+            // Coalesce sensor updates to one per display frame, measuring rotation at the map corners
+            .pacedToFrames({ map?.let { hypot(it.width.toFloat(), it.height.toFloat()) / 2f } ?: 0f })
             .flowWithLifecycle(lifecycle, Lifecycle.State.STARTED)
             .onEach {
                 //Log.d(TAG, "Map sensor: orientation ${it.values[0]}, tilt ${it.values[1]}")
@@ -339,12 +460,9 @@ class MapFragment : Fragment(), MapInterface {
                 }
             }
         }
-        if (mapController!!.mode == MapConstants.MODE_ACCURACY && lastLocation != null) {
+        if (mapController!!.mode == MapConstants.MODE_ACCURACY && mapController!!.addPathLocation(loc)) {
             // Draw line between this and last location
-            val drawn = drawPathLine(lastLocation!!, loc)
-            if (drawn) {
-                lastLocation = loc
-            }
+            updatePath()
         }
         if (mapController!!.mode == MapConstants.MODE_ACCURACY && !mapController!!.allowGroundTruthChange() && mapController!!.groundTruthLocation != null) {
             // Draw error line between ground truth and calculated position
@@ -373,9 +491,6 @@ class MapFragment : Fragment(), MapInterface {
             map!!.overlays.remove(myLocationMarker)
             map!!.overlays.add(myLocationMarker)
         }
-        if (lastLocation == null) {
-            lastLocation = loc
-        }
         map!!.invalidate()
     }
 
@@ -415,23 +530,52 @@ class MapFragment : Fragment(), MapInterface {
     }
 
     /**
-     * Draws a line on the map between the two locations if its greater than a threshold value defined
-     * by DRAW_LINE_THRESHOLD_METERS
-     * @param loc1
-     * @param loc2
+     * Draws the path from the map controller as polylines, clipped to the visible region and
+     * simplified for the current zoom level so the number of vertices is bounded no matter how long
+     * the path is. Existing polylines are reused, and nothing is redrawn if the path and the clipped
+     * region haven't changed.
      */
-    override fun drawPathLine(loc1: Location, loc2: Location): Boolean {
-        if (loc1.distanceTo(loc2) < MapConstants.DRAW_LINE_THRESHOLD_METERS) {
-            return false
-        }
-        val line = Polyline()
-        val points = listOf(MapUtils.makeGeoPoint(loc1), MapUtils.makeGeoPoint(loc2))
-        line.setPoints(points)
-        line.color = Color.RED
-        line.width = 2.0f
-        map!!.overlayManager.add(line)
-        pathLines.add(line)
-        return true
+    override fun updatePath() {
+        val map = map ?: return
+        val path = mapController?.path ?: return
+        if (mapController!!.mode != MapConstants.MODE_ACCURACY || !map.isLayoutOccurred) {
+            // The bounding box isn't valid until the map is laid out
+            return
+        }
+        val bounds = map.boundingBox
+        var west = bounds.lonWest
+        var east = bounds.lonEast
+        if (west > east) {
+            // Visible region crosses the antimeridian - clip by latitude only
+            west = -180.0
+            east = 180.0
+        }
+        val metersPerPixel = SimplifiedPath.metersPerPixel(map.mapCenter.latitude, map.zoomLevelDouble)
+        if (!path.clip(bounds.latSouth, west, bounds.latNorth, east, metersPerPixel, pathRuns)) {
+            return
+        }
+        for (run in 0 until pathRuns.runCount) {
+            val start = pathRuns.runStart(run)
+            val end = pathRuns.runEnd(run)
+            val points = ArrayList<GeoPoint>(end - start)
+            for (i in start until end) {
+                points.add(GeoPoint(pathRuns.latitude(i), pathRuns.longitude(i)))
+            }
+            if (run < pathLines.size) {
+                pathLines[run].setPoints(points)
+            } else {
+                val line = Polyline()
+                line.setPoints(points)
+                line.color = Color.RED
+                line.width = 2.0f
+                map.overlayManager.add(line)
+                pathLines.add(line)
+            }
+        }
+        while (pathLines.size > pathRuns.runCount) {
+            map.overlayManager.remove(pathLines.removeAt(pathLines.size - 1))
+        }
+        map.invalidate()
     }
 
     /**
@@ -442,10 +586,17 @@ class MapFragment : Fragment(), MapInterface {
             map!!.overlayManager.remove(line)
         }
         pathLines = ArrayList()
+        pathRuns.clear()
     }
 
     companion object {
         private const val TAG = "GpsMapFragment"
+
+        /**
+         * Time to wait after the map stops scrolling or zooming before re-clipping the path lines
+         */
+        private const val PATH_UPDATE_DELAY_MS = 100L
+        private const val PREFETCH_ZOOM_LEVELS = 3
         private const val MAP_TYPE_SATELLITE = "mapbox.satellite"
         private const val MAP_TYPE_STREETS = "barbeau/cju1g27421a0w1fmvsy13tjfv"
     }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import java.lang.reflect.Method
+
+/**
+ * Asserts that [block] doesn't allocate once it has been warmed up, by running it [iterations]
+ * times and checking that the current thread allocated less than one byte per run. Every object
+ * takes at least 16 bytes, while reading the allocation counter only allocates a few bytes in
+ * total, so this doesn't depend on timing. Skips the test if the JVM can't count the bytes
+ * allocated by a thread.
+ */
+fun assertNoAllocation(iterations: Int = 1000, block: () -> Unit) {
+    val counter = ThreadAllocationCounter.create()
+    assumeTrue("JVM can't count allocated bytes", counter != null)
+    repeat(iterations) {
+        block()
+        // Also warms up the counter, which is called via reflection
+        counter!!.allocatedBytes()
+    }
+    val before = counter!!.allocatedBytes()
+    repeat(iterations) {
+        block()
+    }
+    val allocated = counter.allocatedBytes() - before
+    assertTrue("Allocated $allocated bytes in $iterations runs", allocated < iterations)
+}
+
+/**
+ * Reads the bytes allocated by the current thread from the HotSpot extension of ThreadMXBean.
+ * It's called via reflection as java.lang.management isn't part of the Android API that unit
+ * tests are compiled against.
+ */
+private class ThreadAllocationCounter(private val bean: Any, private val getAllocatedBytes: Method) {
+
+    private val threadId = Thread.currentThread().id
+
+    fun allocatedBytes(): Long = getAllocatedBytes.invoke(bean, threadId) as Long
+
+    companion object {
+        fun create(): ThreadAllocationCounter? {
+            return try {
+                val bean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean")
+                    .invoke(null)
+                val type = Class.forName("com.sun.management.ThreadMXBean")
+                if (!type.isInstance(bean) ||
+                    type.getMethod("isThreadAllocatedMemoryEnabled").invoke(bean) != true
+                ) {
+                    return null
+                }
+                ThreadAllocationCounter(bean, type.getMethod("getThreadAllocatedBytes", Long::class.javaPrimitiveType))
+            } catch (e: ReflectiveOperationException) {
+                null
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.model.AvgError
+import com.android.gpstest.library.model.MeasuredError
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class AvgErrorTest {
+
+    @Test
+    fun testStatistics() {
+        val avgError = AvgError()
+        assertTrue(avgError.twoDrms.isNaN())
+        avgError.addMeasurement(MeasuredError(2f, -1.0))
+        avgError.addMeasurement(MeasuredError(4f))
+        avgError.addMeasurement(MeasuredError(6f, 3.0))
+
+        assertEquals(3, avgError.count)
+        assertEquals(4f, avgError.avgError, 0f)
+        assertEquals(2.0, avgError.errorStdDev, 1e-9)
+        assertEquals(4.0, avgError.cep50, 0.0)
+        assertEquals(2 * Math.sqrt(56.0 / 3), avgError.twoDrms, 1e-9)
+
+        // Vertical statistics only include measurements with vertical error
+        assertEquals(1.0, avgError.avgVertError, 1e-9)
+        assertEquals(2.0, avgError.avgVertAbsError, 1e-9)
+        assertEquals(Math.sqrt(8.0), avgError.vertErrorStdDev, 1e-9)
+        assertEquals(3.0, avgError.vertAbsErrorP95, 0.0)
+
+        avgError.reset()
+        assertEquals(0, avgError.count)
+        assertEquals(0f, avgError.avgError, 0f)
+        assertTrue(avgError.avgVertError.isNaN())
+        assertTrue(avgError.cep50.isNaN())
+    }
+
+    @Test
+    fun testTrackStatistics() {
+        val avgError = AvgError()
+        avgError.addMeasurement(MeasuredError(1f))
+        assertTrue(avgError.avgAlongTrackError.isNaN())
+        assertTrue(avgError.avgCrossTrackAbsError.isNaN())
+
+        // Outside the trajectory's times there's only cross-track error
+        avgError.addMeasurement(MeasuredError(2f, Double.NaN, Double.NaN, -2.0))
+        avgError.addMeasurement(MeasuredError(3f, Double.NaN, 1.0, 1.0))
+        avgError.addMeasurement(MeasuredError(4f, Double.NaN, 3.0, 4.0))
+
+        assertEquals(2.0, avgError.avgAlongTrackError, 1e-9)
+        assertEquals(Math.sqrt(2.0), avgError.alongTrackErrorStdDev, 1e-9)
+        assertEquals(7.0 / 3, avgError.avgCrossTrackAbsError, 1e-9)
+        assertEquals(3.0, avgError.crossTrackErrorStdDev, 1e-9)
+
+        avgError.reset()
+        assertTrue(avgError.avgAlongTrackError.isNaN())
+        assertTrue(avgError.crossTrackErrorStdDev.isNaN())
+    }
+
+    @Test
+    fun testMeanKeepsPrecision() {
+        val avgError = AvgError()
+        // A float running sum stops changing when adding small errors to a large sum
+        for (i in 0 until 1_000_000) {
+            avgError.addMeasurement(MeasuredError(if (i % 2 == 0) 1.1f else 1.3f))
+        }
+        assertEquals(1.2f, avgError.avgError, 1e-5f)
+    }
+}
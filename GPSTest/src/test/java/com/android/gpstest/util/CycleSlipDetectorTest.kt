@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import android.location.GnssMeasurement
+import android.location.GnssStatus
+import com.android.gpstest.library.util.CycleSlipDetector
+import com.android.gpstest.library.util.CycleSlipDetector.Companion.BREAK_ADR_STATE
+import com.android.gpstest.library.util.CycleSlipDetector.Companion.BREAK_DOPPLER
+import com.android.gpstest.library.util.CycleSlipDetector.Companion.BREAK_GEOMETRY_FREE
+import com.android.gpstest.library.util.CycleSlipDetector.Companion.BREAK_LOST
+import com.android.gpstest.library.util.PseudorangeCalculator
+import com.android.gpstest.library.util.PseudorangeCalculator.Companion.SPEED_OF_LIGHT_METERS_PER_SECOND
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class CycleSlipDetectorTest {
+
+    private val calculator = PseudorangeCalculator(capacity = 4)
+    private val detector = CycleSlipDetector()
+
+    @Test
+    fun testContinuousArc() {
+        for (k in 0 until 20) {
+            epoch(k)
+            assertEquals(0, detector.breaks(0))
+            assertEquals(k + 1, detector.arcLength(0))
+            assertEquals(k.toDouble(), detector.arcSeconds(0), 1e-9)
+        }
+        assertEquals(0, detector.slipCount(0))
+        assertEquals(0, detector.slipCount)
+    }
+
+    @Test
+    fun testAdrStateSlip() {
+        for (k in 0 until 10) {
+            epoch(k)
+        }
+        epoch(10, adrOffset = 3.0, adrState = GnssMeasurement.ADR_STATE_VALID or GnssMeasurement.ADR_STATE_CYCLE_SLIP)
+        assertEquals(BREAK_ADR_STATE or BREAK_DOPPLER, detector.breaks(0))
+        assertTrue(detector.isSlip(0))
+        assertEquals(10, detector.endedArcLength(0))
+        assertEquals(1, detector.arcLength(0))
+        assertEquals(1, detector.slipCount(0))
+        assertEquals(1, detector.slipCount)
+
+        // The new arc carries on from the phase after the slip
+        epoch(11, adrOffset = 3.0)
+        assertEquals(0, detector.breaks(0))
+        assertEquals(2, detector.arcLength(0))
+        assertEquals(1.0, detector.arcSeconds(0), 1e-9)
+        assertEquals(1, detector.slipCount(0))
+        assertEquals(0, detector.slipCount)
+
+        // A reset with a phase that happens to match is still a break
+        epoch(12, adrOffset = 3.0, adrState = GnssMeasurement.ADR_STATE_VALID or GnssMeasurement.ADR_STATE_RESET)
+        assertEquals(BREAK_ADR_STATE, detector.breaks(0))
+        assertEquals(2, detector.slipCount(0))
+    }
+
+    @Test
+    fun testDopplerSlip() {
+        for (k in 0 until 5) {
+            epoch(k)
+        }
+        // Within the threshold
+        epoch(5, adrOffset = 0.5)
+        assertEquals(0, detector.breaks(0))
+        // About 10 L1 cycles
+        epoch(6, adrOffset = 0.5 + 1.9)
+        assertEquals(BREAK_DOPPLER, detector.breaks(0))
+        assertEquals(6, detector.endedArcLength(0))
+        assertEquals(1, detector.slipCount(0))
+
+        // The pseudorange rate uncertainty widens the threshold
+        epoch(7, adrOffset = 0.5 + 1.9 + 1.9, rateUncertainty = 1.0)
+        assertEquals(0, detector.breaks(0))
+    }
+
+    @Test
+    fun testGeometryFreeSlip() {
+        for (k in 0 until 5) {
+            dualFrequencyEpoch(k)
+            assertEquals(0, detector.breaks(0))
+            assertEquals(0, detector.breaks(1))
+        }
+        // One L1 cycle - too small for the Doppler check, but the combination with L5 jumps
+        dualFrequencyEpoch(5, l1Offset = 0.19)
+        assertEquals(BREAK_GEOMETRY_FREE, detector.breaks(0))
+        assertEquals(BREAK_GEOMETRY_FREE, detector.breaks(1))
+        assertEquals(2, detector.slipCount)
+
+        dualFrequencyEpoch(6, l1Offset = 0.19)
+        assertEquals(0, detector.breaks(0))
+        assertEquals(0, detector.breaks(1))
+        assertEquals(2, detector.arcLength(0))
+
+        // Slow ionospheric changes don't break the arc
+        for (k in 7 until 20) {
+            dualFrequencyEpoch(k, l1Offset = 0.19 + 0.01 * (k - 6))
+            assertEquals(0, detector.breaks(0))
+        }
+        assertEquals(15, detector.arcLength(0))
+        assertEquals(1, detector.slipCount(0))
+    }
+
+    @Test
+    fun testLostPhase() {
+        for (k in 0 until 5) {
+            epoch(k)
+        }
+        // Not valid
+        epoch(5, adrState = GnssMeasurement.ADR_STATE_UNKNOWN)
+        assertEquals(BREAK_LOST, detector.breaks(0))
+        assertFalse(detector.isSlip(0))
+        assertEquals(5, detector.endedArcLength(0))
+        assertEquals(0, detector.arcLength(0))
+        epoch(6, adrState = GnssMeasurement.ADR_STATE_UNKNOWN)
+        assertEquals(0, detector.breaks(0))
+        epoch(7)
+        assertEquals(0, detector.breaks(0))
+        assertEquals(1, detector.arcLength(0))
+
+        // Missing for too long
+        epoch(8)
+        epoch(20)
+        assertEquals(BREAK_LOST, detector.breaks(0))
+        assertEquals(2, detector.endedArcLength(0))
+        assertEquals(1, detector.arcLength(0))
+
+        // Hardware clock discontinuity
+        epoch(21)
+        epoch(22, discontinuityCount = 1)
+        assertEquals(BREAK_LOST, detector.breaks(0))
+        assertEquals(0, detector.slipCount(0))
+    }
+
+    @Test
+    fun testManySignals() {
+        val detector = CycleSlipDetector(capacity = 4)
+        // Each satellite is seen for 10 epochs, with 30 at a time
+        for (k in 0 until 100) {
+            beginEpoch(k)
+            val first = k / 10 * 30
+            for (svid in first + 1..first + 30) {
+                val adrOffset = if (svid % 2 == 0 && k % 10 >= 5) 10.0 else 0.0
+                add(svid, range(k) + svid, adr(range(k)) + adrOffset)
+            }
+            detector.update(calculator.epoch)
+            assertEquals(30, detector.size)
+            for (i in 0 until detector.size) {
+                val slipped = calculator.epoch.svid(i) % 2 == 0 && k % 10 >= 5
+                assertEquals(if (slipped && k % 10 == 5) BREAK_DOPPLER else 0, detector.breaks(i))
+                assertEquals(if (slipped) 1 else 0, detector.slipCount(i))
+                assertEquals(if (slipped) k % 10 - 4 else k % 10 + 1, detector.arcLength(i))
+            }
+        }
+    }
+
+    /**
+     * Adds epoch [k] with one signal to the detector
+     */
+    private fun epoch(
+        k: Int,
+        adrOffset: Double = 0.0,
+        adrState: Int = GnssMeasurement.ADR_STATE_VALID,
+        rateUncertainty: Double = 0.05,
+        discontinuityCount: Int = 0
+    ) {
+        beginEpoch(k, discontinuityCount)
+        val range = range(k)
+        add(5, range, adr(range) + adrOffset, adrState, rateUncertainty = rateUncertainty)
+        detector.update(calculator.epoch)
+        assertEquals(1, detector.size)
+    }
+
+    /**
+     * Adds epoch [k] with L1 and L5 signals from one satellite to the detector, with the L1 phase
+     * offset by [l1Offset]
+     */
+    private fun dualFrequencyEpoch(k: Int, l1Offset: Double = 0.0) {
+        beginEpoch(k)
+        val range = range(k)
+        add(5, range, adr(range) + l1Offset)
+        add(5, range, adr(range) - 35.0, carrierFrequencyHz = L5_HZ)
+        detector.update(calculator.epoch)
+        assertEquals(2, detector.size)
+    }
+
+    /**
+     * Starts epoch [k], [k] seconds after the first
+     */
+    private fun beginEpoch(k: Int, discontinuityCount: Int = 0) {
+        val gpsNanos = GPS_NANOS + k * SECOND
+        val timeNanos = HARDWARE_TIME_NANOS + k * SECOND
+        assertTrue(calculator.beginEpoch(timeNanos, true, timeNanos - gpsNanos, 0.0, 10.0, 18, discontinuityCount))
+    }
+
+    /**
+     * Adds a GPS signal with a pseudorange of [pseudorangeMeters], moving away at 500 m/s
+     */
+    private fun add(
+        svid: Int,
+        pseudorangeMeters: Double,
+        adrMeters: Double,
+        adrState: Int = GnssMeasurement.ADR_STATE_VALID,
+        carrierFrequencyHz: Double = L1_HZ,
+        rateUncertainty: Double = 0.05
+    ) {
+        val tow = Math.floorMod(GPS_NANOS, WEEK) + (calculator.epoch.timeNanos - HARDWARE_TIME_NANOS)
+        val travelNanos = pseudorangeMeters / SPEED_OF_LIGHT_METERS_PER_SECOND * 1e9
+        assertTrue(
+            calculator.addMeasurement(
+                GnssStatus.CONSTELLATION_GPS, svid, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED,
+                travelNanos - 70_000_000L, tow - 70_000_000L, 15L, 40.0, 500.0, rateUncertainty,
+                carrierFrequencyHz, adrState, adrMeters
+            )
+        )
+    }
+
+    /**
+     * Range to the satellite at epoch [k]
+     */
+    private fun range(k: Int): Double = 21_500_000.0 + 500.0 * k
+
+    /**
+     * Accumulated delta range for [range], with an arbitrary starting point
+     */
+    private fun adr(range: Double): Double = range - 21_400_000.0
+
+    companion object {
+        private const val SECOND = 1_000_000_000L
+        private const val WEEK = 7L * 24L * 3600L * SECOND
+        private const val GPS_NANOS = 2250 * WEEK + 100 * SECOND
+        private const val HARDWARE_TIME_NANOS = 5_000_000_000_000L
+        private const val L1_HZ = 1575.42e6
+        private const val L5_HZ = 1176.45e6
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.model.GnssType
+import com.android.gpstest.library.model.SatelliteStatus
+import com.android.gpstest.library.util.DisplayConfig
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class DisplayConfigTest {
+
+    @Test
+    fun testToMask() {
+        assertEquals(0, DisplayConfig.toMask(emptySet()))
+
+        val mask = DisplayConfig.toMask(setOf(GnssType.NAVSTAR, GnssType.GALILEO))
+        assertNotEquals(0, mask and DisplayConfig.bit(GnssType.NAVSTAR))
+        assertNotEquals(0, mask and DisplayConfig.bit(GnssType.GALILEO))
+        assertEquals(0, mask and DisplayConfig.bit(GnssType.GLONASS))
+        assertEquals(0, mask and DisplayConfig.bit(GnssType.SBAS))
+    }
+
+    @Test
+    fun testComparatorFor() {
+        val gps1 = SatelliteStatus(1, GnssType.NAVSTAR, 20.0f, true, true, false, 0f, 0f)
+        val gps2 = SatelliteStatus(2, GnssType.NAVSTAR, 40.0f, true, true, true, 0f, 0f)
+        val gal1 = SatelliteStatus(1, GnssType.GALILEO, 30.0f, true, true, true, 0f, 0f)
+        val list = listOf(gal1, gps2, gps1)
+
+        // Constellation
+        assertEquals(listOf(gps1, gps2, gal1), list.sortedWith(DisplayConfig.comparatorFor(0, true)!!))
+        // Signal strength
+        assertEquals(listOf(gps2, gal1, gps1), list.sortedWith(DisplayConfig.comparatorFor(2, true)!!))
+        // Used in fix
+        assertEquals(listOf(gal1, gps2, gps1), list.sortedWith(DisplayConfig.comparatorFor(3, true)!!))
+        // Constellation, Used in Fix
+        assertEquals(listOf(gps2, gps1, gal1), list.sortedWith(DisplayConfig.comparatorFor(6, true)!!))
+        // Unknown sort order
+        assertNull(DisplayConfig.comparatorFor(7, true))
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.model.GnssType
+import com.android.gpstest.library.model.SatelliteStatus
+import com.android.gpstest.library.util.DopCalculator
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+class DopCalculatorTest {
+
+    private fun status(gnssType: GnssType, svid: Int, azimuth: Float, elevation: Float, usedInFix: Boolean = true): SatelliteStatus {
+        return SatelliteStatus(svid, gnssType, 40f, true, true, usedInFix, elevation, azimuth)
+    }
+
+    @Test
+    fun testKnownGeometry() {
+        // One satellite at the zenith and three on the horizon 120 degrees apart
+        val calculator = DopCalculator()
+        calculator.add(GnssType.NAVSTAR, 0.0, 90.0)
+        calculator.add(GnssType.NAVSTAR, 0.0, 0.0)
+        calculator.add(GnssType.NAVSTAR, 120.0, 0.0)
+        calculator.add(GnssType.NAVSTAR, 240.0, 0.0)
+        calculator.solve()
+        val dop = calculator.combined
+        assertEquals(4, dop.numSatellites)
+        assertEquals(sqrt(4.0 / 3), dop.hdop, 1e-9)
+        assertEquals(sqrt(4.0 / 3), dop.vdop, 1e-9)
+        assertEquals(sqrt(8.0 / 3), dop.pdop, 1e-9)
+        assertEquals(sqrt(1.0 / 3), dop.tdop, 1e-9)
+        assertEquals(sqrt(3.0), dop.gdop, 1e-9)
+        assertEquals(dop.pdop, calculator.constellation(GnssType.NAVSTAR).pdop, 1e-12)
+        assertFalse(calculator.constellation(GnssType.GALILEO).isValid)
+    }
+
+    @Test
+    fun testMatchesMatrixInversion() {
+        val random = Random(3)
+        val types = arrayOf(GnssType.NAVSTAR, GnssType.GALILEO, GnssType.BEIDOU)
+        val statuses = ArrayList<SatelliteStatus>()
+        for (i in 0 until 14) {
+            statuses.add(status(types[i % 3], i + 1, random.nextFloat() * 360, 5 + random.nextFloat() * 85))
+        }
+        val calculator = DopCalculator()
+        assertTrue(calculator.update(statuses))
+
+        // Single clock
+        val single = inverseDiagonal(statuses, 1) { 0 }
+        assertDops(single, calculator.combined, 14)
+
+        // Each constellation on its own
+        for (type in types) {
+            val subset = statuses.filter { it.gnssType == type }
+            assertDops(inverseDiagonal(subset, 1) { 0 }, calculator.constellation(type), subset.size)
+        }
+
+        // One clock per constellation
+        val multi = inverseDiagonal(statuses, 3) { types.indexOf(it.gnssType) }
+        val dop = calculator.multiClock
+        assertEquals(14, dop.numSatellites)
+        assertEquals(sqrt(multi[0] + multi[1]), dop.hdop, 1e-9)
+        assertEquals(sqrt(multi[2]), dop.vdop, 1e-9)
+        assertEquals(sqrt(multi[0] + multi[1] + multi[2]), dop.pdop, 1e-9)
+        assertEquals(sqrt(multi.sum()), dop.gdop, 1e-9)
+        for ((c, type) in types.withIndex()) {
+            assertEquals(sqrt(multi[3 + c]), calculator.multiClockTdop(type), 1e-9)
+        }
+        assertTrue(calculator.multiClockTdop(GnssType.GLONASS).isNaN())
+        // Estimating more clocks can only make the geometry worse
+        assertTrue(dop.pdop >= calculator.combined.pdop)
+    }
+
+    @Test
+    fun testSignalsAndSatellitesIgnored() {
+        val statuses = listOf(
+            status(GnssType.NAVSTAR, 1, 0f, 90f),
+            status(GnssType.NAVSTAR, 2, 0f, 10f),
+            status(GnssType.NAVSTAR, 3, 120f, 10f),
+            status(GnssType.NAVSTAR, 4, 240f, 10f),
+            // Second signal (e.g., L5) from the same satellite
+            status(GnssType.NAVSTAR, 4, 240f, 10f),
+            // Not used in fix, SBAS, and no position in the sky
+            status(GnssType.NAVSTAR, 5, 60f, 45f, false),
+            status(GnssType.SBAS, 131, 60f, 45f),
+            status(GnssType.NAVSTAR, 6, 0f, 0f)
+        )
+        val calculator = DopCalculator()
+        assertTrue(calculator.update(statuses))
+        assertEquals(4, calculator.combined.numSatellites)
+
+        val expected = DopCalculator()
+        expected.update(statuses.take(4))
+        assertEquals(expected.combined.pdop, calculator.combined.pdop, 1e-12)
+    }
+
+    @Test
+    fun testNotEnoughSatellites() {
+        val calculator = DopCalculator()
+        assertFalse(calculator.update(listOf(
+            status(GnssType.NAVSTAR, 1, 0f, 90f),
+            status(GnssType.NAVSTAR, 2, 0f, 10f),
+            status(GnssType.NAVSTAR, 3, 120f, 10f)
+        )))
+        assertEquals(3, calculator.combined.numSatellites)
+        assertTrue(calculator.combined.pdop.isNaN())
+        assertTrue(calculator.combined.toDilutionOfPrecision().horizontalDop.isNaN())
+
+        // Five satellites from two constellations are enough for two clocks, but four aren't
+        assertTrue(calculator.update(listOf(
+            status(GnssType.NAVSTAR, 1, 0f, 90f),
+            status(GnssType.NAVSTAR, 2, 0f, 10f),
+            status(GnssType.NAVSTAR, 3, 120f, 10f),
+            status(GnssType.NAVSTAR, 4, 240f, 10f),
+            status(GnssType.GALILEO, 1, 60f, 30f)
+        )))
+        assertTrue(calculator.multiClock.isValid)
+        assertTrue(calculator.update(listOf(
+            status(GnssType.NAVSTAR, 1, 0f, 90f),
+            status(GnssType.NAVSTAR, 2, 0f, 10f),
+            status(GnssType.GALILEO, 3, 120f, 10f),
+            status(GnssType.GALILEO, 4, 240f, 10f)
+        )))
+        assertFalse(calculator.multiClock.isValid)
+        assertTrue(calculator.multiClockTdop(GnssType.NAVSTAR).isNaN())
+    }
+
+    @Test
+    fun testDegenerateGeometry() {
+        // All satellites on the horizon, so height and clock can't be separated
+        val calculator = DopCalculator()
+        for (i in 0 until 6) {
+            calculator.add(GnssType.NAVSTAR, i * 60.0 + 1, 0.0)
+        }
+        calculator.solve()
+        assertEquals(6, calculator.combined.numSatellites)
+        assertFalse(calculator.combined.isValid)
+        assertFalse(calculator.multiClock.isValid)
+    }
+
+    @Test
+    fun testReusedCalculator() {
+        val random = Random(1)
+        val types = arrayOf(GnssType.NAVSTAR, GnssType.GLONASS, GnssType.GALILEO, GnssType.BEIDOU)
+        val calculator = DopCalculator()
+        // Reusing the calculator for epochs of different sizes gives the same results as a new one
+        for (k in 0 until 50) {
+            val statuses = List(4 + k % 40) {
+                status(types[it % 4], it / 4 + 1, random.nextFloat() * 360, random.nextFloat() * 90)
+            }
+            val expected = DopCalculator()
+            assertEquals(expected.update(statuses), calculator.update(statuses))
+            assertEquals(expected.combined.numSatellites, calculator.combined.numSatellites)
+            assertEquals(expected.combined.pdop, calculator.combined.pdop, 1e-12)
+            assertEquals(expected.multiClock.gdop, calculator.multiClock.gdop, 1e-12)
+        }
+    }
+
+    @Test
+    fun testUpdateDoesNotAllocate() {
+        val random = Random(1)
+        val types = arrayOf(GnssType.NAVSTAR, GnssType.GLONASS, GnssType.GALILEO, GnssType.BEIDOU)
+        val statuses = List(40) {
+            status(types[it % 4], it / 4 + 1, random.nextFloat() * 360, random.nextFloat() * 90, it % 10 != 9)
+        }
+        val calculator = DopCalculator()
+        assertNoAllocation {
+            calculator.update(statuses)
+        }
+        assertEquals(36, calculator.combined.numSatellites)
+    }
+
+    private fun assertDops(variances: DoubleArray, dop: DopCalculator.Dop, numSatellites: Int) {
+        assertEquals(numSatellites, dop.numSatellites)
+        assertEquals(sqrt(variances[0] + variances[1]), dop.hdop, 1e-9)
+        assertEquals(sqrt(variances[2]), dop.vdop, 1e-9)
+        assertEquals(sqrt(variances[0] + variances[1] + variances[2]), dop.pdop, 1e-9)
+        assertEquals(sqrt(variances[3]), dop.tdop, 1e-9)
+        assertEquals(sqrt(variances.sum()), dop.gdop, 1e-9)
+    }
+
+    /**
+     * Returns the diagonal of (H^T H)^-1 using Gauss-Jordan elimination, where H has a column for
+     * each of [clocks] clocks and [clock] gives the clock of a satellite
+     */
+    private fun inverseDiagonal(statuses: List<SatelliteStatus>, clocks: Int, clock: (SatelliteStatus) -> Int): DoubleArray {
+        val size = 3 + clocks
+        val a = Array(size) { DoubleArray(size * 2) }
+        for (s in statuses) {
+            val az = Math.toRadians(s.azimuthDegrees.toDouble())
+            val el = Math.toRadians(s.elevationDegrees.toDouble())
+            val h = DoubleArray(size)
+            h[0] = cos(el) * sin(az)
+            h[1] = cos(el) * cos(az)
+            h[2] = sin(el)
+            h[3 + clock(s)] = 1.0
+            for (i in 0 until size) {
+                for (j in 0 until size) {
+                    a[i][j] += h[i] * h[j]
+                }
+            }
+        }
+        for (i in 0 until size) {
+            a[i][size + i] = 1.0
+        }
+        for (c in 0 until size) {
+            var pivot = c
+            for (r in c + 1 until size) {
+                if (abs(a[r][c]) > abs(a[pivot][c])) pivot = r
+            }
+            val row = a[c]
+            a[c] = a[pivot]
+            a[pivot] = row
+            val d = a[c][c]
+            for (k in 0 until size * 2) a[c][k] /= d
+            for (r in 0 until size) {
+                if (r != c) {
+                    val f = a[r][c]
+                    for (k in 0 until size * 2) a[r][k] -= f * a[c][k]
+                }
+            }
+        }
+        return DoubleArray(size) { a[it][size + it] }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import android.location.GnssNavigationMessage
+import android.location.GnssStatus
+import com.android.gpstest.library.model.GlonassEphemeris
+import com.android.gpstest.library.model.KeplerEphemeris
+import com.android.gpstest.library.util.EphemerisCache
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+
+class EphemerisCacheTest {
+
+    private val file = File.createTempFile("ephemeris", ".bin").also { it.delete() }
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    @Test
+    fun testPutAndGet() {
+        val cache = EphemerisCache()
+        val gps = kepler(GnssStatus.CONSTELLATION_GPS, 5, 10, TIME)
+        assertTrue(cache.put(gps))
+        assertEquals(1, cache.version)
+        assertSame(gps, cache[GnssStatus.CONSTELLATION_GPS, 5, 10])
+        assertSame(gps, cache.latest(GnssStatus.CONSTELLATION_GPS, 5))
+        // Same svid in another constellation
+        assertNull(cache.latest(GnssStatus.CONSTELLATION_GALILEO, 5))
+        assertNull(cache[GnssStatus.CONSTELLATION_GPS, 5, 11])
+
+        // Decoding the same issue of data again replaces it, but an older copy doesn't
+        val again = kepler(GnssStatus.CONSTELLATION_GPS, 5, 10, TIME + 1000)
+        assertTrue(cache.put(again))
+        assertFalse(cache.put(gps))
+        assertSame(again, cache[GnssStatus.CONSTELLATION_GPS, 5, 10])
+        assertEquals(1, cache.size)
+        assertEquals(2, cache.version)
+
+        val glonass = glonass(3, 40, TIME)
+        assertTrue(cache.put(glonass))
+        assertSame(glonass, cache.latest(GnssStatus.CONSTELLATION_GLONASS, 3))
+        assertEquals(2, cache.all().size)
+
+        cache.clear()
+        assertEquals(0, cache.size)
+        assertNull(cache.latest(GnssStatus.CONSTELLATION_GPS, 5))
+    }
+
+    @Test
+    fun testOldestDropped() {
+        val cache = EphemerisCache(maxPerSatellite = 2)
+        cache.put(kepler(GnssStatus.CONSTELLATION_GPS, 1, 1, TIME))
+        cache.put(kepler(GnssStatus.CONSTELLATION_GPS, 1, 3, TIME + 2000))
+        // Out of order, e.g. loaded from the file after decoding started
+        cache.put(kepler(GnssStatus.CONSTELLATION_GPS, 1, 2, TIME + 1000))
+        assertEquals(2, cache.size)
+        assertNull(cache[GnssStatus.CONSTELLATION_GPS, 1, 1])
+        assertEquals(3, cache.latest(GnssStatus.CONSTELLATION_GPS, 1)!!.iode)
+
+        cache.put(kepler(GnssStatus.CONSTELLATION_GALILEO, 1, 7, TIME))
+        assertEquals(2, cache.removeDecodedBefore(TIME + 1500))
+        assertEquals(1, cache.size)
+        assertEquals(3, cache.latest(GnssStatus.CONSTELLATION_GPS, 1)!!.iode)
+        assertNull(cache.latest(GnssStatus.CONSTELLATION_GALILEO, 1))
+    }
+
+    @Test
+    fun testSaveAndLoad() {
+        val cache = EphemerisCache(file)
+        val gps = kepler(GnssStatus.CONSTELLATION_GPS, 5, 10, TIME)
+        val beidou = kepler(GnssStatus.CONSTELLATION_BEIDOU, 30, 1, TIME - 60_000)
+        val glonass = glonass(7, 54, TIME)
+        // Too old to load
+        val old = kepler(GnssStatus.CONSTELLATION_GALILEO, 11, 100, TIME - EphemerisCache.DEFAULT_MAX_AGE_MILLIS - 1)
+        listOf(gps, beidou, glonass, old).forEach { cache.put(it) }
+        assertTrue(cache.save())
+        assertTrue(file.exists())
+
+        val loaded = EphemerisCache(file)
+        assertEquals(3, loaded.load(TIME))
+        assertEquals(gps, loaded[GnssStatus.CONSTELLATION_GPS, 5, 10])
+        assertEquals(beidou, loaded[GnssStatus.CONSTELLATION_BEIDOU, 30, 1])
+        assertEquals(glonass, loaded[GnssStatus.CONSTELLATION_GLONASS, 7, 54])
+        assertNull(loaded[GnssStatus.CONSTELLATION_GALILEO, 11, 100])
+
+        // Loading doesn't replace ephemerides decoded since
+        val decoded = EphemerisCache(file)
+        val newer = kepler(GnssStatus.CONSTELLATION_GPS, 5, 10, TIME + 1000)
+        decoded.put(newer)
+        assertEquals(2, decoded.load(TIME))
+        assertSame(newer, decoded[GnssStatus.CONSTELLATION_GPS, 5, 10])
+    }
+
+    @Test
+    fun testBadFile() {
+        // No file
+        assertFalse(EphemerisCache().save())
+        assertEquals(0, EphemerisCache().load())
+        assertEquals(0, EphemerisCache(file).load())
+
+        file.writeText("not an ephemeris cache")
+        val cache = EphemerisCache(file)
+        assertEquals(0, cache.load())
+        assertEquals(0, cache.size)
+    }
+
+    private fun kepler(constellationType: Int, svid: Int, iode: Int, timeMillis: Long) = KeplerEphemeris(
+        constellationType = constellationType,
+        svid = svid,
+        iode = iode,
+        iodc = iode,
+        week = 2290,
+        toe = 518400.0,
+        toc = 518400.0,
+        sqrtA = 5153.7,
+        eccentricity = 0.0123,
+        i0 = 0.97,
+        omega0 = -1.2,
+        omega = 0.7,
+        m0 = 2.1,
+        deltaN = 4.5e-9,
+        omegaDot = -8.1e-9,
+        iDot = 1.1e-10,
+        cuc = 1e-6,
+        cus = 2e-6,
+        crc = 250.0,
+        crs = -20.0,
+        cic = 3e-8,
+        cis = -4e-8,
+        af0 = 1e-4,
+        af1 = -1e-12,
+        af2 = 0.0,
+        tgd = -5e-9,
+        accuracyIndex = 0,
+        health = 0,
+        source = GnssNavigationMessage.TYPE_GPS_L1CA,
+        decodedTimeMillis = timeMillis
+    )
+
+    private fun glonass(svid: Int, iode: Int, timeMillis: Long) = GlonassEphemeris(
+        svid = svid,
+        iode = iode,
+        tb = iode * 900.0,
+        tk = iode * 900.0 - 60,
+        dayNumber = 300,
+        x = 1.2e7,
+        y = -1.5e7,
+        z = 1.7e7,
+        vx = 1200.0,
+        vy = 2500.0,
+        vz = -800.0,
+        ax = 1e-6,
+        ay = -2e-6,
+        az = 3e-6,
+        tauN = 1e-5,
+        gammaN = 9e-13,
+        ageDays = 0,
+        health = 0,
+        decodedTimeMillis = timeMillis
+    )
+
+    companion object {
+        private const val TIME = 1_700_000_000_000L
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.util.GeodesyUtils
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class GeodesyUtilsTest {
+
+    // Flinders Peak to Buninyong, the example from Vincenty (1975)
+    private val flindersLat = -(37 + 57 / 60.0 + 3.72030 / 3600)
+    private val flindersLon = 144 + 25 / 60.0 + 29.52440 / 3600
+    private val buninyongLat = -(37 + 39 / 60.0 + 10.15610 / 3600)
+    private val buninyongLon = 143 + 55 / 60.0 + 35.38390 / 3600
+
+    @Test
+    fun testVincenty() {
+        assertEquals(54972.271, GeodesyUtils.distance(flindersLat, flindersLon, buninyongLat, buninyongLon), 1e-3)
+        val out = DoubleArray(3)
+        GeodesyUtils.distanceAndBearing(flindersLat, flindersLon, buninyongLat, buninyongLon, out)
+        assertEquals(54972.271, out[0], 1e-3)
+        assertEquals(306 + 52 / 60.0 + 5.37 / 3600, out[1], 1e-5)
+        assertEquals(307 + 10 / 60.0 + 25.07 / 3600, out[2], 1e-5)
+        assertEquals(out[1], GeodesyUtils.bearing(flindersLat, flindersLon, buninyongLat, buninyongLon), 0.0)
+
+        // One degree along the equator
+        assertEquals(111319.491, GeodesyUtils.distance(0.0, 0.0, 0.0, 1.0), 1e-3)
+        assertEquals(0.0, GeodesyUtils.distance(10.0, 20.0, 10.0, 20.0), 0.0)
+    }
+
+    @Test
+    fun testHaversine() {
+        val vincenty = GeodesyUtils.distance(flindersLat, flindersLon, buninyongLat, buninyongLon)
+        val haversine = GeodesyUtils.haversineDistance(flindersLat, flindersLon, buninyongLat, buninyongLon)
+        assertEquals(vincenty, haversine, vincenty * 0.005)
+    }
+
+    @Test
+    fun testEcefRoundTrip() {
+        val ecef = DoubleArray(3)
+        GeodesyUtils.geodeticToEcef(0.0, 0.0, 0.0, ecef)
+        assertEquals(GeodesyUtils.WGS84_A, ecef[0], 1e-6)
+        assertEquals(0.0, ecef[1], 1e-6)
+        assertEquals(0.0, ecef[2], 1e-6)
+
+        GeodesyUtils.geodeticToEcef(90.0, 0.0, 100.0, ecef)
+        assertEquals(GeodesyUtils.WGS84_B + 100, ecef[2], 1e-6)
+
+        val geodetic = DoubleArray(3)
+        GeodesyUtils.geodeticToEcef(flindersLat, flindersLon, 350.0, ecef)
+        GeodesyUtils.ecefToGeodetic(ecef[0], ecef[1], ecef[2], geodetic)
+        assertEquals(flindersLat, geodetic[0], 1e-9)
+        assertEquals(flindersLon, geodetic[1], 1e-9)
+        assertEquals(350.0, geodetic[2], 1e-4)
+    }
+
+    @Test
+    fun testEnu() {
+        val enu = DoubleArray(3)
+        // Directly above the reference point
+        GeodesyUtils.geodeticToEnu(flindersLat, flindersLon, 110.0, flindersLat, flindersLon, 10.0, enu)
+        assertEquals(0.0, enu[0], 1e-6)
+        assertEquals(0.0, enu[1], 1e-6)
+        assertEquals(100.0, enu[2], 1e-6)
+
+        // Horizontal ENU distance to a nearby point matches the geodesic distance
+        GeodesyUtils.geodeticToEnu(-37.95, 144.43, 0.0, flindersLat, flindersLon, 0.0, enu)
+        val distance = GeodesyUtils.distance(flindersLat, flindersLon, -37.95, 144.43)
+        assertEquals(distance, Math.hypot(enu[0], enu[1]), 1e-3)
+
+        val geodetic = DoubleArray(3)
+        GeodesyUtils.enuToGeodetic(enu[0], enu[1], enu[2], flindersLat, flindersLon, 0.0, geodetic)
+        assertEquals(-37.95, geodetic[0], 1e-9)
+        assertEquals(144.43, geodetic[1], 1e-9)
+        assertEquals(0.0, geodetic[2], 1e-4)
+    }
+
+    @Test
+    fun testBatchMatchesSingle() {
+        val lats = doubleArrayOf(flindersLat, buninyongLat, 0.0)
+        val lons = doubleArrayOf(flindersLon, buninyongLon, 1.0)
+        val alts = doubleArrayOf(10.0, Double.NaN, 0.0)
+        val distances = DoubleArray(3)
+        GeodesyUtils.distances(lats, lons, flindersLat, flindersLon, distances)
+        val east = DoubleArray(3)
+        val north = DoubleArray(3)
+        val up = DoubleArray(3)
+        GeodesyUtils.geodeticToEnu(lats, lons, alts, flindersLat, flindersLon, 0.0, east, north, up)
+        val enu = DoubleArray(3)
+        for (i in lats.indices) {
+            assertEquals(GeodesyUtils.distance(flindersLat, flindersLon, lats[i], lons[i]), distances[i], 0.0)
+            val alt = if (alts[i].isNaN()) 0.0 else alts[i]
+            GeodesyUtils.geodeticToEnu(lats[i], lons[i], alt, flindersLat, flindersLon, 0.0, enu)
+            assertEquals(enu[0], east[i], 1e-6)
+            assertEquals(enu[1], north[i], 1e-6)
+            assertEquals(enu[2], up[i], 1e-6)
+        }
+    }
+}
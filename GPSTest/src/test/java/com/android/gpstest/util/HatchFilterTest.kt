@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import android.location.GnssMeasurement
+import android.location.GnssStatus
+import com.android.gpstest.library.util.HatchFilter
+import com.android.gpstest.library.util.PseudorangeCalculator
+import com.android.gpstest.library.util.PseudorangeCalculator.Companion.SPEED_OF_LIGHT_METERS_PER_SECOND
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+import kotlin.math.sqrt
+
+class HatchFilterTest {
+
+    private val calculator = PseudorangeCalculator(capacity = 4)
+    private val random = Random(7)
+
+    @Test
+    fun testSmoothing() {
+        val filter = HatchFilter(maxWindow = 50)
+        var rawSquares = 0.0
+        var smoothedSquares = 0.0
+        var samples = 0
+        for (k in 0 until 300) {
+            val range = range(k)
+            beginEpoch(k)
+            add(5, range + 3.0 * random.nextGaussian(), adr(range) + 0.002 * random.nextGaussian())
+            filter.update(calculator.epoch)
+            assertEquals(1, filter.size)
+            assertEquals(minOf(k + 1, 50), filter.smoothingCount(0))
+            if (k >= 100) {
+                rawSquares += sq(calculator.epoch.pseudorangeMeters(0) - range)
+                smoothedSquares += sq(filter.smoothedPseudorangeMeters(0) - range)
+                samples++
+            }
+        }
+        val raw = sqrt(rawSquares / samples)
+        val smoothed = sqrt(smoothedSquares / samples)
+        assertTrue("Raw RMS $raw", raw > 2.0)
+        // Noise is reduced by about the square root of the window
+        assertTrue("Smoothed RMS $smoothed", smoothed < 1.0)
+    }
+
+    @Test
+    fun testResetOnAdrState() {
+        val filter = HatchFilter()
+        for (k in 0 until 10) {
+            epoch(filter, k)
+        }
+        assertEquals(10, filter.smoothingCount(0))
+
+        // A cycle slip - the phase jumps, but the smoothed pseudorange doesn't follow it
+        beginEpoch(10)
+        val range = range(10)
+        add(5, range, adr(range) + 1000.0, GnssMeasurement.ADR_STATE_VALID or GnssMeasurement.ADR_STATE_CYCLE_SLIP)
+        filter.update(calculator.epoch)
+        assertEquals(1, filter.smoothingCount(0))
+        assertEquals(1, filter.resetCount)
+        assertEquals(calculator.epoch.pseudorangeMeters(0), filter.smoothedPseudorangeMeters(0), 1e-9)
+        epoch(filter, 11, adrOffset = 1000.0)
+        assertEquals(2, filter.smoothingCount(0))
+        assertEquals(range(11), filter.smoothedPseudorangeMeters(0), 1e-3)
+
+        // Reset
+        beginEpoch(12)
+        add(5, range(12), 0.0, GnssMeasurement.ADR_STATE_VALID or GnssMeasurement.ADR_STATE_RESET)
+        filter.update(calculator.epoch)
+        assertEquals(1, filter.smoothingCount(0))
+
+        // No valid phase
+        for (k in 13 until 16) {
+            beginEpoch(k)
+            add(5, range(k), adr(range(k)), GnssMeasurement.ADR_STATE_UNKNOWN)
+            filter.update(calculator.epoch)
+            assertEquals(1, filter.smoothingCount(0))
+        }
+        epoch(filter, 16)
+        assertEquals(1, filter.smoothingCount(0))
+        epoch(filter, 17)
+        assertEquals(2, filter.smoothingCount(0))
+    }
+
+    @Test
+    fun testResetOnClockDiscontinuity() {
+        val filter = HatchFilter()
+        for (k in 0 until 5) {
+            epoch(filter, k)
+        }
+        assertEquals(5, filter.smoothingCount(0))
+        epoch(filter, 5, discontinuityCount = 1)
+        assertEquals(1, filter.smoothingCount(0))
+        epoch(filter, 6, discontinuityCount = 1)
+        assertEquals(2, filter.smoothingCount(0))
+    }
+
+    @Test
+    fun testResetOnGapAndDivergence() {
+        val filter = HatchFilter(maxGapNanos = 3 * SECOND, maxDivergenceMeters = 50.0)
+        for (k in 0 until 5) {
+            epoch(filter, k)
+        }
+        // Missing for 2 seconds
+        epoch(filter, 7)
+        assertEquals(6, filter.smoothingCount(0))
+        // Missing for 5 seconds
+        epoch(filter, 12)
+        assertEquals(1, filter.smoothingCount(0))
+
+        for (k in 13 until 20) {
+            epoch(filter, k)
+        }
+        assertEquals(8, filter.smoothingCount(0))
+        // A cycle slip that isn't flagged
+        epoch(filter, 20, adrOffset = 500.0)
+        assertEquals(1, filter.smoothingCount(0))
+        assertEquals(1, filter.resetCount)
+    }
+
+    @Test
+    fun testManySignals() {
+        val filter = HatchFilter(capacity = 4)
+        // Each signal is seen for 10 epochs, with 40 signals at a time on two frequencies
+        for (k in 0 until 100) {
+            beginEpoch(k)
+            val first = k / 10 * 20
+            for (svid in first + 1..first + 20) {
+                add(svid, range(k) + svid, adr(range(k)))
+                add(svid, range(k) + svid, adr(range(k)) + 10.0, carrierFrequencyHz = L5_HZ)
+            }
+            filter.update(calculator.epoch)
+            assertEquals(40, filter.size)
+            for (i in 0 until filter.size) {
+                assertEquals(k % 10 + 1, filter.smoothingCount(i))
+                assertEquals(calculator.epoch.pseudorangeMeters(i), filter.smoothedPseudorangeMeters(i), 1e-3)
+            }
+        }
+    }
+
+    @Test
+    fun testSignalId() {
+        val l1 = HatchFilter.signalId(GnssStatus.CONSTELLATION_GPS, 5, L1_HZ)
+        assertEquals(l1, HatchFilter.signalId(GnssStatus.CONSTELLATION_GPS, 5, L1_HZ + 10.0))
+        assertNotEquals(l1, HatchFilter.signalId(GnssStatus.CONSTELLATION_GPS, 5, L5_HZ))
+        assertNotEquals(l1, HatchFilter.signalId(GnssStatus.CONSTELLATION_GPS, 6, L1_HZ))
+        assertNotEquals(l1, HatchFilter.signalId(GnssStatus.CONSTELLATION_GALILEO, 5, L1_HZ))
+        assertNotEquals(l1, HatchFilter.signalId(GnssStatus.CONSTELLATION_GPS, 5, Double.NaN))
+    }
+
+    /**
+     * Adds epoch [k] with one signal to [filter], with the phase offset by [adrOffset]
+     */
+    private fun epoch(filter: HatchFilter, k: Int, adrOffset: Double = 0.0, discontinuityCount: Int = 0) {
+        beginEpoch(k, discontinuityCount)
+        val range = range(k)
+        add(5, range, adr(range) + adrOffset)
+        filter.update(calculator.epoch)
+        assertEquals(1, filter.size)
+    }
+
+    /**
+     * Starts epoch [k], [k] seconds after the first
+     */
+    private fun beginEpoch(k: Int, discontinuityCount: Int = 0) {
+        val gpsNanos = GPS_NANOS + k * SECOND
+        val timeNanos = HARDWARE_TIME_NANOS + k * SECOND
+        assertTrue(calculator.beginEpoch(timeNanos, true, timeNanos - gpsNanos, 0.0, 10.0, 18, discontinuityCount))
+    }
+
+    /**
+     * Adds a GPS signal with a pseudorange of [pseudorangeMeters]
+     */
+    private fun add(
+        svid: Int,
+        pseudorangeMeters: Double,
+        adrMeters: Double,
+        adrState: Int = GnssMeasurement.ADR_STATE_VALID,
+        carrierFrequencyHz: Double = L1_HZ
+    ) {
+        val tow = Math.floorMod(GPS_NANOS, WEEK) + (calculator.epoch.timeNanos - HARDWARE_TIME_NANOS)
+        val travelNanos = pseudorangeMeters / SPEED_OF_LIGHT_METERS_PER_SECOND * 1e9
+        assertTrue(
+            calculator.addMeasurement(
+                GnssStatus.CONSTELLATION_GPS, svid, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED,
+                travelNanos - 70_000_000L, tow - 70_000_000L, 15L, 40.0, 500.0, 0.05,
+                carrierFrequencyHz, adrState, adrMeters
+            )
+        )
+    }
+
+    /**
+     * Range to the satellite at epoch [k], moving away at 500 m/s
+     */
+    private fun range(k: Int): Double = 21_500_000.0 + 500.0 * k
+
+    /**
+     * Accumulated delta range for [range], with an arbitrary starting point
+     */
+    private fun adr(range: Double): Double = range - 21_400_000.0
+
+    private fun sq(x: Double): Double = x * x
+
+    companion object {
+        private const val SECOND = 1_000_000_000L
+        private const val WEEK = 7L * 24L * 3600L * SECOND
+        private const val GPS_NANOS = 2250 * WEEK + 100 * SECOND
+        private const val HARDWARE_TIME_NANOS = 5_000_000_000_000L
+        private const val L1_HZ = 1575.42e6
+        private const val L5_HZ = 1176.45e6
+    }
+}
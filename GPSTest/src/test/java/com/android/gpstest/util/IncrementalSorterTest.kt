@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.model.GnssType
+import com.android.gpstest.library.model.SatelliteStatus
+import com.android.gpstest.library.util.IncrementalSorter
+import com.android.gpstest.library.util.SatelliteUtil.toSignalId
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class IncrementalSorterTest {
+
+    private val byCn0 = compareByDescending(SatelliteStatus::cn0DbHz)
+
+    private fun gps(svid: Int, cn0: Float): SatelliteStatus {
+        return SatelliteStatus(svid, GnssType.NAVSTAR, cn0, true, true, true, 0f, 0f)
+    }
+
+    @Test
+    fun testSortMatchesFullSort() {
+        val sorter = IncrementalSorter()
+        val first = listOf(gps(1, 20f), gps(2, 40f), gps(3, 30f), gps(4, 10f))
+        val result1 = sorter.sort(first, byCn0)
+        assertEquals(first.sortedWith(byCn0), result1.sorted)
+
+        // C/N0 of svid 4 increases past svid 3 and svid 5 is added
+        val second = listOf(gps(1, 21f), gps(2, 39f), gps(3, 30f), gps(4, 35f), gps(5, 25f))
+        val result2 = sorter.sort(second, byCn0)
+        assertEquals(second.sortedWith(byCn0), result2.sorted)
+        // Sorted as svid 2, 4, 3, 5, 1 - previously 2, 3, 1, 4
+        assertArrayEquals(intArrayOf(0, 3, 1, IncrementalSorter.NEW, 2), result2.previousPositions)
+        assertTrue(result2.moved.contains(gps(4, 35f).toSignalId()))
+        assertTrue(result2.moved.contains(gps(5, 25f).toSignalId()))
+        assertEquals(2, result2.moved.size)
+    }
+
+    @Test
+    fun testTiesKeepPreviousOrder() {
+        val sorter = IncrementalSorter()
+        sorter.sort(listOf(gps(2, 30f), gps(1, 20f)), byCn0)
+
+        // Equal C/N0 values should keep the order from the previous update
+        val result = sorter.sort(listOf(gps(1, 25f), gps(2, 25f)), byCn0)
+        assertEquals(2, result.sorted[0].svid)
+        assertEquals(1, result.sorted[1].svid)
+        assertTrue(result.moved.isEmpty())
+    }
+
+    @Test
+    fun testNullComparatorKeepsOrder() {
+        val sorter = IncrementalSorter()
+        val list = listOf(gps(3, 10f), gps(1, 30f), gps(2, 20f))
+        assertEquals(list, sorter.sort(list, null).sorted)
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.util.LocationErrorHistory
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+
+class LocationErrorHistoryTest {
+
+    private fun LocationErrorHistory.add(i: Int) {
+        add(
+            i * 1000L,
+            i / 1000.0,
+            -i / 1000.0,
+            if (i % 2 == 0) i.toDouble() else Double.NaN,
+            i + 0.5f,
+            if (i % 2 == 0) i + 0.25f else Float.NaN,
+            i * 2f,
+            if (i % 2 == 0) -i.toDouble() else Double.NaN,
+            if (i % 2 == 0) i * 3f else Float.NaN,
+            -i * 4f
+        )
+    }
+
+    private fun assertFix(history: LocationErrorHistory, i: Int) {
+        val index = i.toLong()
+        assertEquals(i * 1000L, history.timeMillis(index))
+        assertEquals(i / 1000.0, history.latitude(index), 0.0)
+        assertEquals(-i / 1000.0, history.longitude(index), 0.0)
+        assertEquals(i + 0.5f, history.horAccuracy(index), 0f)
+        assertEquals(i * 2f, history.error(index), 0f)
+        assertEquals(-i * 4f, history.crossTrackError(index), 0f)
+        if (i % 2 == 0) {
+            assertEquals(i.toDouble(), history.altitude(index), 0.0)
+            assertEquals(i + 0.25f, history.vertAccuracy(index), 0f)
+            assertEquals(-i.toDouble(), history.vertError(index), 0.0)
+            assertEquals(i * 3f, history.alongTrackError(index), 0f)
+        } else {
+            assertTrue(history.altitude(index).isNaN())
+            assertTrue(history.vertAccuracy(index).isNaN())
+            assertTrue(history.vertError(index).isNaN())
+            assertTrue(history.alongTrackError(index).isNaN())
+        }
+    }
+
+    @Test
+    fun testChunkedGrowth() {
+        val history = LocationErrorHistory(null, 10, 4)
+        for (i in 0 until 25) {
+            history.add(i)
+        }
+        assertEquals(25L, history.size)
+        assertEquals(0L, history.firstIndex)
+        for (i in 0 until 25) {
+            assertFix(history, i)
+        }
+    }
+
+    @Test
+    fun testOldChunksDroppedWithoutSpillFile() {
+        val history = LocationErrorHistory(null, 2, 4)
+        for (i in 0 until 10) {
+            history.add(i)
+        }
+        // Chunks [4, 8) and [8, 10) are kept
+        assertEquals(10L, history.size)
+        assertEquals(4L, history.firstIndex)
+        for (i in 4 until 10) {
+            assertFix(history, i)
+        }
+    }
+
+    @Test
+    fun testIndexAt() {
+        val history = LocationErrorHistory(null, 2, 4)
+        assertTrue(history.indexAt(0L).isNaN())
+        history.add(0)
+        assertEquals(0.0, history.indexAt(0L), 0.0)
+        assertEquals(0.0, history.indexAt(500L), 0.0)
+        for (i in 1 until 10) {
+            history.add(i)
+        }
+        // Fixes are 1 second apart, and [4, 10) are kept
+        assertTrue(history.indexAt(3000L).isNaN())
+        assertEquals(4.0, history.indexAt(4000L), 0.0)
+        assertEquals(6.25, history.indexAt(6250L), 1e-9)
+        assertEquals(9.0, history.indexAt(9000L), 0.0)
+        // After the last fix, at the rate of the last two fixes
+        assertEquals(10.0, history.indexAt(10_000L), 1e-9)
+    }
+
+    @Test
+    fun testFirstIndexAtOrAfter() {
+        val history = LocationErrorHistory(null, 2, 4)
+        assertEquals(0L, history.firstIndexAtOrAfter(0L))
+        for (i in 0 until 10) {
+            history.add(i)
+        }
+        // Fixes are 1 second apart, and [4, 10) are kept
+        assertEquals(4L, history.firstIndexAtOrAfter(0L))
+        assertEquals(5L, history.firstIndexAtOrAfter(5000L))
+        assertEquals(6L, history.firstIndexAtOrAfter(5001L))
+        assertEquals(10L, history.firstIndexAtOrAfter(9001L))
+    }
+
+    @Test(expected = IndexOutOfBoundsException::class)
+    fun testDroppedFixThrows() {
+        val history = LocationErrorHistory(null, 1, 4)
+        for (i in 0 until 5) {
+            history.add(i)
+        }
+        history.error(3)
+    }
+
+    @Test
+    fun testOldChunksSpilledToFile() {
+        val file = File.createTempFile("history", ".bin")
+        val history = LocationErrorHistory(file, 2, 4)
+        for (i in 0 until 30) {
+            history.add(i)
+        }
+        assertEquals(0L, history.firstIndex)
+        assertTrue(file.length() > 0)
+        for (i in 0 until 30) {
+            assertFix(history, i)
+        }
+
+        history.reset()
+        assertFalse(file.exists())
+        assertEquals(0L, history.size)
+        for (i in 0 until 10) {
+            history.add(i)
+        }
+        for (i in 0 until 10) {
+            assertFix(history, i)
+        }
+        history.close()
+        assertFalse(file.exists())
+    }
+}
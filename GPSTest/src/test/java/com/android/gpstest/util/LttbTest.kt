@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.util.Lttb
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LttbTest {
+
+    private val out = LongArray(10)
+
+    @Test
+    fun testShortSeriesNotDownsampled() {
+        val count = Lttb.downsample({ it.toDouble() }, 5, 12, 10, out)
+        assertEquals(7, count)
+        for (i in 0 until count) {
+            assertEquals(5L + i, out[i])
+        }
+    }
+
+    @Test
+    fun testKeepsEndpointsAndPeaks() {
+        // Flat series with one spike in the middle
+        val series = Lttb.Series { if (it == 500L) 100.0 else 1.0 }
+        val count = Lttb.downsample(series, 0, 1000, 10, out)
+        assertEquals(10, count)
+        assertEquals(0L, out[0])
+        assertEquals(999L, out[count - 1])
+        assertTrue(out.take(count).contains(500L))
+        for (i in 1 until count) {
+            assertTrue(out[i] > out[i - 1])
+        }
+    }
+
+    @Test
+    fun testMissingPointsSkipped() {
+        // Only even indices have values
+        val series = Lttb.Series { if (it % 2 == 0L) it.toDouble() else Double.NaN }
+        val count = Lttb.downsample(series, 1, 100, 10, out)
+        assertEquals(2L, out[0])
+        assertEquals(98L, out[count - 1])
+        for (i in 0 until count) {
+            assertEquals(0L, out[i] % 2)
+        }
+
+        val allMissing = Lttb.downsample({ Double.NaN }, 0, 100, 10, out)
+        assertEquals(0, allMissing)
+    }
+}
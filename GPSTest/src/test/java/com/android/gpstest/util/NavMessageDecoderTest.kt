@@ -0,0 +1,625 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import android.location.GnssNavigationMessage
+import android.location.GnssStatus
+import com.android.gpstest.library.model.Ephemeris
+import com.android.gpstest.library.model.GlonassEphemeris
+import com.android.gpstest.library.model.KeplerEphemeris
+import com.android.gpstest.library.util.EphemerisCache
+import com.android.gpstest.library.util.NavMessageDecoder
+import com.android.gpstest.library.util.NavMessageDecoder.Companion.GPS_PI
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import kotlin.math.pow
+
+/**
+ * Tests for NavMessageDecoder using messages encoded with the bit layouts from the interface
+ * control documents of each constellation
+ */
+class NavMessageDecoderTest {
+
+    private val cache = EphemerisCache()
+    private val decoder = NavMessageDecoder(cache)
+
+    @Test
+    fun testBitHelpers() {
+        val data = byteArrayOf(0xF0.toByte(), 0x81.toByte())
+        assertEquals(0xF081L, NavMessageDecoder.bits(data, 0, 16))
+        assertEquals(0x08L, NavMessageDecoder.bits(data, 4, 8))
+        assertEquals(-1L, NavMessageDecoder.signed(0xFFL, 8))
+        assertEquals(127L, NavMessageDecoder.signed(0x7FL, 8))
+        assertEquals(-5L, NavMessageDecoder.signMagnitude(0x15L, 5))
+        assertEquals(5L, NavMessageDecoder.signMagnitude(0x05L, 5))
+        // Check value of CRC-24Q
+        assertEquals(0xCDE703L, NavMessageDecoder.crc24q("123456789".toByteArray(), 72))
+
+        // The first bit of the second word is after the two unused bits of its 4 bytes
+        val words = ByteArray(40)
+        setWordBits(words, 30, 30, 0x3FFFFFFFL)
+        assertEquals(0, words[3].toInt())
+        assertEquals(0x3F, words[4].toInt())
+        assertEquals(0x3FFFFFFFL, NavMessageDecoder.wordBits(words, 30, 30))
+    }
+
+    @Test
+    fun testGpsLnav() {
+        val sf1 = lnavSubframe(1)
+        setWordBits(sf1, 60, 10, 245)       // WN
+        setWordBits(sf1, 72, 4, 2)          // URA
+        setWordBits(sf1, 76, 6, 0)          // Health
+        setWordBits(sf1, 82, 2, 1)          // IODC MSBs
+        setWordBits(sf1, 196, 8, 0xF6)      // TGD = -10
+        setWordBits(sf1, 210, 8, 77)        // IODC LSBs
+        setWordBits(sf1, 218, 16, 27000)    // toc
+        setWordBits(sf1, 240, 8, 0)         // af2
+        setWordBits(sf1, 248, 16, 0xFFFE)   // af1 = -2
+        setWordBits(sf1, 270, 22, 0x3FFC18) // af0 = -1000
+
+        val sf2 = lnavSubframe(2)
+        setWordBits(sf2, 60, 8, 77)         // IODE
+        setWordBits(sf2, 68, 16, 0xFF00)    // Crs = -256
+        setWordBits(sf2, 90, 16, 12000)     // Delta n
+        setSplit(sf2, 106, 8, 120, 24, 0x8000_0001L) // M0 = -2^31 + 1
+        setWordBits(sf2, 150, 16, 0x8000)   // Cuc = -32768
+        setSplit(sf2, 166, 8, 180, 24, 0x0123_4567L) // e
+        setWordBits(sf2, 210, 16, 1234)     // Cus
+        setSplit(sf2, 226, 8, 240, 24, 0xA10D_1234L) // sqrt(A)
+        setWordBits(sf2, 270, 16, 27000)    // toe
+
+        val sf3 = lnavSubframe(3)
+        setWordBits(sf3, 60, 16, 5)         // Cic
+        setSplit(sf3, 76, 8, 90, 24, 0x4000_0000L) // Omega0 = 0.5 semicircles
+        setWordBits(sf3, 120, 16, 0xFFFB)   // Cis = -5
+        setSplit(sf3, 136, 8, 150, 24, 0x2A00_0000L) // i0
+        setWordBits(sf3, 180, 16, 6400)     // Crc
+        setSplit(sf3, 196, 8, 210, 24, 0xC000_0000L) // omega = -0.5 semicircles
+        setWordBits(sf3, 240, 24, 0xFFD000) // Omega dot
+        setWordBits(sf3, 270, 8, 77)        // IODE
+        setWordBits(sf3, 278, 14, 0x3FFF)   // IDOT = -1
+
+        val type = GnssNavigationMessage.TYPE_GPS_L1CA
+        assertNull(decode(type, 12, sf1))
+        assertNull(decode(type, 12, sf2))
+        val e = decode(type, 12, sf3) as KeplerEphemeris
+        assertEquals(GnssStatus.CONSTELLATION_GPS, e.constellationType)
+        assertEquals(12, e.svid)
+        assertEquals(77, e.iode)
+        assertEquals(256 + 77, e.iodc)
+        assertEquals(245, e.week)
+        assertEquals(2, e.accuracyIndex)
+        assertEquals(0, e.health)
+        assertEquals(27000 * 16.0, e.toe, 0.0)
+        assertEquals(27000 * 16.0, e.toc, 0.0)
+        assertEquals(-10 * 2.0.pow(-31), e.tgd, 0.0)
+        assertEquals(-2 * 2.0.pow(-43), e.af1, 0.0)
+        assertEquals(-1000 * 2.0.pow(-31), e.af0, 0.0)
+        assertEquals(-256 * 2.0.pow(-5), e.crs, 0.0)
+        assertEquals(12000 * 2.0.pow(-43) * GPS_PI, e.deltaN, 0.0)
+        assertEquals((-2.0.pow(31) + 1) * 2.0.pow(-31) * GPS_PI, e.m0, 1e-15)
+        assertEquals(-32768 * 2.0.pow(-29), e.cuc, 0.0)
+        assertEquals(0x0123_4567L * 2.0.pow(-33), e.eccentricity, 0.0)
+        assertEquals(1234 * 2.0.pow(-29), e.cus, 0.0)
+        assertEquals(0xA10D_1234L * 2.0.pow(-19), e.sqrtA, 0.0)
+        assertEquals(5 * 2.0.pow(-29), e.cic, 0.0)
+        assertEquals(0.5 * GPS_PI, e.omega0, 0.0)
+        assertEquals(-5 * 2.0.pow(-29), e.cis, 0.0)
+        assertEquals(0x2A00_0000L * 2.0.pow(-31) * GPS_PI, e.i0, 0.0)
+        assertEquals(6400 * 2.0.pow(-5), e.crc, 0.0)
+        assertEquals(-0.5 * GPS_PI, e.omega, 0.0)
+        assertEquals(-0x3000 * 2.0.pow(-43) * GPS_PI, e.omegaDot, 0.0)
+        assertEquals(-2.0.pow(-43) * GPS_PI, e.iDot, 0.0)
+        assertSame(e, cache.latest(GnssStatus.CONSTELLATION_GPS, 12))
+
+        // The same ephemeris is only decoded once
+        assertNull(decode(type, 12, sf1))
+        assertEquals(1, cache.size)
+
+        // A new IODE needs the clock subframe with the same issue of data
+        setWordBits(sf2, 60, 8, 78)
+        setWordBits(sf3, 270, 8, 78)
+        assertNull(decode(type, 12, sf2))
+        assertNull(decode(type, 12, sf3))
+        setWordBits(sf1, 210, 8, 78)
+        assertEquals(78, decode(type, 12, sf1)!!.iode)
+        assertEquals(2, cache.size)
+
+        // QZSS uses the same format
+        val qzss = decode(GnssNavigationMessage.TYPE_QZS_L1CA, 193, sf1, sf2, sf3) as KeplerEphemeris
+        assertEquals(GnssStatus.CONSTELLATION_QZSS, qzss.constellationType)
+        assertEquals(GnssNavigationMessage.TYPE_QZS_L1CA, qzss.source)
+    }
+
+    @Test
+    fun testRejectedMessages() {
+        val sf1 = lnavSubframe(1)
+        val type = GnssNavigationMessage.TYPE_GPS_L1CA
+        // Parity not checked
+        assertNull(decoder.decode(type, 1, 1, GnssNavigationMessage.STATUS_UNKNOWN, sf1, TIME))
+        // Wrong preamble
+        val bad = sf1.copyOf()
+        setWordBits(bad, 0, 8, 0x74)
+        assertNull(decode(type, 1, bad))
+        // Too short
+        assertNull(decode(type, 1, sf1.copyOf(30)))
+        assertEquals(3, decoder.rejectedCount)
+        // Unsupported types are ignored
+        assertNull(decode(GnssNavigationMessage.TYPE_GPS_L5CNAV, 1, sf1))
+        assertEquals(3, decoder.rejectedCount)
+    }
+
+    @Test
+    fun testGalileoInav() {
+        val w1 = ByteArray(16)
+        setBits(w1, 0, 6, 1)
+        setBits(w1, 6, 10, 100)             // IODnav
+        setBits(w1, 16, 14, 9000)           // toe
+        setBits(w1, 30, 32, 0xFFFF_FFFFL)   // M0 = -1
+        setBits(w1, 62, 32, 0x0012_3456L)   // e
+        setBits(w1, 94, 32, 0xA1A5_0000L)   // sqrt(A)
+        val w2 = ByteArray(16)
+        setBits(w2, 0, 6, 2)
+        setBits(w2, 6, 10, 100)
+        setBits(w2, 16, 32, 0x2000_0000L)   // Omega0 = 0.25 semicircles
+        setBits(w2, 48, 32, 0x3100_0000L)   // i0
+        setBits(w2, 80, 32, 0xE000_0000L)   // omega = -0.25 semicircles
+        setBits(w2, 112, 14, 0x2000)        // IDOT = -8192
+        val w3 = ByteArray(16)
+        setBits(w3, 0, 6, 3)
+        setBits(w3, 6, 10, 100)
+        setBits(w3, 16, 24, 0xFFD6B0)       // Omega dot = -10576
+        setBits(w3, 40, 16, 13000)          // Delta n
+        setBits(w3, 56, 16, 0xFFF0)         // Cuc = -16
+        setBits(w3, 72, 16, 4000)           // Cus
+        setBits(w3, 88, 16, 7000)           // Crc
+        setBits(w3, 104, 16, 0xFFC0)        // Crs = -64
+        setBits(w3, 120, 8, 107)            // SISA
+        val w4 = ByteArray(16)
+        setBits(w4, 0, 6, 4)
+        setBits(w4, 6, 10, 100)
+        setBits(w4, 16, 6, 11)              // SVID
+        setBits(w4, 22, 16, 30)             // Cic
+        setBits(w4, 38, 16, 0xFFE2)         // Cis = -30
+        setBits(w4, 54, 14, 9000)           // toc
+        setBits(w4, 68, 31, 0x7FFF_FF00L)   // af0 = -256
+        setBits(w4, 99, 21, 0x1FFFFF)       // af1 = -1
+        setBits(w4, 120, 6, 3)              // af2
+        val w5 = ByteArray(16)
+        setBits(w5, 0, 6, 5)
+        setBits(w5, 57, 10, 0x3FE)          // BGD E1-E5b = -2
+        setBits(w5, 73, 12, 1250)           // WN
+
+        val type = GnssNavigationMessage.TYPE_GAL_I
+        assertNull(decode(type, 11, inavPage(w1), inavPage(w2), inavPage(w3), inavPage(w5)))
+        val e = decode(type, 11, inavPage(w4)) as KeplerEphemeris
+        assertEquals(GnssStatus.CONSTELLATION_GALILEO, e.constellationType)
+        assertEquals(100, e.iode)
+        assertEquals(1250, e.week)
+        assertEquals(107, e.accuracyIndex)
+        assertEquals(9000 * 60.0, e.toe, 0.0)
+        assertEquals(9000 * 60.0, e.toc, 0.0)
+        assertEquals(-2.0.pow(-31) * GPS_PI, e.m0, 0.0)
+        assertEquals(0x0012_3456L * 2.0.pow(-33), e.eccentricity, 0.0)
+        assertEquals(0xA1A5_0000L * 2.0.pow(-19), e.sqrtA, 0.0)
+        assertEquals(0.25 * GPS_PI, e.omega0, 0.0)
+        assertEquals(0x3100_0000L * 2.0.pow(-31) * GPS_PI, e.i0, 0.0)
+        assertEquals(-0.25 * GPS_PI, e.omega, 0.0)
+        assertEquals(-8192 * 2.0.pow(-43) * GPS_PI, e.iDot, 0.0)
+        assertEquals(-10576 * 2.0.pow(-43) * GPS_PI, e.omegaDot, 0.0)
+        assertEquals(13000 * 2.0.pow(-43) * GPS_PI, e.deltaN, 0.0)
+        assertEquals(-16 * 2.0.pow(-29), e.cuc, 0.0)
+        assertEquals(4000 * 2.0.pow(-29), e.cus, 0.0)
+        assertEquals(7000 * 2.0.pow(-5), e.crc, 0.0)
+        assertEquals(-64 * 2.0.pow(-5), e.crs, 0.0)
+        assertEquals(30 * 2.0.pow(-29), e.cic, 0.0)
+        assertEquals(-30 * 2.0.pow(-29), e.cis, 0.0)
+        assertEquals(-256 * 2.0.pow(-34), e.af0, 0.0)
+        assertEquals(-2.0.pow(-46), e.af1, 0.0)
+        assertEquals(3 * 2.0.pow(-59), e.af2, 0.0)
+        assertEquals(-2 * 2.0.pow(-32), e.tgd, 0.0)
+
+        // A corrupted page fails the CRC
+        val rejected = decoder.rejectedCount
+        val page = inavPage(w1)
+        page[5] = (page[5].toInt() xor 0x10).toByte()
+        assertNull(decode(type, 11, page))
+        assertEquals(rejected + 1, decoder.rejectedCount)
+    }
+
+    @Test
+    fun testGalileoFnav() {
+        val p1 = ByteArray(31)
+        setBits(p1, 0, 6, 1)
+        setBits(p1, 6, 6, 24)               // SVID
+        setBits(p1, 12, 10, 55)             // IODnav
+        setBits(p1, 22, 14, 6000)           // toc
+        setBits(p1, 36, 31, 500)            // af0
+        setBits(p1, 67, 21, 0x1FFFFE)       // af1 = -2
+        setBits(p1, 94, 8, 107)             // SISA
+        setBits(p1, 143, 10, 7)             // BGD E1-E5a
+        val p2 = ByteArray(31)
+        setBits(p2, 0, 6, 2)
+        setBits(p2, 6, 10, 55)
+        setBits(p2, 16, 32, 0x1000_0000L)   // M0
+        setBits(p2, 48, 24, 0xFFFFF0)       // Omega dot = -16
+        setBits(p2, 72, 32, 0x0004_0000L)   // e
+        setBits(p2, 104, 32, 0xA1A5_1234L)  // sqrt(A)
+        setBits(p2, 136, 32, 0x9000_0000L)  // Omega0
+        setBits(p2, 168, 14, 3)             // IDOT
+        val p3 = ByteArray(31)
+        setBits(p3, 0, 6, 3)
+        setBits(p3, 6, 10, 55)
+        setBits(p3, 16, 32, 0x3100_0001L)   // i0
+        setBits(p3, 48, 32, 5)              // omega
+        setBits(p3, 80, 16, 0xFFFF)         // Delta n = -1
+        setBits(p3, 96, 16, 1)              // Cuc
+        setBits(p3, 112, 16, 2)             // Cus
+        setBits(p3, 128, 16, 3)             // Crc
+        setBits(p3, 144, 16, 4)             // Crs
+        setBits(p3, 160, 14, 6000)          // toe
+        setBits(p3, 174, 12, 1251)          // WN
+        val p4 = ByteArray(31)
+        setBits(p4, 0, 6, 4)
+        setBits(p4, 6, 10, 55)
+        setBits(p4, 16, 16, 0xFFFF)         // Cic = -1
+        setBits(p4, 32, 16, 9)              // Cis
+
+        val type = GnssNavigationMessage.TYPE_GAL_F
+        val e = decode(type, 24, fnavPage(p1), fnavPage(p2), fnavPage(p3), fnavPage(p4)) as KeplerEphemeris
+        assertEquals(55, e.iode)
+        assertEquals(1251, e.week)
+        assertEquals(GnssNavigationMessage.TYPE_GAL_F, e.source)
+        assertEquals(6000 * 60.0, e.toe, 0.0)
+        assertEquals(6000 * 60.0, e.toc, 0.0)
+        assertEquals(500 * 2.0.pow(-34), e.af0, 0.0)
+        assertEquals(-2 * 2.0.pow(-46), e.af1, 0.0)
+        assertEquals(7 * 2.0.pow(-32), e.tgd, 0.0)
+        assertEquals(0.125 * GPS_PI, e.m0, 0.0)
+        assertEquals(-16 * 2.0.pow(-43) * GPS_PI, e.omegaDot, 0.0)
+        assertEquals(0x0004_0000L * 2.0.pow(-33), e.eccentricity, 0.0)
+        assertEquals(0xA1A5_1234L * 2.0.pow(-19), e.sqrtA, 0.0)
+        assertEquals(-0.875 * GPS_PI, e.omega0, 0.0)
+        assertEquals(3 * 2.0.pow(-43) * GPS_PI, e.iDot, 0.0)
+        assertEquals(0x3100_0001L * 2.0.pow(-31) * GPS_PI, e.i0, 0.0)
+        assertEquals(5 * 2.0.pow(-31) * GPS_PI, e.omega, 0.0)
+        assertEquals(-2.0.pow(-43) * GPS_PI, e.deltaN, 0.0)
+        assertEquals(1 * 2.0.pow(-29), e.cuc, 0.0)
+        assertEquals(2 * 2.0.pow(-29), e.cus, 0.0)
+        assertEquals(3 * 2.0.pow(-5), e.crc, 0.0)
+        assertEquals(4 * 2.0.pow(-5), e.crs, 0.0)
+        assertEquals(-2.0.pow(-29), e.cic, 0.0)
+        assertEquals(9 * 2.0.pow(-29), e.cis, 0.0)
+    }
+
+    @Test
+    fun testBeidouD1() {
+        val sf1 = bdsSubframe(1, SOW)
+        setWordBits(sf1, 42, 1, 0)          // SatH1
+        setWordBits(sf1, 43, 5, 9)          // AODC
+        setWordBits(sf1, 48, 4, 2)          // URAI
+        setWordBits(sf1, 60, 13, 880)       // WN
+        setSplit(sf1, 73, 9, 90, 8, 45000)  // toc
+        setWordBits(sf1, 98, 10, 0x3F6)     // TGD1 = -10
+        setWordBits(sf1, 214, 11, 0x7FF)    // a2 = -1
+        setSplit(sf1, 225, 7, 240, 17, 0xFFF000) // a0 = -4096
+        setSplit(sf1, 257, 5, 270, 17, 300) // a1
+        setWordBits(sf1, 287, 5, 17)        // AODE
+
+        val sf2 = bdsSubframe(2, SOW + 6)
+        setSplit(sf2, 42, 10, 60, 6, 0xFF00)        // Delta n = -256
+        setSplit(sf2, 66, 16, 90, 2, 0x3FFFF)       // Cuc = -1
+        setSplit(sf2, 92, 20, 120, 12, 0x8000_0000L) // M0 = -1 semicircle
+        setSplit(sf2, 132, 10, 150, 22, 0x00AB_CDEFL) // e
+        setWordBits(sf2, 180, 18, 1000)             // Cus
+        setSplit(sf2, 198, 4, 210, 14, 0x20000)     // Crc = -131072
+        setSplit(sf2, 224, 8, 240, 10, 500)         // Crs
+        setSplit(sf2, 250, 12, 270, 20, 0xA1C8_0000L) // sqrt(A)
+        setWordBits(sf2, 290, 2, 1)                 // toe MSBs
+
+        val sf3 = bdsSubframe(3, SOW + 12)
+        setSplit(sf3, 42, 10, 60, 5, 0x1234)        // toe LSBs
+        setSplit(sf3, 65, 17, 90, 15, 0x3000_0000L) // i0
+        setSplit(sf3, 105, 7, 120, 11, 0x3FFFE)     // Cic = -2
+        setSplit(sf3, 131, 11, 150, 13, 0xFFFF00)   // Omega dot = -256
+        setSplit(sf3, 163, 9, 180, 9, 77)           // Cis
+        setSplit(sf3, 189, 13, 210, 1, 0x3FFF)      // IDOT = -1
+        setSplit(sf3, 211, 21, 240, 11, 0xC000_0000L) // Omega0 = -0.5 semicircles
+        setSplit(sf3, 251, 11, 270, 21, 0x0800_0000L) // omega
+
+        val type = GnssNavigationMessage.TYPE_BDS_D1
+        // Subframes from different frames don't make an ephemeris
+        assertNull(decode(type, 30, sf1, sf2, bdsSubframe(3, SOW + 42)))
+        val e = decode(type, 30, sf3) as KeplerEphemeris
+        assertEquals(GnssStatus.CONSTELLATION_BEIDOU, e.constellationType)
+        assertEquals(17, e.iode)
+        assertEquals(9, e.iodc)
+        assertEquals(880, e.week)
+        assertEquals(2, e.accuracyIndex)
+        assertEquals(45000 * 8.0, e.toc, 0.0)
+        assertEquals(((1 shl 15) or 0x1234) * 8.0, e.toe, 0.0)
+        assertEquals(-1e-9, e.tgd, 1e-20)
+        assertEquals(-2.0.pow(-66), e.af2, 0.0)
+        assertEquals(-4096 * 2.0.pow(-33), e.af0, 0.0)
+        assertEquals(300 * 2.0.pow(-50), e.af1, 0.0)
+        assertEquals(-256 * 2.0.pow(-43) * GPS_PI, e.deltaN, 0.0)
+        assertEquals(-2.0.pow(-31), e.cuc, 0.0)
+        assertEquals(-GPS_PI, e.m0, 0.0)
+        assertEquals(0x00AB_CDEFL * 2.0.pow(-33), e.eccentricity, 0.0)
+        assertEquals(1000 * 2.0.pow(-31), e.cus, 0.0)
+        assertEquals(-131072 * 2.0.pow(-6), e.crc, 0.0)
+        assertEquals(500 * 2.0.pow(-6), e.crs, 0.0)
+        assertEquals(0xA1C8_0000L * 2.0.pow(-19), e.sqrtA, 0.0)
+        assertEquals(0x3000_0000L * 2.0.pow(-31) * GPS_PI, e.i0, 0.0)
+        assertEquals(-2 * 2.0.pow(-31), e.cic, 0.0)
+        assertEquals(-256 * 2.0.pow(-43) * GPS_PI, e.omegaDot, 0.0)
+        assertEquals(77 * 2.0.pow(-31), e.cis, 0.0)
+        assertEquals(-2.0.pow(-43) * GPS_PI, e.iDot, 0.0)
+        assertEquals(-0.5 * GPS_PI, e.omega0, 0.0)
+        assertEquals(0.0625 * GPS_PI, e.omega, 0.0)
+    }
+
+    @Test
+    fun testBeidouD2() {
+        val pages = Array(10) { bdsD2Page(it + 1, SOW + 3 * it) }
+        setWordBits(pages[0], 47, 5, 3)                   // AODC
+        setWordBits(pages[0], 64, 13, 881)                // WN
+        setSplit(pages[0], 77, 5, 90, 12, 0x1ABCD)        // toc
+        setSplit(pages[2], 100, 12, 120, 12, 0xFFFFF6)    // a0 = -10
+        setWordBits(pages[2], 132, 4, 0xF)                // a1 MSBs
+        setSplit(pages[3], 46, 6, 60, 12, 0x3FFFC)        // a1 LSBs, a1 = -4
+        setWordBits(pages[3], 91, 5, 21)                  // AODE
+        setWordBits(pages[3], 120, 14, 0)                 // Cuc MSBs
+        setWordBits(pages[4], 46, 4, 9)                   // Cuc LSBs
+        setSplit(pages[4], 50, 2, 60, 22, 0x40_0000)      // M0 MSBs
+        setWordBits(pages[4], 90, 8, 0x01)                // M0 LSBs
+        setWordBits(pages[4], 124, 10, 0)                 // e MSBs
+        setSplit(pages[5], 46, 6, 60, 16, 0x2A_0000)      // e LSBs
+        setSplit(pages[5], 76, 6, 90, 22, 0x0A1C_8123L)   // sqrt(A) MSBs
+        setWordBits(pages[5], 120, 4, 0x5)                // sqrt(A) LSBs
+        setSplit(pages[6], 80, 2, 90, 15, 0x1ABCD)        // toe
+        setSplit(pages[6], 105, 7, 120, 14, 0x1FFFFF)     // i0 MSBs
+        setSplit(pages[7], 46, 6, 60, 5, 0x7FE)           // i0 LSBs, i0 = -2
+        setWordBits(pages[7], 91, 18, 0x3FFFF)            // Crs = -1
+        setSplit(pages[8], 51, 1, 60, 22, 0x20_0000)      // Omega0 MSBs
+        setWordBits(pages[8], 90, 9, 0)                   // Omega0 LSBs
+        setSplit(pages[8], 99, 13, 120, 14, 0)            // omega MSBs
+        setWordBits(pages[9], 46, 5, 7)                   // omega LSBs
+        setSplit(pages[9], 51, 1, 60, 13, 0x2001)         // IDOT = -8191
+
+        val type = GnssNavigationMessage.TYPE_BDS_D2
+        // Page 2 isn't needed
+        val list = pages.filterIndexed { i, _ -> i != 1 }
+        assertNull(decode(type, 3, *list.dropLast(1).toTypedArray()))
+        val e = decode(type, 3, list.last()) as KeplerEphemeris
+        assertEquals(21, e.iode)
+        assertEquals(3, e.iodc)
+        assertEquals(881, e.week)
+        assertEquals(0x1ABCD * 8.0, e.toc, 0.0)
+        assertEquals(0x1ABCD * 8.0, e.toe, 0.0)
+        assertEquals(-10 * 2.0.pow(-33), e.af0, 0.0)
+        assertEquals(-4 * 2.0.pow(-50), e.af1, 0.0)
+        assertEquals(9 * 2.0.pow(-31), e.cuc, 0.0)
+        assertEquals(0x4000_0001L * 2.0.pow(-31) * GPS_PI, e.m0, 0.0)
+        assertEquals(0x2A_0000L * 2.0.pow(-33), e.eccentricity, 0.0)
+        assertEquals(0xA1C8_1235L * 2.0.pow(-19), e.sqrtA, 0.0)
+        assertEquals(-2 * 2.0.pow(-31) * GPS_PI, e.i0, 0.0)
+        assertEquals(-2.0.pow(-6), e.crs, 0.0)
+        assertEquals(0.5 * GPS_PI, e.omega0, 0.0)
+        assertEquals(7 * 2.0.pow(-31) * GPS_PI, e.omega, 0.0)
+        assertEquals(-8191 * 2.0.pow(-43) * GPS_PI, e.iDot, 0.0)
+    }
+
+    @Test
+    fun testGlonass() {
+        val s1 = glonassString(1)
+        setBits(s1, 9, 5, 13)                   // tk hours
+        setBits(s1, 14, 6, 25)                  // tk minutes
+        setBits(s1, 20, 1, 1)                   // tk 30 seconds
+        setBits(s1, 21, 24, (1L shl 23) or 1000)  // x' = -1000
+        setBits(s1, 45, 5, 0x13)                // x'' = -3
+        setBits(s1, 50, 27, 20_000_000L)        // x
+        val s2 = glonassString(2)
+        setBits(s2, 5, 3, 4)                    // Bn - unhealthy
+        setBits(s2, 9, 7, 54)                   // tb
+        setBits(s2, 21, 24, 2000)               // y'
+        setBits(s2, 50, 27, (1L shl 26) or 5_000_000L) // y = -5000000
+        val s3 = glonassString(3)
+        setBits(s3, 6, 11, (1L shl 10) or 3)    // gamma = -3
+        setBits(s3, 21, 24, 3000)               // z'
+        setBits(s3, 45, 5, 2)                   // z''
+        setBits(s3, 50, 27, 30_000_000L)        // z
+        val s4 = glonassString(4)
+        setBits(s4, 5, 22, (1L shl 21) or 4096) // tau = -4096
+        setBits(s4, 32, 5, 1)                   // En
+        setBits(s4, 59, 11, 777)                // NT
+
+        val type = GnssNavigationMessage.TYPE_GLO_L1CA
+        // Strings from different frames don't make an ephemeris
+        assertNull(decoder.decode(type, 7, 1, PASSED, s1, TIME))
+        assertNull(decoder.decode(type, 7, 1, PASSED, s2, TIME))
+        assertNull(decoder.decode(type, 7, 2, PASSED, s3, TIME))
+        assertNull(decoder.decode(type, 7, 2, PASSED, s4, TIME))
+        assertNull(decoder.decode(type, 7, 2, PASSED, s1, TIME))
+        val e = decoder.decode(type, 7, 2, PASSED, s2, TIME) as GlonassEphemeris
+        assertEquals(GnssStatus.CONSTELLATION_GLONASS, e.constellationType)
+        assertEquals(7, e.svid)
+        assertEquals(54, e.iode)
+        assertEquals(54 * 900.0, e.tb, 0.0)
+        assertEquals(13 * 3600.0 + 25 * 60.0 + 30.0, e.tk, 0.0)
+        assertEquals(777, e.dayNumber)
+        assertEquals(1, e.ageDays)
+        assertEquals(2, e.health)
+        assertEquals(20_000_000 * 2.0.pow(-11) * 1000, e.x, 0.0)
+        assertEquals(-5_000_000 * 2.0.pow(-11) * 1000, e.y, 0.0)
+        assertEquals(30_000_000 * 2.0.pow(-11) * 1000, e.z, 0.0)
+        assertEquals(-1000 * 2.0.pow(-20) * 1000, e.vx, 0.0)
+        assertEquals(2000 * 2.0.pow(-20) * 1000, e.vy, 0.0)
+        assertEquals(3000 * 2.0.pow(-20) * 1000, e.vz, 0.0)
+        assertEquals(-3 * 2.0.pow(-30) * 1000, e.ax, 0.0)
+        assertEquals(0.0, e.ay, 0.0)
+        assertEquals(2 * 2.0.pow(-30) * 1000, e.az, 0.0)
+        assertEquals(-4096 * 2.0.pow(-30), e.tauN, 0.0)
+        assertEquals(-3 * 2.0.pow(-40), e.gammaN, 0.0)
+        assertNotNull(cache[GnssStatus.CONSTELLATION_GLONASS, 7, 54])
+    }
+
+    @Test
+    fun testInterleavedSatellites() {
+        val subframes = Array(3) { lnavSubframe(it + 1) }
+        for (sf in subframes) {
+            setWordBits(sf, 60, 8, 1)
+            setWordBits(sf, 210, 8, 1)
+            setWordBits(sf, 270, 8, 1)
+        }
+        val type = GnssNavigationMessage.TYPE_GPS_L1CA
+        // Subframes from all satellites arrive interleaved, and each is assembled separately
+        for (sf in 0 until 3) {
+            for (svid in 1..32) {
+                val e = decode(type, svid, subframes[sf])
+                if (sf < 2) {
+                    assertNull(e)
+                } else {
+                    assertEquals(svid, e!!.svid)
+                    assertSame(e, cache.latest(GnssStatus.CONSTELLATION_GPS, svid))
+                }
+            }
+        }
+        assertEquals(32, cache.size)
+        assertEquals(0, decoder.rejectedCount)
+    }
+
+    @Test
+    fun testRepeatedMessagesDoNotAllocate() {
+        val subframes = Array(3) { lnavSubframe(it + 1) }
+        for (sf in subframes) {
+            setWordBits(sf, 60, 8, 1)
+            setWordBits(sf, 210, 8, 1)
+            setWordBits(sf, 270, 8, 1)
+        }
+        val type = GnssNavigationMessage.TYPE_GPS_L1CA
+        // Once each satellite's ephemeris is decoded, subframes repeating it are only stored
+        assertNoAllocation {
+            for (sf in subframes) {
+                for (svid in 1..32) {
+                    decoder.decode(type, svid, 0, PASSED, sf, TIME)
+                }
+            }
+        }
+        assertEquals(32, cache.size)
+        assertEquals(0, decoder.rejectedCount)
+    }
+
+    /**
+     * Decodes the [messages] in order, returning the last result
+     */
+    private fun decode(type: Int, svid: Int, vararg messages: ByteArray): Ephemeris? {
+        var result: Ephemeris? = null
+        for (message in messages) {
+            result = decoder.decode(type, svid, 0, PASSED, message, TIME)
+        }
+        return result
+    }
+
+    private fun lnavSubframe(id: Int): ByteArray {
+        val data = ByteArray(40)
+        setWordBits(data, 0, 8, 0x8B)
+        setWordBits(data, 49, 3, id.toLong())
+        return data
+    }
+
+    private fun bdsSubframe(id: Int, sow: Int): ByteArray {
+        val data = ByteArray(40)
+        setWordBits(data, 0, 11, 0x712)
+        setWordBits(data, 15, 3, id.toLong())
+        setSplit(data, 18, 8, 30, 12, sow.toLong())
+        return data
+    }
+
+    private fun bdsD2Page(page: Int, sow: Int): ByteArray {
+        val data = bdsSubframe(1, sow)
+        setWordBits(data, 42, 4, page.toLong())
+        return data
+    }
+
+    private fun glonassString(number: Int): ByteArray {
+        val data = ByteArray(11)
+        setBits(data, 1, 4, number.toLong())
+        return data
+    }
+
+    /**
+     * Returns an I/NAV nominal page carrying [word] with a valid CRC
+     */
+    private fun inavPage(word: ByteArray): ByteArray {
+        val page = ByteArray(29)
+        // Even part
+        setBits(page, 0, 1, 0)
+        setBits(page, 1, 1, 0)
+        setBits(page, 2, 112, word, 0)
+        // Odd part
+        setBits(page, 114, 1, 1)
+        setBits(page, 115, 1, 0)
+        setBits(page, 116, 16, word, 112)
+        setBits(page, 196, 24, NavMessageDecoder.crc24q(page, 196))
+        return page
+    }
+
+    private fun fnavPage(data: ByteArray): ByteArray {
+        setBits(data, 214, 24, NavMessageDecoder.crc24q(data, 214))
+        return data
+    }
+
+    private fun setBits(data: ByteArray, start: Int, length: Int, value: Long) {
+        for (i in 0 until length) {
+            val bit = (value ushr (length - 1 - i)) and 1L
+            val index = start + i
+            val mask = 1 shl (7 - (index and 7))
+            val old = data[index ushr 3].toInt()
+            data[index ushr 3] = (if (bit == 1L) old or mask else old and mask.inv()).toByte()
+        }
+    }
+
+    private fun setBits(data: ByteArray, start: Int, length: Int, src: ByteArray, srcStart: Int) {
+        for (i in 0 until length) {
+            setBits(data, start + i, 1, NavMessageDecoder.bits(src, srcStart + i, 1))
+        }
+    }
+
+    /**
+     * Sets bits of a GPS or BeiDou subframe, counting 30 bits per word
+     */
+    private fun setWordBits(data: ByteArray, start: Int, length: Int, value: Long) {
+        setBits(data, start / 30 * 32 + 2 + start % 30, length, value)
+    }
+
+    /**
+     * Sets a value split across two words, with the MSBs at [start1] and the LSBs at [start2]
+     */
+    private fun setSplit(data: ByteArray, start1: Int, length1: Int, start2: Int, length2: Int, value: Long) {
+        setWordBits(data, start1, length1, value ushr length2)
+        setWordBits(data, start2, length2, value and ((1L shl length2) - 1))
+    }
+
+    companion object {
+        private const val PASSED = GnssNavigationMessage.STATUS_PARITY_PASSED
+        private const val TIME = 1_700_000_000_000L
+        private const val SOW = 345600
+    }
+}
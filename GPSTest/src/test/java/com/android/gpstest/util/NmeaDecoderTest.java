@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util;
+
+import com.android.gpstest.library.util.NmeaDecoder;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class NmeaDecoderTest {
+
+    private static final double DELTA = 1e-9;
+
+    /**
+     * Test decoding GGA and GNS sentences from different talkers
+     */
+    @Test
+    public void testDecodeGgaGns() {
+        NmeaDecoder decoder = new NmeaDecoder();
+
+        assertEquals(NmeaDecoder.SENTENCE_GGA, decoder.decode("$GPGGA,032739.0,2804.732835,N,08224.639709,W,1,08,0.8,19.2,M,-24.0,M,,*5B\r\n"));
+        assertEquals(NmeaDecoder.TALKER_GPS, decoder.getTalker());
+        assertEquals(19.2d, decoder.gga.altitudeMsl);
+        assertEquals(-24.0d, decoder.gga.geoidSeparation);
+        assertEquals(8, decoder.gga.numSatellites);
+        assertEquals(0.8d, decoder.gga.hdop);
+        assertEquals(3 * 3600 + 27 * 60 + 39.0, decoder.gga.timeOfDay, DELTA);
+        assertEquals(28 + 4.732835 / 60, decoder.gga.latitude, DELTA);
+        assertEquals(-(82 + 24.639709 / 60), decoder.gga.longitude, DELTA);
+        assertTrue(Double.isNaN(decoder.gga.dgpsAge));
+        assertEquals(NmeaDecoder.NO_VALUE, decoder.gga.dgpsStationId);
+
+        assertEquals(NmeaDecoder.SENTENCE_GGA, decoder.decode("$GNGGA,172814.00,2803.208136,N,08225.981423,W,1,08,1.1,-19.7,M,-24.8,M,,*5F"));
+        assertEquals(NmeaDecoder.TALKER_MULTI_GNSS, decoder.getTalker());
+        assertEquals(-19.7d, decoder.gga.altitudeMsl);
+
+        assertEquals(NmeaDecoder.SENTENCE_GNS, decoder.decode("$GNGNS,015002.0,2804.733672,N,08224.631117,W,AAN,09,1.1,78.9,-24.0,,*23"));
+        assertEquals(78.9d, decoder.gns.altitudeMsl);
+        assertEquals('A', decoder.gns.mode);
+        assertEquals(9, decoder.gns.numSatellites);
+    }
+
+    /**
+     * Test that numbers are only parsed up to 15 digits, where they can be represented exactly
+     */
+    @Test
+    public void testDoubleDigitLimit() {
+        NmeaDecoder decoder = new NmeaDecoder();
+
+        assertEquals(NmeaDecoder.SENTENCE_GGA, decoder.decode("$GPGGA,032739.0,2804.732835,N,08224.639709,W,1,08,0.8,1234567890.12345,M,-24.0,M,,"));
+        assertEquals(1234567890.12345d, decoder.gga.altitudeMsl);
+
+        assertEquals(NmeaDecoder.SENTENCE_GGA, decoder.decode("$GPGGA,032739.0,2804.732835,N,08224.639709,W,1,08,0.8,1234567890.123456,M,-24.0,M,,"));
+        assertTrue(Double.isNaN(decoder.gga.altitudeMsl));
+    }
+
+    /**
+     * Test that sentences with bad checksums or malformed fields are rejected
+     */
+    @Test
+    public void testChecksum() {
+        NmeaDecoder decoder = new NmeaDecoder();
+
+        // Checksum doesn't match contents
+        assertEquals(NmeaDecoder.SENTENCE_INVALID, decoder.decode("$GNGNS,015002.0,2804.733672,N,08224.631117,W,AAN,09,1.1,BAD,-24.0,,*23"));
+        assertEquals(NmeaDecoder.SENTENCE_INVALID, decoder.decode("$GPGSA,A,3,19,28,14,18,27,22,31,39,,,,,1.7,1.0,1.3*35"));
+        // Lower case hex and no checksum are both accepted
+        assertEquals(NmeaDecoder.SENTENCE_GSA, decoder.decode("$GNGSA,A,3,03,14,16,22,23,26,,,,,,,3.6,1.8,3.1,1*3b"));
+        assertEquals(NmeaDecoder.SENTENCE_GSA, decoder.decode("$GPGSA,A,3,19,28,14,18,27,22,31,39,,,,,1.7,1.0,1.3"));
+        // Unsupported and malformed sentences
+        assertEquals(NmeaDecoder.SENTENCE_UNSUPPORTED, decoder.decode("$GPZDA,201530.00,04,07,2002,00,00*60"));
+        assertEquals(NmeaDecoder.SENTENCE_INVALID, decoder.decode("GPGGA,032739.0"));
+        assertEquals(NmeaDecoder.SENTENCE_INVALID, decoder.decode(""));
+    }
+
+    /**
+     * Test decoding DOP and satellites from GSA sentences
+     */
+    @Test
+    public void testDecodeGsa() {
+        NmeaDecoder decoder = new NmeaDecoder();
+
+        assertEquals(NmeaDecoder.SENTENCE_GSA, decoder.decode("$GNGSA,A,2,67,68,69,79,84,,,,,,,,1.3,1.0,0.8,2*3A"));
+        assertEquals('A', decoder.gsa.selectionMode);
+        assertEquals(2, decoder.gsa.fixType);
+        assertEquals(5, decoder.gsa.numSatellites);
+        assertEquals(84, decoder.gsa.svids[4]);
+        assertEquals(1.3d, decoder.gsa.pdop);
+        assertEquals(1.0d, decoder.gsa.hdop);
+        assertEquals(0.8d, decoder.gsa.vdop);
+        assertEquals(2, decoder.gsa.systemId);
+
+        assertEquals(NmeaDecoder.SENTENCE_GSA, decoder.decode("$GPGSA,A,3,,,,,,16,18,,22,24,,,3.6,2.1,2.2*3C"));
+        assertEquals(4, decoder.gsa.numSatellites);
+        assertEquals(16, decoder.gsa.svids[0]);
+        assertEquals(2.2d, decoder.gsa.vdop);
+        assertEquals(NmeaDecoder.NO_VALUE, decoder.gsa.systemId);
+    }
+
+    /**
+     * Test decoding GSV, RMC, VTG and GST sentences
+     */
+    @Test
+    public void testDecodeOtherSentences() {
+        NmeaDecoder decoder = new NmeaDecoder();
+
+        assertEquals(NmeaDecoder.SENTENCE_GSV, decoder.decode("$GPGSV,3,1,11,03,03,111,00,04,15,270,00,06,01,010,00,13,06,292,00*74"));
+        assertEquals(3, decoder.gsv.numMessages);
+        assertEquals(1, decoder.gsv.messageNumber);
+        assertEquals(11, decoder.gsv.numSatellitesInView);
+        assertEquals(4, decoder.gsv.numSatellites);
+        assertEquals(13, decoder.gsv.svids[3]);
+        assertEquals(292d, decoder.gsv.azimuths[3]);
+        assertEquals(NmeaDecoder.NO_VALUE, decoder.gsv.signalId);
+
+        assertEquals(NmeaDecoder.SENTENCE_RMC, decoder.decode("$GPRMC,123519,A,4807.038,N,01131.000,E,022.4,084.4,230394,003.1,W*6A"));
+        assertEquals('A', decoder.rmc.status);
+        assertEquals(22.4d, decoder.rmc.speedKnots);
+        assertEquals(84.4d, decoder.rmc.courseTrue);
+        assertEquals(230394, decoder.rmc.date);
+        assertEquals(-3.1d, decoder.rmc.magneticVariation);
+
+        assertEquals(NmeaDecoder.SENTENCE_VTG, decoder.decode("$GPVTG,054.7,T,034.4,M,005.5,N,010.2,K*48"));
+        assertEquals(54.7d, decoder.vtg.courseTrue);
+        assertEquals(34.4d, decoder.vtg.courseMagnetic);
+        assertEquals(5.5d, decoder.vtg.speedKnots);
+        assertEquals(10.2d, decoder.vtg.speedKmh);
+
+        assertEquals(NmeaDecoder.SENTENCE_GST, decoder.decode("$GPGST,172814.0,0.006,0.023,0.020,273.6,0.023,0.020,0.031*6A"));
+        assertEquals(0.006d, decoder.gst.rangeRms);
+        assertEquals(273.6d, decoder.gst.orientation);
+        assertEquals(0.031d, decoder.gst.altitudeStdDev);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.util.OrientationFramePacer
+import com.android.gpstest.library.util.OrientationFramePacer.Companion.angleDelta
+import com.android.gpstest.library.util.OrientationFramePacer.Companion.degreesForPixels
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class OrientationFramePacerTest {
+
+    private val delta = 1e-9
+
+    @Test
+    fun testAngleDelta() {
+        assertEquals(10.0, angleDelta(20.0, 10.0), delta)
+        assertEquals(-10.0, angleDelta(10.0, 20.0), delta)
+        // Wraps across north
+        assertEquals(20.0, angleDelta(10.0, 350.0), delta)
+        assertEquals(-20.0, angleDelta(350.0, 10.0), delta)
+        assertEquals(-180.0, angleDelta(180.0, 0.0), delta)
+    }
+
+    @Test
+    fun testDegreesForPixels() {
+        // One pixel at a radius of 57.3 pixels is ~1 degree
+        assertEquals(1.0, degreesForPixels(1f, Math.toDegrees(1.0).toFloat()), 1e-5)
+        // Unknown view size
+        assertEquals(0.0, degreesForPixels(1f, 0f), delta)
+    }
+
+    @Test
+    fun testNoSmoothingByDefault() {
+        val pacer = OrientationFramePacer()
+        assertTrue(pacer.onFrame(FRAME_60_HZ, 100.0, 10.0, 0.0))
+        assertTrue(pacer.onFrame(2 * FRAME_60_HZ, 200.0, 20.0, 0.0))
+        assertEquals(200.0, pacer.orientation, delta)
+        assertEquals(20.0, pacer.tilt, delta)
+    }
+
+    @Test
+    fun testSmoothingWrapsAcrossNorth() {
+        // Half of the way to the new value in each 60 Hz frame
+        val pacer = OrientationFramePacer(FRAME_60_HZ * 1e-9 / Math.log(2.0))
+        assertTrue(pacer.onFrame(FRAME_60_HZ, 350.0, 10.0, 0.0))
+        assertEquals(350.0, pacer.orientation, delta)
+        assertEquals(10.0, pacer.tilt, delta)
+
+        // Halfway between 350 and 10 is 0, not 180
+        assertTrue(pacer.onFrame(2 * FRAME_60_HZ, 10.0, 20.0, 0.0))
+        assertEquals(0.0, pacer.orientation, delta)
+        assertEquals(15.0, pacer.tilt, delta)
+    }
+
+    @Test
+    fun testSmoothingIndependentOfFrameRate() {
+        val pacer60 = OrientationFramePacer(0.05)
+        val pacer120 = OrientationFramePacer(0.05)
+        pacer60.onFrame(0L, 0.0, 0.0, 0.0)
+        pacer120.onFrame(0L, 0.0, 0.0, 0.0)
+        // Step change, with twice as many frames at 120 Hz
+        for (frame in 1..6) {
+            pacer60.onFrame(frame * FRAME_60_HZ, 90.0, 30.0, 0.0)
+        }
+        for (frame in 1..12) {
+            pacer120.onFrame(frame * FRAME_60_HZ / 2, 90.0, 30.0, 0.0)
+        }
+        assertEquals(pacer60.orientation, pacer120.orientation, 1e-6)
+        assertEquals(pacer60.tilt, pacer120.tilt, 1e-6)
+        // 0.1 seconds is two time constants
+        assertEquals(90.0 * (1 - Math.exp(-2.0)), pacer60.orientation, 1e-6)
+    }
+
+    @Test
+    fun testSkipsSmallChanges() {
+        val pacer = OrientationFramePacer()
+        assertTrue(pacer.onFrame(FRAME_60_HZ, 100.0, Double.NaN, 1.0))
+        assertFalse(pacer.onFrame(2 * FRAME_60_HZ, 100.5, Double.NaN, 1.0))
+        // Change accumulates relative to the last emitted frame
+        assertTrue(pacer.onFrame(3 * FRAME_60_HZ, 101.5, Double.NaN, 1.0))
+        assertEquals(101.5, pacer.orientation, delta)
+        assertTrue(pacer.tilt.isNaN())
+
+        // Tilt becoming available is always emitted
+        assertTrue(pacer.onFrame(4 * FRAME_60_HZ, 101.5, 5.0, 1.0))
+
+        pacer.reset()
+        assertTrue(pacer.onFrame(5 * FRAME_60_HZ, 101.5, 5.0, 1.0))
+    }
+
+    companion object {
+        private const val FRAME_60_HZ = 16_666_667L
+    }
+}
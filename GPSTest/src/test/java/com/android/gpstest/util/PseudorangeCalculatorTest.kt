@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import android.location.GnssMeasurement
+import android.location.GnssStatus
+import com.android.gpstest.library.util.PseudorangeCalculator
+import com.android.gpstest.library.util.PseudorangeCalculator.Companion.SPEED_OF_LIGHT_METERS_PER_SECOND
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.IOException
+import java.io.StringReader
+
+class PseudorangeCalculatorTest {
+
+    private val calculator = PseudorangeCalculator(capacity = 4)
+
+    @Test
+    fun testPseudorangesFromLog() {
+        // Wednesday of GPS week 2250
+        val gpsNanos = 2250 * WEEK + 3 * DAY + 12_345_678_901L
+        val tow = gpsNanos % WEEK
+        val gloTod = Math.floorMod(gpsNanos - 18 * SECOND + 3 * HOUR, DAY)
+        val log = """
+            # Header
+            # Raw,utcTimeMillis,TimeNanos,...
+            Fix,GPS,28.0,-82.4
+            ${raw(gpsNanos, GnssStatus.CONSTELLATION_GPS, 5, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, tow - 70_000_000L)}
+            ${raw(gpsNanos, GnssStatus.CONSTELLATION_GALILEO, 11, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_KNOWN, tow - 80_000_000L)}
+            ${raw(gpsNanos, GnssStatus.CONSTELLATION_BEIDOU, 3, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, tow - 14 * SECOND - 125_000_000L)}
+            ${raw(gpsNanos, GnssStatus.CONSTELLATION_GLONASS, 7, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_GLO_TOD_DECODED, gloTod - 68_000_000L)}
+            ${raw(gpsNanos, GnssStatus.CONSTELLATION_QZSS, 194, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, tow - 120_000_000L)}
+        """.trimIndent()
+
+        var epochs = 0
+        val count = PseudorangeCalculator.readRawLog(StringReader(log), calculator) { epoch ->
+            epochs++
+            assertTrue(epoch.isValid)
+            assertEquals(HARDWARE_TIME_NANOS, epoch.timeNanos)
+            assertEquals(2250, epoch.gpsWeek)
+            assertEquals((tow + BIAS_CORRECTION_NANOS) * 1e-9, epoch.gpsTimeOfWeekSeconds, 1e-9)
+            assertEquals(
+                GPS_EPOCH_UTC_MILLIS + gpsNanos / 1_000_000L - 18_000L,
+                epoch.utcTimeMillis
+            )
+            // More signals than the initial capacity
+            assertEquals(5, epoch.size)
+            assertEquals(0, epoch.rejectedCount)
+
+            assertEquals(5, epoch.svid(0))
+            assertEquals(GnssStatus.CONSTELLATION_GPS, epoch.constellationType(0))
+            assertEquals(1575.42e6, epoch.carrierFrequencyHz(0), 1.0)
+            assertEquals(40.5, epoch.cn0DbHz(0), 1e-9)
+            assertEquals(range(70_000_000L), epoch.pseudorangeMeters(0), 1e-6)
+            assertEquals(15e-9 * SPEED_OF_LIGHT_METERS_PER_SECOND, epoch.pseudorangeUncertaintyMeters(0), 1e-9)
+            assertEquals(-512.25, epoch.pseudorangeRateMetersPerSecond(0), 1e-9)
+            assertEquals(0.05, epoch.pseudorangeRateUncertaintyMetersPerSecond(0), 1e-9)
+            assertEquals(epoch.gpsTimeOfWeekSeconds - 0.07, epoch.transmitTimeOfWeekSeconds(0), 1e-9)
+            assertEquals(GnssMeasurement.ADR_STATE_VALID, epoch.accumulatedDeltaRangeState(0))
+            assertEquals(12.5, epoch.accumulatedDeltaRangeMeters(0), 1e-9)
+
+            assertEquals(range(80_000_000L), epoch.pseudorangeMeters(1), 1e-6)
+            assertEquals(range(125_000_000L), epoch.pseudorangeMeters(2), 1e-6)
+            assertEquals(epoch.gpsTimeOfWeekSeconds - 0.125, epoch.transmitTimeOfWeekSeconds(2), 1e-9)
+            assertEquals(range(68_000_000L), epoch.pseudorangeMeters(3), 1e-6)
+            assertEquals(range(120_000_000L), epoch.pseudorangeMeters(4), 1e-6)
+        }
+        assertEquals(1, count)
+        assertEquals(1, epochs)
+    }
+
+    @Test
+    fun testWeekAndDayRollover() {
+        // 30 ms into GPS week 2251, with GPS signals sent during week 2250
+        var gpsNanos = 2251 * WEEK + 30_000_000L
+        beginEpoch(gpsNanos)
+        assertTrue(add(GnssStatus.CONSTELLATION_GPS, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, WEEK - 40_000_000L))
+        assertEquals(range(70_000_000L), calculator.epoch.pseudorangeMeters(0), 1e-6)
+        assertEquals(-0.04, calculator.epoch.transmitTimeOfWeekSeconds(0), 1e-9)
+        // BDT is 14 seconds behind, so it's still in the previous week
+        assertTrue(add(GnssStatus.CONSTELLATION_BEIDOU, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, WEEK - 14 * SECOND - 50_000_000L))
+        assertEquals(range(80_000_000L), calculator.epoch.pseudorangeMeters(1), 1e-6)
+
+        // BDT week rollover
+        gpsNanos = 2251 * WEEK + 14 * SECOND + 30_000_000L
+        beginEpoch(gpsNanos)
+        assertTrue(add(GnssStatus.CONSTELLATION_BEIDOU, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_KNOWN, WEEK - 90_000_000L))
+        assertEquals(range(120_000_000L), calculator.epoch.pseudorangeMeters(0), 1e-6)
+
+        // GLONASS day rollover - 20 ms after midnight UTC(SU), which is 21:00:18 GPS time
+        gpsNanos = 2251 * WEEK + 2 * DAY + 21 * HOUR + 18 * SECOND + 20_000_000L
+        beginEpoch(gpsNanos)
+        assertTrue(add(GnssStatus.CONSTELLATION_GLONASS, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_GLO_TOD_KNOWN, DAY - 50_000_000L))
+        assertEquals(range(70_000_000L), calculator.epoch.pseudorangeMeters(0), 1e-6)
+        assertEquals(
+            (2 * DAY + 21 * HOUR + 18 * SECOND + 20_000_000L - 70_000_000L) * 1e-9,
+            calculator.epoch.transmitTimeOfWeekSeconds(0),
+            1e-9
+        )
+    }
+
+    @Test
+    fun testRejectedSignals() {
+        val gpsNanos = 2250 * WEEK + 100 * SECOND
+        val tow = gpsNanos % WEEK
+        beginEpoch(gpsNanos)
+        // Time of week not decoded yet
+        assertFalse(add(GnssStatus.CONSTELLATION_GPS, GnssMeasurement.STATE_CODE_LOCK, tow - 70_000_000L))
+        assertFalse(add(GnssStatus.CONSTELLATION_GPS, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED or GnssMeasurement.STATE_MSEC_AMBIGUOUS, tow - 70_000_000L))
+        // Time of week decoded, but the code isn't locked
+        assertFalse(add(GnssStatus.CONSTELLATION_GPS, GnssMeasurement.STATE_TOW_DECODED, tow - 70_000_000L))
+        assertFalse(add(GnssStatus.CONSTELLATION_GLONASS, GnssMeasurement.STATE_GLO_TOD_DECODED, tow - 70_000_000L))
+        // GLONASS needs the time of day, not the time of week
+        assertFalse(add(GnssStatus.CONSTELLATION_GLONASS, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, tow - 70_000_000L))
+        assertFalse(add(GnssStatus.CONSTELLATION_SBAS, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, tow - 120_000_000L))
+        // Too uncertain
+        assertFalse(add(GnssStatus.CONSTELLATION_GPS, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, tow - 70_000_000L, uncertaintyNanos = 1000L))
+        // Implausible travel time
+        assertFalse(add(GnssStatus.CONSTELLATION_GPS, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, tow - 2 * SECOND))
+        assertFalse(add(GnssStatus.CONSTELLATION_GPS, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, tow + 10_000_000L))
+        assertEquals(0, calculator.epoch.size)
+        assertEquals(9, calculator.epoch.rejectedCount)
+
+        assertTrue(add(GnssStatus.CONSTELLATION_GPS, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, tow - 70_000_000L))
+        assertEquals(1, calculator.epoch.size)
+    }
+
+    @Test
+    fun testNoFullBias() {
+        assertFalse(calculator.beginEpoch(HARDWARE_TIME_NANOS, false, 0L, 0.0, Double.NaN, 18, 0))
+        assertFalse(calculator.epoch.isValid)
+        assertFalse(add(GnssStatus.CONSTELLATION_GPS, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, 70_000_000L))
+        assertEquals(0, calculator.epoch.size)
+        assertEquals(1, calculator.epoch.rejectedCount)
+
+        // Empty FullBiasNanos in a log
+        val line = raw(2250 * WEEK, GnssStatus.CONSTELLATION_GPS, 1, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, 0L)
+            .split(',').toMutableList().also { it[5] = "" }.joinToString(",")
+        PseudorangeCalculator.readRawLog(StringReader(line), calculator) { epoch ->
+            assertFalse(epoch.isValid)
+            assertEquals(1, epoch.rejectedCount)
+        }
+    }
+
+    @Test
+    fun testEpochsSplitByTime() {
+        val gpsNanos = 2250 * WEEK + 100 * SECOND
+        val log = (0 until 3).joinToString("\n") { epoch ->
+            (1..epoch + 1).joinToString("\n") { svid ->
+                raw(gpsNanos + epoch * SECOND, GnssStatus.CONSTELLATION_GPS, svid, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED,
+                    (gpsNanos + epoch * SECOND) % WEEK - 70_000_000L, hardwareOffsetNanos = epoch * SECOND)
+            }
+        }
+        val sizes = ArrayList<Int>()
+        val times = ArrayList<Long>()
+        assertEquals(3, PseudorangeCalculator.readRawLog(StringReader(log), calculator) { epoch ->
+            sizes.add(epoch.size)
+            times.add(epoch.timeNanos)
+        })
+        assertEquals(listOf(1, 2, 3), sizes)
+        assertEquals(listOf(HARDWARE_TIME_NANOS, HARDWARE_TIME_NANOS + SECOND, HARDWARE_TIME_NANOS + 2 * SECOND), times)
+    }
+
+    @Test(expected = IOException::class)
+    fun testInvalidLine() {
+        val line = raw(2250 * WEEK, GnssStatus.CONSTELLATION_GPS, 1, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED, 0L)
+            .replace(",40.5,", ",abc,")
+        PseudorangeCalculator.readRawLog(StringReader(line), calculator) {}
+    }
+
+    private fun beginEpoch(gpsNanos: Long) {
+        assertTrue(
+            calculator.beginEpoch(
+                HARDWARE_TIME_NANOS, true, HARDWARE_TIME_NANOS - gpsNanos, BIAS_NANOS, 10.0, 18, 0
+            )
+        )
+    }
+
+    private fun add(constellationType: Int, state: Int, receivedSvTimeNanos: Long, uncertaintyNanos: Long = 15L): Boolean {
+        return calculator.addMeasurement(
+            constellationType, 1, state, 0.0, receivedSvTimeNanos, uncertaintyNanos,
+            40.5, -512.25, 0.05, Double.NaN
+        )
+    }
+
+    /**
+     * Returns a Raw line for a receiver clock that's [gpsNanos] GPS time at TimeNanos, in the format
+     * written by FormatUtils.toLog()
+     */
+    private fun raw(
+        gpsNanos: Long,
+        constellationType: Int,
+        svid: Int,
+        state: Int,
+        receivedSvTimeNanos: Long,
+        hardwareOffsetNanos: Long = 0L
+    ): String {
+        val timeNanos = HARDWARE_TIME_NANOS + hardwareOffsetNanos
+        val fields = Array(37) { "" }
+        fields[0] = "Raw"
+        fields[1] = "123456"
+        fields[2] = timeNanos.toString()
+        fields[3] = "18"
+        fields[5] = (timeNanos - gpsNanos).toString()
+        fields[6] = BIAS_NANOS.toString()
+        fields[7] = "10.0"
+        fields[10] = "3"
+        fields[11] = svid.toString()
+        fields[12] = "0.0"
+        fields[13] = state.toString()
+        fields[14] = receivedSvTimeNanos.toString()
+        fields[15] = "15"
+        fields[16] = "40.5"
+        fields[17] = "-512.25"
+        fields[18] = "0.05"
+        fields[19] = "1"
+        fields[20] = "12.5"
+        fields[21] = "0.0"
+        fields[22] = "1575420000"
+        fields[26] = "0"
+        fields[28] = constellationType.toString()
+        fields[36] = "123456000000"
+        return fields.joinToString(",")
+    }
+
+    private fun range(travelNanos: Long): Double {
+        return (travelNanos + BIAS_CORRECTION_NANOS) * 1e-9 * SPEED_OF_LIGHT_METERS_PER_SECOND
+    }
+
+    companion object {
+        private const val SECOND = 1_000_000_000L
+        private const val HOUR = 3600L * SECOND
+        private const val DAY = 24L * HOUR
+        private const val WEEK = 7L * DAY
+        private const val GPS_EPOCH_UTC_MILLIS = 315_964_800_000L
+        private const val HARDWARE_TIME_NANOS = 5_000_000_000_000L
+        private const val BIAS_NANOS = 0.375
+        private const val BIAS_CORRECTION_NANOS = -BIAS_NANOS
+    }
+}
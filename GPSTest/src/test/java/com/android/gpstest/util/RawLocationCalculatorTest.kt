@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import android.location.GnssMeasurement
+import android.location.GnssNavigationMessage
+import android.location.GnssStatus
+import com.android.gpstest.library.model.KeplerEphemeris
+import com.android.gpstest.library.util.EphemerisCache
+import com.android.gpstest.library.util.GeodesyUtils
+import com.android.gpstest.library.util.PseudorangeCalculator
+import com.android.gpstest.library.util.PseudorangeCalculator.Companion.SPEED_OF_LIGHT_METERS_PER_SECOND
+import com.android.gpstest.library.util.RawLocationCalculator
+import com.android.gpstest.library.util.SatellitePropagator
+import com.android.gpstest.library.util.WlsSolver.Companion.EARTH_ROTATION_RATE
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * Tests for RawLocationCalculator with pseudoranges simulated from GPS ephemerides for a receiver
+ * in Tampa, FL
+ */
+class RawLocationCalculatorTest {
+
+    private val cache = EphemerisCache()
+    private val calculator = PseudorangeCalculator()
+    private val receiver = DoubleArray(3).also { GeodesyUtils.geodeticToEcef(LAT, LON, ALT, it) }
+
+    // Computes the simulated measurements, separately from the propagator under test
+    private val reference = SatellitePropagator(cache)
+
+    @Test
+    fun testLocation() {
+        for (svid in 1..8) {
+            cache.put(kepler(svid))
+        }
+        val raw = RawLocationCalculator(SatellitePropagator(cache))
+        beginEpoch()
+        // The L5 signal of a satellite isn't used with its L1 signal, even if it comes first
+        add(3, pseudorange(3) + 100.0, L5_HZ)
+        for (svid in 1..8) {
+            add(svid, pseudorange(svid))
+        }
+        // No ephemeris
+        add(20, 21_000_000.0)
+        assertEquals(10, calculator.epoch.size)
+
+        assertTrue(raw.solve(calculator.epoch))
+        // One signal from each satellite with an ephemeris
+        assertEquals(8, raw.solver.size)
+        assertEquals(LAT, raw.solver.latitude, 1e-7)
+        assertEquals(LON, raw.solver.longitude, 1e-7)
+        assertEquals(ALT, raw.solver.altitude, 1e-2)
+        assertEquals(0.0, raw.solver.clockBiasMeters(GnssStatus.CONSTELLATION_GPS), 1e-2)
+    }
+
+    @Test
+    fun testNotEnoughSatellites() {
+        for (svid in 1..3) {
+            cache.put(kepler(svid))
+        }
+        val raw = RawLocationCalculator(SatellitePropagator(cache))
+        beginEpoch()
+        for (svid in 1..3) {
+            add(svid, pseudorange(svid))
+        }
+        assertFalse(raw.solve(calculator.epoch))
+
+        // Unhealthy satellites aren't used
+        cache.put(kepler(4).copy(health = 1))
+        beginEpoch()
+        for (svid in 1..4) {
+            add(svid, pseudorange(svid))
+        }
+        assertFalse(raw.solve(calculator.epoch))
+    }
+
+    private fun beginEpoch() {
+        assertTrue(calculator.beginEpoch(HARDWARE_TIME_NANOS, true, HARDWARE_TIME_NANOS - GPS_NANOS, 0.0, 10.0, 18, 0))
+    }
+
+    /**
+     * Adds a GPS signal with [pseudorangeMeters], with the receiver clock on GPS time
+     */
+    private fun add(svid: Int, pseudorangeMeters: Double, carrierFrequencyHz: Double = L1_HZ) {
+        val travelNanos = pseudorangeMeters / SPEED_OF_LIGHT_METERS_PER_SECOND * 1e9
+        val wholeNanos = Math.round(travelNanos)
+        assertTrue(
+            calculator.addMeasurement(
+                GnssStatus.CONSTELLATION_GPS, svid, GnssMeasurement.STATE_CODE_LOCK or GnssMeasurement.STATE_TOW_DECODED,
+                travelNanos - wholeNanos, Math.floorMod(GPS_NANOS, WEEK) - wholeNanos, 15L, 40.0, Double.NaN, Double.NaN,
+                carrierFrequencyHz
+            )
+        )
+    }
+
+    /**
+     * Pseudorange of satellite [svid] at the receiver - the range to where it was when the signal
+     * was sent, rotated with the Earth during the travel time, less its clock bias
+     */
+    private fun pseudorange(svid: Int): Double {
+        val i = reference.indexOf(GnssStatus.CONSTELLATION_GPS, svid)
+        val receiveTime = Math.floorMod(GPS_NANOS, WEEK) * 1e-9
+        var travel = 0.07
+        var range = 0.0
+        repeat(10) {
+            reference.propagate(i, receiveTime - travel)
+            val theta = EARTH_ROTATION_RATE * travel
+            val dx = reference.x(i) * cos(theta) + reference.y(i) * sin(theta) - receiver[0]
+            val dy = -reference.x(i) * sin(theta) + reference.y(i) * cos(theta) - receiver[1]
+            val dz = reference.z(i) - receiver[2]
+            range = sqrt(dx * dx + dy * dy + dz * dz)
+            travel = range / SPEED_OF_LIGHT_METERS_PER_SECOND
+        }
+        return range - reference.clockBiasSeconds(i) * SPEED_OF_LIGHT_METERS_PER_SECOND
+    }
+
+    /**
+     * A GPS satellite in one of four orbital planes
+     */
+    private fun kepler(svid: Int) = KeplerEphemeris(
+        constellationType = GnssStatus.CONSTELLATION_GPS,
+        svid = svid,
+        iode = 10,
+        iodc = 10,
+        week = 2290,
+        toe = TOE,
+        toc = TOE,
+        sqrtA = 5153.7,
+        eccentricity = 0.0123,
+        i0 = 0.97,
+        omega0 = -1.2 + (svid % 4) * Math.PI / 2,
+        omega = 0.7,
+        m0 = svid * 0.8,
+        deltaN = 4.5e-9,
+        omegaDot = -8.1e-9,
+        iDot = 1.1e-10,
+        cuc = 1e-6,
+        cus = 2e-6,
+        crc = 250.0,
+        crs = -20.0,
+        cic = 3e-8,
+        cis = -4e-8,
+        af0 = 1e-4,
+        af1 = -1e-11,
+        af2 = 0.0,
+        tgd = -5e-9,
+        accuracyIndex = 0,
+        health = 0,
+        source = GnssNavigationMessage.TYPE_GPS_L1CA,
+        decodedTimeMillis = TIME
+    )
+
+    companion object {
+        private const val TIME = 1_700_000_000_000L
+        private const val TOE = 518400.0
+        private const val SECOND = 1_000_000_000L
+        private const val WEEK = 7L * 24L * 3600L * SECOND
+        private const val GPS_NANOS = 2290 * WEEK + 518_500L * SECOND
+        private const val HARDWARE_TIME_NANOS = 5_000_000_000_000L
+        private const val L1_HZ = 1575.42e6
+        private const val L5_HZ = 1176.45e6
+        private const val LAT = 28.0587
+        private const val LON = -82.4139
+        private const val ALT = 15.0
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import android.location.GnssNavigationMessage
+import android.location.GnssStatus
+import com.android.gpstest.library.model.GlonassEphemeris
+import com.android.gpstest.library.model.KeplerEphemeris
+import com.android.gpstest.library.util.EphemerisCache
+import com.android.gpstest.library.util.SatellitePropagator
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.abs
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+class SatellitePropagatorTest {
+
+    private val cache = EphemerisCache()
+
+    private val propagator = SatellitePropagator(cache)
+
+    @Test
+    fun testKeplerPosition() {
+        // A typical GPS orbit, and an eccentric one that needs all the Newton iterations
+        for (eccentricity in doubleArrayOf(0.0123, 0.2)) {
+            cache.clear()
+            val e = kepler(GnssStatus.CONSTELLATION_GPS, 5, eccentricity)
+            cache.put(e)
+            val i = propagator.indexOf(GnssStatus.CONSTELLATION_GPS, 5)
+            for (dt in doubleArrayOf(-7000.0, 0.0, 3000.0)) {
+                propagator.propagate(TOE + dt)
+                val expected = reference(e, TOE + dt)
+                assertEquals(expected[0], propagator.x(i), 1e-3)
+                assertEquals(expected[1], propagator.y(i), 1e-3)
+                assertEquals(expected[2], propagator.z(i), 1e-3)
+                assertEquals(expected[3], propagator.clockBiasSeconds(i), 1e-15)
+            }
+        }
+        val i = propagator.indexOf(GnssStatus.CONSTELLATION_GPS, 5)
+        // At the end of the week an ephemeris from the start of the next week still applies
+        propagator.propagate(TOE - WEEK_SECONDS + 100)
+        val wrapped = doubleArrayOf(propagator.x(i), propagator.y(i), propagator.z(i))
+        propagator.propagate(TOE + 100)
+        assertEquals(wrapped[0], propagator.x(i), 1e-6)
+        assertEquals(wrapped[1], propagator.y(i), 1e-6)
+        assertEquals(wrapped[2], propagator.z(i), 1e-6)
+    }
+
+    @Test
+    fun testKeplerVelocity() {
+        cache.put(kepler(GnssStatus.CONSTELLATION_GPS, 5, 0.0123))
+        cache.put(kepler(GnssStatus.CONSTELLATION_GALILEO, 11, 0.0003))
+        // BeiDou GEO, in its inclined reference frame
+        cache.put(kepler(GnssStatus.CONSTELLATION_BEIDOU, 3, 0.0005).copy(sqrtA = 6493.4, i0 = 0.1))
+        cache.put(kepler(GnssStatus.CONSTELLATION_BEIDOU, 30, 0.0005).copy(sqrtA = 5282.6))
+        propagator.update()
+        assertEquals(4, propagator.size)
+        assertVelocity(TOE + 3000.0)
+    }
+
+    @Test
+    fun testBeidouGeo() {
+        // A GEO satellite stays at its radius and moves far slower in ECEF than a MEO satellite
+        cache.put(kepler(GnssStatus.CONSTELLATION_BEIDOU, 3, 0.0005).copy(sqrtA = 6493.4, i0 = 0.1))
+        val i = propagator.indexOf(GnssStatus.CONSTELLATION_BEIDOU, 3)
+        propagator.propagate(TOE + 3000.0)
+        val speed = sqrt(square(propagator.vx(i)) + square(propagator.vy(i)) + square(propagator.vz(i)))
+        assertTrue("$speed m/s", speed < 1000)
+        val radius = sqrt(square(propagator.x(i)) + square(propagator.y(i)) + square(propagator.z(i)))
+        assertEquals(42_164_000.0, radius, 300_000.0)
+    }
+
+    @Test
+    fun testGlonass() {
+        val e = glonass(7)
+        cache.put(e)
+        val i = propagator.indexOf(GnssStatus.CONSTELLATION_GLONASS, 7)
+        assertTrue(propagator.isHealthy(i))
+
+        // At tb the broadcast state vector is returned as is
+        propagator.propagate(glonassTow(e.tb))
+        assertEquals(e.x, propagator.x(i), 1e-6)
+        assertEquals(e.vz, propagator.vz(i), 1e-9)
+        assertEquals(-e.tauN, propagator.clockBiasSeconds(i), 1e-15)
+
+        // 15 minutes later, 60 second steps agree with 5 second steps
+        val t = glonassTow(e.tb + 900)
+        propagator.propagate(t)
+        val fine = SatellitePropagator(cache, glonassStepSeconds = 5.0)
+        fine.propagate(t)
+        val j = fine.indexOf(GnssStatus.CONSTELLATION_GLONASS, 7)
+        assertEquals(fine.x(j), propagator.x(i), 1e-2)
+        assertEquals(fine.y(j), propagator.y(i), 1e-2)
+        assertEquals(fine.z(j), propagator.z(i), 1e-2)
+        assertEquals(fine.vx(j), propagator.vx(i), 1e-5)
+        // The satellite moved about 3.5 km/s along its orbit, which stays near its radius
+        val moved = sqrt(square(propagator.x(i) - e.x) + square(propagator.y(i) - e.y) + square(propagator.z(i) - e.z))
+        assertEquals(3_500_000.0, moved, 500_000.0)
+        val radius = sqrt(square(propagator.x(i)) + square(propagator.y(i)) + square(propagator.z(i)))
+        assertEquals(GLONASS_RADIUS, radius, 50_000.0)
+        assertEquals(-e.tauN + e.gammaN * 900, propagator.clockBiasSeconds(i), 1e-15)
+
+        assertVelocity(t)
+    }
+
+    @Test
+    fun testResultsShared() {
+        cache.put(kepler(GnssStatus.CONSTELLATION_GPS, 5, 0.0123))
+        cache.put(glonass(7))
+        propagator.propagate(TOE)
+        assertEquals(2L, propagator.computeCount)
+        // The solver and the sky view ask for the same epoch
+        propagator.propagate(TOE)
+        propagator.propagate(propagator.indexOf(GnssStatus.CONSTELLATION_GPS, 5), TOE)
+        assertEquals(2L, propagator.computeCount)
+        assertEquals(TOE, propagator.timeOfWeekSeconds(0), 0.0)
+
+        // A single satellite at its transmit time
+        propagator.propagate(propagator.indexOf(GnssStatus.CONSTELLATION_GPS, 5), TOE - 0.07)
+        assertEquals(3L, propagator.computeCount)
+
+        // A new ephemeris reloads the satellites
+        assertFalse(propagator.update())
+        cache.put(kepler(GnssStatus.CONSTELLATION_GALILEO, 11, 0.0003))
+        assertTrue(propagator.update())
+        assertEquals(3, propagator.size)
+        assertTrue(propagator.timeOfWeekSeconds(0).isNaN())
+        assertEquals(-1, propagator.indexOf(GnssStatus.CONSTELLATION_GPS, 6))
+    }
+
+    @Test
+    fun testManySatellites() {
+        putManySatellites()
+        propagator.update()
+        assertEquals(200, propagator.size)
+
+        // Reusing the propagator epoch after epoch gives the same results as a new one
+        for (k in 0 until 20) {
+            val t = TOE + 900 + k * 30.0
+            propagator.propagate(t)
+            val expected = SatellitePropagator(cache)
+            expected.propagate(t)
+            for (i in 0 until propagator.size) {
+                assertEquals(expected.x(i), propagator.x(i), 0.0)
+                assertEquals(expected.y(i), propagator.y(i), 0.0)
+                assertEquals(expected.z(i), propagator.z(i), 0.0)
+                assertEquals(expected.vx(i), propagator.vx(i), 0.0)
+            }
+        }
+    }
+
+    @Test
+    fun testPropagateDoesNotAllocate() {
+        putManySatellites()
+        var t = TOE + 900
+        // A new time for each call, so all 200 satellites are computed every time
+        assertNoAllocation {
+            t += 1.0
+            propagator.propagate(t)
+        }
+        assertEquals(200, propagator.size)
+    }
+
+    /**
+     * Adds ephemerides of 200 satellites to the cache - 176 Keplerian and 24 GLONASS
+     */
+    private fun putManySatellites() {
+        for (svid in 1..88) {
+            cache.put(kepler(GnssStatus.CONSTELLATION_GPS, svid, 0.0123).copy(m0 = svid * 0.1))
+            cache.put(kepler(GnssStatus.CONSTELLATION_GALILEO, svid, 0.0003).copy(m0 = svid * 0.2))
+        }
+        // GLONASS ephemerides are broadcast every 30 minutes, so they're integrated for minutes
+        for (svid in 1..24) {
+            cache.put(glonass(svid, tb = 12 * 900.0))
+        }
+    }
+
+    /**
+     * Checks the velocities of all satellites against the change of their positions around [t]
+     */
+    private fun assertVelocity(t: Double) {
+        val h = 0.5
+        val before = SatellitePropagator(cache)
+        val after = SatellitePropagator(cache)
+        before.propagate(t - h)
+        after.propagate(t + h)
+        propagator.propagate(t)
+        for (i in 0 until propagator.size) {
+            assertEquals(propagator.vx(i), (after.x(i) - before.x(i)) / (2 * h), 1e-3)
+            assertEquals(propagator.vy(i), (after.y(i) - before.y(i)) / (2 * h), 1e-3)
+            assertEquals(propagator.vz(i), (after.z(i) - before.z(i)) / (2 * h), 1e-3)
+            assertEquals(
+                propagator.clockDriftSecondsPerSecond(i),
+                (after.clockBiasSeconds(i) - before.clockBiasSeconds(i)) / (2 * h),
+                1e-15
+            )
+        }
+    }
+
+    /**
+     * Position and clock of a GPS satellite (IS-GPS-200 table 20-IV), solving Kepler's equation to
+     * convergence, as [x, y, z, clock bias]
+     */
+    private fun reference(e: KeplerEphemeris, t: Double): DoubleArray {
+        val a = e.sqrtA * e.sqrtA
+        val tk = t - e.toe
+        val n = sqrt(3.986005e14 / (a * a * a)) + e.deltaN
+        val m = e.m0 + n * tk
+        var ea = m
+        var last: Double
+        do {
+            last = ea
+            ea = m + e.eccentricity * sin(ea)
+        } while (abs(ea - last) > 1e-15)
+        val v = atan2(sqrt(1 - e.eccentricity * e.eccentricity) * sin(ea), cos(ea) - e.eccentricity)
+        val phi = v + e.omega
+        val u = phi + e.cus * sin(2 * phi) + e.cuc * cos(2 * phi)
+        val r = a * (1 - e.eccentricity * cos(ea)) + e.crs * sin(2 * phi) + e.crc * cos(2 * phi)
+        val i = e.i0 + e.iDot * tk + e.cis * sin(2 * phi) + e.cic * cos(2 * phi)
+        val node = e.omega0 + (e.omegaDot - 7.2921151467e-5) * tk - 7.2921151467e-5 * e.toe
+        val xp = r * cos(u)
+        val yp = r * sin(u)
+        val tc = t - e.toc
+        val clock = e.af0 + e.af1 * tc + e.af2 * tc * tc +
+                -4.442807633e-10 * e.eccentricity * e.sqrtA * sin(ea) - e.tgd
+        return doubleArrayOf(
+            xp * cos(node) - yp * cos(i) * sin(node),
+            xp * sin(node) + yp * cos(i) * cos(node),
+            yp * sin(i),
+            clock
+        )
+    }
+
+    /**
+     * GPS time of week of the Moscow time of day [tod] on the first day of the week
+     */
+    private fun glonassTow(tod: Double): Double = tod - 3 * 3600 + LEAP_SECONDS
+
+    private fun kepler(constellationType: Int, svid: Int, eccentricity: Double) = KeplerEphemeris(
+        constellationType = constellationType,
+        svid = svid,
+        iode = 10,
+        iodc = 10,
+        week = 2290,
+        // BeiDou times are in BDT, 14 seconds behind GPS time
+        toe = if (constellationType == GnssStatus.CONSTELLATION_BEIDOU) TOE - 14 else TOE,
+        toc = if (constellationType == GnssStatus.CONSTELLATION_BEIDOU) TOE - 14 else TOE,
+        sqrtA = 5153.7,
+        eccentricity = eccentricity,
+        i0 = 0.97,
+        omega0 = -1.2,
+        omega = 0.7,
+        m0 = 2.1,
+        deltaN = 4.5e-9,
+        omegaDot = -8.1e-9,
+        iDot = 1.1e-10,
+        cuc = 1e-6,
+        cus = 2e-6,
+        crc = 250.0,
+        crs = -20.0,
+        cic = 3e-8,
+        cis = -4e-8,
+        af0 = 1e-4,
+        af1 = -1e-11,
+        af2 = 1e-18,
+        tgd = -5e-9,
+        accuracyIndex = 0,
+        health = 0,
+        source = GnssNavigationMessage.TYPE_GPS_L1CA,
+        decodedTimeMillis = TIME
+    )
+
+    /**
+     * A GLONASS satellite on the equator at [tb] (Moscow time of day), in a 64.8 degree orbit
+     */
+    private fun glonass(svid: Int, tb: Double = 45 * 900.0): GlonassEphemeris {
+        val speed = sqrt(3.9860044e14 / GLONASS_RADIUS)
+        val inclination = Math.toRadians(64.8)
+        return GlonassEphemeris(
+            svid = svid,
+            iode = (tb / 900).toInt(),
+            tb = tb,
+            tk = tb - 60,
+            dayNumber = 300,
+            x = GLONASS_RADIUS,
+            y = 0.0,
+            z = 0.0,
+            vx = 0.0,
+            // Inertial velocity less the rotation of the Earth
+            vy = speed * cos(inclination) - 7.292115e-5 * GLONASS_RADIUS,
+            vz = speed * sin(inclination),
+            ax = 1e-6,
+            ay = -2e-6,
+            az = 3e-6,
+            tauN = 1e-5,
+            gammaN = 9e-13,
+            ageDays = 0,
+            health = 0,
+            decodedTimeMillis = TIME
+        )
+    }
+
+    private fun square(v: Double): Double = v * v
+
+    companion object {
+        private const val TIME = 1_700_000_000_000L
+        private const val TOE = 518400.0
+        private const val WEEK_SECONDS = 604800.0
+        private const val LEAP_SECONDS = 18
+        private const val GLONASS_RADIUS = 25_510_000.0
+    }
+}
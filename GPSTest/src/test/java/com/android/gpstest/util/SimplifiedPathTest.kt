@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.util.GeodesyUtils
+import com.android.gpstest.library.util.SimplifiedPath
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+import kotlin.math.cos
+import kotlin.math.hypot
+
+class SimplifiedPathTest {
+
+    @Test
+    fun testStraightLineIsSimplified() {
+        val path = SimplifiedPath()
+        for (i in 0 until 1000) {
+            path.add(LAT + i * DEGREES_PER_METER, LON)
+        }
+        assertEquals(1000, path.size)
+        for (level in 0 until path.levels) {
+            // Only the endpoints and the points kept when the window fills up remain
+            assertTrue(path.vertexCount(level) <= 1000 / SimplifiedPath.DEFAULT_MAX_WINDOW + 2)
+            assertEquals(LAT, path.latitude(level, 0), 0.0)
+            assertEquals(LAT + 999 * DEGREES_PER_METER, path.latitude(level, path.vertexCount(level) - 1), 1e-12)
+        }
+    }
+
+    @Test
+    fun testZigzagKeptOnlyAtFineLevels() {
+        val path = SimplifiedPath()
+        // Zigzag 3 meters either side of a line heading north, with a point every 10 meters
+        for (i in 0 until 200) {
+            val offset = if (i % 2 == 0) -3.0 else 3.0
+            path.add(LAT + i * 10 * DEGREES_PER_METER, LON + offset * DEGREES_PER_METER / cos(Math.toRadians(LAT)))
+        }
+        // 0.5 m tolerance keeps every point
+        assertEquals(200, path.vertexCount(0))
+        // 8 m tolerance removes the zigzag
+        assertTrue(path.vertexCount(4) < 10)
+        for (level in 1 until path.levels) {
+            assertTrue(path.vertexCount(level) <= path.vertexCount(level - 1))
+        }
+    }
+
+    @Test
+    fun testPointsWithinTolerance() {
+        val path = SimplifiedPath()
+        val random = Random(42)
+        val lats = DoubleArray(3000)
+        val lons = DoubleArray(3000)
+        var lat = LAT
+        var lon = LON
+        var heading = 0.0
+        for (i in lats.indices) {
+            heading += random.nextGaussian() * 0.3
+            lat += Math.cos(heading) * 2 * DEGREES_PER_METER
+            lon += Math.sin(heading) * 2 * DEGREES_PER_METER / cos(Math.toRadians(LAT))
+            lats[i] = lat
+            lons[i] = lon
+            path.add(lat, lon)
+        }
+        for (level in 0..6) {
+            val tolerance = path.tolerance(level)
+            var vertex = 0
+            for (i in lats.indices) {
+                // Vertices are a subset of the points, so move to the next segment at each vertex
+                if (vertex < path.vertexCount(level) - 1 &&
+                    lats[i] == path.latitude(level, vertex + 1) && lons[i] == path.longitude(level, vertex + 1)) {
+                    vertex++
+                }
+                assertTrue(
+                    "Point $i at level $level",
+                    distanceToSegment(path, level, vertex, lats[i], lons[i]) <= tolerance * 1.01
+                )
+            }
+            assertEquals(lats.last(), path.latitude(level, path.vertexCount(level) - 1), 0.0)
+        }
+    }
+
+    @Test
+    fun testClipToViewport() {
+        val path = SimplifiedPath()
+        // 10 km east, 10 km back to the west 2 km further north, then 10 km east again
+        addLine(path, LAT, LON, 0.0, 1.0, 10000)
+        addLine(path, LAT + 2000 * DEGREES_PER_METER, LON + 10000 * DEGREES_PER_METER / cos(Math.toRadians(LAT)), 0.0, -1.0, 10000)
+        addLine(path, LAT + 4000 * DEGREES_PER_METER, LON, 0.0, 1.0, 10000)
+
+        val runs = SimplifiedPath.Runs()
+        val lonScale = DEGREES_PER_METER / cos(Math.toRadians(LAT))
+        // Viewport around the middle of the first line only
+        val south = LAT - 100 * DEGREES_PER_METER
+        val north = LAT + 100 * DEGREES_PER_METER
+        val west = LON + 4900 * lonScale
+        val east = LON + 5100 * lonScale
+        assertTrue(path.clip(south, west, north, east, 0.1, runs))
+        assertEquals(1, runs.runCount)
+        assertEquals(0, runs.level)
+        // Only the few segments that cross the viewport plus its margin are included
+        assertTrue(runs.vertexCount in 2..5)
+        assertTrue(runs.longitude(runs.runStart(0)) <= west)
+        assertTrue(runs.longitude(runs.runEnd(0) - 1) >= east)
+        for (i in runs.runStart(0) until runs.runEnd(0)) {
+            assertEquals(LAT, runs.latitude(i), 1e-9)
+        }
+
+        // Nothing changed, so no need to redraw
+        assertFalse(path.clip(south, west, north, east, 0.1, runs))
+        // Small pans are covered by the margin
+        assertFalse(path.clip(south, west + 10 * lonScale, north, east + 10 * lonScale, 0.1, runs))
+        // A new point changes the path
+        path.add(LAT + 4000 * DEGREES_PER_METER, LON + 10001 * lonScale)
+        assertTrue(path.clip(south, west, north, east, 0.1, runs))
+
+        // Viewport over all three lines around their middle, with an end of the other lines between
+        val tallNorth = LAT + 4100 * DEGREES_PER_METER
+        assertTrue(path.clip(south, west, tallNorth, east, 0.1, runs))
+        assertEquals(3, runs.runCount)
+        var total = 0
+        for (run in 0 until runs.runCount) {
+            total += runs.runEnd(run) - runs.runStart(run)
+            assertTrue(runs.runEnd(run) - runs.runStart(run) >= 2)
+        }
+        assertEquals(runs.vertexCount, total)
+    }
+
+    @Test
+    fun testClipLimitsVertices() {
+        val path = SimplifiedPath()
+        val random = Random(7)
+        var lat = LAT
+        var lon = LON
+        var heading = 0.0
+        for (i in 0 until 20000) {
+            heading += random.nextGaussian() * 0.5
+            lat += Math.cos(heading) * 5 * DEGREES_PER_METER
+            lon += Math.sin(heading) * 5 * DEGREES_PER_METER
+            path.add(lat, lon)
+        }
+        val runs = SimplifiedPath.Runs()
+        assertTrue(path.clip(-90.0, -180.0, 90.0, 180.0, 0.1, runs, 500))
+        assertTrue(runs.vertexCount <= 500)
+        assertTrue(runs.level > 0)
+        assertTrue(runs.vertexCount >= 2)
+    }
+
+    @Test
+    fun testClipKeepsNewestVertices() {
+        // One level, so the limit can't be met by simplifying more
+        val path = SimplifiedPath(1)
+        var lat = LAT
+        for (i in 0 until 100) {
+            // Zig-zag so every point is a vertex
+            lat += if (i % 2 == 0) 100 * DEGREES_PER_METER else -100 * DEGREES_PER_METER
+            path.add(lat, LON + i * 10 * DEGREES_PER_METER)
+        }
+        assertEquals(100, path.vertexCount(0))
+        val runs = SimplifiedPath.Runs()
+        assertTrue(path.clip(-90.0, -180.0, 90.0, 180.0, 0.1, runs, 10))
+        assertEquals(1, runs.runCount)
+        assertEquals(10, runs.vertexCount)
+        for (i in 0 until 10) {
+            assertEquals(path.latitude(0, 90 + i), runs.latitude(i), 0.0)
+            assertEquals(path.longitude(0, 90 + i), runs.longitude(i), 0.0)
+        }
+    }
+
+    @Test
+    fun testLevelForResolution() {
+        val path = SimplifiedPath()
+        assertEquals(0, path.levelForTolerance(0.1))
+        assertEquals(0, path.levelForTolerance(0.9))
+        assertEquals(1, path.levelForTolerance(1.0))
+        assertEquals(3, path.levelForTolerance(5.0))
+        assertEquals(path.levels - 1, path.levelForTolerance(1e9))
+
+        assertEquals(156543.03, SimplifiedPath.metersPerPixel(0.0, 0.0), 0.01)
+        assertEquals(156543.03 / 2 / 1024, SimplifiedPath.metersPerPixel(60.0, 10.0), 0.01)
+    }
+
+    @Test
+    fun testReset() {
+        val path = SimplifiedPath()
+        addLine(path, LAT, LON, 1.0, 0.0, 100)
+        val version = path.version
+        path.reset()
+        assertEquals(0, path.size)
+        assertTrue(path.version > version)
+        for (level in 0 until path.levels) {
+            assertEquals(0, path.vertexCount(level))
+        }
+        val runs = SimplifiedPath.Runs()
+        assertTrue(path.clip(-90.0, -180.0, 90.0, 180.0, 1.0, runs))
+        assertEquals(0, runs.runCount)
+    }
+
+    private fun addLine(path: SimplifiedPath, lat: Double, lon: Double, north: Double, east: Double, meters: Int) {
+        for (i in 0..meters step 10) {
+            path.add(lat + north * i * DEGREES_PER_METER, lon + east * i * DEGREES_PER_METER / cos(Math.toRadians(LAT)))
+        }
+    }
+
+    private fun distanceToSegment(path: SimplifiedPath, level: Int, vertex: Int, lat: Double, lon: Double): Double {
+        val lat0 = path.latitude(level, vertex)
+        val lon0 = path.longitude(level, vertex)
+        val end = minOf(vertex + 1, path.vertexCount(level) - 1)
+        val metersPerDegreeLon = 1 / DEGREES_PER_METER * cos(Math.toRadians(lat0))
+        val bx = (path.longitude(level, end) - lon0) * metersPerDegreeLon
+        val by = (path.latitude(level, end) - lat0) / DEGREES_PER_METER
+        val px = (lon - lon0) * metersPerDegreeLon
+        val py = (lat - lat0) / DEGREES_PER_METER
+        val lengthSquared = bx * bx + by * by
+        val t = if (lengthSquared == 0.0) 0.0 else ((px * bx + py * by) / lengthSquared).coerceIn(0.0, 1.0)
+        return hypot(px - t * bx, py - t * by)
+    }
+
+    companion object {
+        private const val LAT = 28.0587
+        private const val LON = -82.4139
+        private const val DEGREES_PER_METER = 180 / (GeodesyUtils.MEAN_EARTH_RADIUS * Math.PI)
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import android.location.GnssNavigationMessage
+import android.location.GnssStatus
+import com.android.gpstest.library.model.GnssType
+import com.android.gpstest.library.model.KeplerEphemeris
+import com.android.gpstest.library.util.EphemerisCache
+import com.android.gpstest.library.util.GeodesyUtils
+import com.android.gpstest.library.util.SatellitePropagator
+import com.android.gpstest.library.util.SkyPredictor
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SkyPredictorTest {
+
+    private val cache = EphemerisCache()
+
+    @Test
+    fun testOverhead() {
+        cache.put(kepler(5, 2.1))
+        // Tiles small enough that the center of the tile is right below the satellite
+        val predictor = SkyPredictor(cache, durationMillis = 8 * 60 * 60 * 1000L, tileDegrees = 1e-4)
+        val start = Math.floorDiv(TIME, predictor.bucketMillis) * predictor.bucketMillis
+        val propagator = SatellitePropagator(cache)
+        propagator.propagate(gpsTimeOfWeekSeconds(start))
+        val below = DoubleArray(3)
+        GeodesyUtils.ecefToGeodetic(propagator.x(0), propagator.y(0), propagator.z(0), below)
+
+        val prediction = predictor.predict(below[0], below[1], TIME)
+        assertEquals(start, prediction.startMillis)
+        assertEquals(97, prediction.size)
+        assertEquals(start + predictor.durationMillis, prediction.endMillis)
+        assertEquals(1, prediction.tracks.size)
+        val track = prediction.tracks[0]
+        assertEquals(GnssType.NAVSTAR, track.gnssType)
+        assertEquals(5, track.svid)
+        assertEquals(90.0, track.elevationDegrees(0).toDouble(), 0.1)
+        // A GPS satellite passing overhead sets about 4 hours later
+        val set = track.nextSet(0)
+        assertTrue("Set at $set", set in 36..60)
+        assertTrue(track.elevationDegrees(set) < 0)
+        assertTrue(track.elevationDegrees(set - 1) >= 0)
+        for (k in 0 until set) {
+            assertTrue(track.isVisible(k))
+            assertTrue(track.azimuthDegrees(k) in 0f..360f)
+        }
+    }
+
+    @Test
+    fun testRiseAndSet() {
+        // Satellites spread around the orbit over a day, so some rise and set at any location
+        for (svid in 1..8) {
+            cache.put(kepler(svid, svid * 0.785))
+        }
+        val predictor = SkyPredictor(cache, durationMillis = 24 * 60 * 60 * 1000L)
+        val prediction = predictor.predict(LATITUDE, LONGITUDE, TIME)
+        assertTrue(prediction.tracks.isNotEmpty())
+        var rises = 0
+        for (track in prediction.tracks) {
+            var k = track.nextRise(0)
+            while (k >= 0) {
+                assertTrue(track.isVisible(k))
+                assertTrue(!track.isVisible(k - 1))
+                rises++
+                k = track.nextRise(k + 1)
+            }
+            // Every track is above the horizon at some time
+            assertTrue((0 until track.size).any { track.isVisible(it) })
+        }
+        assertTrue("$rises rises", rises > 0)
+    }
+
+    @Test
+    fun testCache() {
+        cache.put(kepler(5, 2.1))
+        val predictor = SkyPredictor(cache, maxCached = 2)
+        assertNull(predictor.cached(LATITUDE, LONGITUDE, TIME))
+        val prediction = predictor.predict(LATITUDE, LONGITUDE, TIME)
+        assertEquals(1, predictor.computeCount)
+
+        // Elsewhere in the same tile and bucket
+        assertSame(prediction, predictor.cached(LATITUDE + 0.1, LONGITUDE - 0.1, TIME + 1000))
+        assertSame(prediction, predictor.predict(LATITUDE + 0.1, LONGITUDE - 0.1, TIME + 1000))
+        assertEquals(1, predictor.computeCount)
+        assertEquals(LATITUDE.toInt() + 0.5, prediction.latitude, 1e-9)
+        assertEquals(LONGITUDE.toInt() - 0.5, prediction.longitude, 1e-9)
+
+        // Another tile and another bucket
+        val tile = predictor.predict(LATITUDE + 2, LONGITUDE, TIME)
+        assertNotSame(prediction, tile)
+        val later = predictor.predict(LATITUDE, LONGITUDE, TIME + predictor.bucketMillis)
+        assertEquals(prediction.startMillis + predictor.bucketMillis, later.startMillis)
+        assertEquals(3, predictor.computeCount)
+        // The least recently used prediction was dropped
+        assertNull(predictor.cached(LATITUDE, LONGITUDE, TIME))
+        assertSame(later, predictor.cached(LATITUDE, LONGITUDE, TIME + predictor.bucketMillis))
+
+        // New ephemerides are used, but not computed again for every ephemeris decoded
+        val time = TIME + predictor.bucketMillis + 1000
+        cache.put(kepler(6, 1.0))
+        assertSame(later, predictor.cached(LATITUDE, LONGITUDE, time))
+        assertNull(predictor.cached(LATITUDE, LONGITUDE, time + 60_000))
+        val updated = predictor.predict(LATITUDE, LONGITUDE, time + 60_000)
+        assertEquals(4, predictor.computeCount)
+        assertSame(updated, predictor.cached(LATITUDE, LONGITUDE, time + 120_000))
+    }
+
+    @Test
+    fun testNoEphemerides() {
+        val predictor = SkyPredictor(cache)
+        assertTrue(predictor.predict(LATITUDE, LONGITUDE, TIME).tracks.isEmpty())
+    }
+
+    @Test
+    fun testSharedPropagator() {
+        cache.put(kepler(5, 2.1))
+        val propagator = SatellitePropagator(cache)
+        val predictor = SkyPredictor(cache, propagator = propagator)
+        predictor.predict(LATITUDE, LONGITUDE, TIME)
+        // The predictor loaded the satellites into the shared propagator
+        assertEquals(1, propagator.size)
+        assertTrue(propagator.computeCount > 0)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testPropagatorWithAnotherCache() {
+        SkyPredictor(cache, propagator = SatellitePropagator(EphemerisCache()))
+    }
+
+    private fun gpsTimeOfWeekSeconds(utcMillis: Long): Double {
+        return Math.floorMod(utcMillis - GPS_EPOCH_UTC_MILLIS + LEAP_SECONDS * 1000L, WEEK_MILLIS) / 1000.0
+    }
+
+    private fun kepler(svid: Int, m0: Double) = KeplerEphemeris(
+        constellationType = GnssStatus.CONSTELLATION_GPS,
+        svid = svid,
+        iode = 10,
+        iodc = 10,
+        week = 2290,
+        toe = TOE,
+        toc = TOE,
+        sqrtA = 5153.7,
+        eccentricity = 0.0123,
+        i0 = 0.97,
+        omega0 = -1.2,
+        omega = 0.7,
+        m0 = m0,
+        deltaN = 4.5e-9,
+        omegaDot = -8.1e-9,
+        iDot = 1.1e-10,
+        cuc = 1e-6,
+        cus = 2e-6,
+        crc = 250.0,
+        crs = -20.0,
+        cic = 3e-8,
+        cis = -4e-8,
+        af0 = 1e-4,
+        af1 = -1e-11,
+        af2 = 0.0,
+        tgd = -5e-9,
+        accuracyIndex = 0,
+        health = 0,
+        source = GnssNavigationMessage.TYPE_GPS_L1CA,
+        decodedTimeMillis = TIME
+    )
+
+    companion object {
+        private const val GPS_EPOCH_UTC_MILLIS = 315_964_800_000L
+        private const val WEEK_MILLIS = 7 * 24 * 60 * 60 * 1000L
+        private const val LEAP_SECONDS = 18
+        private const val TOE = 518400.0
+
+        // About an hour after the TOE of the ephemerides in week 2290, at the start of a bucket
+        private const val TIME = GPS_EPOCH_UTC_MILLIS + 2290 * WEEK_MILLIS + (518400L + 3600) * 1000
+
+        private const val LATITUDE = 28.06
+        private const val LONGITUDE = -82.41
+    }
+}
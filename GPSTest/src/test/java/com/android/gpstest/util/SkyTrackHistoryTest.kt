@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.model.GnssType
+import com.android.gpstest.library.model.SatelliteStatus
+import com.android.gpstest.library.util.SatelliteUtil.toSatelliteId
+import com.android.gpstest.library.util.SkyTrackHistory
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class SkyTrackHistoryTest {
+
+    private fun gps(svid: Int, cn0: Float, azimuth: Float, elevation: Float, carrierHz: Double = 1575.42E6): SatelliteStatus {
+        return SatelliteStatus(svid, GnssType.NAVSTAR, cn0, true, true, true, elevation, azimuth).apply {
+            hasCarrierFrequency = true
+            carrierFrequencyHz = carrierHz
+        }
+    }
+
+    @Test
+    fun testSamplingAndSignalsMerged() {
+        val history = SkyTrackHistory(4, 1000L)
+        // L1 and L5 signals from the same satellite share a track with the strongest C/N0
+        history.add(listOf(gps(1, 20f, 10f, 30f), gps(1, 35f, 10f, 30f, 1176.45E6)), 0L)
+        assertEquals(1, history.tracks().size)
+        val track = history.track(gps(1, 0f, 0f, 0f).toSatelliteId())!!
+        assertEquals(1L, track.count)
+        assertEquals(35f, track.cn0DbHz(0), 0f)
+
+        // Too soon after the last sample
+        history.add(listOf(gps(1, 20f, 11f, 31f)), 500L)
+        assertEquals(1L, track.count)
+
+        history.add(listOf(gps(1, 20f, 12f, 32f)), 1000L)
+        assertEquals(2L, track.count)
+        assertEquals(12f, track.azimuthDegrees(1), 0f)
+        assertEquals(32f, track.elevationDegrees(1), 0f)
+        assertEquals(1000L, track.timeMillis(1))
+
+        // Signals without a position are ignored
+        history.add(listOf(gps(2, 20f, 0f, 0f)), 2000L)
+        assertNull(history.track(gps(2, 0f, 0f, 0f).toSatelliteId()))
+    }
+
+    @Test
+    fun testRingBufferWraps() {
+        val history = SkyTrackHistory(4, 1000L)
+        for (i in 0 until 10) {
+            history.add(listOf(gps(1, 20f, i + 1f, 45f)), i * 1000L)
+        }
+        val track = history.tracks().first()
+        assertEquals(10L, track.count)
+        assertEquals(6L, track.firstIndex)
+        assertEquals(7f, track.azimuthDegrees(6), 0f)
+        assertEquals(10f, track.azimuthDegrees(9), 0f)
+    }
+
+    @Test(expected = IndexOutOfBoundsException::class)
+    fun testExpiredSampleThrows() {
+        val history = SkyTrackHistory(2, 1000L)
+        for (i in 0 until 3) {
+            history.add(listOf(gps(1, 20f, 10f, 45f)), i * 1000L)
+        }
+        history.tracks().first().azimuthDegrees(0)
+    }
+
+    @Test
+    fun testStaleTracksRemoved() {
+        val history = SkyTrackHistory(4, 1000L)
+        history.add(listOf(gps(1, 20f, 10f, 45f)), 0L)
+        val version = history.version
+        history.add(listOf(gps(2, 20f, 10f, 45f)), 4001L)
+        assertEquals(1, history.tracks().size)
+        assertNull(history.track(gps(1, 0f, 0f, 0f).toSatelliteId()))
+        assertEquals(version + 2, history.version)
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.model.GnssType
+import com.android.gpstest.library.model.SatelliteStatus
+import com.android.gpstest.library.util.IncrementalSorter
+import com.android.gpstest.library.util.StatusRowDiffer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class StatusRowDifferTest {
+
+    private val sorter = IncrementalSorter()
+
+    private fun gps(svid: Int, cn0: Float, usedInFix: Boolean): SatelliteStatus {
+        return SatelliteStatus(svid, GnssType.NAVSTAR, cn0, true, true, usedInFix, 45f, 90f)
+    }
+
+    @Test
+    fun testDiff() {
+        val differ = StatusRowDiffer()
+        val rows1 = differ.update(sorter.sort(listOf(gps(1, 20f, true), gps(2, 30f, false), gps(3, 25f, false)), null))
+        assertEquals(3, rows1.rows.size)
+        assertEquals(rows1.rows.map { it.key }.toSet(), rows1.inserted)
+        assertTrue(rows1.removed.isEmpty())
+        assertTrue(rows1.changed.isEmpty())
+
+        // svid 1 is unchanged, svid 2 is now used, svid 3 is removed and svid 4 is added
+        val rows2 = differ.update(sorter.sort(listOf(gps(1, 20f, true), gps(2, 30f, true), gps(4, 40f, false)), null))
+        assertEquals(listOf(1, 2, 4), rows2.rows.map { it.svid })
+        assertSame(rows1.rows[0], rows2.rows[0])
+        assertEquals(setOf(rows2.rows[2].key), rows2.inserted)
+        assertEquals(setOf(rows1.rows[2].key), rows2.removed)
+        assertEquals(setOf(rows2.rows[1].key), rows2.changed)
+        assertTrue(rows2.rows[1].usedInFix)
+
+        // Nothing changed
+        val rows3 = differ.update(sorter.sort(listOf(gps(1, 20f, true), gps(2, 30f, true), gps(4, 40f, false)), null))
+        for (i in rows3.rows.indices) {
+            assertSame(rows2.rows[i], rows3.rows[i])
+        }
+        assertTrue(rows3.inserted.isEmpty())
+        assertTrue(rows3.removed.isEmpty())
+        assertTrue(rows3.changed.isEmpty())
+
+        // After a reset every row is new
+        differ.reset()
+        val rows4 = differ.update(sorter.sort(listOf(gps(1, 20f, true)), null))
+        assertEquals(setOf(rows4.rows[0].key), rows4.inserted)
+        assertTrue(rows4.removed.isEmpty())
+    }
+
+    @Test
+    fun testRunningCn0Aggregates() {
+        val differ = StatusRowDiffer()
+        val rows1 = differ.update(sorter.sort(listOf(gps(1, 20f, true), gps(2, 30f, false), gps(3, 0f, false)), null))
+        assertEquals(2, rows1.numInView)
+        assertEquals(50.0, rows1.cn0InViewSum, 1e-6)
+        assertEquals(1, rows1.numUsed)
+        assertEquals(20.0, rows1.cn0UsedSum, 1e-6)
+
+        // svid 1 is unchanged, svid 2 is now used, svid 3 is removed and svid 4 is added
+        val rows2 = differ.update(sorter.sort(listOf(gps(1, 20f, true), gps(2, 32f, true), gps(4, 40f, false)), null))
+        assertSame(rows1.rows[0], rows2.rows[0])
+        assertEquals(3, rows2.numInView)
+        assertEquals(92.0, rows2.cn0InViewSum, 1e-6)
+        assertEquals(2, rows2.numUsed)
+        assertEquals(52.0, rows2.cn0UsedSum, 1e-6)
+
+        val rows3 = differ.update(sorter.sort(emptyList(), null))
+        assertEquals(0, rows3.numInView)
+        assertEquals(0.0, rows3.cn0InViewSum, 0.0)
+        assertEquals(0, rows3.numUsed)
+
+        differ.reset()
+        val rows4 = differ.update(sorter.sort(listOf(gps(1, 20f, true)), null))
+        assertEquals(1, rows4.numInView)
+        assertEquals(20.0, rows4.cn0UsedSum, 1e-6)
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.util.StreamingQuantile
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class StreamingQuantileTest {
+
+    @Test
+    fun testFewValuesUseNearestRank() {
+        val median = StreamingQuantile(0.5)
+        assertTrue(median.value.isNaN())
+        median.add(3.0)
+        median.add(1.0)
+        median.add(2.0)
+        assertEquals(2.0, median.value, 0.0)
+        // Missing values are ignored
+        median.add(Double.NaN)
+        assertEquals(3L, median.count)
+    }
+
+    @Test
+    fun testEstimatesMatchSortedValues() {
+        val random = Random(42)
+        val p50 = StreamingQuantile(0.5)
+        val p95 = StreamingQuantile(0.95)
+        val values = DoubleArray(10_000)
+        for (i in values.indices) {
+            values[i] = Math.abs(random.nextGaussian()) * 5
+            p50.add(values[i])
+            p95.add(values[i])
+        }
+        values.sort()
+        assertEquals(values[4999], p50.value, 0.05)
+        assertEquals(values[9499], p95.value, 0.05)
+
+        val uniform = StreamingQuantile(0.9)
+        for (i in 1..1000) {
+            uniform.add(i.toDouble())
+        }
+        assertEquals(900.0, uniform.value, 1.0)
+
+        uniform.reset()
+        assertEquals(0L, uniform.count)
+        assertTrue(uniform.value.isNaN())
+    }
+}
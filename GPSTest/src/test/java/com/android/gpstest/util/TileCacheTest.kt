@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.util.TileCache
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.util.Random
+
+class TileCacheTest {
+
+    private val file = File.createTempFile("tiles", ".tiles").also { it.delete() }
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    @Test
+    fun testPutGetRemove() {
+        TileCache(file, MAX_BYTES).use { cache ->
+            val key = TileCache.key(15, 8900, 13700)
+            assertNull(cache[key])
+            assertTrue(cache.put(key, tile(1, 1000)))
+            assertTrue(key in cache)
+            assertArrayEquals(tile(1, 1000), cache[key])
+            assertEquals(1, cache.size)
+            assertEquals(1, cache.hitCount)
+            assertEquals(1, cache.missCount)
+
+            // Replacing a tile only keeps the new one
+            assertTrue(cache.put(key, tile(2, 500)))
+            assertArrayEquals(tile(2, 500), cache[key])
+            assertEquals(1, cache.size)
+
+            assertTrue(cache.remove(key))
+            assertFalse(cache.remove(key))
+            assertNull(cache[key])
+            assertEquals(0, cache.size)
+            assertEquals(0, cache.sizeBytes)
+        }
+    }
+
+    @Test
+    fun testKeysAreUnique() {
+        val keys = HashSet<Long>()
+        for (zoom in 0..3) {
+            for (x in 0 until (1 shl zoom)) {
+                for (y in 0 until (1 shl zoom)) {
+                    assertTrue(keys.add(TileCache.key(zoom, x, y)))
+                }
+            }
+        }
+        assertTrue(keys.add(TileCache.key(22, (1 shl 22) - 1, (1 shl 22) - 1)))
+    }
+
+    @Test
+    fun testLeastRecentlyUsedEvicted() {
+        TileCache(file, MAX_BYTES).use { cache ->
+            // 16 tiles with their headers fit in 64 KB
+            for (i in 0L until 16L) {
+                assertTrue(cache.put(i, tile(i, 4000)))
+            }
+            assertEquals(16, cache.size)
+            assertEquals(0, cache.evictionCount)
+
+            // Access the oldest tile, so the second oldest is evicted instead
+            cache[0L]
+            assertTrue(cache.put(16L, tile(16, 4000)))
+            assertTrue(0L in cache)
+            assertFalse(1L in cache)
+            assertEquals(1, cache.evictionCount)
+            assertTrue(cache.sizeBytes <= MAX_BYTES)
+        }
+    }
+
+    @Test
+    fun testTooLargeTileRejected() {
+        TileCache(file, MAX_BYTES).use { cache ->
+            assertFalse(cache.put(1L, ByteArray(MAX_BYTES.toInt() / 2)))
+            assertEquals(0, cache.size)
+        }
+    }
+
+    @Test
+    fun testCompactionKeepsTiles() {
+        val lengths = HashMap<Long, Int>()
+        TileCache(file, MAX_BYTES).use { cache ->
+            val random = Random(1)
+            // Enough writes to fill the file with dead tiles many times over
+            for (i in 0 until 2000) {
+                val key = random.nextInt(300).toLong()
+                val length = 100 + random.nextInt(7000)
+                assertTrue(cache.put(key, tile(key * 100000 + length, length)))
+                lengths[key] = length
+                assertTrue(cache.sizeBytes <= MAX_BYTES)
+            }
+            assertTrue(cache.size > 0)
+            for (key in lengths.keys) {
+                val data = cache[key] ?: continue
+                assertArrayEquals(tile(key * 100000 + lengths[key]!!, lengths[key]!!), data)
+            }
+        }
+    }
+
+    @Test
+    fun testReopenKeepsTilesAndOrder() {
+        TileCache(file, MAX_BYTES).use { cache ->
+            for (i in 0L until 16L) {
+                cache.put(i, tile(i, 4000))
+            }
+            cache[0L]
+        }
+        TileCache(file, MAX_BYTES).use { cache ->
+            assertEquals(16, cache.size)
+            for (i in 0L until 16L) {
+                assertTrue(i in cache)
+            }
+            assertArrayEquals(tile(5, 4000), cache[5L])
+            // Tile 1 is now least recently used, followed by 2
+            cache.put(16L, tile(16, 4000))
+            assertFalse(1L in cache)
+            assertTrue(0L in cache)
+            cache.put(17L, tile(17, 4000))
+            assertFalse(2L in cache)
+        }
+        // Smaller budget drops tiles that don't fit
+        TileCache(file, MAX_BYTES / 2 + 4096).use { cache ->
+            assertTrue(cache.sizeBytes <= MAX_BYTES / 2 + 4096)
+            assertTrue(cache.size in 1..9)
+        }
+    }
+
+    @Test
+    fun testClear() {
+        TileCache(file, MAX_BYTES).use { cache ->
+            cache.put(1L, tile(1, 100))
+            cache.put(2L, tile(2, 100))
+            cache.clear()
+            assertEquals(0, cache.size)
+            assertNull(cache[1L])
+            assertTrue(cache.put(3L, tile(3, 100)))
+        }
+        TileCache(file, MAX_BYTES).use { cache ->
+            assertEquals(1, cache.size)
+            assertTrue(3L in cache)
+        }
+    }
+
+    private fun tile(seed: Long, length: Int): ByteArray {
+        val data = ByteArray(length)
+        Random(seed).nextBytes(data)
+        return data
+    }
+
+    companion object {
+        private const val MAX_BYTES = 64L * 1024
+    }
+}
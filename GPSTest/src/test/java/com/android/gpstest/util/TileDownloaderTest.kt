@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.util.TileCache
+import com.android.gpstest.library.util.TileDownloader
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Tests for TileDownloader against a local stand-in for a tile server, which serves "z/x/y" as the
+ * tile for /z/x/y.png and returns 404 for tiles with odd x at zoom 3
+ */
+class TileDownloaderTest {
+
+    private lateinit var server: HttpServer
+    private lateinit var cache: TileCache
+    private lateinit var downloader: TileDownloader
+    private val file = File.createTempFile("tiles", ".tiles").also { it.delete() }
+    private val requests = AtomicInteger()
+    @Volatile
+    private var userAgent: String? = null
+
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0)
+        server.createContext("/") { exchange ->
+            requests.incrementAndGet()
+            userAgent = exchange.requestHeaders.getFirst("User-Agent")
+            val parts = exchange.requestURI.path.removePrefix("/").removeSuffix(".png").split("/")
+            val zoom = parts[0].toInt()
+            val x = parts[1].toInt()
+            if (zoom == 3 && x % 2 == 1) {
+                exchange.sendResponseHeaders(404, -1)
+            } else {
+                val body = parts.joinToString("/").toByteArray()
+                exchange.sendResponseHeaders(200, body.size.toLong())
+                exchange.responseBody.use { it.write(body) }
+            }
+            exchange.close()
+        }
+        server.start()
+        cache = TileCache(file, 1024 * 1024)
+        val baseUrl = "http://127.0.0.1:${server.address.port}/"
+        downloader = TileDownloader(cache, { zoom, x, y -> "$baseUrl$zoom/$x/$y.png" }, "GPSTest-test", 5000)
+    }
+
+    @After
+    fun tearDown() {
+        server.stop(0)
+        cache.close()
+        file.delete()
+    }
+
+    @Test
+    fun testGetTileDownloadsOnce() {
+        assertArrayEquals("2/1/3".toByteArray(), downloader.getTile(2, 1, 3))
+        assertArrayEquals("2/1/3".toByteArray(), downloader.getTile(2, 1, 3))
+        assertEquals(1, requests.get())
+        assertEquals("GPSTest-test", userAgent)
+        assertTrue(TileCache.key(2, 1, 3) in cache)
+
+        // Missing tiles aren't cached
+        assertNull(downloader.getTile(3, 1, 0))
+        assertNull(cache[TileCache.key(3, 1, 0)])
+    }
+
+    @Test
+    fun testUnreachableServer() {
+        // Nothing listens on port 1, so the connection is refused
+        val unreachable = TileDownloader(cache, { zoom, x, y -> "http://127.0.0.1:1/$zoom/$x/$y.png" })
+        assertNull(unreachable.getTile(2, 1, 3))
+    }
+
+    @Test
+    fun testPrefetch() {
+        // Whole world at zoom 0 to 2 is 1 + 4 + 16 tiles
+        val total = TileDownloader.tileCount(-90.0, -180.0, 90.0, 180.0, 0, 2)
+        assertEquals(21L, total)
+        var lastCompleted = 0
+        val result = downloader.prefetch(-90.0, -180.0, 90.0, 180.0, 0, 2, { completed, count ->
+            assertEquals(21, count)
+            lastCompleted = completed
+            true
+        })
+        assertEquals(TileDownloader.PrefetchResult(21, 21, 0, 0), result)
+        assertEquals(21, lastCompleted)
+        assertEquals(21, requests.get())
+        assertArrayEquals("1/1/0".toByteArray(), cache[TileCache.key(1, 1, 0)])
+
+        // Tiles that are already cached aren't downloaded again, and failures are counted
+        val again = downloader.prefetch(-90.0, -180.0, 90.0, 180.0, 0, 3)
+        assertEquals(TileDownloader.PrefetchResult(85, 32, 21, 32), again)
+        assertEquals(21 + 64, requests.get())
+    }
+
+    @Test
+    fun testPrefetchCancel() {
+        val result = downloader.prefetch(-90.0, -180.0, 90.0, 180.0, 0, 2, { completed, _ -> completed < 5 })
+        assertEquals(5, result.downloaded)
+        assertEquals(5, requests.get())
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testPrefetchTooManyTiles() {
+        downloader.prefetch(-90.0, -180.0, 90.0, 180.0, 0, 10)
+    }
+
+    @Test
+    fun testTileIndices() {
+        assertEquals(0, TileDownloader.tileX(-180.0, 0))
+        assertEquals(0, TileDownloader.tileY(85.0, 0))
+        assertEquals(1, TileDownloader.tileX(0.0, 1))
+        assertEquals(1, TileDownloader.tileY(0.0, 1))
+        assertEquals(1, TileDownloader.tileX(180.0, 1))
+        assertEquals(1, TileDownloader.tileY(-90.0, 1))
+
+        // Tampa, FL
+        assertEquals(277, TileDownloader.tileX(-82.4139, 10))
+        assertEquals(428, TileDownloader.tileY(28.0587, 10))
+
+        // Region across the antimeridian
+        assertEquals(2L, TileDownloader.tileCount(10.0, 170.0, 20.0, -170.0, 1, 1))
+    }
+}
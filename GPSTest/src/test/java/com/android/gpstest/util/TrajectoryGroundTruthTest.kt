@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import com.android.gpstest.library.util.GeodesyUtils
+import com.android.gpstest.library.util.TrajectoryGroundTruth
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.IOException
+import java.io.StringReader
+import java.util.Random
+
+class TrajectoryGroundTruthTest {
+
+    // Meters per degree of longitude and latitude at the equator on the WGS84 ellipsoid
+    private val eastMetersPerDegree = GeodesyUtils.WGS84_A * Math.PI / 180
+    private val northMetersPerDegree = GeodesyUtils.WGS84_A * (1 - GeodesyUtils.WGS84_E2) * Math.PI / 180
+
+    /**
+     * Route heading east along the equator at ~11 m/s, with altitude increasing 1 m per segment
+     */
+    private val csv = """
+        # Reference route
+        time,lat,lon,alt
+        0,0.0,0.0,10.0
+        10000,0.0,0.001,11.0
+
+        20000,0.0,0.002,12.0
+    """.trimIndent()
+
+    @Test
+    fun testTimeAlignedError() {
+        val route = TrajectoryGroundTruth.fromCsv(StringReader(csv))
+        assertEquals(3, route.size)
+        assertEquals(0.002 * eastMetersPerDegree, route.lengthMeters, 1e-3)
+
+        // North of the route (left of travel), and ahead of the reference position at 5 s
+        val error = route.measureError(5000L, 0.0001, 0.0006, 10.0)
+        val northOffset = 0.0001 * northMetersPerDegree
+        val eastOffset = 0.0001 * eastMetersPerDegree
+        assertEquals(northOffset, error.crossTrackError, 1e-3)
+        assertEquals(eastOffset, error.alongTrackError, 1e-3)
+        assertEquals(Math.hypot(northOffset, eastOffset), error.error.toDouble(), 1e-3)
+        assertEquals(0.5, error.vertError, 1e-9)
+
+        // South of the route is negative cross-track error
+        assertEquals(-northOffset, route.measureError(5000L, -0.0001, 0.0005, 10.0).crossTrackError, 1e-3)
+    }
+
+    @Test
+    fun testOutsideRouteTimes() {
+        val route = TrajectoryGroundTruth.fromCsv(StringReader(csv))
+        val error = route.measureError(30000L, -0.0001, 0.0015, Double.NaN)
+        assertEquals(0.0001 * northMetersPerDegree, error.error.toDouble(), 1e-3)
+        assertTrue(error.alongTrackError.isNaN())
+        assertTrue(error.vertError.isNaN())
+    }
+
+    @Test
+    fun testGridMatchesSingleCell() {
+        // Random walk, compared against a grid with one cell that holds every segment
+        val random = Random(7)
+        val n = 2000
+        val times = LongArray(n) { it * 1000L }
+        val lats = DoubleArray(n)
+        val lons = DoubleArray(n)
+        for (i in 1 until n) {
+            lats[i] = lats[i - 1] + (random.nextDouble() - 0.5) * 0.0005
+            lons[i] = lons[i - 1] + (random.nextDouble() - 0.5) * 0.0005
+        }
+        val alts = DoubleArray(n)
+        val gridded = TrajectoryGroundTruth(times, lats, lons, alts)
+        val single = TrajectoryGroundTruth(times, lats, lons, alts, 1e8)
+        for (i in 0 until 500) {
+            val lat = (random.nextDouble() - 0.5) * 0.02
+            val lon = (random.nextDouble() - 0.5) * 0.02
+            val expected = single.measureError(-1L, lat, lon, 0.0)
+            val actual = gridded.measureError(-1L, lat, lon, 0.0)
+            assertEquals(Math.abs(expected.crossTrackError), Math.abs(actual.crossTrackError), 1e-9)
+        }
+    }
+
+    @Test(expected = IOException::class)
+    fun testInvalidCsv() {
+        TrajectoryGroundTruth.fromCsv(StringReader("0,0.0,0.0\n1000,abc,0.0\n"))
+    }
+
+    @Test(expected = IOException::class)
+    fun testTimesOutOfOrder() {
+        TrajectoryGroundTruth.fromCsv(StringReader("1000,0.0,0.0\n0,0.0,0.001\n"))
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.util
+
+import android.location.GnssStatus
+import com.android.gpstest.library.util.GeodesyUtils
+import com.android.gpstest.library.util.PseudorangeCalculator.Companion.SPEED_OF_LIGHT_METERS_PER_SECOND
+import com.android.gpstest.library.util.WlsSolver
+import com.android.gpstest.library.util.WlsSolver.Companion.EARTH_ROTATION_RATE
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * Tests for WlsSolver with measurements simulated for a receiver in Tampa, FL with GPS and Galileo
+ * satellites at the given azimuths and elevations
+ */
+class WlsSolverTest {
+
+    private val receiver = DoubleArray(3).also { GeodesyUtils.geodeticToEcef(LAT, LON, ALT, it) }
+    private val velocity = DoubleArray(3).also { GeodesyUtils.enuToEcefVector(10.0, -5.0, 0.5, LAT, LON, it) }
+
+    @Test
+    fun testExactMeasurements() {
+        val solver = WlsSolver()
+        addSky(solver)
+        assertTrue(solver.solve())
+        assertTrue(solver.isVelocityValid)
+        assertEquals(2, solver.numClocks)
+        assertEquals(receiver[0], solver.x, 1e-3)
+        assertEquals(receiver[1], solver.y, 1e-3)
+        assertEquals(receiver[2], solver.z, 1e-3)
+        assertEquals(LAT, solver.latitude, 1e-8)
+        assertEquals(LON, solver.longitude, 1e-8)
+        assertEquals(ALT, solver.altitude, 1e-3)
+        assertEquals(GPS_BIAS, solver.clockBiasMeters(GnssStatus.CONSTELLATION_GPS), 1e-3)
+        assertEquals(GALILEO_BIAS, solver.clockBiasMeters(GnssStatus.CONSTELLATION_GALILEO), 1e-3)
+        assertTrue(solver.clockBiasMeters(GnssStatus.CONSTELLATION_GLONASS).isNaN())
+        for (i in 0 until solver.size) {
+            assertEquals(0.0, solver.residual(i), 1e-3)
+            assertEquals(0.0, solver.rateResidual(i), 1e-3)
+        }
+
+        assertEquals(10.0, solver.eastVelocity, 1e-3)
+        assertEquals(-5.0, solver.northVelocity, 1e-3)
+        assertEquals(0.5, solver.upVelocity, 1e-3)
+        assertEquals(DRIFT, solver.clockDriftMetersPerSecond, 1e-3)
+
+        // The covariance comes from the weights - a few meters for this sky
+        assertTrue(solver.horizontalAccuracyMeters in 1.0..10.0)
+        assertTrue(solver.verticalAccuracyMeters in 1.0..10.0)
+
+        // Starting from the last solution converges right away
+        assertTrue(solver.solve())
+        assertEquals(1, solver.iterations)
+    }
+
+    @Test
+    fun testWeakSignalsWeighedLess() {
+        // The same 30 m error on a weak signal moves the fix less than on a strong one
+        val weak = WlsSolver()
+        addSky(weak, errorIndex = 4, errorCn0 = 20.0)
+        assertTrue(weak.solve())
+        val strong = WlsSolver()
+        addSky(strong, errorIndex = 4, errorCn0 = 50.0)
+        assertTrue(strong.solve())
+        val weakError = distance(weak)
+        val strongError = distance(strong)
+        assertTrue("$weakError < $strongError", weakError < strongError / 5)
+        // The residual of the bad measurement shows the error
+        assertTrue(weak.residual(4) > 20.0)
+    }
+
+    @Test
+    fun testNotEnoughMeasurements() {
+        val solver = WlsSolver()
+        addSky(solver)
+        assertTrue(solver.solve())
+
+        // Two clocks and three positions need five measurements
+        solver.clear()
+        addSky(solver, count = 4, types = intArrayOf(
+            GnssStatus.CONSTELLATION_GPS, GnssStatus.CONSTELLATION_GPS,
+            GnssStatus.CONSTELLATION_GALILEO, GnssStatus.CONSTELLATION_GALILEO
+        ))
+        assertFalse(solver.solve())
+        assertTrue(solver.latitude.isNaN())
+        assertTrue(solver.clockBiasMeters(GnssStatus.CONSTELLATION_GPS).isNaN())
+
+        // Position without rates
+        solver.clear()
+        addSky(solver, rates = false)
+        assertTrue(solver.solve())
+        assertFalse(solver.isVelocityValid)
+        assertTrue(solver.eastVelocity.isNaN())
+    }
+
+    @Test
+    fun testRepeatedSolve() {
+        val solver = WlsSolver()
+        addSky(solver)
+        assertTrue(solver.solve())
+        val x = solver.x
+        val y = solver.y
+        val z = solver.z
+        val clockBias = solver.clockBiasMeters(GnssStatus.CONSTELLATION_GPS)
+        // Solving the same measurements again from the last fix converges to the same fix
+        repeat(10) {
+            assertTrue(solver.solve())
+            assertEquals(x, solver.x, 1e-3)
+            assertEquals(y, solver.y, 1e-3)
+            assertEquals(z, solver.z, 1e-3)
+            assertEquals(clockBias, solver.clockBiasMeters(GnssStatus.CONSTELLATION_GPS), 1e-3)
+        }
+    }
+
+    @Test
+    fun testSolveDoesNotAllocate() {
+        val solver = WlsSolver()
+        addSky(solver)
+        assertNoAllocation {
+            solver.solve()
+        }
+        assertTrue(solver.isValid)
+        assertTrue(solver.isVelocityValid)
+    }
+
+    private fun distance(solver: WlsSolver): Double {
+        val dx = solver.x - receiver[0]
+        val dy = solver.y - receiver[1]
+        val dz = solver.z - receiver[2]
+        return sqrt(dx * dx + dy * dy + dz * dz)
+    }
+
+    /**
+     * Adds simulated measurements of the first [count] satellites of the sky to [solver], with a
+     * 30 m error and [errorCn0] for the satellite at [errorIndex] if it's >= 0
+     */
+    private fun addSky(
+        solver: WlsSolver,
+        count: Int = SKY.size,
+        types: IntArray = TYPES,
+        rates: Boolean = true,
+        errorIndex: Int = -1,
+        errorCn0: Double = 45.0
+    ) {
+        val los = DoubleArray(3)
+        for (i in 0 until count) {
+            val az = Math.toRadians(SKY[i][0])
+            val el = Math.toRadians(SKY[i][1])
+            GeodesyUtils.enuToEcefVector(cos(el) * sin(az), cos(el) * cos(az), sin(el), LAT, LON, los)
+
+            // Satellite on a 26,560 km orbit in the direction of los, in the ECEF frame at reception
+            val b = 2 * (receiver[0] * los[0] + receiver[1] * los[1] + receiver[2] * los[2])
+            val c = receiver[0] * receiver[0] + receiver[1] * receiver[1] + receiver[2] * receiver[2] -
+                    ORBIT_RADIUS * ORBIT_RADIUS
+            val rho = (-b + sqrt(b * b - 4 * c)) / 2
+            val rx = receiver[0] + rho * los[0]
+            val ry = receiver[1] + rho * los[1]
+            val rz = receiver[2] + rho * los[2]
+
+            // Back to the ECEF frame at the time of transmission
+            val theta = EARTH_ROTATION_RATE * rho / SPEED_OF_LIGHT_METERS_PER_SECOND
+            val sx = rx * cos(theta) - ry * sin(theta)
+            val sy = rx * sin(theta) + ry * cos(theta)
+            val sz = rz
+
+            // Range as modeled by the solver
+            val dx0 = sx - receiver[0]
+            val dy0 = sy - receiver[1]
+            val dz0 = sz - receiver[2]
+            val theta2 = EARTH_ROTATION_RATE * sqrt(dx0 * dx0 + dy0 * dy0 + dz0 * dz0) / SPEED_OF_LIGHT_METERS_PER_SECOND
+            val dx = sx * cos(theta2) + sy * sin(theta2) - receiver[0]
+            val dy = -sx * sin(theta2) + sy * cos(theta2) - receiver[1]
+            val dz = sz - receiver[2]
+            val range = sqrt(dx * dx + dy * dy + dz * dz)
+
+            val satClock = 100.0 * (i - 5)
+            val satDrift = 0.01 * i
+            val bias = if (types[i] == GnssStatus.CONSTELLATION_GPS) GPS_BIAS else GALILEO_BIAS
+            val error = if (i == errorIndex) 30.0 else 0.0
+            val pseudorange = range + bias - satClock + error
+
+            val svx = -los[1] * 3000
+            val svy = los[0] * 3000
+            val svz = 500.0 * (i % 3 - 1)
+            val rate = ((svx - velocity[0]) * dx + (svy - velocity[1]) * dy + (svz - velocity[2]) * dz) / range +
+                    DRIFT - satDrift
+            solver.add(
+                types[i], sx, sy, sz, svx, svy, svz, satClock, satDrift,
+                pseudorange, 3.0, if (rates) rate else Double.NaN, 0.05,
+                if (i == errorIndex) errorCn0 else 45.0 - i
+            )
+        }
+    }
+
+    companion object {
+        private const val LAT = 28.0587
+        private const val LON = -82.4139
+        private const val ALT = 15.0
+        private const val ORBIT_RADIUS = 26_560_000.0
+        private const val GPS_BIAS = 1000.0
+        private const val GALILEO_BIAS = 1020.0
+        private const val DRIFT = -3.25
+
+        // Azimuth and elevation of each satellite
+        private val SKY = arrayOf(
+            doubleArrayOf(10.0, 70.0), doubleArrayOf(60.0, 35.0), doubleArrayOf(120.0, 20.0),
+            doubleArrayOf(180.0, 50.0), doubleArrayOf(240.0, 15.0), doubleArrayOf(300.0, 40.0),
+            doubleArrayOf(330.0, 80.0), doubleArrayOf(30.0, 10.0), doubleArrayOf(90.0, 55.0),
+            doubleArrayOf(150.0, 30.0), doubleArrayOf(210.0, 65.0), doubleArrayOf(270.0, 25.0)
+        )
+        private val TYPES = IntArray(SKY.size) {
+            if (it < 7) GnssStatus.CONSTELLATION_GPS else GnssStatus.CONSTELLATION_GALILEO
+        }
+    }
+}
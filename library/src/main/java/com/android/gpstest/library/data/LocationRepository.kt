@@ -55,6 +55,11 @@ class LocationRepository @Inject constructor(
     @ExperimentalCoroutinesApi
     fun getSensorUpdates() = sharedSensorManager.sensorFlow()
 
+    /**
+     * Called when location permissions have been granted, so sensor updates can start using them
+     */
+    fun onLocationPermissionGranted() = sharedSensorManager.onLocationPermissionGranted()
+
     /**
      * Observable flow for navigation messages
      */
@@ -21,10 +21,14 @@ import android.content.Context
 import android.content.SharedPreferences
 import android.hardware.*
 import android.hardware.display.DisplayManager
+import android.location.Location
 import android.location.LocationManager
+import android.os.Handler
+import android.os.Looper
 import android.util.Log
 import android.view.Display
 import android.view.Surface
+import androidx.core.location.LocationListenerCompat
 import com.android.gpstest.library.R
 import com.android.gpstest.library.model.Orientation
 import com.android.gpstest.library.util.MathUtils
@@ -32,10 +36,12 @@ import com.android.gpstest.library.util.SatelliteUtils
 import com.android.gpstest.library.util.hasPermission
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.awaitClose
-import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.SharingStarted
+import kotlinx.coroutines.flow.buffer
 import kotlinx.coroutines.flow.callbackFlow
 import kotlinx.coroutines.flow.shareIn
 import kotlinx.coroutines.launch
@@ -62,15 +68,39 @@ class SharedSensorManager constructor(
     private val values = FloatArray(3)
     private val truncatedRotationVector = FloatArray(4)
     private var truncateVector = false
-    private lateinit var geomagneticField: GeomagneticField
+    @Volatile
+    private var geomagneticField: GeomagneticField? = null
 
-    init {
-        externalScope.launch {
-            while (!::geomagneticField.isInitialized) {
-                initMagField()
-                if (!::geomagneticField.isInitialized) delay(3000)
+    // Orientations are recycled so we don't allocate at the sensor rate. The pool must be larger
+    // than the number of orientations that can be in flight - the flow buffer below plus the
+    // default 64 element buffer used by downstream operators like flowWithLifecycle(), plus the
+    // one being emitted and the one being written.
+    private val orientationPool = Array(ORIENTATION_POOL_SIZE) { Orientation(0, DoubleArray(3)) }
+    private var orientationPoolIndex = 0
+    private var orientationSequence = 0L
+
+    // Cached so we don't need a system service lookup for every sensor event
+    @Volatile
+    private var displayRotation = Surface.ROTATION_0
+
+    // Cached so we don't need a preference lookup for every sensor event
+    private val trueNorthKey = context.getString(R.string.pref_key_true_north)
+    @Volatile
+    private var trueNorth = prefs.getBoolean(trueNorthKey, true)
+
+    // Held as a strong reference, as anonymous preference listeners tend to get GC'd by Android
+    private val trueNorthListener =
+        SharedPreferences.OnSharedPreferenceChangeListener { _, key ->
+            if (key == trueNorthKey) {
+                trueNorth = prefs.getBoolean(trueNorthKey, true)
             }
         }
+
+    // Signaled when location permissions are granted, so the magnetic field setup can finish
+    private val locationPermissionGranted = Channel<Unit>(Channel.CONFLATED)
+
+    init {
+        prefs.registerOnSharedPreferenceChangeListener(trueNorthListener)
     }
 
     @ExperimentalCoroutinesApi
@@ -88,8 +118,7 @@ class SharedSensorManager constructor(
                             // Modern rotation vector sensors
                             maybeTruncateVector(event)
 
-                            val display = getDisplay()
-                            if (display != null) handleRotation(display.rotation)
+                            handleRotation(displayRotation)
                             orientationX = Math.toDegrees(values[0].toDouble()) // azimuth
                             tiltY = Math.toDegrees(values[1].toDouble())
                             yawZ = Math.toDegrees(values[2].toDouble())
@@ -103,19 +132,16 @@ class SharedSensorManager constructor(
                     }
 
                     // Correct for true north, if preference is set
-                    if (::geomagneticField.isInitialized && prefs.getBoolean(
-                            context.getString(R.string.pref_key_true_north),
-                            true
-                        )
-                    ) {
-                        orientationX += geomagneticField.declination.toDouble()
+                    val field = geomagneticField
+                    if (field != null && trueNorth) {
+                        orientationX += field.declination.toDouble()
                         // Make sure value is between 0-360
                         orientationX = MathUtils.mod(orientationX, 360.0)
                     }
 
                     //Log.d(TAG, "New sensor: $orientationX and $tiltY")
                     // Send the new sensors to the Flow observers
-                    trySend(Orientation(event.timestamp, doubleArrayOf(orientationX, tiltY, yawZ)))
+                    trySend(nextOrientation(event.timestamp, orientationX, tiltY, yawZ))
                 }
 
                 override fun onAccuracyChanged(sensor: Sensor, accuracy: Int) {
@@ -125,6 +151,37 @@ class SharedSensorManager constructor(
 
         Log.d(TAG, "Starting sensor updates")
 
+        // Track display rotation via callbacks instead of looking it up for each sensor event
+        val displayManager = context.getSystemService(Context.DISPLAY_SERVICE) as DisplayManager
+        val displayListener = object : DisplayManager.DisplayListener {
+            override fun onDisplayAdded(displayId: Int) {
+                // No op
+            }
+
+            override fun onDisplayRemoved(displayId: Int) {
+                // No op
+            }
+
+            override fun onDisplayChanged(displayId: Int) {
+                if (displayId == Display.DEFAULT_DISPLAY) updateDisplayRotation(displayManager)
+            }
+        }
+        updateDisplayRotation(displayManager)
+        displayManager.registerDisplayListener(displayListener, Handler(Looper.getMainLooper()))
+
+        // Refresh the magnetic declination when the user moves a material distance
+        val locationManager = context.getSystemService(Context.LOCATION_SERVICE) as LocationManager
+        // Use LocationListenerCompat to avoid crashes on API Level 30 and lower (#627)
+        val magFieldListener = LocationListenerCompat { updateMagField(it) }
+        // Permissions may not be granted yet, so wait until they are. After that the field comes
+        // from the last known location, if there is one, or else from the first passive update.
+        val magFieldJob = launch {
+            while (!startMagFieldUpdates(locationManager, magFieldListener)) {
+                locationPermissionGranted.receive()
+            }
+            initMagField(locationManager)
+        }
+
         val sensorManager = context.getSystemService(Context.SENSOR_SERVICE) as SensorManager
         try {
             if (SatelliteUtils.isRotationVectorSensorSupported(context)) {
@@ -157,32 +214,91 @@ class SharedSensorManager constructor(
         awaitClose {
             Log.d(TAG, "Stopping sensor updates")
             sensorManager.unregisterListener(callback) // clean up when Flow collection ends
+            displayManager.unregisterDisplayListener(displayListener)
+            magFieldJob.cancel()
+            locationManager.removeUpdates(magFieldListener)
         }
-    }.shareIn(
+    }.buffer(
+        ORIENTATION_BUFFER_CAPACITY,
+        BufferOverflow.DROP_OLDEST
+    ).shareIn(
         externalScope,
         replay = 0,
         started = SharingStarted.WhileSubscribed()
     )
 
-    @SuppressLint("MissingPermission")
-    private fun initMagField() {
-        Log.d(TAG, "Initializing Mag Field...")
-        if (::geomagneticField.isInitialized) return
+    /**
+     * Returns the next orientation from the pool, populated with the provided values
+     */
+    private fun nextOrientation(
+        elapsedRealtimeNanos: Long,
+        orientationX: Double,
+        tiltY: Double,
+        yawZ: Double
+    ): Orientation {
+        val orientation = orientationPool[orientationPoolIndex]
+        orientationPoolIndex = (orientationPoolIndex + 1) % ORIENTATION_POOL_SIZE
+        orientation.elapsedRealtimeNanos = elapsedRealtimeNanos
+        orientation.values[0] = orientationX
+        orientation.values[1] = tiltY
+        orientation.values[2] = yawZ
+        orientation.sequence = orientationSequence++
+        return orientation
+    }
 
-        if (!context.hasPermission(Manifest.permission.ACCESS_FINE_LOCATION) ||
-            !context.hasPermission(Manifest.permission.ACCESS_COARSE_LOCATION)
-        ) return
+    private fun updateDisplayRotation(displayManager: DisplayManager) {
+        val display = displayManager.getDisplay(Display.DEFAULT_DISPLAY)
+        if (display != null) displayRotation = display.rotation
+    }
 
-        val locationManager = context.getSystemService(Context.LOCATION_SERVICE) as LocationManager
-        val lastLocation = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER)
-        if (!::geomagneticField.isInitialized && lastLocation != null) {
-            geomagneticField = GeomagneticField(
-                lastLocation.latitude.toFloat(),
-                lastLocation.longitude.toFloat(), lastLocation.altitude.toFloat(),
-                lastLocation.time
+    /**
+     * Listens for passive location updates (i.e., those requested by other parts of the app or
+     * other apps), so the magnetic field is only refreshed after moving
+     * [MAG_FIELD_UPDATE_DISTANCE_METERS]. Returns false if location permissions aren't granted yet.
+     */
+    @SuppressLint("MissingPermission")
+    private fun startMagFieldUpdates(locationManager: LocationManager, listener: LocationListenerCompat): Boolean {
+        if (!hasLocationPermission()) return false
+
+        try {
+            locationManager.requestLocationUpdates(
+                LocationManager.PASSIVE_PROVIDER,
+                MAG_FIELD_UPDATE_MIN_TIME_MILLIS,
+                MAG_FIELD_UPDATE_DISTANCE_METERS,
+                listener,
+                Looper.getMainLooper()
             )
-            Log.d(TAG, "Mag Field initialized")
+        } catch (e: IllegalArgumentException) {
+            Log.e(TAG, "Can't observe passive location for mag field: $e")
         }
+        return true
+    }
+
+    /**
+     * Initializes the magnetic field from the last known location, if there is one
+     */
+    @SuppressLint("MissingPermission")
+    private fun initMagField(locationManager: LocationManager) {
+        Log.d(TAG, "Initializing Mag Field...")
+        if (!hasLocationPermission()) return
+
+        val lastLocation = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER)
+            ?: locationManager.getLastKnownLocation(LocationManager.PASSIVE_PROVIDER)
+        if (lastLocation != null) updateMagField(lastLocation)
+    }
+
+    private fun hasLocationPermission(): Boolean {
+        return context.hasPermission(Manifest.permission.ACCESS_FINE_LOCATION) &&
+                context.hasPermission(Manifest.permission.ACCESS_COARSE_LOCATION)
+    }
+
+    private fun updateMagField(location: Location) {
+        geomagneticField = GeomagneticField(
+            location.latitude.toFloat(),
+            location.longitude.toFloat(), location.altitude.toFloat(),
+            location.time
+        )
+        Log.d(TAG, "Mag Field updated")
     }
 
     private fun maybeTruncateVector(event: SensorEvent) {
@@ -214,12 +330,6 @@ class SharedSensorManager constructor(
         SensorManager.getRotationMatrixFromVector(rotationMatrix, truncatedRotationVector)
     }
 
-    private fun getDisplay(): Display? {
-        val displayManager =
-            context.getSystemService(Context.DISPLAY_SERVICE) as DisplayManager
-        return displayManager.getDisplay(0)
-    }
-
     private fun handleRotation(rotation: Int) {
         when (rotation) {
             Surface.ROTATION_0 ->
@@ -273,10 +383,26 @@ class SharedSensorManager constructor(
     }
 
     /**
-     * A flow of sensor orientations
+     * Called when location permissions have been granted, so the magnetic field used for true
+     * north can be set up if sensor updates started without them
+     */
+    fun onLocationPermissionGranted() {
+        locationPermissionGranted.trySend(Unit)
+    }
+
+    /**
+     * A flow of sensor orientations. Emitted orientations are recycled, so observers must use
+     * Orientation.snapshot() if they need to keep one after handling it.
      */
     @ExperimentalCoroutinesApi
     fun sensorFlow(): Flow<Orientation> {
         return _sensorUpdates
     }
+
+    companion object {
+        private const val ORIENTATION_BUFFER_CAPACITY = 16
+        private const val ORIENTATION_POOL_SIZE = 128
+        private const val MAG_FIELD_UPDATE_MIN_TIME_MILLIS = 60 * 1000L
+        private const val MAG_FIELD_UPDATE_DISTANCE_METERS = 5000f
+    }
 }
\ No newline at end of file
@@ -4,12 +4,17 @@ import android.content.Context
 import android.content.SharedPreferences
 import android.preference.PreferenceManager
 import com.android.gpstest.library.data.*
+import com.android.gpstest.library.util.EphemerisCache
+import com.android.gpstest.library.util.NavMessageDecoder
+import com.android.gpstest.library.util.SatellitePropagator
+import com.android.gpstest.library.util.SkyPredictor
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
 import dagger.hilt.android.qualifiers.ApplicationContext
 import dagger.hilt.components.SingletonComponent
 import kotlinx.coroutines.GlobalScope
+import java.io.File
 import javax.inject.Singleton
 
 /**
@@ -71,6 +76,35 @@ object DataModule {
     ): SharedNavMessageManager =
         SharedNavMessageManager(context, GlobalScope, prefs)
 
+    @Provides
+    @Singleton
+    fun provideEphemerisCache(
+        @ApplicationContext context: Context
+    ): EphemerisCache =
+        EphemerisCache(File(context.filesDir, EPHEMERIS_CACHE_FILE))
+
+    @Provides
+    @Singleton
+    fun provideNavMessageDecoder(
+        cache: EphemerisCache
+    ): NavMessageDecoder =
+        NavMessageDecoder(cache)
+
+    @Provides
+    @Singleton
+    fun provideSatellitePropagator(
+        cache: EphemerisCache
+    ): SatellitePropagator =
+        SatellitePropagator(cache)
+
+    @Provides
+    @Singleton
+    fun provideSkyPredictor(
+        cache: EphemerisCache,
+        propagator: SatellitePropagator
+    ): SkyPredictor =
+        SkyPredictor(cache, propagator = propagator)
+
     @Provides
     @Singleton
     fun provideSharedMeasurementsManager(
@@ -86,4 +120,6 @@ object DataModule {
         prefs: SharedPreferences,
     ): SharedAntennaManager =
         SharedAntennaManager(context, GlobalScope,prefs)
-}
\ No newline at end of file
+
+    private const val EPHEMERIS_CACHE_FILE = "ephemeris_cache.bin"
+}
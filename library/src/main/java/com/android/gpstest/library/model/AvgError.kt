@@ -1,42 +1,180 @@
 package com.android.gpstest.library.model
 
+import com.android.gpstest.library.util.StreamingQuantile
 import kotlin.math.abs
+import kotlin.math.sqrt
 
 /**
- * Model class for holding average error for many error measurements
+ * Model class for holding average error and error statistics for many error measurements.
+ *
+ * Statistics are updated in constant time and memory for each measurement - means and variances
+ * use Welford's algorithm in double precision, and percentiles are estimated with
+ * [StreamingQuantile]. Instances aren't locked, so they should only be updated and read on one
+ * thread (the main thread, via BenchmarkViewModel).
  */
 data class AvgError(var avgError: Float = 0F,
                     var avgVertError: Double = Double.NaN,
                     var avgVertAbsError: Double = Double.NaN,
                     var count: Int = 0) {
 
-    var errorRunningSum: Float = 0F
-    var vertErrorRunningSum: Double = 0.0
-    var vertErrorAbsRunningSum: Double = 0.0
+    // Welford state for horizontal error
+    private var errorMean = 0.0
+    private var errorM2 = 0.0
+
+    // Welford state for vertical error, which only includes measurements with vertical error
+    private var vertCount = 0
+    private var vertErrorMean = 0.0
+    private var vertErrorM2 = 0.0
+    private var vertErrorAbsMean = 0.0
+
+    // Welford state for along-track and cross-track error, which only include measurements
+    // against a trajectory (see TrajectoryGroundTruth)
+    private var alongTrackCount = 0
+    private var alongTrackMean = 0.0
+    private var alongTrackM2 = 0.0
+    private var crossTrackCount = 0
+    private var crossTrackMean = 0.0
+    private var crossTrackM2 = 0.0
+    private var crossTrackAbsMean = 0.0
+
+    private val cep50Estimator = StreamingQuantile(0.5)
+    private val cep95Estimator = StreamingQuantile(0.95)
+    private val vertAbsP95Estimator = StreamingQuantile(0.95)
+
+    /**
+     * Circular error probable - the median horizontal error in meters, or NaN if there are no
+     * measurements
+     */
+    val cep50: Double
+        get() = cep50Estimator.value
+
+    /**
+     * 95th percentile of horizontal error in meters, or NaN if there are no measurements
+     */
+    val cep95: Double
+        get() = cep95Estimator.value
+
+    /**
+     * Twice the root mean square of horizontal error in meters, or NaN if there are no measurements
+     */
+    val twoDrms: Double
+        get() = if (count == 0) Double.NaN else 2 * sqrt(errorM2 / count + errorMean * errorMean)
+
+    /**
+     * Standard deviation of horizontal error in meters, or NaN if there are fewer than two
+     * measurements
+     */
+    val errorStdDev: Double
+        get() = if (count < 2) Double.NaN else sqrt(errorM2 / (count - 1))
+
+    /**
+     * 95th percentile of absolute vertical error in meters, or NaN if there are no measurements
+     * with vertical error
+     */
+    val vertAbsErrorP95: Double
+        get() = vertAbsP95Estimator.value
 
     /**
-     * Adds a [measuredError] to the current running average
+     * Standard deviation of vertical error in meters, or NaN if there are fewer than two
+     * measurements with vertical error
      */
-    @Synchronized fun addMeasurement(measuredError: MeasuredError) {
+    val vertErrorStdDev: Double
+        get() = if (vertCount < 2) Double.NaN else sqrt(vertErrorM2 / (vertCount - 1))
+
+    /**
+     * Mean along-track error in meters - positive if fixes are ahead of the reference position on
+     * average - or NaN if there are no measurements with along-track error
+     */
+    val avgAlongTrackError: Double
+        get() = if (alongTrackCount == 0) Double.NaN else alongTrackMean
+
+    /**
+     * Standard deviation of along-track error in meters, or NaN if there are fewer than two
+     * measurements with along-track error
+     */
+    val alongTrackErrorStdDev: Double
+        get() = if (alongTrackCount < 2) Double.NaN else sqrt(alongTrackM2 / (alongTrackCount - 1))
+
+    /**
+     * Mean absolute cross-track error in meters, or NaN if there are no measurements with
+     * cross-track error
+     */
+    val avgCrossTrackAbsError: Double
+        get() = if (crossTrackCount == 0) Double.NaN else crossTrackAbsMean
+
+    /**
+     * Standard deviation of cross-track error in meters, or NaN if there are fewer than two
+     * measurements with cross-track error
+     */
+    val crossTrackErrorStdDev: Double
+        get() = if (crossTrackCount < 2) Double.NaN else sqrt(crossTrackM2 / (crossTrackCount - 1))
+
+    /**
+     * Adds a [measuredError] to the current running statistics
+     */
+    fun addMeasurement(measuredError: MeasuredError) {
         count++
-        errorRunningSum += measuredError.error
-        avgError = errorRunningSum / count
-        vertErrorRunningSum += measuredError.vertError
-        vertErrorAbsRunningSum += abs(measuredError.vertError)
-        avgVertError = vertErrorRunningSum / count
-        avgVertAbsError = vertErrorAbsRunningSum / count
+        val error = measuredError.error.toDouble()
+        val delta = error - errorMean
+        errorMean += delta / count
+        errorM2 += delta * (error - errorMean)
+        avgError = errorMean.toFloat()
+        cep50Estimator.add(error)
+        cep95Estimator.add(error)
+
+        val vertError = measuredError.vertError
+        if (!vertError.isNaN()) {
+            vertCount++
+            val vertDelta = vertError - vertErrorMean
+            vertErrorMean += vertDelta / vertCount
+            vertErrorM2 += vertDelta * (vertError - vertErrorMean)
+            vertErrorAbsMean += (abs(vertError) - vertErrorAbsMean) / vertCount
+            avgVertError = vertErrorMean
+            avgVertAbsError = vertErrorAbsMean
+            vertAbsP95Estimator.add(abs(vertError))
+        }
+
+        val alongTrackError = measuredError.alongTrackError
+        if (!alongTrackError.isNaN()) {
+            alongTrackCount++
+            val alongDelta = alongTrackError - alongTrackMean
+            alongTrackMean += alongDelta / alongTrackCount
+            alongTrackM2 += alongDelta * (alongTrackError - alongTrackMean)
+        }
+
+        val crossTrackError = measuredError.crossTrackError
+        if (!crossTrackError.isNaN()) {
+            crossTrackCount++
+            val crossDelta = crossTrackError - crossTrackMean
+            crossTrackMean += crossDelta / crossTrackCount
+            crossTrackM2 += crossDelta * (crossTrackError - crossTrackMean)
+            crossTrackAbsMean += (abs(crossTrackError) - crossTrackAbsMean) / crossTrackCount
+        }
     }
 
     /**
-     * Resets all averages and counts to 0
+     * Resets all averages and statistics to their initial values
      */
-    @Synchronized fun reset() {
+    fun reset() {
         count = 0
         avgError = 0F
-        avgVertError = 0.0
-        avgVertAbsError = 0.0
-        errorRunningSum = 0F
-        vertErrorRunningSum = 0.0
-        vertErrorAbsRunningSum = 0.0
+        avgVertError = Double.NaN
+        avgVertAbsError = Double.NaN
+        errorMean = 0.0
+        errorM2 = 0.0
+        vertCount = 0
+        vertErrorMean = 0.0
+        vertErrorM2 = 0.0
+        vertErrorAbsMean = 0.0
+        alongTrackCount = 0
+        alongTrackMean = 0.0
+        alongTrackM2 = 0.0
+        crossTrackCount = 0
+        crossTrackMean = 0.0
+        crossTrackM2 = 0.0
+        crossTrackAbsMean = 0.0
+        cep50Estimator.reset()
+        cep95Estimator.reset()
+        vertAbsP95Estimator.reset()
     }
-}
\ No newline at end of file
+}
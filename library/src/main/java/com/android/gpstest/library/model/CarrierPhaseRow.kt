@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.model
+
+import androidx.compose.runtime.Immutable
+
+/**
+ * An immutable snapshot of the carrier phase continuity of a signal from raw measurements, to be
+ * shown as a row in a list. The [key] is created using HatchFilter.signalId(), [arcSeconds] is the
+ * length of the current continuous arc (0 if the phase isn't valid), [slipCount] is the number of
+ * cycle slips since the signal was first seen, and [isSlip] is true if it slipped in the last epoch.
+ */
+@Immutable
+data class CarrierPhaseRow(
+    val key: Long,
+    val svid: Int,
+    val gnssType: GnssType,
+    val carrierFrequencyLabel: String,
+    val arcSeconds: Double,
+    val slipCount: Int,
+    val isSlip: Boolean
+)
@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.model
+
+/**
+ * Average signal strength (C/N0) of the signals in view of the device (C/N0 is not 0) in
+ * [inViewAvg] and of the signals used in the fix in [usedAvg]. Each is 0 if it can't be calculated.
+ */
+data class Cn0Averages(
+    val inViewAvg: Float = 0.0f,
+    val usedAvg: Float = 0.0f
+)
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.model
+
+import android.location.GnssStatus
+
+/**
+ * Broadcast ephemeris of a satellite, decoded from navigation messages (see NavMessageDecoder).
+ * [constellationType] is one of the GnssStatus.CONSTELLATION_* values, and [iode] is the issue of
+ * data that identifies this set of orbit parameters for the satellite.
+ */
+sealed class Ephemeris {
+    abstract val constellationType: Int
+    abstract val svid: Int
+    abstract val iode: Int
+
+    /**
+     * Non-zero if the satellite flagged itself as unhealthy
+     */
+    abstract val health: Int
+
+    /**
+     * System time (milliseconds since the epoch) when the ephemeris was decoded
+     */
+    abstract val decodedTimeMillis: Long
+}
+
+/**
+ * Keplerian orbit and clock parameters broadcast by GPS, QZSS, Galileo and BeiDou satellites.
+ * Angles are in radians, times in seconds and distances in meters. [toe] and [toc] are seconds
+ * of the week in the satellite's system time (BDT for BeiDou), and [week] is the week number as
+ * broadcast (modulo 1024 for GPS and QZSS) or -1 if it hasn't been received. [source] is the
+ * GnssNavigationMessage type the ephemeris was decoded from.
+ */
+data class KeplerEphemeris(
+    override val constellationType: Int,
+    override val svid: Int,
+    override val iode: Int,
+    val iodc: Int,
+    val week: Int,
+    val toe: Double,
+    val toc: Double,
+    val sqrtA: Double,
+    val eccentricity: Double,
+    val i0: Double,
+    val omega0: Double,
+    val omega: Double,
+    val m0: Double,
+    val deltaN: Double,
+    val omegaDot: Double,
+    val iDot: Double,
+    val cuc: Double,
+    val cus: Double,
+    val crc: Double,
+    val crs: Double,
+    val cic: Double,
+    val cis: Double,
+    val af0: Double,
+    val af1: Double,
+    val af2: Double,
+    val tgd: Double,
+    val accuracyIndex: Int,
+    override val health: Int,
+    val source: Int,
+    override val decodedTimeMillis: Long
+) : Ephemeris()
+
+/**
+ * Position, velocity and lunisolar acceleration of a GLONASS satellite at [tb] in the PZ-90
+ * frame, in meters and seconds. [tb] and [tk] are seconds of the Moscow day, [dayNumber] is
+ * the day within the four year interval (NT) and [iode] is the raw 7 bit tb index.
+ */
+data class GlonassEphemeris(
+    override val svid: Int,
+    override val iode: Int,
+    val tb: Double,
+    val tk: Double,
+    val dayNumber: Int,
+    val x: Double,
+    val y: Double,
+    val z: Double,
+    val vx: Double,
+    val vy: Double,
+    val vz: Double,
+    val ax: Double,
+    val ay: Double,
+    val az: Double,
+    val tauN: Double,
+    val gammaN: Double,
+    val ageDays: Int,
+    override val health: Int,
+    override val decodedTimeMillis: Long
+) : Ephemeris() {
+    override val constellationType: Int
+        get() = GnssStatus.CONSTELLATION_GLONASS
+}
@@ -1,7 +1,11 @@
 package com.android.gpstest.library.model
 
 /**
- * Model class for holding measured error between two locations
+ * Model class for holding measured error between two locations. [alongTrackError] and
+ * [crossTrackError] are only measured against a trajectory (see TrajectoryGroundTruth) and are
+ * NaN otherwise.
  */
 data class MeasuredError(val error: Float,
-                         val vertError: Double = Double.NaN)
\ No newline at end of file
+                         val vertError: Double = Double.NaN,
+                         val alongTrackError: Double = Double.NaN,
+                         val crossTrackError: Double = Double.NaN)
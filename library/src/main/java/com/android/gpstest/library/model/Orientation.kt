@@ -18,9 +18,25 @@ package com.android.gpstest.library.model
 /**
  * Container class holding rotation sensor timestamp, and [values], where the first index is the
  * orientation (X) for display (which has magnetic correction applied if available as well as
- * rotation correction), the second is the tilt (Y), and the third is the yaw (Z)
+ * rotation correction), the second is the tilt (Y), and the third is the yaw (Z). [sequence]
+ * increases by one for each sensor event.
+ *
+ * Instances emitted by SharedSensorManager are recycled from a pool to avoid allocating at the
+ * sensor rate, so observers must not hold references after they've handled an update - use
+ * [snapshot] to get a copy that can be kept or passed to another thread.
  */
-data class Orientation(val elapsedRealtimeNanos: Long, val values: DoubleArray) {
+data class Orientation(
+    var elapsedRealtimeNanos: Long,
+    val values: DoubleArray,
+    var sequence: Long = 0
+) {
+
+    /**
+     * Returns a copy of this orientation that won't be modified when the instance is recycled
+     */
+    fun snapshot(): Orientation {
+        return Orientation(elapsedRealtimeNanos, values.copyOf(), sequence)
+    }
 
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
@@ -30,6 +46,7 @@ data class Orientation(val elapsedRealtimeNanos: Long, val values: DoubleArray)
 
         if (elapsedRealtimeNanos != other.elapsedRealtimeNanos) return false
         if (!values.contentEquals(other.values)) return false
+        if (sequence != other.sequence) return false
 
         return true
     }
@@ -37,6 +54,7 @@ data class Orientation(val elapsedRealtimeNanos: Long, val values: DoubleArray)
     override fun hashCode(): Int {
         var result = elapsedRealtimeNanos.hashCode()
         result = 31 * result + values.contentHashCode()
+        result = 31 * result + sequence.hashCode()
         return result
     }
-}
\ No newline at end of file
+}
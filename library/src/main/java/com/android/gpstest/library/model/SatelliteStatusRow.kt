@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.model
+
+import androidx.compose.runtime.Immutable
+
+/**
+ * An immutable snapshot of a [SatelliteStatus] (signal) to be shown as a row in a list. The [key] is
+ * created using SatelliteUtil.toSignalId() so it's stable across GnssStatus updates, and
+ * [carrierFrequencyLabel] is created using CarrierFreqUtils.getCarrierFrequencyLabel(). Because
+ * this class is immutable Compose can skip recomposing rows that haven't changed.
+ */
+@Immutable
+data class SatelliteStatusRow(
+    val key: Long,
+    val svid: Int,
+    val gnssType: GnssType,
+    val sbasType: SbasType,
+    val cn0DbHz: Float,
+    val hasAlmanac: Boolean,
+    val hasEphemeris: Boolean,
+    val usedInFix: Boolean,
+    val elevationDegrees: Float,
+    val azimuthDegrees: Float,
+    val hasCarrierFrequency: Boolean,
+    val carrierFrequencyHz: Double,
+    val carrierFrequencyLabel: String
+)
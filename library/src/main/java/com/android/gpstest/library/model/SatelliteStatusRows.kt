@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.model
+
+import androidx.compose.runtime.Immutable
+
+/**
+ * A filtered and sorted list of signals to be shown to the user ([rows]), along with the difference
+ * from the previous list. [inserted] and [removed] hold the keys of rows that were added or removed,
+ * [changed] the keys of rows that are still shown but have different values, and [moved] the keys
+ * of rows that changed order relative to their neighbors. Keys are [SatelliteStatusRow.key].
+ *
+ * [cn0InViewSum] and [numInView] are the sum of C/N0 and number of the rows in view of the device
+ * (C/N0 is not 0), and [cn0UsedSum] and [numUsed] are the same for rows used in the fix.
+ */
+@Immutable
+class SatelliteStatusRows(
+    val rows: List<SatelliteStatusRow> = emptyList(),
+    val inserted: Set<Long> = emptySet(),
+    val removed: Set<Long> = emptySet(),
+    val changed: Set<Long> = emptySet(),
+    val moved: Set<Long> = emptySet(),
+    val cn0InViewSum: Double = 0.0,
+    val numInView: Int = 0,
+    val cn0UsedSum: Double = 0.0,
+    val numUsed: Int = 0
+)
@@ -19,7 +19,9 @@ import android.annotation.SuppressLint
 import android.app.Application
 import android.content.Context
 import android.content.SharedPreferences
+import android.location.GnssMeasurementsEvent
 import android.location.Location
+import android.os.SystemClock
 import androidx.annotation.VisibleForTesting
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.LiveData
@@ -29,19 +31,32 @@ import com.android.gpstest.library.data.FirstFixState
 import com.android.gpstest.library.data.FixState
 import com.android.gpstest.library.data.LocationRepository
 import com.android.gpstest.library.model.*
-import com.android.gpstest.library.util.CarrierFreqUtils.getCarrierFrequencyLabel
+import com.android.gpstest.library.util.CarrierFreqUtils
+import com.android.gpstest.library.util.CycleSlipDetector
+import com.android.gpstest.library.util.DisplayConfig
+import com.android.gpstest.library.util.DopCalculator
 import com.android.gpstest.library.util.FormatUtils.formatTtff
-import com.android.gpstest.library.util.NmeaUtils
+import com.android.gpstest.library.util.HatchFilter
+import com.android.gpstest.library.util.IncrementalSorter
+import com.android.gpstest.library.util.NmeaDecoder
 import com.android.gpstest.library.util.PreferenceUtil
 import com.android.gpstest.library.util.PreferenceUtils
+import com.android.gpstest.library.util.PseudorangeCalculator
 import com.android.gpstest.library.util.SatelliteUtil.toSatelliteGroup
+import com.android.gpstest.library.util.SatelliteUtil.toGnssType
 import com.android.gpstest.library.util.SatelliteUtil.toSatelliteStatus
+import com.android.gpstest.library.util.SkyPredictor
+import com.android.gpstest.library.util.SkyTrackHistory
+import com.android.gpstest.library.util.StatusRowDiffer
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.onStart
 import kotlinx.coroutines.launch
 import javax.inject.Inject
 
@@ -54,6 +69,7 @@ class SignalInfoViewModel @Inject constructor(
     context: Context,
     application: Application,
     private val repository: LocationRepository,
+    private val skyPredictor: SkyPredictor,
     prefs: SharedPreferences
 ) : AndroidViewModel(application) {
     //
@@ -62,6 +78,8 @@ class SignalInfoViewModel @Inject constructor(
     private var locationFlow: Job? = null
     private var gnssFlow: Job? = null
     private var nmeaFlow: Job? = null
+    private var measurementFlow: Job? = null
+    private var skyPredictionJob: Job? = null
 
     //
     // LiveData observed by Composables
@@ -83,6 +101,18 @@ class SignalInfoViewModel @Inject constructor(
     private val _filteredSbasStatuses = MutableLiveData<List<SatelliteStatus>>()
     val filteredSbasStatuses: LiveData<List<SatelliteStatus>> = _filteredSbasStatuses
 
+    // GNSS rows AFTER applying filter and sort, with the difference from the previous update
+    private val _gnssStatusRows = MutableLiveData(SatelliteStatusRows())
+    val gnssStatusRows: LiveData<SatelliteStatusRows> = _gnssStatusRows
+
+    // SBAS rows AFTER applying filter and sort, with the difference from the previous update
+    private val _sbasStatusRows = MutableLiveData(SatelliteStatusRows())
+    val sbasStatusRows: LiveData<SatelliteStatusRows> = _sbasStatusRows
+
+    // Average C/N0 of signals in view and used in fix AFTER applying filter
+    private val _cn0Averages = MutableLiveData(Cn0Averages())
+    val cn0Averages: LiveData<Cn0Averages> = _cn0Averages
+
     // All satellites BEFORE filtering
     private val _allSatellitesGroup = MutableLiveData<SatelliteGroup>()
     val allSatellitesGroup: LiveData<SatelliteGroup> = _allSatellitesGroup
@@ -114,17 +144,60 @@ class SignalInfoViewModel @Inject constructor(
     private val _fixState = MutableLiveData<FixState>(FixState.NotAcquired)
     val fixState: LiveData<FixState> = _fixState
 
+    // Satellite tracks predicted from decoded ephemerides for the next few hours at the location
+    private val _skyPrediction = MutableLiveData<SkyPredictor.Prediction?>()
+    val skyPrediction: LiveData<SkyPredictor.Prediction?> = _skyPrediction
+
+    // Carrier phase arcs and cycle slips of the signals in the latest raw measurements
+    private val _carrierPhaseRows = MutableLiveData<List<CarrierPhaseRow>>(emptyList())
+    val carrierPhaseRows: LiveData<List<CarrierPhaseRow>> = _carrierPhaseRows
+
     private var started = false
 
+    // Reused for every NMEA sentence to avoid allocations
+    private val nmeaDecoder = NmeaDecoder()
+
+    // Only used on the background thread that measurements are processed on
+    private val pseudorangeCalculator = PseudorangeCalculator()
+    private val cycleSlipDetector = CycleSlipDetector()
+
     // Preference listener that will cancel the above flows when the user turns off tracking via UI
     private val trackingListener: SharedPreferences.OnSharedPreferenceChangeListener =
         PreferenceUtil.newStopTrackingListener({setStarted(context, false, prefs)}, prefs)
 
+    /**
+     * Satellite filter and sort order selected by the user, cached until the preferences change
+     */
+    val displayConfig = DisplayConfig(context, prefs)
+
+    // Sorters that reuse the order from the previous GnssStatus update
+    private val gnssSorter = IncrementalSorter()
+    private val sbasSorter = IncrementalSorter()
+
+    // Converts sorted statuses to immutable rows and tracks differences between updates
+    private val gnssRowDiffer = StatusRowDiffer()
+    private val sbasRowDiffer = StatusRowDiffer()
+
+    /**
+     * Recent positions of all satellites (before filtering) for drawing their tracks in the sky
+     */
+    val skyTracks = SkyTrackHistory()
+
+    /**
+     * DOP computed from the geometry of the satellites used in the fix, for all constellations and
+     * for each constellation
+     */
+    val geometryDop = DopCalculator()
+
+    // Time of the last DOP from an NMEA GSA sentence, which is preferred over geometryDop
+    private var lastGsaDopMillis = 0L
+
     init {
         viewModelScope.launch {
             observeLocationUpdateStates(context, prefs)
             observeGnssStates(prefs)
             prefs.registerOnSharedPreferenceChangeListener(trackingListener)
+            prefs.registerOnSharedPreferenceChangeListener(displayConfig.listener)
         }
     }
 
@@ -149,10 +222,32 @@ class SignalInfoViewModel @Inject constructor(
                 //Log.d(TAG, "SignalInfoViewModel location: ${it.toNotificationTitle()}")
                 _location.value = it
                 setGotFirstFix(true)
+                updateSkyPrediction(it)
             }
             .launchIn(viewModelScope)
     }
 
+    /**
+     * Shows the predicted satellite tracks for [location], computing them in the background if
+     * they aren't cached for its tile and time
+     */
+    private fun updateSkyPrediction(location: Location) {
+        val cached = skyPredictor.cached(location.latitude, location.longitude, location.time)
+        if (cached != null) {
+            if (cached !== _skyPrediction.value) {
+                _skyPrediction.value = cached
+            }
+            return
+        }
+        if (skyPredictionJob?.isActive == true) {
+            return
+        }
+        skyPredictionJob = viewModelScope.launch(Dispatchers.Default) {
+            val prediction = skyPredictor.predict(location.latitude, location.longitude, location.time)
+            _skyPrediction.postValue(prediction)
+        }
+    }
+
     @ExperimentalCoroutinesApi
     private fun observeGnssFlow(context: Context, prefs: SharedPreferences) {
         if (gnssFlow?.isActive == true) {
@@ -205,124 +300,104 @@ class SignalInfoViewModel @Inject constructor(
             .launchIn(viewModelScope)
     }
 
+    @ExperimentalCoroutinesApi
+    private fun observeMeasurementFlow() {
+        if (measurementFlow?.isActive == true) {
+            // If we're already observing updates, don't register again
+            return
+        }
+        // Check phase continuity off the main thread, at the rate of the measurements
+        measurementFlow = repository.getMeasurements()
+            .onStart { cycleSlipDetector.clear() }
+            .map { toCarrierPhaseRows(it) }
+            .flowOn(Dispatchers.Default)
+            .onEach {
+                _carrierPhaseRows.value = it
+            }
+            .launchIn(viewModelScope)
+    }
+
+    /**
+     * Checks the carrier phase of the signals in [event] for cycle slips, returning a row for each
+     * signal that has had a valid phase
+     */
+    private fun toCarrierPhaseRows(event: GnssMeasurementsEvent): List<CarrierPhaseRow> {
+        pseudorangeCalculator.update(event)
+        val epoch = pseudorangeCalculator.epoch
+        cycleSlipDetector.update(epoch)
+        val rows = ArrayList<CarrierPhaseRow>()
+        for (i in 0 until epoch.size) {
+            if (cycleSlipDetector.arcLength(i) == 0 && cycleSlipDetector.slipCount(i) == 0) {
+                continue
+            }
+            val gnssType = epoch.constellationType(i).toGnssType()
+            val carrierFrequencyHz = epoch.carrierFrequencyHz(i)
+            rows.add(
+                CarrierPhaseRow(
+                    HatchFilter.signalId(epoch.constellationType(i), epoch.svid(i), carrierFrequencyHz),
+                    epoch.svid(i),
+                    gnssType,
+                    if (carrierFrequencyHz.isNaN()) CarrierFreqUtils.CF_UNSUPPORTED
+                    else CarrierFreqUtils.getCarrierFrequencyLabel(gnssType, epoch.svid(i), carrierFrequencyHz),
+                    cycleSlipDetector.arcSeconds(i),
+                    cycleSlipDetector.slipCount(i),
+                    cycleSlipDetector.isSlip(i)
+                )
+            )
+        }
+        rows.sortWith(compareBy({ it.gnssType }, { it.svid }, { it.key }))
+        return rows
+    }
+
     @ExperimentalCoroutinesApi
     @VisibleForTesting
     fun updateStatus(context: Context, status: List<SatelliteStatus>, prefs: SharedPreferences) {
         _allStatuses.value = status
         _allSatellitesGroup.value = status.toSatelliteGroup()
+        val now = SystemClock.elapsedRealtime()
+        skyTracks.add(status, now)
+        geometryDop.update(status)
+        if (lastGsaDopMillis == 0L || now - lastGsaDopMillis > GSA_DOP_TIMEOUT_MILLIS) {
+            updateGeometryDop()
+        }
 
-        // Get filter set by user in UI
-        val filter = PreferenceUtils.gnssFilter(context, prefs)
-
-        // Split list into GNSS and SBAS statuses, apply "shown" filter, and update view model
+        // Split list into GNSS and SBAS statuses, apply "shown" filter set by user in UI (cached
+        // in displayConfig), and update view model
         val (gnssStatus, sbasStatus) = status
             .filter {
-                filter.isEmpty() || filter.contains(it.gnssType)
+                displayConfig.isShown(it)
             }
             .partition {
                 it.gnssType != GnssType.SBAS
             }
 
         _filteredStatuses.value = gnssStatus + sbasStatus
-        setFilteredAndSortedStatuses(sort(context, gnssStatus, true, prefs), sort(context, sbasStatus, false, prefs))
+        val gnssSorted = gnssSorter.sort(gnssStatus, displayConfig.comparator(true))
+        val sbasSorted = sbasSorter.sort(sbasStatus, displayConfig.comparator(false))
+        val gnssRows = gnssRowDiffer.update(gnssSorted)
+        val sbasRows = sbasRowDiffer.update(sbasSorted)
+        _gnssStatusRows.value = gnssRows
+        _sbasStatusRows.value = sbasRows
+        updateCn0Averages(gnssRows, sbasRows)
+        setFilteredAndSortedStatuses(gnssSorted.sorted, sbasSorted.sorted)
     }
 
     /**
-     * Returns a sorted version of the provided [status] list according to the sort preference of
-     * the user, with [isGnss] set to true if the list contains all GNSS signals and false if
-     * it contains all SBAS signals
+     * Combines the running C/N0 aggregates of the GNSS and SBAS rows, and only notifies observers
+     * if the averages changed
      */
-    private fun sort(context: Context, status: List<SatelliteStatus>, isGnss: Boolean, prefs: SharedPreferences): List<SatelliteStatus> {
-        return when (PreferenceUtils.getSatSortOrderFromPreferences(context, prefs)) {
-            0 -> {
-                // Sort by Constellation
-                if (isGnss) {
-                    status.sortedWith(compareBy(SatelliteStatus::gnssType, SatelliteStatus::svid))
-                } else {
-                    status.sortedWith(compareBy(SatelliteStatus::sbasType, SatelliteStatus::svid))
-                }
-            }
-            1 -> {
-                // Sort by Carrier Frequency (raw CF, then label to group L5s, E5a, etc.)
-                status.sortedWith(
-                    compareBy<SatelliteStatus> {
-                        it.carrierFrequencyHz
-                    }.thenBy {
-                        getCarrierFrequencyLabel(it)
-                    }.thenBy {
-                        it.svid
-                    }
-                )
-            }
-            2 -> {
-                // Sort by Signal Strength
-                status.sortedWith(compareByDescending(SatelliteStatus::cn0DbHz))
-            }
-            3 -> {
-                // Sort by Used in Fix
-                status.sortedWith(
-                    compareByDescending(SatelliteStatus::usedInFix).thenComparing(
-                        SatelliteStatus::svid
-                    )
-                )
-            }
-            4 -> {
-                // Sort by Constellation, Carrier Frequency
-                if (isGnss) {
-                    status.sortedWith(
-                        compareBy(
-                            SatelliteStatus::gnssType,
-                            SatelliteStatus::carrierFrequencyHz,
-                            SatelliteStatus::svid
-                        )
-                    )
-                } else {
-                    status.sortedWith(
-                        compareBy(
-                            SatelliteStatus::sbasType,
-                            SatelliteStatus::carrierFrequencyHz,
-                            SatelliteStatus::svid
-                        )
-                    )
-                }
-            }
-            5 -> {
-                // Sort by Constellation, Signal Strength
-                if (isGnss) {
-                    status.sortedWith(
-                        compareBy(SatelliteStatus::gnssType).thenByDescending(
-                            SatelliteStatus::cn0DbHz
-                        )
-                    )
-                } else {
-                    status.sortedWith(
-                        compareBy(SatelliteStatus::sbasType).thenByDescending(
-                            SatelliteStatus::cn0DbHz
-                        )
-                    )
-                }
-            }
-            6 -> {
-                // Sort by Constellation, Used in Fix
-                if (isGnss) {
-                    status.sortedWith(
-                        compareBy(SatelliteStatus::gnssType).thenByDescending(
-                            SatelliteStatus::usedInFix
-                        ).thenComparing(SatelliteStatus::svid)
-                    )
-                } else {
-                    status.sortedWith(
-                        compareBy(SatelliteStatus::sbasType).thenByDescending(
-                            SatelliteStatus::usedInFix
-                        ).thenComparing(SatelliteStatus::svid)
-                    )
-                }
-            }
-            else -> status
+    private fun updateCn0Averages(gnssRows: SatelliteStatusRows, sbasRows: SatelliteStatusRows) {
+        val numInView = gnssRows.numInView + sbasRows.numInView
+        val numUsed = gnssRows.numUsed + sbasRows.numUsed
+        val averages = Cn0Averages(
+            if (numInView > 0) ((gnssRows.cn0InViewSum + sbasRows.cn0InViewSum) / numInView).toFloat() else 0.0f,
+            if (numUsed > 0) ((gnssRows.cn0UsedSum + sbasRows.cn0UsedSum) / numUsed).toFloat() else 0.0f
+        )
+        if (averages != _cn0Averages.value) {
+            _cn0Averages.value = averages
         }
     }
 
-
     /**
      * Adds a new set of GNSS and SBAS status objects (signals) so they can be analyzed and grouped
      * into satellites. Filter and sorting should have been applied before calling this method so
@@ -374,20 +449,50 @@ class SignalInfoViewModel @Inject constructor(
     }
 
     private fun onNmeaMessage(message: String, timestamp: Long) {
-        if (message.startsWith("\$GPGGA") || message.startsWith("\$GNGNS") || message.startsWith("\$GNGGA")) {
-            val altitudeMsl = NmeaUtils.getAltitudeMeanSeaLevel(message)
-            if (altitudeMsl != null && started) {
-                _altitudeMsl.value = altitudeMsl
-            }
+        if (!started) {
+            return
         }
-        if (message.startsWith("\$GNGSA") || message.startsWith("\$GPGSA")) {
-            val dop = NmeaUtils.getDop(message)
-            if (dop != null && started) {
-                _dop.value = dop
+        when (nmeaDecoder.decode(message)) {
+            NmeaDecoder.SENTENCE_GGA -> updateAltitudeMsl(nmeaDecoder.gga.altitudeMsl)
+            NmeaDecoder.SENTENCE_GNS -> updateAltitudeMsl(nmeaDecoder.gns.altitudeMsl)
+            NmeaDecoder.SENTENCE_GSA -> {
+                val gsa = nmeaDecoder.gsa
+                if (gsa.pdop.isNaN() || gsa.hdop.isNaN() || gsa.vdop.isNaN()) {
+                    return
+                }
+                lastGsaDopMillis = SystemClock.elapsedRealtime()
+                // Multi-GNSS devices send one GSA per constellation with the same DOP values
+                val current = _dop.value
+                if (current == null || current.positionDop != gsa.pdop ||
+                    current.horizontalDop != gsa.hdop || current.verticalDop != gsa.vdop
+                ) {
+                    _dop.value = DilutionOfPrecision(gsa.pdop, gsa.hdop, gsa.vdop)
+                }
             }
         }
     }
 
+    /**
+     * Sets the DOP from the geometry of the satellites used in the fix, for devices that don't
+     * output DOP in NMEA GSA sentences. Observers are only notified if the values changed.
+     */
+    private fun updateGeometryDop() {
+        val combined = geometryDop.combined
+        val current = _dop.value
+        // equals() so NaN (not enough satellites) matches NaN
+        if (current == null || !current.positionDop.equals(combined.pdop) ||
+            !current.horizontalDop.equals(combined.hdop) || !current.verticalDop.equals(combined.vdop)
+        ) {
+            _dop.value = combined.toDilutionOfPrecision()
+        }
+    }
+
+    private fun updateAltitudeMsl(altitudeMsl: Double) {
+        if (!altitudeMsl.isNaN()) {
+            _altitudeMsl.value = altitudeMsl
+        }
+    }
+
     @ExperimentalCoroutinesApi
     @SuppressLint("NotifyDataSetChanged")
     private fun setStarted(context: Context, started: Boolean, prefs: SharedPreferences) {
@@ -400,6 +505,7 @@ class SignalInfoViewModel @Inject constructor(
             observeLocationFlow()
             observeGnssFlow(context, prefs)
             observeNmeaFlow()
+            observeMeasurementFlow()
         } else {
             // Cancel updates (Note that these are canceled via trackingListener preference listener
             // in the case where updates are stopped from the Activity UI switch)
@@ -415,6 +521,7 @@ class SignalInfoViewModel @Inject constructor(
         locationFlow?.cancel()
         gnssFlow?.cancel()
         nmeaFlow?.cancel()
+        measurementFlow?.cancel()
     }
 
     /**
@@ -522,6 +629,9 @@ class SignalInfoViewModel @Inject constructor(
     fun reset() {
         _filteredGnssStatuses.value = emptyList()
         _filteredSbasStatuses.value = emptyList()
+        _gnssStatusRows.value = SatelliteStatusRows()
+        _sbasStatusRows.value = SatelliteStatusRows()
+        _cn0Averages.value = Cn0Averages()
         _filteredGnssSatellites.value = emptyMap()
         _filteredSbasSatellites.value = emptyMap()
         _location.value = Location("reset")
@@ -531,6 +641,17 @@ class SignalInfoViewModel @Inject constructor(
         _filteredSatelliteMetadata.value = SatelliteMetadata()
         _fixState.value = FixState.NotAcquired
         _allSatellitesGroup.value = SatelliteGroup(emptyMap(), SatelliteMetadata())
+        gnssSorter.reset()
+        sbasSorter.reset()
+        gnssRowDiffer.reset()
+        sbasRowDiffer.reset()
+        skyTracks.reset()
+        skyPredictionJob?.cancel()
+        _skyPrediction.value = null
+        _carrierPhaseRows.value = emptyList()
+        geometryDop.clear()
+        geometryDop.solve()
+        lastGsaDopMillis = 0L
         gotFirstFix = false
     }
 
@@ -541,4 +662,12 @@ class SignalInfoViewModel @Inject constructor(
         super.onCleared()
         reset()
     }
-}
\ No newline at end of file
+
+    companion object {
+        /**
+         * DOP from satellite geometry is shown if no NMEA GSA sentence with DOP was received for
+         * this long
+         */
+        private const val GSA_DOP_TIMEOUT_MILLIS = 5000L
+    }
+}
@@ -13,7 +13,10 @@ class BenchmarkUtils {
          * Returns the error between the provided [location] and [groundTruth] location
          */
         fun measureError(location: Location, groundTruth: Location): MeasuredError {
-            val horError = location.distanceTo(groundTruth)
+            val horError = GeodesyUtils.distance(
+                location.latitude, location.longitude,
+                groundTruth.latitude, groundTruth.longitude
+            ).toFloat()
             return if (groundTruth.hasAltitude() && location.hasAltitude()) {
                 MeasuredError(horError, groundTruth.altitude - location.altitude)
             } else {
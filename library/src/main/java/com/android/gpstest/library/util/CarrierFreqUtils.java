@@ -20,6 +20,7 @@ import android.os.Build;
 
 import androidx.annotation.RequiresApi;
 
+import com.android.gpstest.library.model.GnssType;
 import com.android.gpstest.library.model.SatelliteStatus;
 
 public class CarrierFreqUtils {
@@ -47,10 +48,23 @@ public class CarrierFreqUtils {
         if (!SatelliteUtils.isCfSupported() || !status.getHasCarrierFrequency()) {
             return CF_UNSUPPORTED;
         }
-        double cfMhz = MathUtils.toMhz(status.getCarrierFrequencyHz());
-        int svid = status.getSvid();
+        return getCarrierFrequencyLabel(status.getGnssType(), status.getSvid(), status.getCarrierFrequencyHz());
+    }
+
+    /**
+     * Returns the label that should be displayed for a given GNSS constellation, svid, and carrier
+     * frequency, for signals that don't have a SatelliteStatus (e.g., raw measurements)
+     *
+     * @param gnssType GNSS constellation of the signal
+     * @param svid satellite ID of the signal
+     * @param carrierFrequencyHz carrier frequency of the signal in Hz
+     * @return the label that should be displayed for a given GNSS constellation, svid, and carrier
+     * frequency, or "unknown" if no carrier frequency label is found
+     */
+    public static String getCarrierFrequencyLabel(GnssType gnssType, int svid, double carrierFrequencyHz) {
+        double cfMhz = MathUtils.toMhz(carrierFrequencyHz);
 
-        switch (status.getGnssType()) {
+        switch (gnssType) {
             case NAVSTAR:
                 return getNavstarCF(cfMhz);
             case GLONASS:
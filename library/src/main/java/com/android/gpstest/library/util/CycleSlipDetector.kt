@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.location.GnssMeasurement
+import kotlin.math.abs
+
+/**
+ * Checks the continuity of the accumulated delta range (carrier phase) of each signal, epoch by
+ * epoch, and keeps the length of its current continuous arc and the number of cycle slips.
+ *
+ * An arc is broken by a cycle slip when:
+ *  - the receiver sets ADR_STATE_RESET or ADR_STATE_CYCLE_SLIP ([BREAK_ADR_STATE])
+ *  - the change in phase doesn't match the distance predicted from the average pseudorange rate
+ *  (Doppler) of the two epochs within [dopplerThresholdMeters] plus 3 times the pseudorange rate
+ *  uncertainty over the interval ([BREAK_DOPPLER])
+ *  - the geometry-free combination (the difference in phase) with another signal from the same
+ *  satellite on a different frequency changes by more than [geometryFreeThresholdMeters]
+ *  ([BREAK_GEOMETRY_FREE]). This catches small slips that the Doppler check misses, but a slip on
+ *  either signal breaks the arcs of both.
+ *
+ * An arc also ends without a cycle slip when the phase isn't valid any more, the signal is missing
+ * for more than [maxGapNanos] or the receiver's hardware clock has a discontinuity ([BREAK_LOST]).
+ *
+ * The state of each signal (identified by HatchFilter.signalId()) is kept in primitive arrays in an
+ * open-addressing hash table, and the outputs are columns indexed like the signals of the
+ * [PseudorangeCalculator.Epoch] given to [update], so an update doesn't allocate once the table
+ * and columns are big enough. Signals that haven't been seen for 10 minutes are dropped when the
+ * table fills up.
+ *
+ * This class isn't thread-safe - use an instance from one thread at a time.
+ */
+class CycleSlipDetector @JvmOverloads constructor(
+    private val maxGapNanos: Long = DEFAULT_MAX_GAP_NANOS,
+    private val dopplerThresholdMeters: Double = DEFAULT_DOPPLER_THRESHOLD_METERS,
+    private val geometryFreeThresholdMeters: Double = DEFAULT_GEOMETRY_FREE_THRESHOLD_METERS,
+    capacity: Int = DEFAULT_CAPACITY
+) {
+    // Per-signal state, in a hash table with linear probing (size is a power of 2)
+    private var keys = LongArray(tableSize(capacity)) { EMPTY }
+    private var lastAdrs = DoubleArray(keys.size)
+    private var lastRates = DoubleArray(keys.size)
+    private var lastTimes = LongArray(keys.size)
+    private var discontinuities = IntArray(keys.size)
+    private var lastGeometryFree = DoubleArray(keys.size)
+    private var partners = LongArray(keys.size)
+    private var arcs = IntArray(keys.size)
+    private var arcStarts = LongArray(keys.size)
+    private var slips = IntArray(keys.size)
+    private var used = 0
+
+    // Outputs, by signal index in the epoch
+    private var breaksOut = IntArray(capacity.coerceAtLeast(1))
+    private var arcsOut = IntArray(breaksOut.size)
+    private var arcStartsOut = LongArray(breaksOut.size)
+    private var endedArcsOut = IntArray(breaksOut.size)
+    private var slipsOut = IntArray(breaksOut.size)
+
+    private var timeNanos = 0L
+
+    /**
+     * Number of signals in the last epoch
+     */
+    var size = 0
+        private set
+
+    /**
+     * Number of signals with a cycle slip in the last epoch
+     */
+    var slipCount = 0
+        private set
+
+    /**
+     * Reasons the arc of signal [i] of the last epoch was broken in this epoch (a combination of
+     * the BREAK_ flags), or 0 if it's continuous or just started
+     */
+    fun breaks(i: Int): Int = breaksOut[i]
+
+    /**
+     * True if signal [i] of the last epoch had a cycle slip in this epoch
+     */
+    fun isSlip(i: Int): Boolean = (breaksOut[i] and SLIP_FLAGS) != 0
+
+    /**
+     * Number of epochs in the current continuous arc of signal [i] of the last epoch, including
+     * this one, or 0 if its phase isn't valid
+     */
+    fun arcLength(i: Int): Int = arcsOut[i]
+
+    /**
+     * Time since the start of the current arc of signal [i] of the last epoch, in seconds
+     */
+    fun arcSeconds(i: Int): Double = if (arcsOut[i] > 0) (timeNanos - arcStartsOut[i]) * 1e-9 else 0.0
+
+    /**
+     * Number of epochs in the arc of signal [i] that ended in the last epoch, or 0 if none ended
+     */
+    fun endedArcLength(i: Int): Int = endedArcsOut[i]
+
+    /**
+     * Number of cycle slips of signal [i] of the last epoch since it was first seen
+     */
+    fun slipCount(i: Int): Int = slipsOut[i]
+
+    /**
+     * Checks the phase of all the signals of [epoch] in one pass. The outputs are indexed like the
+     * signals of [epoch] until the next update.
+     */
+    fun update(epoch: PseudorangeCalculator.Epoch) {
+        timeNanos = epoch.timeNanos
+        val discontinuityCount = epoch.hardwareClockDiscontinuityCount
+        size = epoch.size
+        slipCount = 0
+        if (breaksOut.size < size) {
+            breaksOut = IntArray(size)
+            arcsOut = IntArray(size)
+            arcStartsOut = LongArray(size)
+            endedArcsOut = IntArray(size)
+            slipsOut = IntArray(size)
+        }
+        if ((used + size) * 2 > keys.size) {
+            rehash(used + size)
+        }
+
+        for (i in 0 until size) {
+            val adr = epoch.accumulatedDeltaRangeMeters(i)
+            val state = epoch.accumulatedDeltaRangeState(i)
+            val rate = epoch.pseudorangeRateMetersPerSecond(i)
+            val valid = isValid(state, adr)
+            val slot = slot(HatchFilter.signalId(epoch.constellationType(i), epoch.svid(i), epoch.carrierFrequencyHz(i)))
+            val arc = arcs[slot]
+
+            var breaks = 0
+            if (arc > 0) {
+                val gapNanos = timeNanos - lastTimes[slot]
+                if (!valid || discontinuities[slot] != discontinuityCount || gapNanos !in 1..maxGapNanos) {
+                    breaks = BREAK_LOST
+                } else {
+                    if ((state and ADR_RESET_FLAGS) != 0) {
+                        breaks = BREAK_ADR_STATE
+                    }
+                    if (!rate.isNaN() && !lastRates[slot].isNaN()) {
+                        val seconds = gapNanos * 1e-9
+                        val predicted = (rate + lastRates[slot]) * 0.5 * seconds
+                        val uncertainty = epoch.pseudorangeRateUncertaintyMetersPerSecond(i)
+                        val threshold = dopplerThresholdMeters +
+                                if (uncertainty.isNaN()) 0.0 else DOPPLER_SIGMAS * uncertainty * seconds
+                        if (abs(adr - lastAdrs[slot] - predicted) > threshold) {
+                            breaks = breaks or BREAK_DOPPLER
+                        }
+                    }
+                }
+            }
+
+            // Geometry-free combination with another frequency from the same satellite
+            var geometryFree = Double.NaN
+            var partner = EMPTY
+            if (valid) {
+                val j = partnerOf(epoch, i)
+                if (j >= 0) {
+                    geometryFree = adr - epoch.accumulatedDeltaRangeMeters(j)
+                    partner = HatchFilter.signalId(epoch.constellationType(j), epoch.svid(j), epoch.carrierFrequencyHz(j))
+                    if (arc > 0 && breaks != BREAK_LOST && partners[slot] == partner &&
+                        !lastGeometryFree[slot].isNaN() &&
+                        abs(geometryFree - lastGeometryFree[slot]) > geometryFreeThresholdMeters) {
+                        breaks = breaks or BREAK_GEOMETRY_FREE
+                    }
+                }
+            }
+
+            var ended = 0
+            if (breaks != 0) {
+                ended = arc
+                if ((breaks and SLIP_FLAGS) != 0) {
+                    slips[slot]++
+                    slipCount++
+                }
+            }
+            if (!valid) {
+                arcs[slot] = 0
+            } else if (arc == 0 || breaks != 0) {
+                arcs[slot] = 1
+                arcStarts[slot] = timeNanos
+            } else {
+                arcs[slot] = arc + 1
+            }
+            lastAdrs[slot] = adr
+            lastRates[slot] = rate
+            lastTimes[slot] = timeNanos
+            discontinuities[slot] = discontinuityCount
+            lastGeometryFree[slot] = geometryFree
+            partners[slot] = partner
+
+            breaksOut[i] = breaks
+            arcsOut[i] = arcs[slot]
+            arcStartsOut[i] = arcStarts[slot]
+            endedArcsOut[i] = ended
+            slipsOut[i] = slips[slot]
+        }
+    }
+
+    /**
+     * Forgets the state of all signals
+     */
+    fun clear() {
+        keys.fill(EMPTY)
+        used = 0
+        size = 0
+        slipCount = 0
+    }
+
+    /**
+     * Returns the index of the first other signal in [epoch] from the same satellite as signal [i]
+     * on a different frequency with a valid phase, or -1 if there isn't one. Epochs only have tens
+     * of signals, so this is a linear search.
+     */
+    private fun partnerOf(epoch: PseudorangeCalculator.Epoch, i: Int): Int {
+        val frequency = epoch.carrierFrequencyHz(i)
+        if (frequency.isNaN()) return -1
+        val constellationType = epoch.constellationType(i)
+        val svid = epoch.svid(i)
+        for (j in 0 until epoch.size) {
+            if (j != i && epoch.svid(j) == svid && epoch.constellationType(j) == constellationType &&
+                abs(epoch.carrierFrequencyHz(j) - frequency) > MIN_FREQUENCY_DIFFERENCE_HZ &&
+                isValid(epoch.accumulatedDeltaRangeState(j), epoch.accumulatedDeltaRangeMeters(j))) {
+                return j
+            }
+        }
+        return -1
+    }
+
+    /**
+     * Returns the slot of [key] in the table, adding it if it isn't there
+     */
+    private fun slot(key: Long): Int {
+        val mask = keys.size - 1
+        var slot = hash(key) and mask
+        while (true) {
+            val k = keys[slot]
+            if (k == key) return slot
+            if (k == EMPTY) {
+                keys[slot] = key
+                arcs[slot] = 0
+                slips[slot] = 0
+                used++
+                return slot
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    private fun isStale(lastTimeNanos: Long): Boolean = timeNanos - lastTimeNanos !in 0..STALE_NANOS
+
+    /**
+     * Rebuilds the table without the signals that haven't been seen for a while, growing it if it
+     * can't hold [needed] signals at half full
+     */
+    private fun rehash(needed: Int) {
+        val oldKeys = keys
+        val oldAdrs = lastAdrs
+        val oldRates = lastRates
+        val oldTimes = lastTimes
+        val oldDiscontinuities = discontinuities
+        val oldGeometryFree = lastGeometryFree
+        val oldPartners = partners
+        val oldArcs = arcs
+        val oldArcStarts = arcStarts
+        val oldSlips = slips
+        var live = 0
+        for (j in oldKeys.indices) {
+            if (oldKeys[j] != EMPTY && !isStale(oldTimes[j])) live++
+        }
+        val tableSize = tableSize(maxOf(needed - used + live, live))
+        keys = LongArray(tableSize) { EMPTY }
+        lastAdrs = DoubleArray(tableSize)
+        lastRates = DoubleArray(tableSize)
+        lastTimes = LongArray(tableSize)
+        discontinuities = IntArray(tableSize)
+        lastGeometryFree = DoubleArray(tableSize)
+        partners = LongArray(tableSize)
+        arcs = IntArray(tableSize)
+        arcStarts = LongArray(tableSize)
+        slips = IntArray(tableSize)
+        used = 0
+        for (j in oldKeys.indices) {
+            if (oldKeys[j] == EMPTY || isStale(oldTimes[j])) continue
+            val slot = slot(oldKeys[j])
+            lastAdrs[slot] = oldAdrs[j]
+            lastRates[slot] = oldRates[j]
+            lastTimes[slot] = oldTimes[j]
+            discontinuities[slot] = oldDiscontinuities[j]
+            lastGeometryFree[slot] = oldGeometryFree[j]
+            partners[slot] = oldPartners[j]
+            arcs[slot] = oldArcs[j]
+            arcStarts[slot] = oldArcStarts[j]
+            slips[slot] = oldSlips[j]
+        }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_GAP_NANOS = 5_000_000_000L
+        const val DEFAULT_DOPPLER_THRESHOLD_METERS = 1.0
+        const val DEFAULT_GEOMETRY_FREE_THRESHOLD_METERS = 0.15
+        const val DEFAULT_CAPACITY = 64
+
+        /**
+         * The receiver flagged a reset or cycle slip in the accumulated delta range state
+         */
+        const val BREAK_ADR_STATE = 1
+
+        /**
+         * The change in phase doesn't match the pseudorange rate
+         */
+        const val BREAK_DOPPLER = 2
+
+        /**
+         * The difference in phase with another frequency from the same satellite jumped
+         */
+        const val BREAK_GEOMETRY_FREE = 4
+
+        /**
+         * The phase isn't valid, the signal was missing too long or the receiver clock had a
+         * discontinuity - the arc ended, but not with a cycle slip
+         */
+        const val BREAK_LOST = 8
+
+        private const val SLIP_FLAGS = BREAK_ADR_STATE or BREAK_DOPPLER or BREAK_GEOMETRY_FREE
+        private const val ADR_RESET_FLAGS =
+            GnssMeasurement.ADR_STATE_RESET or GnssMeasurement.ADR_STATE_CYCLE_SLIP
+        private const val DOPPLER_SIGMAS = 3.0
+        private const val MIN_FREQUENCY_DIFFERENCE_HZ = 1e6
+        private const val STALE_NANOS = 10 * 60 * 1_000_000_000L
+        private const val EMPTY = -1L
+
+        private fun isValid(state: Int, accumulatedDeltaRangeMeters: Double): Boolean {
+            return (state and GnssMeasurement.ADR_STATE_VALID) != 0 && !accumulatedDeltaRangeMeters.isNaN()
+        }
+
+        private fun tableSize(signals: Int): Int {
+            var size = 16
+            while (size < signals * 2) size = size shl 1
+            return size
+        }
+
+        private fun hash(key: Long): Int {
+            val h = key * -0x61c8864680b583ebL
+            return (h xor (h ushr 32)).toInt()
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.content.Context
+import android.content.SharedPreferences
+import com.android.gpstest.library.R
+import com.android.gpstest.library.model.GnssType
+import com.android.gpstest.library.model.SatelliteStatus
+import com.android.gpstest.library.model.SbasType
+import com.android.gpstest.library.util.CarrierFreqUtils.getCarrierFrequencyLabel
+import java.util.EnumSet
+
+/**
+ * Holds the user's satellite filter and sort order so they don't need to be re-parsed from
+ * preferences on every GnssStatus update. The filter is held as a bitmask over GnssType ordinals
+ * and the sort order as precompiled comparators. Cached values are only invalidated by the
+ * [listener], which must be registered by the owner via
+ * SharedPreferences.registerOnSharedPreferenceChangeListener() (and held as a strong reference,
+ * as anonymous preference listeners tend to get GC'd by Android).
+ */
+class DisplayConfig(private val context: Context, private val prefs: SharedPreferences) {
+
+    private val filterKey = context.getString(R.string.pref_key_default_sat_filter)
+    private val sortKey = context.getString(R.string.pref_key_default_sat_sort)
+
+    @Volatile
+    private var gnssFilterMask = INVALID
+
+    @Volatile
+    private var sortOrder = INVALID
+
+    @Volatile
+    private var gnssComparator: Comparator<SatelliteStatus>? = null
+
+    @Volatile
+    private var sbasComparator: Comparator<SatelliteStatus>? = null
+
+    val listener = SharedPreferences.OnSharedPreferenceChangeListener { _, key ->
+        when (key) {
+            filterKey -> gnssFilterMask = INVALID
+            sortKey -> sortOrder = INVALID
+        }
+    }
+
+    /**
+     * Returns the bitmask of GnssTypes that should be shown, with the bit for each GnssType at its
+     * ordinal. A value of 0 means no filter is set and all satellites are shown.
+     */
+    fun gnssFilterMask(): Int {
+        var mask = gnssFilterMask
+        if (mask == INVALID) {
+            mask = toMask(PreferenceUtils.gnssFilter(context, prefs))
+            gnssFilterMask = mask
+        }
+        return mask
+    }
+
+    /**
+     * Returns true if the user has set a filter so that only some GnssTypes are shown, false if
+     * all satellites are shown
+     */
+    fun isFilterActive(): Boolean {
+        return gnssFilterMask() != 0
+    }
+
+    /**
+     * Returns true if the provided [status] should be shown based on the user's filter
+     */
+    fun isShown(status: SatelliteStatus): Boolean {
+        return isShown(status.gnssType)
+    }
+
+    /**
+     * Returns true if satellites of the provided [gnssType] should be shown based on the user's filter
+     */
+    fun isShown(gnssType: GnssType): Boolean {
+        val mask = gnssFilterMask()
+        return mask == 0 || (mask and bit(gnssType)) != 0
+    }
+
+    /**
+     * Returns a set of GnssTypes that should have their satellites displayed (all are shown if empty)
+     */
+    fun gnssFilter(): Set<GnssType> {
+        val mask = gnssFilterMask()
+        val filter = EnumSet.noneOf(GnssType::class.java)
+        for (gnssType in GnssType.values()) {
+            if ((mask and bit(gnssType)) != 0) {
+                filter.add(gnssType)
+            }
+        }
+        return filter
+    }
+
+    /**
+     * Returns the currently selected satellite sort order as the index in R.array.sort_sats
+     */
+    fun sortOrder(): Int {
+        var order = sortOrder
+        if (order == INVALID) {
+            order = PreferenceUtils.getSatSortOrderFromPreferences(context, prefs)
+            gnssComparator = comparatorFor(order, true)
+            sbasComparator = comparatorFor(order, false)
+            sortOrder = order
+        }
+        return order
+    }
+
+    /**
+     * Returns the comparator for the currently selected sort order, with [isGnss] set to true for
+     * GNSS signals and false for SBAS signals, or null if the list shouldn't be re-ordered
+     */
+    fun comparator(isGnss: Boolean): Comparator<SatelliteStatus>? {
+        sortOrder()
+        return if (isGnss) gnssComparator else sbasComparator
+    }
+
+    /**
+     * Returns a sorted version of the provided [status] list according to the sort preference of
+     * the user, with [isGnss] set to true if the list contains all GNSS signals and false if
+     * it contains all SBAS signals
+     */
+    fun sort(status: List<SatelliteStatus>, isGnss: Boolean): List<SatelliteStatus> {
+        val comparator = comparator(isGnss) ?: return status
+        return status.sortedWith(comparator)
+    }
+
+    companion object {
+        private const val INVALID = -1
+
+        /**
+         * Returns the bit used for [gnssType] in a filter mask
+         */
+        fun bit(gnssType: GnssType): Int {
+            return 1 shl gnssType.ordinal
+        }
+
+        /**
+         * Returns the bit used for [sbasType] in an SBAS mask
+         */
+        fun bit(sbasType: SbasType): Int {
+            return 1 shl sbasType.ordinal
+        }
+
+        /**
+         * Converts the provided [filter] set to a bitmask of GnssType ordinals
+         */
+        fun toMask(filter: Set<GnssType>): Int {
+            var mask = 0
+            for (gnssType in filter) {
+                mask = mask or bit(gnssType)
+            }
+            return mask
+        }
+
+        /**
+         * Builds the comparator for the sort [order] (index in R.array.sort_sats), with [isGnss] set
+         * to true for GNSS signals and false for SBAS signals. Returns null if the order is unknown.
+         */
+        fun comparatorFor(order: Int, isGnss: Boolean): Comparator<SatelliteStatus>? {
+            return when (order) {
+                0 -> {
+                    // Sort by Constellation
+                    if (isGnss) {
+                        compareBy(SatelliteStatus::gnssType, SatelliteStatus::svid)
+                    } else {
+                        compareBy(SatelliteStatus::sbasType, SatelliteStatus::svid)
+                    }
+                }
+                1 -> {
+                    // Sort by Carrier Frequency (raw CF, then label to group L5s, E5a, etc.)
+                    compareBy<SatelliteStatus> {
+                        it.carrierFrequencyHz
+                    }.thenBy {
+                        getCarrierFrequencyLabel(it)
+                    }.thenBy {
+                        it.svid
+                    }
+                }
+                2 -> {
+                    // Sort by Signal Strength
+                    compareByDescending(SatelliteStatus::cn0DbHz)
+                }
+                3 -> {
+                    // Sort by Used in Fix
+                    compareByDescending(SatelliteStatus::usedInFix).thenComparing(
+                        SatelliteStatus::svid
+                    )
+                }
+                4 -> {
+                    // Sort by Constellation, Carrier Frequency
+                    if (isGnss) {
+                        compareBy(
+                            SatelliteStatus::gnssType,
+                            SatelliteStatus::carrierFrequencyHz,
+                            SatelliteStatus::svid
+                        )
+                    } else {
+                        compareBy(
+                            SatelliteStatus::sbasType,
+                            SatelliteStatus::carrierFrequencyHz,
+                            SatelliteStatus::svid
+                        )
+                    }
+                }
+                5 -> {
+                    // Sort by Constellation, Signal Strength
+                    if (isGnss) {
+                        compareBy(SatelliteStatus::gnssType).thenByDescending(
+                            SatelliteStatus::cn0DbHz
+                        )
+                    } else {
+                        compareBy(SatelliteStatus::sbasType).thenByDescending(
+                            SatelliteStatus::cn0DbHz
+                        )
+                    }
+                }
+                6 -> {
+                    // Sort by Constellation, Used in Fix
+                    if (isGnss) {
+                        compareBy(SatelliteStatus::gnssType).thenByDescending(
+                            SatelliteStatus::usedInFix
+                        ).thenComparing(SatelliteStatus::svid)
+                    } else {
+                        compareBy(SatelliteStatus::sbasType).thenByDescending(
+                            SatelliteStatus::usedInFix
+                        ).thenComparing(SatelliteStatus::svid)
+                    }
+                }
+                else -> null
+            }
+        }
+    }
+}
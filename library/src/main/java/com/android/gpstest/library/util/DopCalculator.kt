@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import com.android.gpstest.library.model.DilutionOfPrecision
+import com.android.gpstest.library.model.GnssType
+import com.android.gpstest.library.model.SatelliteStatus
+import com.android.gpstest.library.util.SatelliteUtil.toSatelliteId
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * Computes dilution of precision (DOP) from the geometry of the satellites used in the fix (their
+ * azimuth and elevation), so DOP is available on devices that don't output NMEA GSA sentences and
+ * can be broken down by constellation.
+ *
+ * Each satellite contributes a row [e, n, u, 1] to the geometry matrix H, where (e, n, u) is the
+ * east-north-up unit vector to the satellite, and DOPs come from the diagonal of (H^T H)^-1. Only
+ * the 10 unique sums of the normal matrix H^T H are accumulated for each constellation, so an update
+ * is one pass over the statuses with no allocations:
+ *  - [combined] - all constellations with one receiver clock, using a closed-form 4x4 inversion
+ *  - [constellation] - each constellation on its own, also with a 4x4 inversion
+ *  - [multiClock] - all constellations with one receiver clock per constellation (inter-system
+ *  biases estimated), using the Schur complement of the diagonal clock block to reduce the
+ *  (3 + constellations) square matrix to a 3x3 inversion
+ *
+ * Signals from the same satellite (e.g., L1 and L5) are only counted once, and SBAS satellites and
+ * satellites without an azimuth and elevation are ignored.
+ *
+ * This class isn't thread-safe and should only be used from the main thread.
+ */
+class DopCalculator {
+
+    /**
+     * DOP values for one solution, which are NaN if there aren't enough satellites or the geometry
+     * is degenerate
+     */
+    class Dop {
+        var gdop = Double.NaN
+            private set
+        var pdop = Double.NaN
+            private set
+        var hdop = Double.NaN
+            private set
+        var vdop = Double.NaN
+            private set
+
+        /**
+         * Time DOP - for [multiClock] this is the DOP of the clock of the first constellation, see
+         * [DopCalculator.multiClockTdop] for the others
+         */
+        var tdop = Double.NaN
+            private set
+
+        /**
+         * Number of satellites used to compute the DOP values
+         */
+        var numSatellites = 0
+            private set
+
+        val isValid: Boolean
+            get() = !pdop.isNaN()
+
+        internal fun set(numSatellites: Int, east: Double, north: Double, up: Double, time: Double, clocks: Double) {
+            this.numSatellites = numSatellites
+            if (east < 0 || north < 0 || up < 0 || time < 0 || east.isNaN() || north.isNaN() ||
+                up.isNaN() || time.isNaN()) {
+                clear(numSatellites)
+                return
+            }
+            hdop = sqrt(east + north)
+            vdop = sqrt(up)
+            pdop = sqrt(east + north + up)
+            tdop = sqrt(time)
+            gdop = sqrt(east + north + up + clocks)
+        }
+
+        internal fun clear(numSatellites: Int) {
+            this.numSatellites = numSatellites
+            gdop = Double.NaN
+            pdop = Double.NaN
+            hdop = Double.NaN
+            vdop = Double.NaN
+            tdop = Double.NaN
+        }
+
+        fun toDilutionOfPrecision(): DilutionOfPrecision = DilutionOfPrecision(pdop, hdop, vdop)
+    }
+
+    /**
+     * DOP of all constellations, with one receiver clock
+     */
+    val combined = Dop()
+
+    /**
+     * DOP of all constellations, with one receiver clock per constellation
+     */
+    val multiClock = Dop()
+
+    private val perConstellation = Array(GNSS_TYPES.size) { Dop() }
+
+    // TDOP of each constellation's clock in the multi-clock solution
+    private val multiClockTdops = DoubleArray(GNSS_TYPES.size) { Double.NaN }
+
+    // Normal matrix sums for each constellation, SUM_COUNT values per constellation
+    private val sums = DoubleArray(GNSS_TYPES.size * SUM_COUNT)
+
+    // Satellites seen in this update, to skip other signals from the same satellite
+    private var satelliteIds = LongArray(64)
+
+    /**
+     * Incremented each time DOP values are updated, so observers can skip work if nothing changed
+     */
+    var version = 0L
+        private set
+
+    /**
+     * Returns the DOP of [gnssType] satellites on their own
+     */
+    fun constellation(gnssType: GnssType): Dop = perConstellation[gnssType.ordinal]
+
+    /**
+     * Returns the TDOP of the [gnssType] clock in the [multiClock] solution, or NaN if it wasn't
+     * used
+     */
+    fun multiClockTdop(gnssType: GnssType): Double = multiClockTdops[gnssType.ordinal]
+
+    /**
+     * Updates the DOP values from the satellites in [statuses] that are used in the fix
+     * @return true if there were enough satellites to compute [combined]
+     */
+    fun update(statuses: List<SatelliteStatus>): Boolean {
+        sums.fill(0.0)
+        var numSatellites = 0
+        for (i in statuses.indices) {
+            val s = statuses[i]
+            if (!s.usedInFix || s.gnssType == GnssType.SBAS || s.gnssType == GnssType.UNKNOWN ||
+                (s.elevationDegrees == 0f && s.azimuthDegrees == 0f) ||
+                s.elevationDegrees.isNaN() || s.azimuthDegrees.isNaN()) {
+                continue
+            }
+            val id = s.toSatelliteId()
+            if (contains(id, numSatellites)) {
+                continue
+            }
+            if (numSatellites == satelliteIds.size) {
+                satelliteIds = satelliteIds.copyOf(numSatellites * 2)
+            }
+            satelliteIds[numSatellites++] = id
+            accumulate(s.gnssType.ordinal, s.azimuthDegrees.toDouble(), s.elevationDegrees.toDouble())
+        }
+        solve()
+        return combined.isValid
+    }
+
+    /**
+     * Adds a satellite at [azimuthDegrees] and [elevationDegrees] from constellation [gnssType]
+     * without going through [update] - call [solve] after adding all satellites. Call [clear]
+     * before the first satellite.
+     */
+    fun add(gnssType: GnssType, azimuthDegrees: Double, elevationDegrees: Double) {
+        accumulate(gnssType.ordinal, azimuthDegrees, elevationDegrees)
+    }
+
+    /**
+     * Removes all satellites added with [add]
+     */
+    fun clear() {
+        sums.fill(0.0)
+    }
+
+    /**
+     * Computes the DOP values from the satellites added with [add]
+     */
+    fun solve() {
+        // Single clock for all constellations - the combined sums are the sum of the sums
+        var see = 0.0; var sen = 0.0; var seu = 0.0; var se = 0.0
+        var snn = 0.0; var snu = 0.0; var sn = 0.0
+        var suu = 0.0; var su = 0.0; var count = 0.0
+        // Schur complement of the clock block for multiple clocks:
+        // S = sum(g g^T) - sum over constellations (s_c s_c^T / n_c)
+        var ree = 0.0; var ren = 0.0; var reu = 0.0
+        var rnn = 0.0; var rnu = 0.0; var ruu = 0.0
+        var clocks = 0
+        for (c in GNSS_TYPES.indices) {
+            val o = c * SUM_COUNT
+            val n = sums[o + COUNT]
+            if (n == 0.0) {
+                perConstellation[c].clear(0)
+                continue
+            }
+            solveSingleClock(
+                perConstellation[c],
+                sums[o + EE], sums[o + EN], sums[o + EU], sums[o + E],
+                sums[o + NN], sums[o + NU], sums[o + N],
+                sums[o + UU], sums[o + U], n
+            )
+            see += sums[o + EE]; sen += sums[o + EN]; seu += sums[o + EU]; se += sums[o + E]
+            snn += sums[o + NN]; snu += sums[o + NU]; sn += sums[o + N]
+            suu += sums[o + UU]; su += sums[o + U]; count += n
+            ree += sums[o + E] * sums[o + E] / n
+            ren += sums[o + E] * sums[o + N] / n
+            reu += sums[o + E] * sums[o + U] / n
+            rnn += sums[o + N] * sums[o + N] / n
+            rnu += sums[o + N] * sums[o + U] / n
+            ruu += sums[o + U] * sums[o + U] / n
+            clocks++
+        }
+        solveSingleClock(combined, see, sen, seu, se, snn, snu, sn, suu, su, count)
+        solveMultiClock(
+            count.toInt(), clocks,
+            see - ree, sen - ren, seu - reu, snn - rnn, snu - rnu, suu - ruu
+        )
+        version++
+    }
+
+    private fun contains(id: Long, count: Int): Boolean {
+        for (i in 0 until count) {
+            if (satelliteIds[i] == id) {
+                return true
+            }
+        }
+        return false
+    }
+
+    private fun accumulate(constellation: Int, azimuthDegrees: Double, elevationDegrees: Double) {
+        val az = Math.toRadians(azimuthDegrees)
+        val el = Math.toRadians(elevationDegrees)
+        val cosEl = cos(el)
+        val e = cosEl * sin(az)
+        val n = cosEl * cos(az)
+        val u = sin(el)
+        val o = constellation * SUM_COUNT
+        sums[o + EE] += e * e
+        sums[o + EN] += e * n
+        sums[o + EU] += e * u
+        sums[o + E] += e
+        sums[o + NN] += n * n
+        sums[o + NU] += n * u
+        sums[o + N] += n
+        sums[o + UU] += u * u
+        sums[o + U] += u
+        sums[o + COUNT] += 1.0
+    }
+
+    /**
+     * Sets [dop] from the symmetric 4x4 normal matrix with the given upper triangle, where the last
+     * row and column are the clock, by computing the diagonal of its inverse in closed form from
+     * 2x2 sub-determinants
+     */
+    private fun solveSingleClock(
+        dop: Dop,
+        a00: Double, a01: Double, a02: Double, a03: Double,
+        a11: Double, a12: Double, a13: Double,
+        a22: Double, a23: Double,
+        a33: Double
+    ) {
+        val numSatellites = a33.toInt()
+        if (numSatellites < 4) {
+            dop.clear(numSatellites)
+            return
+        }
+        // The matrix is symmetric, so a10 = a01, etc.
+        val s0 = a00 * a11 - a01 * a01
+        val s1 = a00 * a12 - a01 * a02
+        val s2 = a00 * a13 - a01 * a03
+        val s3 = a01 * a12 - a11 * a02
+        val s4 = a01 * a13 - a11 * a03
+        val c5 = a22 * a33 - a23 * a23
+        val c4 = a12 * a33 - a13 * a23
+        val c3 = a12 * a23 - a13 * a22
+        val c2 = a02 * a33 - a03 * a23
+        val c1 = a02 * a23 - a03 * a22
+        val c0 = a02 * a13 - a03 * a12
+        val s5 = a02 * a13 - a12 * a03
+        val det = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0
+        if (det <= MIN_DETERMINANT * numSatellites) {
+            dop.clear(numSatellites)
+            return
+        }
+        val east = (a11 * c5 - a12 * c4 + a13 * c3) / det
+        val north = (a00 * c5 - a02 * c2 + a03 * c1) / det
+        val up = (a03 * s4 - a13 * s2 + a33 * s0) / det
+        val time = (a02 * s3 - a12 * s1 + a22 * s0) / det
+        dop.set(numSatellites, east, north, up, time, time)
+    }
+
+    /**
+     * Sets [multiClock] from the Schur complement S of the clock block, with the given upper
+     * triangle. The position block of the inverse is S^-1, and the variance of clock c is
+     * 1/n_c + s_c^T S^-1 s_c / n_c^2.
+     */
+    private fun solveMultiClock(
+        numSatellites: Int, clocks: Int,
+        s00: Double, s01: Double, s02: Double, s11: Double, s12: Double, s22: Double
+    ) {
+        multiClockTdops.fill(Double.NaN)
+        if (clocks == 0 || numSatellites < 3 + clocks) {
+            multiClock.clear(numSatellites)
+            return
+        }
+        // Cofactors of the symmetric 3x3 matrix
+        val i00 = s11 * s22 - s12 * s12
+        val i01 = s02 * s12 - s01 * s22
+        val i02 = s01 * s12 - s02 * s11
+        val i11 = s00 * s22 - s02 * s02
+        val i12 = s01 * s02 - s00 * s12
+        val i22 = s00 * s11 - s01 * s01
+        val det = s00 * i00 + s01 * i01 + s02 * i02
+        if (det <= MIN_DETERMINANT * numSatellites) {
+            multiClock.clear(numSatellites)
+            return
+        }
+        var firstTime = Double.NaN
+        var clockSum = 0.0
+        for (c in GNSS_TYPES.indices) {
+            val o = c * SUM_COUNT
+            val n = sums[o + COUNT]
+            if (n == 0.0) {
+                continue
+            }
+            val e = sums[o + E]
+            val nn = sums[o + N]
+            val u = sums[o + U]
+            val quadratic = (e * (i00 * e + i01 * nn + i02 * u) +
+                    nn * (i01 * e + i11 * nn + i12 * u) +
+                    u * (i02 * e + i12 * nn + i22 * u)) / det
+            val time = 1.0 / n + quadratic / (n * n)
+            multiClockTdops[c] = sqrt(time)
+            clockSum += time
+            if (firstTime.isNaN()) {
+                firstTime = time
+            }
+        }
+        multiClock.set(numSatellites, i00 / det, i11 / det, i22 / det, firstTime, clockSum)
+    }
+
+    companion object {
+        private val GNSS_TYPES = GnssType.values()
+
+        // Offsets of the normal matrix sums for each constellation
+        private const val EE = 0
+        private const val EN = 1
+        private const val EU = 2
+        private const val E = 3
+        private const val NN = 4
+        private const val NU = 5
+        private const val N = 6
+        private const val UU = 7
+        private const val U = 8
+        private const val COUNT = 9
+        private const val SUM_COUNT = 10
+
+        /**
+         * Determinants below this (per satellite) are treated as singular geometry
+         */
+        private const val MIN_DETERMINANT = 1e-12
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.util.Log
+import com.android.gpstest.library.model.Ephemeris
+import com.android.gpstest.library.model.GlonassEphemeris
+import com.android.gpstest.library.model.KeplerEphemeris
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+
+/**
+ * In-memory cache of broadcast ephemerides keyed by satellite and issue of data (IODE), keeping
+ * the [maxPerSatellite] most recently decoded ephemerides of each satellite. [version] changes
+ * whenever an ephemeris is added or removed, so observers can tell when positions need to be
+ * computed again.
+ *
+ * If [file] isn't null the cache can be saved to it with [save] and read back with [load], so
+ * ephemerides decoded before a restart don't have to be decoded again. Ephemerides decoded more
+ * than [maxAgeMillis] ago aren't loaded.
+ *
+ * This class is thread-safe so it can be saved and loaded off the main thread.
+ */
+class EphemerisCache @JvmOverloads constructor(
+    private val file: File? = null,
+    private val maxPerSatellite: Int = DEFAULT_MAX_PER_SATELLITE,
+    private val maxAgeMillis: Long = DEFAULT_MAX_AGE_MILLIS
+) {
+
+    init {
+        require(maxPerSatellite > 0) { "maxPerSatellite must be > 0" }
+    }
+
+    // Ephemerides of each satellite, from the oldest to the most recently decoded
+    private val satellites = HashMap<Int, ArrayList<Ephemeris>>()
+
+    private var savedVersion = 0
+
+    /**
+     * Incremented whenever the contents of the cache change
+     */
+    @get:Synchronized
+    var version = 0
+        private set
+
+    /**
+     * Total number of ephemerides in the cache
+     */
+    @get:Synchronized
+    var size = 0
+        private set
+
+    /**
+     * Adds [ephemeris], replacing an ephemeris of the same satellite and IODE. Returns false if
+     * the cache already holds a more recently decoded ephemeris with the same satellite and IODE.
+     */
+    @Synchronized
+    fun put(ephemeris: Ephemeris): Boolean {
+        val list = satellites.getOrPut(key(ephemeris.constellationType, ephemeris.svid)) {
+            ArrayList(maxPerSatellite + 1)
+        }
+        for (i in list.indices) {
+            if (list[i].iode == ephemeris.iode) {
+                if (list[i].decodedTimeMillis > ephemeris.decodedTimeMillis) return false
+                list.removeAt(i)
+                size--
+                break
+            }
+        }
+        // Keep the list ordered by decoding time, which may not be the order ephemerides are put
+        // in when the saved cache is loaded after decoding started
+        var index = list.size
+        while (index > 0 && list[index - 1].decodedTimeMillis > ephemeris.decodedTimeMillis) {
+            index--
+        }
+        list.add(index, ephemeris)
+        size++
+        if (list.size > maxPerSatellite) {
+            list.removeAt(0)
+            size--
+        }
+        version++
+        return true
+    }
+
+    /**
+     * Returns the ephemeris of the satellite with the given IODE, or null if it isn't in the cache
+     */
+    @Synchronized
+    operator fun get(constellationType: Int, svid: Int, iode: Int): Ephemeris? {
+        return satellites[key(constellationType, svid)]?.firstOrNull { it.iode == iode }
+    }
+
+    /**
+     * Returns the most recently decoded ephemeris of the satellite, or null if there is none
+     */
+    @Synchronized
+    fun latest(constellationType: Int, svid: Int): Ephemeris? {
+        return satellites[key(constellationType, svid)]?.lastOrNull()
+    }
+
+    /**
+     * Returns the ephemerides in the cache, ordered by satellite from the oldest to the most
+     * recently decoded
+     */
+    @Synchronized
+    fun all(): List<Ephemeris> {
+        val result = ArrayList<Ephemeris>(size)
+        for (list in satellites.values) {
+            result.addAll(list)
+        }
+        return result
+    }
+
+    /**
+     * Removes the ephemerides decoded before [timeMillis], returning the number removed
+     */
+    @Synchronized
+    fun removeDecodedBefore(timeMillis: Long): Int {
+        var removed = 0
+        for (list in satellites.values) {
+            while (list.isNotEmpty() && list[0].decodedTimeMillis < timeMillis) {
+                list.removeAt(0)
+                removed++
+            }
+        }
+        if (removed > 0) {
+            size -= removed
+            version++
+        }
+        return removed
+    }
+
+    @Synchronized
+    fun clear() {
+        if (size > 0) {
+            satellites.clear()
+            size = 0
+            version++
+        }
+    }
+
+    /**
+     * Writes the cache to [file] if it changed since it was last saved or loaded. Returns true if
+     * the file is up to date.
+     */
+    @Synchronized
+    fun save(): Boolean {
+        val file = file ?: return false
+        if (version == savedVersion && file.exists()) return true
+        // Write to a temporary file first so a crash can't leave a partial cache behind
+        val temp = File(file.path + ".tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(temp))).use { out ->
+                write(out, all())
+            }
+            if (!temp.renameTo(file)) {
+                throw IOException("Can't rename $temp to $file")
+            }
+            savedVersion = version
+            return true
+        } catch (e: IOException) {
+            Log.e(TAG, "Can't save ephemerides to $file: $e")
+            temp.delete()
+            return false
+        }
+    }
+
+    /**
+     * Adds the ephemerides in [file] that were decoded less than [maxAgeMillis] before
+     * [nowMillis], returning the number added
+     */
+    @JvmOverloads
+    @Synchronized
+    fun load(nowMillis: Long = System.currentTimeMillis()): Int {
+        val file = file ?: return 0
+        if (!file.exists()) return 0
+        val loaded = try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { read(it) }
+        } catch (e: IOException) {
+            Log.e(TAG, "Can't load ephemerides from $file: $e")
+            return 0
+        }
+        val wasSaved = version == savedVersion
+        var count = 0
+        for (ephemeris in loaded) {
+            if (nowMillis - ephemeris.decodedTimeMillis <= maxAgeMillis && put(ephemeris)) {
+                count++
+            }
+        }
+        if (wasSaved) {
+            // Everything loaded is already in the file
+            savedVersion = version
+        }
+        return count
+    }
+
+    companion object {
+        const val TAG = "EphemerisCache"
+
+        const val DEFAULT_MAX_PER_SATELLITE = 3
+
+        // Broadcast ephemerides are fit for a few hours around their reference time
+        const val DEFAULT_MAX_AGE_MILLIS = 4 * 60 * 60 * 1000L
+
+        private const val FILE_MAGIC = 0x45504831 // "EPH1"
+        private const val FORMAT_VERSION = 1
+        private const val KIND_KEPLER = 0
+        private const val KIND_GLONASS = 1
+
+        private fun key(constellationType: Int, svid: Int): Int = (constellationType shl 16) or (svid and 0xFFFF)
+
+        /**
+         * Writes [ephemerides] to [out] in the format read by [read]
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun write(out: DataOutputStream, ephemerides: List<Ephemeris>) {
+            out.writeInt(FILE_MAGIC)
+            out.writeInt(FORMAT_VERSION)
+            out.writeInt(ephemerides.size)
+            for (e in ephemerides) {
+                when (e) {
+                    is KeplerEphemeris -> {
+                        out.writeByte(KIND_KEPLER)
+                        out.writeInt(e.constellationType)
+                        out.writeInt(e.svid)
+                        out.writeInt(e.iode)
+                        out.writeInt(e.iodc)
+                        out.writeInt(e.week)
+                        for (value in doubleArrayOf(
+                            e.toe, e.toc, e.sqrtA, e.eccentricity, e.i0, e.omega0, e.omega, e.m0,
+                            e.deltaN, e.omegaDot, e.iDot, e.cuc, e.cus, e.crc, e.crs, e.cic, e.cis,
+                            e.af0, e.af1, e.af2, e.tgd
+                        )) {
+                            out.writeDouble(value)
+                        }
+                        out.writeInt(e.accuracyIndex)
+                        out.writeInt(e.health)
+                        out.writeInt(e.source)
+                        out.writeLong(e.decodedTimeMillis)
+                    }
+                    is GlonassEphemeris -> {
+                        out.writeByte(KIND_GLONASS)
+                        out.writeInt(e.svid)
+                        out.writeInt(e.iode)
+                        out.writeInt(e.dayNumber)
+                        for (value in doubleArrayOf(
+                            e.tb, e.tk, e.x, e.y, e.z, e.vx, e.vy, e.vz, e.ax, e.ay, e.az,
+                            e.tauN, e.gammaN
+                        )) {
+                            out.writeDouble(value)
+                        }
+                        out.writeInt(e.ageDays)
+                        out.writeInt(e.health)
+                        out.writeLong(e.decodedTimeMillis)
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reads ephemerides written by [write] from [input]
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun read(input: DataInputStream): List<Ephemeris> {
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FORMAT_VERSION) {
+                throw IOException("Not an ephemeris cache, or written by another version")
+            }
+            val count = input.readInt()
+            if (count < 0) throw IOException("Bad ephemeris count $count")
+            val result = ArrayList<Ephemeris>(minOf(count, 1024))
+            repeat(count) {
+                result.add(
+                    when (val kind = input.readByte().toInt()) {
+                        KIND_KEPLER -> KeplerEphemeris(
+                            constellationType = input.readInt(),
+                            svid = input.readInt(),
+                            iode = input.readInt(),
+                            iodc = input.readInt(),
+                            week = input.readInt(),
+                            toe = input.readDouble(),
+                            toc = input.readDouble(),
+                            sqrtA = input.readDouble(),
+                            eccentricity = input.readDouble(),
+                            i0 = input.readDouble(),
+                            omega0 = input.readDouble(),
+                            omega = input.readDouble(),
+                            m0 = input.readDouble(),
+                            deltaN = input.readDouble(),
+                            omegaDot = input.readDouble(),
+                            iDot = input.readDouble(),
+                            cuc = input.readDouble(),
+                            cus = input.readDouble(),
+                            crc = input.readDouble(),
+                            crs = input.readDouble(),
+                            cic = input.readDouble(),
+                            cis = input.readDouble(),
+                            af0 = input.readDouble(),
+                            af1 = input.readDouble(),
+                            af2 = input.readDouble(),
+                            tgd = input.readDouble(),
+                            accuracyIndex = input.readInt(),
+                            health = input.readInt(),
+                            source = input.readInt(),
+                            decodedTimeMillis = input.readLong()
+                        )
+                        KIND_GLONASS -> GlonassEphemeris(
+                            svid = input.readInt(),
+                            iode = input.readInt(),
+                            dayNumber = input.readInt(),
+                            tb = input.readDouble(),
+                            tk = input.readDouble(),
+                            x = input.readDouble(),
+                            y = input.readDouble(),
+                            z = input.readDouble(),
+                            vx = input.readDouble(),
+                            vy = input.readDouble(),
+                            vz = input.readDouble(),
+                            ax = input.readDouble(),
+                            ay = input.readDouble(),
+                            az = input.readDouble(),
+                            tauN = input.readDouble(),
+                            gammaN = input.readDouble(),
+                            ageDays = input.readInt(),
+                            health = input.readInt(),
+                            decodedTimeMillis = input.readLong()
+                        )
+                        else -> throw IOException("Unknown ephemeris kind $kind")
+                    }
+                )
+            }
+            return result
+        }
+    }
+}
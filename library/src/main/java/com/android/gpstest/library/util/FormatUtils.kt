@@ -319,6 +319,36 @@ object FormatUtils {
         return clock.toLog(elapsedRealtime) + "," + measurement.toLog(elapsedRealtimeNanos)
     }
 
+    /**
+     * Converts signal [i] of [epoch] and its carrier-smoothed pseudorange from [filter] (updated
+     * with [epoch]) to a CSV format:
+     * Smoothed,utcTimeMillis,TimeNanos,Svid,ConstellationType,CarrierFrequencyHz,PseudorangeMeters,SmoothedPseudorangeMeters,SmoothingCount
+     */
+    @JvmStatic
+    fun toLog(epoch: PseudorangeCalculator.Epoch, filter: HatchFilter, i: Int): String {
+        val carrierFrequencyHz = epoch.carrierFrequencyHz(i)
+        return "Smoothed,${epoch.utcTimeMillis},${epoch.timeNanos},${epoch.svid(i)}," +
+                "${epoch.constellationType(i)}," +
+                "${if (carrierFrequencyHz.isNaN()) "" else carrierFrequencyHz.toLog()}," +
+                "${epoch.pseudorangeMeters(i).toLog()}," +
+                "${filter.smoothedPseudorangeMeters(i).toLog()}," +
+                "${filter.smoothingCount(i)}"
+    }
+
+    /**
+     * Converts the break in the carrier phase arc of signal [i] of [epoch] found by [detector]
+     * (updated with [epoch]) to a CSV format:
+     * CycleSlip,utcTimeMillis,TimeNanos,Svid,ConstellationType,CarrierFrequencyHz,Breaks,EndedArcEpochs,SlipCount
+     */
+    @JvmStatic
+    fun toLog(epoch: PseudorangeCalculator.Epoch, detector: CycleSlipDetector, i: Int): String {
+        val carrierFrequencyHz = epoch.carrierFrequencyHz(i)
+        return "CycleSlip,${epoch.utcTimeMillis},${epoch.timeNanos},${epoch.svid(i)}," +
+                "${epoch.constellationType(i)}," +
+                "${if (carrierFrequencyHz.isNaN()) "" else carrierFrequencyHz.toLog()}," +
+                "${detector.breaks(i)},${detector.endedArcLength(i)},${detector.slipCount(i)}"
+    }
+
     /**
      * Returns the following format:
      * Raw,utcTimeMillis,TimeNanos,LeapSecond,TimeUncertaintyNanos,FullBiasNanos,BiasNanos,BiasUncertaintyNanos,DriftNanosPerSecond,DriftUncertaintyNanosPerSecond,HardwareClockDiscontinuityCount
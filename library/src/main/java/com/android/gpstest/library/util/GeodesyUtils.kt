@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import kotlin.math.abs
+import kotlin.math.asin
+import kotlin.math.atan
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.hypot
+import kotlin.math.sin
+import kotlin.math.sqrt
+import kotlin.math.tan
+
+/**
+ * Geodesy on the WGS84 ellipsoid that doesn't depend on android.location, so it can be used in JVM
+ * unit tests and batch tools - distances and bearings (haversine and Vincenty), and conversions
+ * between geodetic (latitude, longitude, altitude), ECEF and local east/north/up (ENU) coordinates.
+ *
+ * Angles are in degrees and distances are in meters. Functions that return more than one value
+ * write them to an `out` array, and the batch functions work over primitive columns, so none of
+ * them allocate.
+ */
+object GeodesyUtils {
+
+    /**
+     * WGS84 semi-major axis in meters
+     */
+    const val WGS84_A = 6378137.0
+
+    /**
+     * WGS84 flattening
+     */
+    const val WGS84_F = 1 / 298.257223563
+
+    /**
+     * WGS84 semi-minor axis in meters
+     */
+    const val WGS84_B = WGS84_A * (1 - WGS84_F)
+
+    /**
+     * WGS84 first eccentricity squared
+     */
+    const val WGS84_E2 = WGS84_F * (2 - WGS84_F)
+
+    /**
+     * Mean Earth radius (IUGG) in meters, used for spherical (haversine) calculations
+     */
+    const val MEAN_EARTH_RADIUS = 6371008.8
+
+    private const val VINCENTY_MAX_ITERATIONS = 20
+
+    private const val VINCENTY_TOLERANCE = 1.0e-12
+
+    /**
+     * Returns the great-circle distance between two points on a sphere with the mean Earth radius.
+     * Faster than [distance] but can be off by up to ~0.5%.
+     */
+    @JvmStatic
+    fun haversineDistance(lat1: Double, lon1: Double, lat2: Double, lon2: Double): Double {
+        val phi1 = Math.toRadians(lat1)
+        val phi2 = Math.toRadians(lat2)
+        val sinDLat = sin((phi2 - phi1) / 2)
+        val sinDLon = sin(Math.toRadians(lon2 - lon1) / 2)
+        val h = sinDLat * sinDLat + cos(phi1) * cos(phi2) * sinDLon * sinDLon
+        return 2 * MEAN_EARTH_RADIUS * asin(sqrt(h.coerceAtMost(1.0)))
+    }
+
+    /**
+     * Returns the distance between two points on the WGS84 ellipsoid using Vincenty's inverse
+     * formula, the same method as android.location.Location.distanceTo()
+     */
+    @JvmStatic
+    fun distance(lat1: Double, lon1: Double, lat2: Double, lon2: Double): Double {
+        return vincenty(lat1, lon1, lat2, lon2, null, 0)
+    }
+
+    /**
+     * Returns the initial bearing in degrees [0, 360) from the first point to the second point on
+     * the WGS84 ellipsoid using Vincenty's inverse formula, like
+     * android.location.Location.bearingTo() (which returns (-180, 180])
+     */
+    @JvmStatic
+    fun bearing(lat1: Double, lon1: Double, lat2: Double, lon2: Double): Double {
+        val bearings = BEARINGS.get()!!
+        vincenty(lat1, lon1, lat2, lon2, bearings, 0)
+        return bearings[0]
+    }
+
+    /**
+     * Computes the distance and bearings between two points on the WGS84 ellipsoid using Vincenty's
+     * inverse formula and writes them to [out] - out[0] is the distance, out[1] is the initial
+     * bearing and out[2] is the final bearing, both in degrees [0, 360)
+     */
+    @JvmStatic
+    fun distanceAndBearing(lat1: Double, lon1: Double, lat2: Double, lon2: Double, out: DoubleArray) {
+        out[0] = vincenty(lat1, lon1, lat2, lon2, out, 1)
+    }
+
+    // Scratch space for bearing(), so it doesn't allocate
+    private val BEARINGS = object : ThreadLocal<DoubleArray>() {
+        override fun initialValue() = DoubleArray(2)
+    }
+
+    /**
+     * Vincenty's inverse formula. Returns the distance, and writes the initial and final bearings
+     * in degrees [0, 360) to bearings[offset] and bearings[offset + 1] if [bearings] isn't null.
+     */
+    private fun vincenty(
+        lat1: Double, lon1: Double, lat2: Double, lon2: Double,
+        bearings: DoubleArray?, offset: Int
+    ): Double {
+        val l = Math.toRadians(lon2 - lon1)
+        val u1 = atan((1 - WGS84_F) * tan(Math.toRadians(lat1)))
+        val u2 = atan((1 - WGS84_F) * tan(Math.toRadians(lat2)))
+        val sinU1 = sin(u1)
+        val cosU1 = cos(u1)
+        val sinU2 = sin(u2)
+        val cosU2 = cos(u2)
+
+        var lambda = l
+        var sinLambda = 0.0
+        var cosLambda = 0.0
+        var sinSigma = 0.0
+        var cosSigma = 0.0
+        var sigma = 0.0
+        var cosSqAlpha = 0.0
+        var cos2SigmaM = 0.0
+        for (i in 0 until VINCENTY_MAX_ITERATIONS) {
+            sinLambda = sin(lambda)
+            cosLambda = cos(lambda)
+            val t1 = cosU2 * sinLambda
+            val t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda
+            sinSigma = sqrt(t1 * t1 + t2 * t2)
+            if (sinSigma == 0.0) {
+                // Coincident points
+                if (bearings != null) {
+                    bearings[offset] = 0.0
+                    bearings[offset + 1] = 0.0
+                }
+                return 0.0
+            }
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda
+            sigma = atan2(sinSigma, cosSigma)
+            val sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma
+            cosSqAlpha = 1 - sinAlpha * sinAlpha
+            // cosSqAlpha is 0 for points on the equator
+            cos2SigmaM = if (cosSqAlpha == 0.0) 0.0 else cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha
+            val c = WGS84_F / 16 * cosSqAlpha * (4 + WGS84_F * (4 - 3 * cosSqAlpha))
+            val lambdaPrev = lambda
+            lambda = l + (1 - c) * WGS84_F * sinAlpha *
+                    (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)))
+            if (abs(lambda - lambdaPrev) < VINCENTY_TOLERANCE) {
+                break
+            }
+        }
+
+        val uSq = cosSqAlpha * (WGS84_A * WGS84_A - WGS84_B * WGS84_B) / (WGS84_B * WGS84_B)
+        val a = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)))
+        val b = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)))
+        val deltaSigma = b * sinSigma * (cos2SigmaM + b / 4 *
+                (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM) -
+                        b / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)))
+
+        if (bearings != null) {
+            bearings[offset] = normalizeDegrees(Math.toDegrees(
+                atan2(cosU2 * sinLambda, cosU1 * sinU2 - sinU1 * cosU2 * cosLambda)))
+            bearings[offset + 1] = normalizeDegrees(Math.toDegrees(
+                atan2(cosU1 * sinLambda, -sinU1 * cosU2 + cosU1 * sinU2 * cosLambda)))
+        }
+        return WGS84_B * a * (sigma - deltaSigma)
+    }
+
+    /**
+     * Converts geodetic coordinates to ECEF and writes x, y, z in meters to out[0..2]
+     */
+    @JvmStatic
+    fun geodeticToEcef(lat: Double, lon: Double, alt: Double, out: DoubleArray) {
+        val phi = Math.toRadians(lat)
+        val lambda = Math.toRadians(lon)
+        val sinPhi = sin(phi)
+        val cosPhi = cos(phi)
+        val n = WGS84_A / sqrt(1 - WGS84_E2 * sinPhi * sinPhi)
+        out[0] = (n + alt) * cosPhi * cos(lambda)
+        out[1] = (n + alt) * cosPhi * sin(lambda)
+        out[2] = (n * (1 - WGS84_E2) + alt) * sinPhi
+    }
+
+    /**
+     * Converts ECEF coordinates in meters to geodetic coordinates and writes latitude, longitude
+     * and altitude to out[0..2], iterating until the latitude converges (sub-millimeter for points
+     * near the Earth's surface)
+     */
+    @JvmStatic
+    fun ecefToGeodetic(x: Double, y: Double, z: Double, out: DoubleArray) {
+        val p = hypot(x, y)
+        val lon = atan2(y, x)
+        if (p < 1.0e-9) {
+            // On the polar axis
+            out[0] = if (z >= 0) 90.0 else -90.0
+            out[1] = 0.0
+            out[2] = abs(z) - WGS84_B
+            return
+        }
+        var phi = atan2(z, p * (1 - WGS84_E2))
+        var alt = 0.0
+        for (i in 0 until 10) {
+            val sinPhi = sin(phi)
+            val n = WGS84_A / sqrt(1 - WGS84_E2 * sinPhi * sinPhi)
+            alt = p / cos(phi) - n
+            val phiPrev = phi
+            phi = atan2(z, p * (1 - WGS84_E2 * n / (n + alt)))
+            if (abs(phi - phiPrev) < 1.0e-14) {
+                break
+            }
+        }
+        val sinPhi = sin(phi)
+        val n = WGS84_A / sqrt(1 - WGS84_E2 * sinPhi * sinPhi)
+        out[0] = Math.toDegrees(phi)
+        out[1] = Math.toDegrees(lon)
+        out[2] = p / cos(phi) - n
+    }
+
+    /**
+     * Rotates the ECEF vector ([dx], [dy], [dz]) into the local east/north/up frame at [refLat],
+     * [refLon] and writes east, north, up to out[0..2]
+     */
+    @JvmStatic
+    fun ecefVectorToEnu(dx: Double, dy: Double, dz: Double, refLat: Double, refLon: Double, out: DoubleArray) {
+        val phi = Math.toRadians(refLat)
+        val lambda = Math.toRadians(refLon)
+        val sinPhi = sin(phi)
+        val cosPhi = cos(phi)
+        val sinLambda = sin(lambda)
+        val cosLambda = cos(lambda)
+        val east = -sinLambda * dx + cosLambda * dy
+        val north = -sinPhi * cosLambda * dx - sinPhi * sinLambda * dy + cosPhi * dz
+        val up = cosPhi * cosLambda * dx + cosPhi * sinLambda * dy + sinPhi * dz
+        out[0] = east
+        out[1] = north
+        out[2] = up
+    }
+
+    /**
+     * Rotates the local east/north/up vector at [refLat], [refLon] into ECEF and writes dx, dy, dz
+     * to out[0..2]
+     */
+    @JvmStatic
+    fun enuToEcefVector(east: Double, north: Double, up: Double, refLat: Double, refLon: Double, out: DoubleArray) {
+        val phi = Math.toRadians(refLat)
+        val lambda = Math.toRadians(refLon)
+        val sinPhi = sin(phi)
+        val cosPhi = cos(phi)
+        val sinLambda = sin(lambda)
+        val cosLambda = cos(lambda)
+        out[0] = -sinLambda * east - sinPhi * cosLambda * north + cosPhi * cosLambda * up
+        out[1] = cosLambda * east - sinPhi * sinLambda * north + cosPhi * sinLambda * up
+        out[2] = cosPhi * north + sinPhi * up
+    }
+
+    /**
+     * Converts geodetic coordinates to east/north/up in meters relative to the reference point
+     * [refLat], [refLon], [refAlt] and writes them to out[0..2]
+     */
+    @JvmStatic
+    fun geodeticToEnu(
+        lat: Double, lon: Double, alt: Double,
+        refLat: Double, refLon: Double, refAlt: Double,
+        out: DoubleArray
+    ) {
+        geodeticToEcef(refLat, refLon, refAlt, out)
+        val rx = out[0]
+        val ry = out[1]
+        val rz = out[2]
+        geodeticToEcef(lat, lon, alt, out)
+        ecefVectorToEnu(out[0] - rx, out[1] - ry, out[2] - rz, refLat, refLon, out)
+    }
+
+    /**
+     * Converts east/north/up in meters relative to the reference point [refLat], [refLon], [refAlt]
+     * to geodetic coordinates and writes latitude, longitude and altitude to out[0..2]
+     */
+    @JvmStatic
+    fun enuToGeodetic(
+        east: Double, north: Double, up: Double,
+        refLat: Double, refLon: Double, refAlt: Double,
+        out: DoubleArray
+    ) {
+        enuToEcefVector(east, north, up, refLat, refLon, out)
+        val dx = out[0]
+        val dy = out[1]
+        val dz = out[2]
+        geodeticToEcef(refLat, refLon, refAlt, out)
+        ecefToGeodetic(out[0] + dx, out[1] + dy, out[2] + dz, out)
+    }
+
+    /**
+     * Writes the Vincenty distance from ([refLat], [refLon]) to each point ([lats], [lons]) in
+     * [from] until [to] to the same index of [out]
+     */
+    @JvmStatic
+    fun distances(
+        lats: DoubleArray, lons: DoubleArray,
+        refLat: Double, refLon: Double,
+        out: DoubleArray, from: Int = 0, to: Int = lats.size
+    ) {
+        for (i in from until to) {
+            out[i] = vincenty(refLat, refLon, lats[i], lons[i], null, 0)
+        }
+    }
+
+    /**
+     * Writes the haversine distance from ([refLat], [refLon]) to each point ([lats], [lons]) in
+     * [from] until [to] to the same index of [out]
+     */
+    @JvmStatic
+    fun haversineDistances(
+        lats: DoubleArray, lons: DoubleArray,
+        refLat: Double, refLon: Double,
+        out: DoubleArray, from: Int = 0, to: Int = lats.size
+    ) {
+        for (i in from until to) {
+            out[i] = haversineDistance(refLat, refLon, lats[i], lons[i])
+        }
+    }
+
+    /**
+     * Converts each point ([lats], [lons], [alts]) in [from] until [to] to east/north/up relative
+     * to [refLat], [refLon], [refAlt] and writes them to the same index of [east], [north] and
+     * [up]. NaN altitudes are treated as 0.
+     */
+    @JvmStatic
+    fun geodeticToEnu(
+        lats: DoubleArray, lons: DoubleArray, alts: DoubleArray,
+        refLat: Double, refLon: Double, refAlt: Double,
+        east: DoubleArray, north: DoubleArray, up: DoubleArray,
+        from: Int = 0, to: Int = lats.size
+    ) {
+        val refPhi = Math.toRadians(refLat)
+        val refLambda = Math.toRadians(refLon)
+        val sinRefPhi = sin(refPhi)
+        val cosRefPhi = cos(refPhi)
+        val sinRefLambda = sin(refLambda)
+        val cosRefLambda = cos(refLambda)
+        val refN = WGS84_A / sqrt(1 - WGS84_E2 * sinRefPhi * sinRefPhi)
+        val rx = (refN + refAlt) * cosRefPhi * cosRefLambda
+        val ry = (refN + refAlt) * cosRefPhi * sinRefLambda
+        val rz = (refN * (1 - WGS84_E2) + refAlt) * sinRefPhi
+        for (i in from until to) {
+            val alt = if (alts[i].isNaN()) 0.0 else alts[i]
+            val phi = Math.toRadians(lats[i])
+            val lambda = Math.toRadians(lons[i])
+            val sinPhi = sin(phi)
+            val cosPhi = cos(phi)
+            val n = WGS84_A / sqrt(1 - WGS84_E2 * sinPhi * sinPhi)
+            val dx = (n + alt) * cosPhi * cos(lambda) - rx
+            val dy = (n + alt) * cosPhi * sin(lambda) - ry
+            val dz = (n * (1 - WGS84_E2) + alt) * sinPhi - rz
+            east[i] = -sinRefLambda * dx + cosRefLambda * dy
+            north[i] = -sinRefPhi * cosRefLambda * dx - sinRefPhi * sinRefLambda * dy + cosRefPhi * dz
+            up[i] = cosRefPhi * cosRefLambda * dx + cosRefPhi * sinRefLambda * dy + sinRefPhi * dz
+        }
+    }
+
+    private fun normalizeDegrees(degrees: Double): Double {
+        val normalized = degrees % 360.0
+        return if (normalized < 0) normalized + 360.0 else normalized
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.location.GnssMeasurement
+import kotlin.math.abs
+import kotlin.math.min
+
+/**
+ * Smooths the pseudoranges of each signal with its accumulated delta range (carrier phase) using a
+ * Hatch filter. The carrier phase is far less noisy than the code, so the change in phase between
+ * epochs is used to carry the previous smoothed pseudorange forward, and each new pseudorange is
+ * averaged in with a weight of 1 / n, where n grows by one each epoch up to [maxWindow].
+ *
+ * The filter of a signal starts again from its raw pseudorange when its accumulated delta range
+ * isn't valid, is reset or has a cycle slip, when the signal is missing for more than
+ * [maxGapNanos], or when the smoothed pseudorange drifts more than [maxDivergenceMeters] from the
+ * raw one (a cycle slip the receiver didn't flag). All filters start again when the receiver's
+ * hardware clock has a discontinuity.
+ *
+ * The state of each signal (identified by [signalId]) is kept in primitive arrays in an
+ * open-addressing hash table, and the outputs are columns indexed like the signals of the
+ * [PseudorangeCalculator.Epoch] given to [update], so an update doesn't allocate once the table
+ * and columns are big enough. Signals that haven't been seen for [maxGapNanos] are dropped when
+ * the table fills up.
+ *
+ * This class isn't thread-safe - use an instance from one thread at a time.
+ */
+class HatchFilter @JvmOverloads constructor(
+    val maxWindow: Int = DEFAULT_MAX_WINDOW,
+    private val maxGapNanos: Long = DEFAULT_MAX_GAP_NANOS,
+    private val maxDivergenceMeters: Double = DEFAULT_MAX_DIVERGENCE_METERS,
+    capacity: Int = DEFAULT_CAPACITY
+) {
+    init {
+        require(maxWindow > 0) { "Invalid window" }
+    }
+
+    // Per-signal state, in a hash table with linear probing (size is a power of 2)
+    private var keys = LongArray(tableSize(capacity)) { EMPTY }
+    private var states = DoubleArray(keys.size)
+    private var lastAdrs = DoubleArray(keys.size)
+    private var counts = IntArray(keys.size)
+    private var lastTimes = LongArray(keys.size)
+    private var used = 0
+
+    // Outputs, by signal index in the epoch
+    private var smoothed = DoubleArray(capacity.coerceAtLeast(1))
+    private var windows = IntArray(smoothed.size)
+
+    private var discontinuityCount = 0
+    private var hasEpoch = false
+
+    /**
+     * Number of signals in the last epoch
+     */
+    var size = 0
+        private set
+
+    /**
+     * Number of signals whose filter started again in the last epoch (other than new signals)
+     */
+    var resetCount = 0
+        private set
+
+    /**
+     * Smoothed pseudorange of signal [i] of the last epoch, in meters
+     */
+    fun smoothedPseudorangeMeters(i: Int): Double = smoothed[i]
+
+    /**
+     * Number of epochs averaged into the smoothed pseudorange of signal [i] of the last epoch -
+     * 1 when it's the raw pseudorange
+     */
+    fun smoothingCount(i: Int): Int = windows[i]
+
+    /**
+     * Smooths all the signals of [epoch] in one pass. The outputs are indexed like the signals of
+     * [epoch] until the next update.
+     */
+    fun update(epoch: PseudorangeCalculator.Epoch) {
+        if (hasEpoch && epoch.hardwareClockDiscontinuityCount != discontinuityCount) {
+            clear()
+        }
+        hasEpoch = true
+        discontinuityCount = epoch.hardwareClockDiscontinuityCount
+        val timeNanos = epoch.timeNanos
+        size = epoch.size
+        resetCount = 0
+        if (smoothed.size < size) {
+            smoothed = DoubleArray(size)
+            windows = IntArray(size)
+        }
+        if ((used + size) * 2 > keys.size) {
+            rehash(timeNanos, used + size)
+        }
+
+        for (i in 0 until size) {
+            val pseudorange = epoch.pseudorangeMeters(i)
+            val adr = epoch.accumulatedDeltaRangeMeters(i)
+            val state = epoch.accumulatedDeltaRangeState(i)
+            val valid = (state and GnssMeasurement.ADR_STATE_VALID) != 0 && !adr.isNaN()
+            val continuous = valid && (state and ADR_RESET_FLAGS) == 0
+            val slot = slot(signalId(epoch.constellationType(i), epoch.svid(i), epoch.carrierFrequencyHz(i)))
+            val n = counts[slot]
+            var estimate = pseudorange
+            var count = 1
+            if (n > 0 && continuous &&
+                timeNanos - lastTimes[slot] in 1..maxGapNanos) {
+                count = min(n + 1, maxWindow)
+                val predicted = states[slot] + adr - lastAdrs[slot]
+                estimate = pseudorange / count + predicted * (count - 1) / count
+                if (abs(estimate - pseudorange) > maxDivergenceMeters) {
+                    estimate = pseudorange
+                    count = 1
+                }
+            }
+            if (count == 1 && n > 0) {
+                resetCount++
+            }
+            if (valid) {
+                // The phase after a reset or cycle slip is where the next epoch carries on from
+                states[slot] = estimate
+                lastAdrs[slot] = adr
+                counts[slot] = count
+            } else {
+                // Nothing to carry forward to the next epoch
+                counts[slot] = 0
+            }
+            lastTimes[slot] = timeNanos
+            smoothed[i] = estimate
+            windows[i] = count
+        }
+    }
+
+    /**
+     * Forgets the state of all signals
+     */
+    fun clear() {
+        keys.fill(EMPTY)
+        counts.fill(0)
+        used = 0
+        size = 0
+    }
+
+    /**
+     * Returns the slot of [key] in the table, adding it if it isn't there
+     */
+    private fun slot(key: Long): Int {
+        val mask = keys.size - 1
+        var slot = hash(key) and mask
+        while (true) {
+            val k = keys[slot]
+            if (k == key) return slot
+            if (k == EMPTY) {
+                keys[slot] = key
+                counts[slot] = 0
+                lastTimes[slot] = Long.MIN_VALUE
+                used++
+                return slot
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Rebuilds the table without the signals that haven't been seen for [maxGapNanos] before
+     * [timeNanos], growing it if it can't hold [needed] signals at half full
+     */
+    private fun rehash(timeNanos: Long, needed: Int) {
+        val oldKeys = keys
+        val oldStates = states
+        val oldAdrs = lastAdrs
+        val oldCounts = counts
+        val oldTimes = lastTimes
+        var live = 0
+        for (j in oldKeys.indices) {
+            if (oldKeys[j] != EMPTY && timeNanos - oldTimes[j] <= maxGapNanos) live++
+        }
+        val tableSize = tableSize(maxOf(needed - used + live, live))
+        keys = LongArray(tableSize) { EMPTY }
+        states = DoubleArray(tableSize)
+        lastAdrs = DoubleArray(tableSize)
+        counts = IntArray(tableSize)
+        lastTimes = LongArray(tableSize)
+        used = 0
+        for (j in oldKeys.indices) {
+            if (oldKeys[j] == EMPTY || timeNanos - oldTimes[j] > maxGapNanos) continue
+            val slot = slot(oldKeys[j])
+            states[slot] = oldStates[j]
+            lastAdrs[slot] = oldAdrs[j]
+            counts[slot] = oldCounts[j]
+            lastTimes[slot] = oldTimes[j]
+        }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_WINDOW = 100
+        const val DEFAULT_MAX_GAP_NANOS = 5_000_000_000L
+        const val DEFAULT_MAX_DIVERGENCE_METERS = 50.0
+        const val DEFAULT_CAPACITY = 64
+
+        private const val EMPTY = -1L
+        private const val ADR_RESET_FLAGS =
+            GnssMeasurement.ADR_STATE_RESET or GnssMeasurement.ADR_STATE_CYCLE_SLIP
+
+        /**
+         * Returns an ID for the signal of [svid] in [constellationType] on [carrierFrequencyHz]
+         * (NaN if unknown), packed as the constellation type in bits 48-63, svid in bits 32-47 and
+         * the carrier frequency in kHz in bits 0-31
+         */
+        @JvmStatic
+        fun signalId(constellationType: Int, svid: Int, carrierFrequencyHz: Double): Long {
+            val frequencyKhz = if (carrierFrequencyHz.isNaN()) 0L else Math.round(carrierFrequencyHz / 1000.0)
+            return ((constellationType.toLong() and 0x7FFFL) shl 48) or
+                    ((svid.toLong() and 0xFFFFL) shl 32) or
+                    (frequencyKhz and 0xFFFFFFFFL)
+        }
+
+        private fun tableSize(signals: Int): Int {
+            var size = 16
+            while (size < signals * 2) size = size shl 1
+            return size
+        }
+
+        private fun hash(key: Long): Int {
+            val h = key * -0x61c8864680b583ebL
+            return (h xor (h ushr 32)).toInt()
+        }
+    }
+}
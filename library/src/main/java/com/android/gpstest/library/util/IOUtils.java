@@ -113,6 +113,25 @@ public class IOUtils {
         return groundTruth;
     }
 
+    /**
+     * Returns the URI of a ground truth route (CSV text that can be read by
+     * TrajectoryGroundTruth.fromCsv()) if the provided Intent has a SHOW_RADAR action
+     * (com.google.android.radar.SHOW_RADAR) with a trajectory extra, or null if it doesn't
+     *
+     * @param intent Intent possibly containing the SHOW_RADAR action
+     * @return the URI of a ground truth route, or null if the Intent doesn't have one
+     */
+    public static android.net.Uri getTrajectoryUriFromIntent(Context context, Intent intent) {
+        if (!isShowRadarIntent(context, intent)) {
+            return null;
+        }
+        String trajectory = intent.getStringExtra(context.getString(R.string.radar_trajectory_key));
+        if (TextUtils.isEmpty(trajectory)) {
+            return null;
+        }
+        return android.net.Uri.parse(trajectory);
+    }
+
     /**
      * Returns true if the provided intent has the SHOW_RADAR action (com.google.android.radar.SHOW_RADAR), or false if it does not
      *
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import com.android.gpstest.library.model.SatelliteStatus
+import com.android.gpstest.library.util.SatelliteUtil.toSignalId
+
+/**
+ * Sorts lists of [SatelliteStatus] that are received once per GnssStatus update. The order of
+ * signals rarely changes between consecutive updates (C/N0 drifts and used-in-fix occasionally
+ * flips), so the list is first arranged into the order of the previous update and then repaired
+ * with an insertion sort, which runs in close to linear time when only a few signals move. A full
+ * sort is only done when the comparator changes (e.g., the user picks a new sort order).
+ *
+ * The position of each signal in the previous sorted list is kept in an open-addressing hash table
+ * of primitive arrays, and the working arrays are reused, so a sort doesn't allocate beyond its
+ * [Result] once they are big enough.
+ *
+ * Separate instances should be used for each list that is sorted (e.g., GNSS and SBAS).
+ */
+class IncrementalSorter {
+
+    // Position of each signal (keyed by SatelliteUtil.toSignalId()) in the previous sorted list,
+    // in a hash table with linear probing (size is a power of 2)
+    private var keys = LongArray(tableSize(0)) { EMPTY }
+    private var positions = IntArray(keys.size)
+
+    // Working arrays, by index in the list being sorted
+    private var ids = LongArray(0)
+    private var ranks = IntArray(0)
+    private var order = IntArray(0)
+    private var slots = IntArray(0)
+    private var movedFlags = BooleanArray(0)
+
+    private var previousComparator: Comparator<SatelliteStatus>? = null
+
+    /**
+     * Result of a sort. [sorted] is the sorted list, [previousPositions] holds the position of each
+     * element of [sorted] in the previously sorted list (or [NEW] if it wasn't in that list), and
+     * [moved] contains the signal IDs (see SatelliteUtil.toSignalId()) of the signals that changed
+     * order relative to their neighbors.
+     */
+    class Result(
+        val sorted: List<SatelliteStatus>,
+        val previousPositions: IntArray,
+        val moved: Set<Long>
+    )
+
+    /**
+     * Sorts the provided [status] list using [comparator], starting from the order produced by the
+     * previous call. If [comparator] is null the list order is kept as provided.
+     */
+    fun sort(status: List<SatelliteStatus>, comparator: Comparator<SatelliteStatus>?): Result {
+        val size = status.size
+        if (ids.size < size) {
+            ids = LongArray(size)
+            ranks = IntArray(size)
+            order = IntArray(size)
+            movedFlags = BooleanArray(size)
+        }
+        var previousSize = 0
+        for (i in 0 until size) {
+            ids[i] = status[i].toSignalId()
+            // Take it out so duplicate signals in the same update are treated as new
+            ranks[i] = takePosition(ids[i])
+            if (ranks[i] >= previousSize) {
+                previousSize = ranks[i] + 1
+            }
+            movedFlags[i] = false
+        }
+
+        // Arrange indices into the order of the previous update, with new signals at the end
+        if (slots.size < previousSize) {
+            slots = IntArray(previousSize)
+        }
+        slots.fill(NEW, 0, previousSize)
+        for (i in 0 until size) {
+            if (ranks[i] != NEW) {
+                slots[ranks[i]] = i
+            }
+        }
+        var count = 0
+        for (k in 0 until previousSize) {
+            if (slots[k] != NEW) {
+                order[count++] = slots[k]
+            }
+        }
+        for (i in 0 until size) {
+            if (ranks[i] == NEW) {
+                order[count++] = i
+            }
+        }
+
+        var fullSort = false
+        if (comparator == null) {
+            for (i in 0 until size) {
+                order[i] = i
+            }
+        } else if (comparator !== previousComparator) {
+            // Sort order changed - nothing to reuse, so do a full (stable) sort
+            val sorted = order.copyOf(size).sortedWith { a, b -> comparator.compare(status[a], status[b]) }
+            for (i in 0 until size) {
+                order[i] = sorted[i]
+            }
+            fullSort = true
+        } else {
+            insertionSort(status, size, comparator)
+        }
+        previousComparator = comparator
+
+        val sorted = ArrayList<SatelliteStatus>(size)
+        val previousPositions = IntArray(size)
+        var movedCount = 0
+        clearPositions(size)
+        for (position in 0 until size) {
+            val index = order[position]
+            sorted.add(status[index])
+            previousPositions[position] = ranks[index]
+            if (fullSort && ranks[index] != NEW && ranks[index] != position) {
+                movedFlags[index] = true
+            }
+            if (movedFlags[index]) movedCount++
+            putPosition(ids[index], position)
+        }
+
+        // Nothing moves in most updates, so only build a set when something did
+        val moved: Set<Long> = if (movedCount == 0) {
+            emptySet()
+        } else {
+            val set = HashSet<Long>(movedCount * 2)
+            for (i in 0 until size) {
+                if (movedFlags[i]) set.add(ids[i])
+            }
+            set
+        }
+        return Result(sorted, previousPositions, moved)
+    }
+
+    /**
+     * Forgets the order of the previous update, so the next call to sort() does a full sort
+     */
+    fun reset() {
+        clearPositions(0)
+        previousComparator = null
+    }
+
+    /**
+     * Stable insertion sort of the first [size] indices in [order] into [status] using
+     * [comparator]. Elements that are shifted ahead of others are flagged in [movedFlags].
+     */
+    private fun insertionSort(
+        status: List<SatelliteStatus>,
+        size: Int,
+        comparator: Comparator<SatelliteStatus>
+    ) {
+        for (i in 1 until size) {
+            val index = order[i]
+            val current = status[index]
+            var j = i - 1
+            while (j >= 0 && comparator.compare(status[order[j]], current) > 0) {
+                order[j + 1] = order[j]
+                j--
+            }
+            if (j + 1 != i) {
+                order[j + 1] = index
+                movedFlags[index] = true
+            }
+        }
+    }
+
+    /**
+     * Returns the position of [id] in the previous sorted list and removes it from the table, or
+     * returns [NEW] if it wasn't there (or was already taken)
+     */
+    private fun takePosition(id: Long): Int {
+        val mask = keys.size - 1
+        var slot = hash(id) and mask
+        while (true) {
+            val k = keys[slot]
+            if (k == EMPTY) return NEW
+            if (k == id) {
+                val position = positions[slot]
+                // Leave the key in place so probing for other keys still works
+                positions[slot] = NEW
+                return position
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Sets the position of [id] in the sorted list, replacing an earlier position of a duplicate
+     */
+    private fun putPosition(id: Long, position: Int) {
+        val mask = keys.size - 1
+        var slot = hash(id) and mask
+        while (keys[slot] != EMPTY && keys[slot] != id) {
+            slot = (slot + 1) and mask
+        }
+        keys[slot] = id
+        positions[slot] = position
+    }
+
+    /**
+     * Empties the table, growing it if it can't hold [signals] at half full
+     */
+    private fun clearPositions(signals: Int) {
+        val tableSize = tableSize(signals)
+        if (keys.size < tableSize) {
+            keys = LongArray(tableSize)
+            positions = IntArray(tableSize)
+        }
+        keys.fill(EMPTY)
+    }
+
+    companion object {
+        /**
+         * Value in [Result.previousPositions] for signals that weren't in the previous update
+         */
+        const val NEW = -1
+
+        private const val EMPTY = -1L
+
+        private fun tableSize(signals: Int): Int {
+            var size = 16
+            while (size < signals * 2) size = size shl 1
+            return size
+        }
+
+        private fun hash(key: Long): Int {
+            val h = key * -0x61c8864680b583ebL
+            return (h xor (h ushr 32)).toInt()
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.location.Location
+import android.os.Build
+import android.util.Log
+import com.android.gpstest.library.model.MeasuredError
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * History of the fixes and measured errors from an accuracy benchmark, stored as columns of
+ * primitives instead of a list of Location objects so a session of many hours stays small.
+ *
+ * Fixes are stored in chunks of [chunkSize]. At most [maxChunksInMemory] chunks are kept on the
+ * heap - when another chunk is needed the oldest one is written to [spillFile], which is memory
+ * mapped so it can still be read, and its arrays are reused. If [spillFile] is null (or can't be
+ * written) the oldest chunk is dropped instead, and [firstIndex] moves forward.
+ *
+ * Fixes are indexed by the total number of fixes added, so index i is available while
+ * [firstIndex] <= i < [size]. This class isn't thread-safe and should only be used from the main
+ * thread.
+ */
+class LocationErrorHistory @JvmOverloads constructor(
+    private val spillFile: File? = null,
+    private val maxChunksInMemory: Int = DEFAULT_MAX_CHUNKS_IN_MEMORY,
+    private val chunkSize: Int = DEFAULT_CHUNK_SIZE
+) : Closeable {
+
+    init {
+        require(maxChunksInMemory > 0) { "maxChunksInMemory must be > 0" }
+        require(chunkSize > 0) { "chunkSize must be > 0" }
+    }
+
+    /**
+     * Chunks from oldest to newest. Spilled chunks come before the chunks on the heap.
+     */
+    private val chunks = ArrayList<Chunk>()
+
+    private var droppedChunks = 0L
+
+    private var heapChunks = 0
+
+    private var channel: FileChannel? = null
+
+    private var spillFailed = false
+
+    /**
+     * Total number of fixes added
+     */
+    var size = 0L
+        private set
+
+    /**
+     * Index of the oldest fix that is still available
+     */
+    val firstIndex: Long
+        get() = droppedChunks * chunkSize
+
+    /**
+     * Adds the [location] and the [error] measured for it
+     */
+    fun add(location: Location, error: MeasuredError) {
+        val vertAccuracy = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O &&
+            location.hasVerticalAccuracy()) {
+            location.verticalAccuracyMeters
+        } else {
+            Float.NaN
+        }
+        add(
+            location.time,
+            location.latitude,
+            location.longitude,
+            if (location.hasAltitude()) location.altitude else Double.NaN,
+            if (location.hasAccuracy()) location.accuracy else Float.NaN,
+            vertAccuracy,
+            error.error,
+            error.vertError,
+            error.alongTrackError.toFloat(),
+            error.crossTrackError.toFloat()
+        )
+    }
+
+    /**
+     * Adds a fix. Missing values should be NaN.
+     */
+    @JvmOverloads
+    fun add(
+        timeMillis: Long,
+        latitude: Double,
+        longitude: Double,
+        altitude: Double,
+        horAccuracy: Float,
+        vertAccuracy: Float,
+        error: Float,
+        vertError: Double,
+        alongTrackError: Float = Float.NaN,
+        crossTrackError: Float = Float.NaN
+    ) {
+        val offset = (size % chunkSize).toInt()
+        if (offset == 0) {
+            chunks.add(newHeapChunk())
+        }
+        val chunk = chunks[chunks.size - 1] as HeapChunk
+        chunk.timesMillis[offset] = timeMillis
+        chunk.latitudes[offset] = latitude
+        chunk.longitudes[offset] = longitude
+        chunk.altitudes[offset] = altitude
+        chunk.horAccuracies[offset] = horAccuracy
+        chunk.vertAccuracies[offset] = vertAccuracy
+        chunk.errors[offset] = error
+        chunk.vertErrors[offset] = vertError
+        chunk.alongTrackErrors[offset] = alongTrackError
+        chunk.crossTrackErrors[offset] = crossTrackError
+        size++
+    }
+
+    fun timeMillis(index: Long): Long = chunk(index).timeMillis(offset(index))
+
+    /**
+     * Returns the (fractional) index of a fix at [timeMillis], interpolated between the times of
+     * the fixes before and after it, or extrapolated from the interval between the last two fixes
+     * if it's after the last fix. This places fixes from another source (e.g., computed from raw
+     * measurements) on the same axis as the fixes in this history. Returns NaN if [timeMillis] is
+     * before the oldest available fix. Times must not decrease as fixes are added.
+     */
+    fun indexAt(timeMillis: Long): Double {
+        if (size == firstIndex || timeMillis < timeMillis(firstIndex)) {
+            return Double.NaN
+        }
+        // Last fix at or before timeMillis
+        var low = firstIndex
+        var high = size - 1
+        while (low < high) {
+            val mid = (low + high + 1) ushr 1
+            if (timeMillis(mid) <= timeMillis) low = mid else high = mid - 1
+        }
+        val time = timeMillis(low)
+        val interval = when {
+            low + 1 < size -> timeMillis(low + 1) - time
+            low > firstIndex -> time - timeMillis(low - 1)
+            else -> 0L
+        }
+        return if (interval > 0) low + (timeMillis - time).toDouble() / interval else low.toDouble()
+    }
+
+    /**
+     * Returns the index of the oldest available fix at or after [timeMillis], or [size] if there's
+     * no such fix. Times must not decrease as fixes are added.
+     */
+    fun firstIndexAtOrAfter(timeMillis: Long): Long {
+        var low = firstIndex
+        var high = size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (timeMillis(mid) < timeMillis) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    fun latitude(index: Long): Double = chunk(index).latitude(offset(index))
+
+    fun longitude(index: Long): Double = chunk(index).longitude(offset(index))
+
+    /**
+     * Altitude in meters, or NaN if the fix didn't have an altitude
+     */
+    fun altitude(index: Long): Double = chunk(index).altitude(offset(index))
+
+    /**
+     * Estimated horizontal accuracy in meters, or NaN if the fix didn't have one
+     */
+    fun horAccuracy(index: Long): Float = chunk(index).horAccuracy(offset(index))
+
+    /**
+     * Estimated vertical accuracy in meters, or NaN if the fix didn't have one
+     */
+    fun vertAccuracy(index: Long): Float = chunk(index).vertAccuracy(offset(index))
+
+    /**
+     * Measured horizontal error in meters
+     */
+    fun error(index: Long): Float = chunk(index).error(offset(index))
+
+    /**
+     * Measured vertical error in meters, or NaN if it couldn't be measured
+     */
+    fun vertError(index: Long): Double = chunk(index).vertError(offset(index))
+
+    /**
+     * Measured along-track error in meters (see TrajectoryGroundTruth), or NaN if the fix wasn't
+     * measured against a trajectory or was outside its times
+     */
+    fun alongTrackError(index: Long): Float = chunk(index).alongTrackError(offset(index))
+
+    /**
+     * Measured cross-track error in meters (see TrajectoryGroundTruth), or NaN if the fix wasn't
+     * measured against a trajectory
+     */
+    fun crossTrackError(index: Long): Float = chunk(index).crossTrackError(offset(index))
+
+    /**
+     * Removes all fixes and deletes the spill file
+     */
+    fun reset() {
+        close()
+        chunks.clear()
+        droppedChunks = 0
+        heapChunks = 0
+        size = 0
+        spillFailed = false
+    }
+
+    /**
+     * Closes and deletes the spill file. Spilled fixes are no longer available after this is
+     * called, but fixes on the heap are, and new fixes can still be added.
+     */
+    override fun close() {
+        val c = channel ?: return
+        channel = null
+        try {
+            c.close()
+        } catch (e: IOException) {
+            Log.e(TAG, "Error closing spill file: $e")
+        }
+        // Drop the spilled chunks along with the file
+        while (chunks.isNotEmpty() && chunks[0] is MappedChunk) {
+            chunks.removeAt(0)
+            droppedChunks++
+        }
+        spillFile?.delete()
+    }
+
+    private fun chunk(index: Long): Chunk {
+        if (index < firstIndex || index >= size) {
+            throw IndexOutOfBoundsException("Index $index not in [$firstIndex, $size)")
+        }
+        return chunks[(index / chunkSize - droppedChunks).toInt()]
+    }
+
+    private fun offset(index: Long): Int = (index % chunkSize).toInt()
+
+    /**
+     * Returns an empty chunk on the heap, reusing the arrays of the oldest heap chunk if
+     * [maxChunksInMemory] has been reached
+     */
+    private fun newHeapChunk(): HeapChunk {
+        if (heapChunks < maxChunksInMemory) {
+            heapChunks++
+            return HeapChunk(chunkSize)
+        }
+        val oldestIndex = chunks.size - heapChunks
+        val oldest = chunks[oldestIndex] as HeapChunk
+        val mapped = spill(oldest, droppedChunks + oldestIndex)
+        if (mapped != null) {
+            chunks[oldestIndex] = mapped
+        } else {
+            // Drop any chunks that were already spilled so the remaining fixes are contiguous,
+            // which leaves the oldest heap chunk first
+            close()
+            chunks.removeAt(0)
+            droppedChunks++
+        }
+        return oldest
+    }
+
+    /**
+     * Writes [chunk], the [chunkNumber]th chunk since the history was created, to the spill file
+     * and returns a chunk that reads it back from the file, or null if it couldn't be written
+     */
+    private fun spill(chunk: HeapChunk, chunkNumber: Long): MappedChunk? {
+        if (spillFile == null || spillFailed) {
+            return null
+        }
+        return try {
+            val c = channel ?: RandomAccessFile(spillFile, "rw").channel.also {
+                it.truncate(0)
+                channel = it
+            }
+            val buffer = c.map(
+                FileChannel.MapMode.READ_WRITE,
+                (chunkNumber - droppedChunks) * chunkSize * BYTES_PER_FIX,
+                chunkSize.toLong() * BYTES_PER_FIX
+            )
+            chunk.writeTo(buffer)
+            MappedChunk(buffer, chunkSize)
+        } catch (e: IOException) {
+            Log.e(TAG, "Can't write benchmark history to $spillFile, dropping old fixes: $e")
+            spillFailed = true
+            null
+        }
+    }
+
+    private interface Chunk {
+        fun timeMillis(offset: Int): Long
+        fun latitude(offset: Int): Double
+        fun longitude(offset: Int): Double
+        fun altitude(offset: Int): Double
+        fun horAccuracy(offset: Int): Float
+        fun vertAccuracy(offset: Int): Float
+        fun error(offset: Int): Float
+        fun vertError(offset: Int): Double
+        fun alongTrackError(offset: Int): Float
+        fun crossTrackError(offset: Int): Float
+    }
+
+    private class HeapChunk(size: Int) : Chunk {
+        val timesMillis = LongArray(size)
+        val latitudes = DoubleArray(size)
+        val longitudes = DoubleArray(size)
+        val altitudes = DoubleArray(size)
+        val horAccuracies = FloatArray(size)
+        val vertAccuracies = FloatArray(size)
+        val errors = FloatArray(size)
+        val vertErrors = DoubleArray(size)
+        val alongTrackErrors = FloatArray(size)
+        val crossTrackErrors = FloatArray(size)
+
+        override fun timeMillis(offset: Int) = timesMillis[offset]
+        override fun latitude(offset: Int) = latitudes[offset]
+        override fun longitude(offset: Int) = longitudes[offset]
+        override fun altitude(offset: Int) = altitudes[offset]
+        override fun horAccuracy(offset: Int) = horAccuracies[offset]
+        override fun vertAccuracy(offset: Int) = vertAccuracies[offset]
+        override fun error(offset: Int) = errors[offset]
+        override fun vertError(offset: Int) = vertErrors[offset]
+        override fun alongTrackError(offset: Int) = alongTrackErrors[offset]
+        override fun crossTrackError(offset: Int) = crossTrackErrors[offset]
+
+        /**
+         * Writes each column one after another, in the same order as the columns of MappedChunk
+         */
+        fun writeTo(buffer: ByteBuffer) {
+            buffer.asLongBuffer().put(timesMillis)
+            var position = timesMillis.size * 8
+            for (column in arrayOf(latitudes, longitudes, altitudes)) {
+                buffer.position(position)
+                buffer.asDoubleBuffer().put(column)
+                position += column.size * 8
+            }
+            for (column in arrayOf(horAccuracies, vertAccuracies, errors)) {
+                buffer.position(position)
+                buffer.asFloatBuffer().put(column)
+                position += column.size * 4
+            }
+            buffer.position(position)
+            buffer.asDoubleBuffer().put(vertErrors)
+            position += vertErrors.size * 8
+            for (column in arrayOf(alongTrackErrors, crossTrackErrors)) {
+                buffer.position(position)
+                buffer.asFloatBuffer().put(column)
+                position += column.size * 4
+            }
+            buffer.position(0)
+        }
+    }
+
+    private class MappedChunk(private val buffer: ByteBuffer, private val size: Int) : Chunk {
+        override fun timeMillis(offset: Int) = buffer.getLong(offset * 8)
+        override fun latitude(offset: Int) = buffer.getDouble(size * 8 + offset * 8)
+        override fun longitude(offset: Int) = buffer.getDouble(size * 16 + offset * 8)
+        override fun altitude(offset: Int) = buffer.getDouble(size * 24 + offset * 8)
+        override fun horAccuracy(offset: Int) = buffer.getFloat(size * 32 + offset * 4)
+        override fun vertAccuracy(offset: Int) = buffer.getFloat(size * 36 + offset * 4)
+        override fun error(offset: Int) = buffer.getFloat(size * 40 + offset * 4)
+        override fun vertError(offset: Int) = buffer.getDouble(size * 44 + offset * 8)
+        override fun alongTrackError(offset: Int) = buffer.getFloat(size * 52 + offset * 4)
+        override fun crossTrackError(offset: Int) = buffer.getFloat(size * 56 + offset * 4)
+    }
+
+    companion object {
+        const val TAG = "LocationErrorHistory"
+
+        /**
+         * Size of one fix in the spill file - time, lat, lon, alt and vertical error as 8 bytes
+         * and the two accuracies, horizontal, along-track and cross-track error as 4 bytes
+         */
+        private const val BYTES_PER_FIX = 60L
+
+        /**
+         * Default number of fixes in each chunk - around 17 minutes of 1 Hz fixes
+         */
+        const val DEFAULT_CHUNK_SIZE = 1024
+
+        /**
+         * Default number of chunks kept on the heap (~240 KB)
+         */
+        const val DEFAULT_MAX_CHUNKS_IN_MEMORY = 4
+    }
+}
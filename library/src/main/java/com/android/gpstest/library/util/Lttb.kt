@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling (Steinarsson, 2013), which picks the points of a
+ * series that best keep its visual shape so long series can be charted with a fixed number of
+ * points. The x value of each point is its index, which is how the benchmark charts are laid out.
+ */
+object Lttb {
+
+    /**
+     * The y values of a series, by index. NaN values are missing points and are never selected.
+     */
+    fun interface Series {
+        fun y(index: Long): Double
+    }
+
+    /**
+     * Selects at most [threshold] points of [series] between [start] (inclusive) and [end]
+     * (exclusive) and writes their indices, in increasing order, to [out], which must hold at
+     * least [threshold] values. The first and last points that aren't missing are always
+     * selected. If there are no more than [threshold] points all points that aren't missing are
+     * selected.
+     *
+     * @return the number of indices written to [out]
+     */
+    @JvmStatic
+    fun downsample(series: Series, start: Long, end: Long, threshold: Int, out: LongArray): Int {
+        require(threshold >= 3) { "threshold must be >= 3" }
+        require(out.size >= threshold) { "out must hold at least threshold values" }
+
+        // Trim missing points from each end so the first and last points are real
+        var first = start
+        while (first < end && series.y(first).isNaN()) {
+            first++
+        }
+        var last = end - 1
+        while (last > first && series.y(last).isNaN()) {
+            last--
+        }
+        if (first >= end) {
+            return 0
+        }
+
+        var count = 0
+        if (last - first + 1 <= threshold) {
+            for (i in first..last) {
+                if (!series.y(i).isNaN()) {
+                    out[count++] = i
+                }
+            }
+            return count
+        }
+
+        // Points between first and last are split into threshold - 2 buckets, and the point in
+        // each bucket that makes the largest triangle with the point selected from the previous
+        // bucket and the average of the next bucket is selected
+        val bucketSize = (last - first - 1).toDouble() / (threshold - 2)
+        var a = first
+        var ay = series.y(a)
+        out[count++] = a
+        for (bucket in 0 until threshold - 2) {
+            val bucketStart = first + 1 + (bucket * bucketSize).toLong()
+            val bucketEnd = first + 1 + ((bucket + 1) * bucketSize).toLong()
+
+            // Average of the next bucket, or the last point for the last bucket
+            val nextEnd = if (bucket == threshold - 3) {
+                last + 1
+            } else {
+                first + 1 + ((bucket + 2) * bucketSize).toLong()
+            }
+            var sumX = 0.0
+            var sumY = 0.0
+            var n = 0
+            for (i in bucketEnd until nextEnd) {
+                val y = series.y(i)
+                if (!y.isNaN()) {
+                    sumX += i
+                    sumY += y
+                    n++
+                }
+            }
+            val avgX: Double
+            val avgY: Double
+            if (n > 0) {
+                avgX = sumX / n
+                avgY = sumY / n
+            } else {
+                // Whole bucket is missing - aim at the middle of it at the same height
+                avgX = (bucketEnd + nextEnd) / 2.0
+                avgY = ay
+            }
+
+            var maxArea = -1.0
+            var selected = -1L
+            var selectedY = Double.NaN
+            for (i in bucketStart until bucketEnd) {
+                val y = series.y(i)
+                if (y.isNaN()) {
+                    continue
+                }
+                // Twice the triangle area, which doesn't change which point is largest
+                val area = Math.abs((a - avgX) * (y - ay) - (a - i) * (avgY - ay))
+                if (area > maxArea) {
+                    maxArea = area
+                    selected = i
+                    selectedY = y
+                }
+            }
+            if (selected >= 0) {
+                out[count++] = selected
+                a = selected
+                ay = selectedY
+            }
+        }
+        out[count++] = last
+        return count
+    }
+}
@@ -0,0 +1,586 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.location.GnssNavigationMessage
+import android.location.GnssStatus
+import com.android.gpstest.library.model.Ephemeris
+import com.android.gpstest.library.model.GlonassEphemeris
+import com.android.gpstest.library.model.KeplerEphemeris
+
+/**
+ * Decodes broadcast ephemerides from the raw bits of navigation messages - GPS and QZSS LNAV
+ * subframes 1-3, Galileo I/NAV words 1-5 and F/NAV pages 1-4, BeiDou D1 subframes 1-3 and D2
+ * subframe 1 pages, and GLONASS strings 1-4 - and adds them to [cache].
+ *
+ * Messages are collected per satellite until a complete ephemeris with a consistent issue of data
+ * has been received. Each ephemeris is only decoded once - messages repeating the last decoded
+ * issue of data are ignored. Only messages that passed the parity check (or were rebuilt) by the
+ * GNSS chipset are used, and Galileo pages are also checked against their CRC. The data bits of
+ * GPS and BeiDou words are used as reported by the chipset, which resolves their polarity.
+ *
+ * This class isn't thread-safe - messages should be decoded by one thread (or coroutine) at a time.
+ */
+class NavMessageDecoder(val cache: EphemerisCache) {
+
+    // Messages received per satellite and message type, found by a linear search of their keys so
+    // looking them up doesn't box the key - there are at most a few hundred
+    private var partialKeys = IntArray(INITIAL_PARTIALS)
+    private var partials = arrayOfNulls<Partial>(INITIAL_PARTIALS)
+    private var partialCount = 0
+
+    // 128 bit I/NAV word assembled from the even and odd page parts
+    private val inavWord = ByteArray(16)
+
+    /**
+     * Number of messages rejected because of the parity status, length, CRC or format
+     */
+    var rejectedCount = 0
+        private set
+
+    /**
+     * Decodes [message], returning an ephemeris if it completed one, which is also added to [cache]
+     */
+    @JvmOverloads
+    fun decode(message: GnssNavigationMessage, timeMillis: Long = System.currentTimeMillis()): Ephemeris? {
+        return decode(message.type, message.svid, message.messageId, message.status, message.data, timeMillis)
+    }
+
+    /**
+     * Decodes the [data] of a navigation message with the given GnssNavigationMessage [type],
+     * [svid], [messageId] and [status], returning an ephemeris if it completed one, which is also
+     * added to [cache]
+     */
+    fun decode(type: Int, svid: Int, messageId: Int, status: Int, data: ByteArray, timeMillis: Long): Ephemeris? {
+        if ((status and (GnssNavigationMessage.STATUS_PARITY_PASSED or GnssNavigationMessage.STATUS_PARITY_REBUILT)) == 0) {
+            rejectedCount++
+            return null
+        }
+        val ephemeris = when (type) {
+            GnssNavigationMessage.TYPE_GPS_L1CA, GnssNavigationMessage.TYPE_QZS_L1CA ->
+                decodeLnav(type, svid, data, timeMillis)
+            GnssNavigationMessage.TYPE_GAL_I -> decodeInav(svid, data, timeMillis)
+            GnssNavigationMessage.TYPE_GAL_F -> decodeFnav(svid, data, timeMillis)
+            GnssNavigationMessage.TYPE_BDS_D1 -> decodeD1(svid, data, timeMillis)
+            GnssNavigationMessage.TYPE_BDS_D2 -> decodeD2(svid, data, timeMillis)
+            GnssNavigationMessage.TYPE_GLO_L1CA -> decodeGlonass(svid, messageId, data, timeMillis)
+            else -> null
+        }
+        if (ephemeris != null) {
+            cache.put(ephemeris)
+        }
+        return ephemeris
+    }
+
+    /**
+     * Forgets the messages collected so far, e.g. after a gap in reception
+     */
+    fun clear() {
+        partials.fill(null)
+        partialCount = 0
+    }
+
+    private fun partial(type: Int, svid: Int, count: Int): Partial {
+        val key = (type shl 16) or (svid and 0xFFFF)
+        for (i in 0 until partialCount) {
+            if (partialKeys[i] == key) return partials[i]!!
+        }
+        if (partialCount == partialKeys.size) {
+            partialKeys = partialKeys.copyOf(partialCount * 2)
+            partials = partials.copyOf(partialCount * 2)
+        }
+        val p = Partial(count)
+        partialKeys[partialCount] = key
+        partials[partialCount++] = p
+        return p
+    }
+
+    private fun reject(): Ephemeris? {
+        rejectedCount++
+        return null
+    }
+
+    /**
+     * GPS and QZSS LNAV subframes 1-3 (IS-GPS-200 20.3.3), with the issue of data of the clock
+     * (IODC) and both orbit subframes (IODE) matching
+     */
+    private fun decodeLnav(type: Int, svid: Int, data: ByteArray, timeMillis: Long): Ephemeris? {
+        if (data.size < WORDS_LENGTH_BYTES || wordBits(data, 0, 8) != LNAV_PREAMBLE) return reject()
+        val id = wordBits(data, 49, 3).toInt()
+        if (id !in 1..3) return null
+        val p = partial(type, svid, 3)
+        p.store(id - 1, data, 0)
+        val sf1 = p.pages[0] ?: return null
+        val sf2 = p.pages[1] ?: return null
+        val sf3 = p.pages[2] ?: return null
+        val iode = wordBits(sf2, 60, 8).toInt()
+        if (wordBits(sf3, 270, 8).toInt() != iode || wordBits(sf1, 210, 8).toInt() != iode ||
+            iode == p.lastIode
+        ) return null
+        p.lastIode = iode
+
+        return KeplerEphemeris(
+            constellationType = type shr 8,
+            svid = svid,
+            iode = iode,
+            iodc = ((wordBits(sf1, 82, 2) shl 8) or wordBits(sf1, 210, 8)).toInt(),
+            week = wordBits(sf1, 60, 10).toInt(),
+            toe = wordBits(sf2, 270, 16) * 16.0,
+            toc = wordBits(sf1, 218, 16) * 16.0,
+            sqrtA = wordBits(sf2, 226, 8, 240, 24) * P2_19,
+            eccentricity = wordBits(sf2, 166, 8, 180, 24) * P2_33,
+            i0 = signed(wordBits(sf3, 136, 8, 150, 24), 32) * P2_31 * GPS_PI,
+            omega0 = signed(wordBits(sf3, 76, 8, 90, 24), 32) * P2_31 * GPS_PI,
+            omega = signed(wordBits(sf3, 196, 8, 210, 24), 32) * P2_31 * GPS_PI,
+            m0 = signed(wordBits(sf2, 106, 8, 120, 24), 32) * P2_31 * GPS_PI,
+            deltaN = signed(wordBits(sf2, 90, 16), 16) * P2_43 * GPS_PI,
+            omegaDot = signed(wordBits(sf3, 240, 24), 24) * P2_43 * GPS_PI,
+            iDot = signed(wordBits(sf3, 278, 14), 14) * P2_43 * GPS_PI,
+            cuc = signed(wordBits(sf2, 150, 16), 16) * P2_29,
+            cus = signed(wordBits(sf2, 210, 16), 16) * P2_29,
+            crc = signed(wordBits(sf3, 180, 16), 16) * P2_5,
+            crs = signed(wordBits(sf2, 68, 16), 16) * P2_5,
+            cic = signed(wordBits(sf3, 60, 16), 16) * P2_29,
+            cis = signed(wordBits(sf3, 120, 16), 16) * P2_29,
+            af0 = signed(wordBits(sf1, 270, 22), 22) * P2_31,
+            af1 = signed(wordBits(sf1, 248, 16), 16) * P2_43,
+            af2 = signed(wordBits(sf1, 240, 8), 8) * P2_55,
+            tgd = signed(wordBits(sf1, 196, 8), 8) * P2_31,
+            accuracyIndex = wordBits(sf1, 72, 4).toInt(),
+            health = wordBits(sf1, 76, 6).toInt(),
+            source = type,
+            decodedTimeMillis = timeMillis
+        )
+    }
+
+    /**
+     * Galileo I/NAV nominal pages (Galileo OS SIS ICD 4.3.2), with words 1-4 carrying the same
+     * IODnav. Word 5 adds the week, health and the E1-E5b group delay if it has been received.
+     */
+    private fun decodeInav(svid: Int, data: ByteArray, timeMillis: Long): Ephemeris? {
+        if (data.size < INAV_LENGTH_BYTES || bits(data, 0, 1) != 0L || bits(data, 114, 1) != 1L ||
+            crc24q(data, INAV_CRC_START) != bits(data, INAV_CRC_START, 24)
+        ) return reject()
+        // Alert pages don't carry words
+        if (bits(data, 1, 1) != 0L || bits(data, 115, 1) != 0L) return null
+
+        // Data j from the even part and data k from the odd part
+        copyBits(data, 2, inavWord, 0, 112)
+        copyBits(data, 116, inavWord, 112, 16)
+        val wordType = bits(inavWord, 0, 6).toInt()
+        if (wordType !in 1..5) return null
+        val p = partial(GnssNavigationMessage.TYPE_GAL_I, svid, 5)
+        p.store(wordType - 1, inavWord, 0)
+        if (wordType == 5) return null
+
+        val w1 = p.pages[0] ?: return null
+        val w2 = p.pages[1] ?: return null
+        val w3 = p.pages[2] ?: return null
+        val w4 = p.pages[3] ?: return null
+        val iode = bits(w1, 6, 10).toInt()
+        if (bits(w2, 6, 10).toInt() != iode || bits(w3, 6, 10).toInt() != iode ||
+            bits(w4, 6, 10).toInt() != iode || iode == p.lastIode
+        ) return null
+        p.lastIode = iode
+
+        val w5 = p.pages[4]
+        return KeplerEphemeris(
+            constellationType = GnssStatus.CONSTELLATION_GALILEO,
+            svid = svid,
+            iode = iode,
+            iodc = iode,
+            week = if (w5 != null) bits(w5, 73, 12).toInt() else -1,
+            toe = bits(w1, 16, 14) * 60.0,
+            toc = bits(w4, 54, 14) * 60.0,
+            sqrtA = bits(w1, 94, 32) * P2_19,
+            eccentricity = bits(w1, 62, 32) * P2_33,
+            i0 = signed(bits(w2, 48, 32), 32) * P2_31 * GPS_PI,
+            omega0 = signed(bits(w2, 16, 32), 32) * P2_31 * GPS_PI,
+            omega = signed(bits(w2, 80, 32), 32) * P2_31 * GPS_PI,
+            m0 = signed(bits(w1, 30, 32), 32) * P2_31 * GPS_PI,
+            deltaN = signed(bits(w3, 40, 16), 16) * P2_43 * GPS_PI,
+            omegaDot = signed(bits(w3, 16, 24), 24) * P2_43 * GPS_PI,
+            iDot = signed(bits(w2, 112, 14), 14) * P2_43 * GPS_PI,
+            cuc = signed(bits(w3, 56, 16), 16) * P2_29,
+            cus = signed(bits(w3, 72, 16), 16) * P2_29,
+            crc = signed(bits(w3, 88, 16), 16) * P2_5,
+            crs = signed(bits(w3, 104, 16), 16) * P2_5,
+            cic = signed(bits(w4, 22, 16), 16) * P2_29,
+            cis = signed(bits(w4, 38, 16), 16) * P2_29,
+            af0 = signed(bits(w4, 68, 31), 31) * P2_34,
+            af1 = signed(bits(w4, 99, 21), 21) * P2_46,
+            af2 = signed(bits(w4, 120, 6), 6) * P2_59,
+            tgd = if (w5 != null) signed(bits(w5, 57, 10), 10) * P2_32 else 0.0,
+            accuracyIndex = bits(w3, 120, 8).toInt(),
+            // E5b and E1-B signal health and data validity
+            health = if (w5 != null) bits(w5, 67, 6).toInt() else 0,
+            source = GnssNavigationMessage.TYPE_GAL_I,
+            decodedTimeMillis = timeMillis
+        )
+    }
+
+    /**
+     * Galileo F/NAV pages 1-4 (Galileo OS SIS ICD 4.2.2) carrying the same IODnav
+     */
+    private fun decodeFnav(svid: Int, data: ByteArray, timeMillis: Long): Ephemeris? {
+        if (data.size < FNAV_LENGTH_BYTES || crc24q(data, FNAV_CRC_START) != bits(data, FNAV_CRC_START, 24)) {
+            return reject()
+        }
+        val pageType = bits(data, 0, 6).toInt()
+        if (pageType !in 1..4) return null
+        val p = partial(GnssNavigationMessage.TYPE_GAL_F, svid, 4)
+        p.store(pageType - 1, data, 0)
+
+        val p1 = p.pages[0] ?: return null
+        val p2 = p.pages[1] ?: return null
+        val p3 = p.pages[2] ?: return null
+        val p4 = p.pages[3] ?: return null
+        val iode = bits(p1, 12, 10).toInt()
+        if (bits(p2, 6, 10).toInt() != iode || bits(p3, 6, 10).toInt() != iode ||
+            bits(p4, 6, 10).toInt() != iode || iode == p.lastIode
+        ) return null
+        p.lastIode = iode
+
+        return KeplerEphemeris(
+            constellationType = GnssStatus.CONSTELLATION_GALILEO,
+            svid = svid,
+            iode = iode,
+            iodc = iode,
+            week = bits(p3, 174, 12).toInt(),
+            toe = bits(p3, 160, 14) * 60.0,
+            toc = bits(p1, 22, 14) * 60.0,
+            sqrtA = bits(p2, 104, 32) * P2_19,
+            eccentricity = bits(p2, 72, 32) * P2_33,
+            i0 = signed(bits(p3, 16, 32), 32) * P2_31 * GPS_PI,
+            omega0 = signed(bits(p2, 136, 32), 32) * P2_31 * GPS_PI,
+            omega = signed(bits(p3, 48, 32), 32) * P2_31 * GPS_PI,
+            m0 = signed(bits(p2, 16, 32), 32) * P2_31 * GPS_PI,
+            deltaN = signed(bits(p3, 80, 16), 16) * P2_43 * GPS_PI,
+            omegaDot = signed(bits(p2, 48, 24), 24) * P2_43 * GPS_PI,
+            iDot = signed(bits(p2, 168, 14), 14) * P2_43 * GPS_PI,
+            cuc = signed(bits(p3, 96, 16), 16) * P2_29,
+            cus = signed(bits(p3, 112, 16), 16) * P2_29,
+            crc = signed(bits(p3, 128, 16), 16) * P2_5,
+            crs = signed(bits(p3, 144, 16), 16) * P2_5,
+            cic = signed(bits(p4, 16, 16), 16) * P2_29,
+            cis = signed(bits(p4, 32, 16), 16) * P2_29,
+            af0 = signed(bits(p1, 36, 31), 31) * P2_34,
+            af1 = signed(bits(p1, 67, 21), 21) * P2_46,
+            af2 = signed(bits(p1, 88, 6), 6) * P2_59,
+            tgd = signed(bits(p1, 143, 10), 10) * P2_32,
+            accuracyIndex = bits(p1, 94, 8).toInt(),
+            // E5a signal health and data validity
+            health = ((bits(p1, 153, 2) shl 1) or bits(p1, 187, 1)).toInt(),
+            source = GnssNavigationMessage.TYPE_GAL_F,
+            decodedTimeMillis = timeMillis
+        )
+    }
+
+    /**
+     * BeiDou D1 subframes 1-3 (BDS-SIS-ICD-2.1 5.2.4) from the same frame
+     */
+    private fun decodeD1(svid: Int, data: ByteArray, timeMillis: Long): Ephemeris? {
+        if (data.size < WORDS_LENGTH_BYTES || wordBits(data, 0, 11) != BDS_PREAMBLE) return reject()
+        val id = wordBits(data, 15, 3).toInt()
+        if (id !in 1..3) return null
+        val p = partial(GnssNavigationMessage.TYPE_BDS_D1, svid, 3)
+        p.store(id - 1, data, bdsSecondOfWeek(data))
+
+        val sf1 = p.pages[0] ?: return null
+        val sf2 = p.pages[1] ?: return null
+        val sf3 = p.pages[2] ?: return null
+        val iode = wordBits(sf1, 287, 5).toInt()
+        if (p.tags[1] != p.tags[0] + 6 || p.tags[2] != p.tags[0] + 12 || iode == p.lastIode) return null
+        p.lastIode = iode
+
+        val toe = ((wordBits(sf2, 290, 2) shl 15) or wordBits(sf3, 42, 10, 60, 5)) * 8.0
+        return KeplerEphemeris(
+            constellationType = GnssStatus.CONSTELLATION_BEIDOU,
+            svid = svid,
+            iode = iode,
+            iodc = wordBits(sf1, 43, 5).toInt(),
+            week = wordBits(sf1, 60, 13).toInt(),
+            toe = toe,
+            toc = wordBits(sf1, 73, 9, 90, 8) * 8.0,
+            sqrtA = wordBits(sf2, 250, 12, 270, 20) * P2_19,
+            eccentricity = wordBits(sf2, 132, 10, 150, 22) * P2_33,
+            i0 = signed(wordBits(sf3, 65, 17, 90, 15), 32) * P2_31 * GPS_PI,
+            omega0 = signed(wordBits(sf3, 211, 21, 240, 11), 32) * P2_31 * GPS_PI,
+            omega = signed(wordBits(sf3, 251, 11, 270, 21), 32) * P2_31 * GPS_PI,
+            m0 = signed(wordBits(sf2, 92, 20, 120, 12), 32) * P2_31 * GPS_PI,
+            deltaN = signed(wordBits(sf2, 42, 10, 60, 6), 16) * P2_43 * GPS_PI,
+            omegaDot = signed(wordBits(sf3, 131, 11, 150, 13), 24) * P2_43 * GPS_PI,
+            iDot = signed(wordBits(sf3, 189, 13, 210, 1), 14) * P2_43 * GPS_PI,
+            cuc = signed(wordBits(sf2, 66, 16, 90, 2), 18) * P2_31,
+            cus = signed(wordBits(sf2, 180, 18), 18) * P2_31,
+            crc = signed(wordBits(sf2, 198, 4, 210, 14), 18) * P2_6,
+            crs = signed(wordBits(sf2, 224, 8, 240, 10), 18) * P2_6,
+            cic = signed(wordBits(sf3, 105, 7, 120, 11), 18) * P2_31,
+            cis = signed(wordBits(sf3, 163, 9, 180, 9), 18) * P2_31,
+            af0 = signed(wordBits(sf1, 225, 7, 240, 17), 24) * P2_33,
+            af1 = signed(wordBits(sf1, 257, 5, 270, 17), 22) * P2_50,
+            af2 = signed(wordBits(sf1, 214, 11), 11) * P2_66,
+            tgd = signed(wordBits(sf1, 98, 10), 10) * 1e-10,
+            accuracyIndex = wordBits(sf1, 48, 4).toInt(),
+            health = wordBits(sf1, 42, 1).toInt(),
+            source = GnssNavigationMessage.TYPE_BDS_D1,
+            decodedTimeMillis = timeMillis
+        )
+    }
+
+    /**
+     * BeiDou D2 subframe 1 pages 1 and 3-10 (BDS-SIS-ICD-2.1 5.3.3) from the same frame cycle,
+     * broadcast by the GEO satellites
+     */
+    private fun decodeD2(svid: Int, data: ByteArray, timeMillis: Long): Ephemeris? {
+        if (data.size < WORDS_LENGTH_BYTES || wordBits(data, 0, 11) != BDS_PREAMBLE) return reject()
+        if (wordBits(data, 15, 3) != 1L) return null
+        val page = wordBits(data, 42, 4).toInt()
+        if (page !in 1..10 || page == 2) return null
+        val p = partial(GnssNavigationMessage.TYPE_BDS_D2, svid, 10)
+        p.store(page - 1, data, bdsSecondOfWeek(data))
+
+        val p1 = p.pages[0] ?: return null
+        for (i in 2 until 10) {
+            // Page 1 of subframe 1 comes around every 3 seconds
+            if (p.pages[i] == null || p.tags[i] != p.tags[0] + 3 * i) return null
+        }
+        val p3 = p.pages[2]!!
+        val p4 = p.pages[3]!!
+        val p5 = p.pages[4]!!
+        val p6 = p.pages[5]!!
+        val p7 = p.pages[6]!!
+        val p8 = p.pages[7]!!
+        val p9 = p.pages[8]!!
+        val p10 = p.pages[9]!!
+        val iode = wordBits(p4, 91, 5).toInt()
+        if (iode == p.lastIode) return null
+        p.lastIode = iode
+
+        return KeplerEphemeris(
+            constellationType = GnssStatus.CONSTELLATION_BEIDOU,
+            svid = svid,
+            iode = iode,
+            iodc = wordBits(p1, 47, 5).toInt(),
+            week = wordBits(p1, 64, 13).toInt(),
+            toe = wordBits(p7, 80, 2, 90, 15) * 8.0,
+            toc = wordBits(p1, 77, 5, 90, 12) * 8.0,
+            sqrtA = ((wordBits(p6, 76, 6, 90, 22) shl 4) or wordBits(p6, 120, 4)) * P2_19,
+            eccentricity = ((wordBits(p5, 124, 10) shl 22) or wordBits(p6, 46, 6, 60, 16)) * P2_33,
+            i0 = signed((wordBits(p7, 105, 7, 120, 14) shl 11) or wordBits(p8, 46, 6, 60, 5), 32) * P2_31 * GPS_PI,
+            omega0 = signed((wordBits(p9, 51, 1, 60, 22) shl 9) or wordBits(p9, 90, 9), 32) * P2_31 * GPS_PI,
+            omega = signed((wordBits(p9, 99, 13, 120, 14) shl 5) or wordBits(p10, 46, 5), 32) * P2_31 * GPS_PI,
+            m0 = signed((wordBits(p5, 50, 2, 60, 22) shl 8) or wordBits(p5, 90, 8), 32) * P2_31 * GPS_PI,
+            deltaN = signed(wordBits(p4, 96, 16), 16) * P2_43 * GPS_PI,
+            omegaDot = signed((wordBits(p8, 109, 3, 120, 16) shl 5) or wordBits(p9, 46, 5), 24) * P2_43 * GPS_PI,
+            iDot = signed(wordBits(p10, 51, 1, 60, 13), 14) * P2_43 * GPS_PI,
+            cuc = signed((wordBits(p4, 120, 14) shl 4) or wordBits(p5, 46, 4), 18) * P2_31,
+            cus = signed(wordBits(p5, 98, 14, 120, 4), 18) * P2_31,
+            crc = signed(wordBits(p8, 65, 17, 90, 1), 18) * P2_6,
+            crs = signed(wordBits(p8, 91, 18), 18) * P2_6,
+            cic = signed((wordBits(p6, 124, 10) shl 8) or wordBits(p7, 46, 6, 60, 2), 18) * P2_31,
+            cis = signed(wordBits(p7, 62, 18), 18) * P2_31,
+            af0 = signed(wordBits(p3, 100, 12, 120, 12), 24) * P2_33,
+            af1 = signed((wordBits(p3, 132, 4) shl 18) or wordBits(p4, 46, 6, 60, 12), 22) * P2_50,
+            af2 = signed(wordBits(p4, 72, 10, 90, 1), 11) * P2_66,
+            tgd = signed(wordBits(p1, 102, 10), 10) * 1e-10,
+            accuracyIndex = wordBits(p1, 60, 4).toInt(),
+            health = wordBits(p1, 46, 1).toInt(),
+            source = GnssNavigationMessage.TYPE_BDS_D2,
+            decodedTimeMillis = timeMillis
+        )
+    }
+
+    /**
+     * GLONASS strings 1-4 (GLONASS ICD 5.1 4.4) from the same frame, identified by [frame] (the
+     * message ID)
+     */
+    private fun decodeGlonass(svid: Int, frame: Int, data: ByteArray, timeMillis: Long): Ephemeris? {
+        if (data.size < GLONASS_LENGTH_BYTES || bits(data, 0, 1) != 0L) return reject()
+        val string = bits(data, 1, 4).toInt()
+        if (string !in 1..4) return null
+        val p = partial(GnssNavigationMessage.TYPE_GLO_L1CA, svid, 4)
+        p.store(string - 1, data, frame)
+
+        val s1 = p.pages[0] ?: return null
+        val s2 = p.pages[1] ?: return null
+        val s3 = p.pages[2] ?: return null
+        val s4 = p.pages[3] ?: return null
+        if (p.tags[1] != p.tags[0] || p.tags[2] != p.tags[0] || p.tags[3] != p.tags[0]) return null
+        val iode = bits(s2, 9, 7).toInt()
+        if (iode == p.lastIode) return null
+        p.lastIode = iode
+
+        val tk = bits(s1, 9, 5) * 3600.0 + bits(s1, 14, 6) * 60.0 + bits(s1, 20, 1) * 30.0
+        return GlonassEphemeris(
+            svid = svid,
+            iode = iode,
+            tb = iode * 900.0,
+            tk = tk,
+            dayNumber = bits(s4, 59, 11).toInt(),
+            x = signMagnitude(bits(s1, 50, 27), 27) * P2_11 * 1000.0,
+            y = signMagnitude(bits(s2, 50, 27), 27) * P2_11 * 1000.0,
+            z = signMagnitude(bits(s3, 50, 27), 27) * P2_11 * 1000.0,
+            vx = signMagnitude(bits(s1, 21, 24), 24) * P2_20 * 1000.0,
+            vy = signMagnitude(bits(s2, 21, 24), 24) * P2_20 * 1000.0,
+            vz = signMagnitude(bits(s3, 21, 24), 24) * P2_20 * 1000.0,
+            ax = signMagnitude(bits(s1, 45, 5), 5) * P2_30 * 1000.0,
+            ay = signMagnitude(bits(s2, 45, 5), 5) * P2_30 * 1000.0,
+            az = signMagnitude(bits(s3, 45, 5), 5) * P2_30 * 1000.0,
+            tauN = signMagnitude(bits(s4, 5, 22), 22) * P2_30,
+            gammaN = signMagnitude(bits(s3, 6, 11), 11) * P2_40,
+            ageDays = bits(s4, 32, 5).toInt(),
+            // Only the MSB of Bn is the health flag, ln is set for unhealthy satellites too
+            health = ((bits(s2, 5, 1) shl 1) or bits(s3, 20, 1)).toInt(),
+            decodedTimeMillis = timeMillis
+        )
+    }
+
+    private fun bdsSecondOfWeek(data: ByteArray): Int = wordBits(data, 18, 8, 30, 12).toInt()
+
+    /**
+     * Messages received for one satellite and message type
+     */
+    private class Partial(count: Int) {
+        val pages = arrayOfNulls<ByteArray>(count)
+
+        // Frame (GLONASS) or second of week (BeiDou) each page was received in
+        val tags = IntArray(count)
+
+        var lastIode = -1
+
+        fun store(index: Int, data: ByteArray, tag: Int) {
+            var page = pages[index]
+            if (page == null || page.size != data.size) {
+                page = ByteArray(data.size)
+                pages[index] = page
+            }
+            System.arraycopy(data, 0, page, 0, data.size)
+            tags[index] = tag
+        }
+    }
+
+    companion object {
+        // Length of GPS, QZSS and BeiDou subframes - 10 30 bit words, each in the last 30 bits of 4 bytes
+        const val WORDS_LENGTH_BYTES = 40
+        const val INAV_LENGTH_BYTES = 29
+        const val FNAV_LENGTH_BYTES = 31
+        const val GLONASS_LENGTH_BYTES = 11
+
+        private const val INITIAL_PARTIALS = 64
+
+        private const val LNAV_PREAMBLE = 0x8BL
+        private const val BDS_PREAMBLE = 0x712L
+
+        // CRC of the I/NAV even and odd page parts, and of the F/NAV page
+        private const val INAV_CRC_START = 196
+        private const val FNAV_CRC_START = 214
+
+        private const val CRC24Q_POLY = 0x864CFB
+
+        // Value of pi the GPS ICD uses to convert from semicircles
+        const val GPS_PI = 3.1415926535898
+
+        private const val P2_5 = 1.0 / (1L shl 5)
+        private const val P2_6 = 1.0 / (1L shl 6)
+        private const val P2_11 = 1.0 / (1L shl 11)
+        private const val P2_19 = 1.0 / (1L shl 19)
+        private const val P2_20 = 1.0 / (1L shl 20)
+        private const val P2_29 = 1.0 / (1L shl 29)
+        private const val P2_30 = 1.0 / (1L shl 30)
+        private const val P2_31 = 1.0 / (1L shl 31)
+        private const val P2_32 = 1.0 / (1L shl 32)
+        private const val P2_33 = 1.0 / (1L shl 33)
+        private const val P2_34 = 1.0 / (1L shl 34)
+        private const val P2_40 = 1.0 / (1L shl 40)
+        private const val P2_43 = 1.0 / (1L shl 43)
+        private const val P2_46 = 1.0 / (1L shl 46)
+        private const val P2_50 = 1.0 / (1L shl 50)
+        private const val P2_55 = 1.0 / (1L shl 55)
+        private const val P2_59 = 1.0 / (1L shl 59)
+        private const val P2_66 = P2_33 * P2_33
+
+        /**
+         * Returns [length] (<= 63) bits of [data] starting at bit [start], where bit 0 is the MSB of
+         * the first byte
+         */
+        @JvmStatic
+        fun bits(data: ByteArray, start: Int, length: Int): Long {
+            var value = 0L
+            for (i in start until start + length) {
+                value = (value shl 1) or ((data[i ushr 3].toLong() ushr (7 - (i and 7))) and 1L)
+            }
+            return value
+        }
+
+        /**
+         * Returns [length] bits of GPS or BeiDou words starting at bit [start] of the subframe,
+         * counting the 30 bits of each word (bit 0 is the first bit of word 1)
+         */
+        @JvmStatic
+        fun wordBits(data: ByteArray, start: Int, length: Int): Long {
+            return bits(data, start / 30 * 32 + 2 + start % 30, length)
+        }
+
+        /**
+         * Returns a value split across two words, with the MSBs at [start1] and the LSBs at [start2]
+         */
+        private fun wordBits(data: ByteArray, start1: Int, length1: Int, start2: Int, length2: Int): Long {
+            return (wordBits(data, start1, length1) shl length2) or wordBits(data, start2, length2)
+        }
+
+        /**
+         * Returns the [length] bit two's complement [value] as a signed value
+         */
+        @JvmStatic
+        fun signed(value: Long, length: Int): Long = (value shl (64 - length)) shr (64 - length)
+
+        /**
+         * Returns the [length] bit sign-magnitude [value] used by GLONASS as a signed value
+         */
+        @JvmStatic
+        fun signMagnitude(value: Long, length: Int): Long {
+            val magnitude = value and ((1L shl (length - 1)) - 1)
+            return if (((value ushr (length - 1)) and 1L) == 1L) -magnitude else magnitude
+        }
+
+        /**
+         * Returns the CRC-24Q of the first [numBits] bits of [data]
+         */
+        @JvmStatic
+        fun crc24q(data: ByteArray, numBits: Int): Long {
+            var crc = 0
+            for (i in 0 until numBits) {
+                val bit = (data[i ushr 3].toInt() ushr (7 - (i and 7))) and 1
+                val top = (crc ushr 23) and 1
+                crc = (crc shl 1) and 0xFFFFFF
+                if ((top xor bit) == 1) crc = crc xor CRC24Q_POLY
+            }
+            return crc.toLong()
+        }
+
+        private fun copyBits(src: ByteArray, srcStart: Int, dst: ByteArray, dstStart: Int, length: Int) {
+            for (i in 0 until length) {
+                val s = srcStart + i
+                val d = dstStart + i
+                val mask = 1 shl (7 - (d and 7))
+                val old = dst[d ushr 3].toInt()
+                val set = ((src[s ushr 3].toInt() ushr (7 - (s and 7))) and 1) == 1
+                dst[d ushr 3] = (if (set) old or mask else old and mask.inv()).toByte()
+            }
+        }
+    }
+}
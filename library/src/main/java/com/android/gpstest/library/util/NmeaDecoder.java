@@ -0,0 +1,661 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util;
+
+/**
+ * A streaming NMEA 0183 decoder that tokenizes sentences in place (without String.split() or
+ * substrings), validates the checksum, and decodes GGA, GNS, GSA, GSV, RMC, VTG and GST sentences
+ * from any talker into reusable holders. No objects are allocated per sentence, so a single
+ * instance can decode every sentence received from the platform. Instances are not thread-safe.
+ *
+ * Typical usage:
+ * <pre>
+ * switch (decoder.decode(message)) {
+ *     case NmeaDecoder.SENTENCE_GGA:
+ *         double altitude = decoder.gga.altitudeMsl;
+ *         ...
+ * }
+ * </pre>
+ *
+ * Field indices follow NMEA 0183 v4.11, where field 0 is the address field (e.g., "$GPGGA").
+ * Empty or malformed numeric fields are decoded as {@link Double#NaN} or {@link #NO_VALUE}.
+ */
+public class NmeaDecoder {
+
+    /**
+     * The checksum didn't match the sentence contents, or the sentence is malformed
+     */
+    public static final int SENTENCE_INVALID = -1;
+
+    /**
+     * The sentence is valid but isn't one of the types decoded by this class
+     */
+    public static final int SENTENCE_UNSUPPORTED = 0;
+
+    public static final int SENTENCE_GGA = ('G' << 16) | ('G' << 8) | 'A';
+    public static final int SENTENCE_GNS = ('G' << 16) | ('N' << 8) | 'S';
+    public static final int SENTENCE_GSA = ('G' << 16) | ('S' << 8) | 'A';
+    public static final int SENTENCE_GSV = ('G' << 16) | ('S' << 8) | 'V';
+    public static final int SENTENCE_RMC = ('R' << 16) | ('M' << 8) | 'C';
+    public static final int SENTENCE_VTG = ('V' << 16) | ('T' << 8) | 'G';
+    public static final int SENTENCE_GST = ('G' << 16) | ('S' << 8) | 'T';
+
+    public static final int TALKER_GPS = ('G' << 8) | 'P';
+    public static final int TALKER_GLONASS = ('G' << 8) | 'L';
+    public static final int TALKER_GALILEO = ('G' << 8) | 'A';
+    public static final int TALKER_BEIDOU = ('G' << 8) | 'B';
+    public static final int TALKER_BEIDOU_LEGACY = ('B' << 8) | 'D';
+    public static final int TALKER_QZSS = ('G' << 8) | 'Q';
+    public static final int TALKER_NAVIC = ('G' << 8) | 'I';
+    public static final int TALKER_MULTI_GNSS = ('G' << 8) | 'N';
+
+    /**
+     * Value of integer fields that are empty or malformed
+     */
+    public static final int NO_VALUE = -1;
+
+    /**
+     * Value of character fields that are empty
+     */
+    public static final char NO_CHAR = '\0';
+
+    private static final int MAX_FIELDS = 64;
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    // Longest mantissa that getDouble() parses directly (see the comment there)
+    private static final int MAX_DIGITS = 15;
+
+    // Start (inclusive) and end (exclusive) offsets of each field in the current sentence
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+    private int fieldCount;
+    private CharSequence sentence;
+
+    private int talker;
+
+    private int sentenceType = SENTENCE_UNSUPPORTED;
+
+    public final Gga gga = new Gga();
+    public final Gns gns = new Gns();
+    public final Gsa gsa = new Gsa();
+    public final Gsv gsv = new Gsv();
+    public final Rmc rmc = new Rmc();
+    public final Vtg vtg = new Vtg();
+    public final Gst gst = new Gst();
+
+    /**
+     * Decodes the provided NMEA [sentence] into the holder for its type. Trailing whitespace
+     * (e.g., CR/LF) is ignored. Sentences without a checksum are accepted.
+     *
+     * @param sentence an NMEA 0183 sentence
+     * @return one of the SENTENCE_* constants, identifying which holder was updated
+     */
+    public int decode(CharSequence sentence) {
+        this.sentence = sentence;
+        sentenceType = tokenize(sentence);
+        if (sentenceType == SENTENCE_INVALID || sentenceType == SENTENCE_UNSUPPORTED) {
+            return sentenceType;
+        }
+        if (sentenceType == SENTENCE_GGA) {
+            decodeGga();
+        } else if (sentenceType == SENTENCE_GNS) {
+            decodeGns();
+        } else if (sentenceType == SENTENCE_GSA) {
+            decodeGsa();
+        } else if (sentenceType == SENTENCE_GSV) {
+            decodeGsv();
+        } else if (sentenceType == SENTENCE_RMC) {
+            decodeRmc();
+        } else if (sentenceType == SENTENCE_VTG) {
+            decodeVtg();
+        } else if (sentenceType == SENTENCE_GST) {
+            decodeGst();
+        }
+        return sentenceType;
+    }
+
+    /**
+     * Returns the talker ID of the last decoded sentence as a value that can be compared with the
+     * TALKER_* constants or {@link #talker(char, char)}
+     *
+     * @return the talker ID of the last decoded sentence
+     */
+    public int getTalker() {
+        return talker;
+    }
+
+    /**
+     * Returns the type of the last decoded sentence as one of the SENTENCE_* constants
+     *
+     * @return the type of the last decoded sentence
+     */
+    public int getSentenceType() {
+        return sentenceType;
+    }
+
+    /**
+     * Returns a talker ID value for the provided characters (e.g., 'G', 'P' for GPS)
+     */
+    public static int talker(char c0, char c1) {
+        return (c0 << 8) | c1;
+    }
+
+    /**
+     * Returns a sentence formatter value for the provided characters (e.g., 'G', 'G', 'A' for GGA)
+     */
+    public static int formatter(char c0, char c1, char c2) {
+        return (c0 << 16) | (c1 << 8) | c2;
+    }
+
+    /**
+     * Records the offsets of each field in the provided sentence, validates the checksum and
+     * returns the sentence formatter value, or SENTENCE_INVALID if the sentence is malformed
+     */
+    private int tokenize(CharSequence s) {
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (end < 7 || (s.charAt(0) != '$' && s.charAt(0) != '!')) {
+            return SENTENCE_INVALID;
+        }
+
+        int checksum = 0;
+        int bodyEnd = end;
+        fieldCount = 0;
+        fieldStart[0] = 1;
+        for (int i = 1; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '*') {
+                bodyEnd = i;
+                break;
+            }
+            checksum ^= c;
+            if (c == ',') {
+                if (fieldCount + 1 >= MAX_FIELDS) {
+                    return SENTENCE_INVALID;
+                }
+                fieldEnd[fieldCount] = i;
+                fieldCount++;
+                fieldStart[fieldCount] = i + 1;
+            }
+        }
+        fieldEnd[fieldCount] = bodyEnd;
+        fieldCount++;
+
+        if (bodyEnd != end) {
+            // Checksum is present - it must be two hex digits that match the body
+            if (end - bodyEnd != 3) {
+                return SENTENCE_INVALID;
+            }
+            int high = hexValue(s.charAt(bodyEnd + 1));
+            int low = hexValue(s.charAt(bodyEnd + 2));
+            if (high < 0 || low < 0 || ((high << 4) | low) != checksum) {
+                return SENTENCE_INVALID;
+            }
+        }
+
+        // Address field is the talker ID (2 chars) and sentence formatter (3 chars)
+        int addressStart = fieldStart[0];
+        int addressLength = fieldEnd[0] - addressStart;
+        if (addressLength != 5) {
+            // Proprietary ($P...) and query sentences aren't supported
+            talker = 0;
+            return SENTENCE_UNSUPPORTED;
+        }
+        talker = talker(s.charAt(addressStart), s.charAt(addressStart + 1));
+        int type = formatter(s.charAt(addressStart + 2), s.charAt(addressStart + 3),
+                s.charAt(addressStart + 4));
+        if (type == SENTENCE_GGA || type == SENTENCE_GNS || type == SENTENCE_GSA
+                || type == SENTENCE_GSV || type == SENTENCE_RMC || type == SENTENCE_VTG
+                || type == SENTENCE_GST) {
+            return type;
+        }
+        return SENTENCE_UNSUPPORTED;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of fields in the last decoded sentence, including the address field
+     *
+     * @return the number of fields in the last decoded sentence, including the address field
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Returns true if the field at the provided index is missing or empty
+     */
+    public boolean isEmpty(int index) {
+        return index >= fieldCount || fieldStart[index] == fieldEnd[index];
+    }
+
+    /**
+     * Returns the first character of the field at the provided index, or {@link #NO_CHAR} if the
+     * field is missing or empty
+     */
+    public char getChar(int index) {
+        if (isEmpty(index)) {
+            return NO_CHAR;
+        }
+        return sentence.charAt(fieldStart[index]);
+    }
+
+    /**
+     * Parses the field at the provided index as a decimal number, or returns {@link Double#NaN} if
+     * the field is missing, empty, malformed or has more than 15 digits
+     */
+    public double getDouble(int index) {
+        if (isEmpty(index)) {
+            return Double.NaN;
+        }
+        int i = fieldStart[index];
+        int end = fieldEnd[index];
+        boolean negative = false;
+        char c = sentence.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            c = sentence.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (digits >= MAX_DIGITS) {
+                    // Too many significant digits to represent exactly
+                    return Double.NaN;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        // Up to 15 significant digits both values are exact, so the division is correctly rounded
+        // the same as Double.parseDouble()
+        double value = fractionDigits > 0 ? mantissa / POW10[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the field at the provided index as a non-negative integer, or returns
+     * {@link #NO_VALUE} if the field is missing, empty or malformed
+     */
+    public int getInt(int index) {
+        if (isEmpty(index)) {
+            return NO_VALUE;
+        }
+        int value = 0;
+        for (int i = fieldStart[index]; i < fieldEnd[index]; i++) {
+            char c = sentence.charAt(i);
+            if (c < '0' || c > '9' || value > (Integer.MAX_VALUE - 9) / 10) {
+                return NO_VALUE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Parses a UTC time field (hhmmss.ss) at the provided index into seconds since the start of the
+     * day, or returns {@link Double#NaN} if the field is missing, empty or malformed
+     */
+    public double getTimeOfDay(int index) {
+        double hhmmss = getDouble(index);
+        if (Double.isNaN(hhmmss)) {
+            return Double.NaN;
+        }
+        int hours = (int) (hhmmss / 10000);
+        int minutes = (int) ((hhmmss - hours * 10000) / 100);
+        double seconds = hhmmss - hours * 10000 - minutes * 100;
+        return hours * 3600 + minutes * 60 + seconds;
+    }
+
+    /**
+     * Parses a latitude or longitude field ((d)ddmm.mm) at the provided index and the hemisphere
+     * field that follows it into signed decimal degrees, or returns {@link Double#NaN} if either
+     * field is missing, empty or malformed
+     */
+    public double getCoordinate(int index) {
+        double ddmm = getDouble(index);
+        char hemisphere = getChar(index + 1);
+        if (Double.isNaN(ddmm) || hemisphere == NO_CHAR) {
+            return Double.NaN;
+        }
+        int degrees = (int) (ddmm / 100);
+        double value = degrees + (ddmm - degrees * 100) / 60.0;
+        return hemisphere == 'S' || hemisphere == 'W' ? -value : value;
+    }
+
+    private void decodeGga() {
+        Gga g = gga;
+        g.timeOfDay = getTimeOfDay(Gga.TIME);
+        g.latitude = getCoordinate(Gga.LATITUDE);
+        g.longitude = getCoordinate(Gga.LONGITUDE);
+        g.quality = getInt(Gga.QUALITY);
+        g.numSatellites = getInt(Gga.NUM_SATELLITES);
+        g.hdop = getDouble(Gga.HDOP);
+        g.altitudeMsl = getDouble(Gga.ALTITUDE);
+        g.geoidSeparation = getDouble(Gga.GEOID_SEPARATION);
+        g.dgpsAge = getDouble(Gga.DGPS_AGE);
+        g.dgpsStationId = getInt(Gga.DGPS_STATION_ID);
+    }
+
+    private void decodeGns() {
+        Gns g = gns;
+        g.timeOfDay = getTimeOfDay(Gns.TIME);
+        g.latitude = getCoordinate(Gns.LATITUDE);
+        g.longitude = getCoordinate(Gns.LONGITUDE);
+        g.mode = getChar(Gns.MODE);
+        g.numSatellites = getInt(Gns.NUM_SATELLITES);
+        g.hdop = getDouble(Gns.HDOP);
+        g.altitudeMsl = getDouble(Gns.ALTITUDE);
+        g.geoidSeparation = getDouble(Gns.GEOID_SEPARATION);
+        g.dgpsAge = getDouble(Gns.DGPS_AGE);
+        g.dgpsStationId = getInt(Gns.DGPS_STATION_ID);
+        g.navigationStatus = getChar(Gns.NAVIGATION_STATUS);
+    }
+
+    private void decodeGsa() {
+        Gsa g = gsa;
+        g.selectionMode = getChar(Gsa.SELECTION_MODE);
+        g.fixType = getInt(Gsa.FIX_TYPE);
+        g.numSatellites = 0;
+        for (int i = 0; i < Gsa.MAX_SATELLITES; i++) {
+            int svid = getInt(Gsa.FIRST_SATELLITE + i);
+            if (svid != NO_VALUE) {
+                g.svids[g.numSatellites++] = svid;
+            }
+        }
+        g.pdop = getDouble(Gsa.PDOP);
+        g.hdop = getDouble(Gsa.HDOP);
+        g.vdop = getDouble(Gsa.VDOP);
+        g.systemId = getInt(Gsa.SYSTEM_ID);
+    }
+
+    private void decodeGsv() {
+        Gsv g = gsv;
+        g.numMessages = getInt(Gsv.NUM_MESSAGES);
+        g.messageNumber = getInt(Gsv.MESSAGE_NUMBER);
+        g.numSatellitesInView = getInt(Gsv.NUM_SATELLITES_IN_VIEW);
+        // Each satellite has 4 fields, and NMEA 4.10+ adds a signal ID as the last field
+        int satelliteFields = fieldCount - Gsv.FIRST_SATELLITE;
+        g.signalId = NO_VALUE;
+        if (satelliteFields > 0 && satelliteFields % Gsv.FIELDS_PER_SATELLITE == 1) {
+            g.signalId = getInt(fieldCount - 1);
+            satelliteFields--;
+        }
+        g.numSatellites = 0;
+        for (int i = 0; i < Gsv.MAX_SATELLITES && (i + 1) * Gsv.FIELDS_PER_SATELLITE <= satelliteFields; i++) {
+            int base = Gsv.FIRST_SATELLITE + i * Gsv.FIELDS_PER_SATELLITE;
+            int n = g.numSatellites;
+            g.svids[n] = getInt(base + Gsv.SVID);
+            if (g.svids[n] == NO_VALUE) {
+                continue;
+            }
+            g.elevations[n] = getDouble(base + Gsv.ELEVATION);
+            g.azimuths[n] = getDouble(base + Gsv.AZIMUTH);
+            g.cn0s[n] = getDouble(base + Gsv.CN0);
+            g.numSatellites++;
+        }
+    }
+
+    private void decodeRmc() {
+        Rmc r = rmc;
+        r.timeOfDay = getTimeOfDay(Rmc.TIME);
+        r.status = getChar(Rmc.STATUS);
+        r.latitude = getCoordinate(Rmc.LATITUDE);
+        r.longitude = getCoordinate(Rmc.LONGITUDE);
+        r.speedKnots = getDouble(Rmc.SPEED_KNOTS);
+        r.courseTrue = getDouble(Rmc.COURSE_TRUE);
+        r.date = getInt(Rmc.DATE);
+        r.magneticVariation = getDouble(Rmc.MAGNETIC_VARIATION);
+        if (getChar(Rmc.MAGNETIC_VARIATION + 1) == 'W') {
+            r.magneticVariation = -r.magneticVariation;
+        }
+        r.mode = getChar(Rmc.MODE);
+        r.navigationStatus = getChar(Rmc.NAVIGATION_STATUS);
+    }
+
+    private void decodeVtg() {
+        Vtg v = vtg;
+        v.courseTrue = getDouble(Vtg.COURSE_TRUE);
+        v.courseMagnetic = getDouble(Vtg.COURSE_MAGNETIC);
+        v.speedKnots = getDouble(Vtg.SPEED_KNOTS);
+        v.speedKmh = getDouble(Vtg.SPEED_KMH);
+        v.mode = getChar(Vtg.MODE);
+    }
+
+    private void decodeGst() {
+        Gst g = gst;
+        g.timeOfDay = getTimeOfDay(Gst.TIME);
+        g.rangeRms = getDouble(Gst.RANGE_RMS);
+        g.semiMajorStdDev = getDouble(Gst.SEMI_MAJOR_STD_DEV);
+        g.semiMinorStdDev = getDouble(Gst.SEMI_MINOR_STD_DEV);
+        g.orientation = getDouble(Gst.ORIENTATION);
+        g.latitudeStdDev = getDouble(Gst.LATITUDE_STD_DEV);
+        g.longitudeStdDev = getDouble(Gst.LONGITUDE_STD_DEV);
+        g.altitudeStdDev = getDouble(Gst.ALTITUDE_STD_DEV);
+    }
+
+    /**
+     * GGA - Global Positioning System fix data
+     */
+    public static class Gga {
+        public static final int TIME = 1;
+        public static final int LATITUDE = 2;
+        public static final int LONGITUDE = 4;
+        public static final int QUALITY = 6;
+        public static final int NUM_SATELLITES = 7;
+        public static final int HDOP = 8;
+        public static final int ALTITUDE = 9;
+        public static final int GEOID_SEPARATION = 11;
+        public static final int DGPS_AGE = 13;
+        public static final int DGPS_STATION_ID = 14;
+
+        public double timeOfDay;
+        public double latitude;
+        public double longitude;
+        public int quality;
+        public int numSatellites;
+        public double hdop;
+        public double altitudeMsl;
+        public double geoidSeparation;
+        public double dgpsAge;
+        public int dgpsStationId;
+    }
+
+    /**
+     * GNS - GNSS fix data
+     */
+    public static class Gns {
+        public static final int TIME = 1;
+        public static final int LATITUDE = 2;
+        public static final int LONGITUDE = 4;
+        public static final int MODE = 6;
+        public static final int NUM_SATELLITES = 7;
+        public static final int HDOP = 8;
+        public static final int ALTITUDE = 9;
+        public static final int GEOID_SEPARATION = 10;
+        public static final int DGPS_AGE = 11;
+        public static final int DGPS_STATION_ID = 12;
+        public static final int NAVIGATION_STATUS = 13;
+
+        public double timeOfDay;
+        public double latitude;
+        public double longitude;
+        /**
+         * Mode indicator of the first (GPS) system - see the sentence for other systems
+         */
+        public char mode;
+        public int numSatellites;
+        public double hdop;
+        public double altitudeMsl;
+        public double geoidSeparation;
+        public double dgpsAge;
+        public int dgpsStationId;
+        public char navigationStatus;
+    }
+
+    /**
+     * GSA - GNSS DOP and active satellites
+     */
+    public static class Gsa {
+        public static final int SELECTION_MODE = 1;
+        public static final int FIX_TYPE = 2;
+        public static final int FIRST_SATELLITE = 3;
+        public static final int MAX_SATELLITES = 12;
+        public static final int PDOP = 15;
+        public static final int HDOP = 16;
+        public static final int VDOP = 17;
+        public static final int SYSTEM_ID = 18;
+
+        public char selectionMode;
+        public int fixType;
+        public final int[] svids = new int[MAX_SATELLITES];
+        public int numSatellites;
+        public double pdop;
+        public double hdop;
+        public double vdop;
+        public int systemId;
+    }
+
+    /**
+     * GSV - GNSS satellites in view. Each sentence holds up to 4 satellites.
+     */
+    public static class Gsv {
+        public static final int NUM_MESSAGES = 1;
+        public static final int MESSAGE_NUMBER = 2;
+        public static final int NUM_SATELLITES_IN_VIEW = 3;
+        public static final int FIRST_SATELLITE = 4;
+        public static final int FIELDS_PER_SATELLITE = 4;
+        public static final int MAX_SATELLITES = 4;
+        // Offsets within each satellite's block of fields
+        public static final int SVID = 0;
+        public static final int ELEVATION = 1;
+        public static final int AZIMUTH = 2;
+        public static final int CN0 = 3;
+
+        public int numMessages;
+        public int messageNumber;
+        public int numSatellitesInView;
+        public int numSatellites;
+        public final int[] svids = new int[MAX_SATELLITES];
+        public final double[] elevations = new double[MAX_SATELLITES];
+        public final double[] azimuths = new double[MAX_SATELLITES];
+        public final double[] cn0s = new double[MAX_SATELLITES];
+        public int signalId;
+    }
+
+    /**
+     * RMC - Recommended minimum specific GNSS data
+     */
+    public static class Rmc {
+        public static final int TIME = 1;
+        public static final int STATUS = 2;
+        public static final int LATITUDE = 3;
+        public static final int LONGITUDE = 5;
+        public static final int SPEED_KNOTS = 7;
+        public static final int COURSE_TRUE = 8;
+        public static final int DATE = 9;
+        public static final int MAGNETIC_VARIATION = 10;
+        public static final int MODE = 12;
+        public static final int NAVIGATION_STATUS = 13;
+
+        public double timeOfDay;
+        public char status;
+        public double latitude;
+        public double longitude;
+        public double speedKnots;
+        public double courseTrue;
+        /**
+         * Date as ddmmyy
+         */
+        public int date;
+        /**
+         * Magnetic variation in degrees, negative if West
+         */
+        public double magneticVariation;
+        public char mode;
+        public char navigationStatus;
+    }
+
+    /**
+     * VTG - Course over ground and ground speed
+     */
+    public static class Vtg {
+        public static final int COURSE_TRUE = 1;
+        public static final int COURSE_MAGNETIC = 3;
+        public static final int SPEED_KNOTS = 5;
+        public static final int SPEED_KMH = 7;
+        public static final int MODE = 9;
+
+        public double courseTrue;
+        public double courseMagnetic;
+        public double speedKnots;
+        public double speedKmh;
+        public char mode;
+    }
+
+    /**
+     * GST - GNSS pseudorange error statistics
+     */
+    public static class Gst {
+        public static final int TIME = 1;
+        public static final int RANGE_RMS = 2;
+        public static final int SEMI_MAJOR_STD_DEV = 3;
+        public static final int SEMI_MINOR_STD_DEV = 4;
+        public static final int ORIENTATION = 5;
+        public static final int LATITUDE_STD_DEV = 6;
+        public static final int LONGITUDE_STD_DEV = 7;
+        public static final int ALTITUDE_STD_DEV = 8;
+
+        public double timeOfDay;
+        public double rangeRms;
+        public double semiMajorStdDev;
+        public double semiMinorStdDev;
+        public double orientation;
+        public double latitudeStdDev;
+        public double longitudeStdDev;
+        public double altitudeStdDev;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.view.Choreographer
+import com.android.gpstest.library.model.Orientation
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.launch
+
+/**
+ * Coalesces orientation updates, which arrive from the rotation vector sensor at up to 100 Hz, into
+ * at most one update per display frame. Frames where neither the orientation nor the tilt moved by
+ * more than the threshold passed to [onFrame] are skipped so views aren't redrawn for changes the
+ * user can't see.
+ *
+ * By default the latest orientation is used as is. Smoothing is opt-in: with a
+ * [smoothingTimeConstantSeconds] above 0 each frame moves the orientation and tilt toward the latest
+ * values in an exponential moving average, with a weight of 1 - exp(-dt / time constant) for a frame
+ * dt seconds after the previous one, so it settles at the same rate at any display refresh rate.
+ *
+ * This class only holds the smoothing state - see [pacedToFrames] for the Choreographer-driven flow.
+ */
+class OrientationFramePacer(private val smoothingTimeConstantSeconds: Double = NO_SMOOTHING) {
+
+    init {
+        require(smoothingTimeConstantSeconds >= 0.0) {
+            "smoothingTimeConstantSeconds must be >= 0"
+        }
+    }
+
+    private var hasSmoothed = false
+    private var smoothedOrientation = 0.0
+    private var smoothedTilt = Double.NaN
+    private var smoothedFrameTimeNanos = 0L
+
+    private var hasEmitted = false
+    private var emittedOrientation = 0.0
+    private var emittedTilt = Double.NaN
+
+    /**
+     * Smoothed orientation in degrees [0, 360), valid after [onFrame] returns true
+     */
+    val orientation: Double
+        get() = emittedOrientation
+
+    /**
+     * Smoothed tilt in degrees, or NaN if tilt isn't available. Valid after [onFrame] returns true.
+     */
+    val tilt: Double
+        get() = emittedTilt
+
+    /**
+     * Applies the latest [orientation] and [tilt] (in degrees) received before the frame at
+     * [frameTimeNanos], and returns true if the smoothed values moved by more than
+     * [minDeltaDegrees] since the last frame that returned true and the views should be updated, or
+     * false if the frame can be skipped
+     */
+    fun onFrame(frameTimeNanos: Long, orientation: Double, tilt: Double, minDeltaDegrees: Double): Boolean {
+        val smoothingFactor = if (smoothingTimeConstantSeconds == NO_SMOOTHING) {
+            1.0
+        } else {
+            val dtSeconds = Math.max(frameTimeNanos - smoothedFrameTimeNanos, 0L) * 1e-9
+            1.0 - Math.exp(-dtSeconds / smoothingTimeConstantSeconds)
+        }
+        smoothedFrameTimeNanos = frameTimeNanos
+        if (!hasSmoothed || orientation.isNaN()) {
+            smoothedOrientation = normalize(orientation)
+            smoothedTilt = tilt
+            hasSmoothed = true
+        } else {
+            smoothedOrientation =
+                normalize(smoothedOrientation + smoothingFactor * angleDelta(orientation, smoothedOrientation))
+            smoothedTilt = if (tilt.isNaN() || smoothedTilt.isNaN()) {
+                tilt
+            } else {
+                smoothedTilt + smoothingFactor * (tilt - smoothedTilt)
+            }
+        }
+
+        val changed = !hasEmitted ||
+                Math.abs(angleDelta(smoothedOrientation, emittedOrientation)) > minDeltaDegrees ||
+                smoothedTilt.isNaN() != emittedTilt.isNaN() ||
+                Math.abs(smoothedTilt - emittedTilt) > minDeltaDegrees
+        if (changed) {
+            emittedOrientation = smoothedOrientation
+            emittedTilt = smoothedTilt
+            hasEmitted = true
+        }
+        return changed
+    }
+
+    /**
+     * Forgets the smoothed values, so the next frame is emitted without smoothing
+     */
+    fun reset() {
+        hasSmoothed = false
+        hasEmitted = false
+    }
+
+    companion object {
+        /**
+         * Smoothing time constant that uses the latest orientation of each frame as is
+         */
+        const val NO_SMOOTHING = 0.0
+
+        /**
+         * Default movement, in pixels, below which a frame is skipped
+         */
+        const val DEFAULT_MIN_DELTA_PIXELS = 0.5f
+
+        /**
+         * Returns the rotation in degrees that moves a point [radiusPixels] from the center of
+         * rotation by [pixels], for use as the minDeltaDegrees of onFrame(). If [radiusPixels]
+         * isn't known yet 0 is returned so every frame with any change is drawn.
+         */
+        @JvmStatic
+        fun degreesForPixels(pixels: Float, radiusPixels: Float): Double {
+            if (radiusPixels <= 0f) {
+                return 0.0
+            }
+            return Math.toDegrees((pixels / radiusPixels).toDouble())
+        }
+
+        /**
+         * Returns the shortest signed angle in degrees from [from] to [to], in [-180, 180)
+         */
+        @JvmStatic
+        fun angleDelta(to: Double, from: Double): Double {
+            var delta = (to - from) % 360.0
+            if (delta >= 180.0) {
+                delta -= 360.0
+            } else if (delta < -180.0) {
+                delta += 360.0
+            }
+            return delta
+        }
+
+        private fun normalize(degrees: Double): Double {
+            val normalized = degrees % 360.0
+            return if (normalized < 0) normalized + 360.0 else normalized
+        }
+
+        /**
+         * Returns a flow that emits at most once per display frame (via Choreographer) with the
+         * latest orientation from this flow, smoothed with [smoothingTimeConstantSeconds] (no
+         * smoothing by default). Frames where the change would move a point [radiusPixels] from
+         * the center of rotation by less than [minDeltaPixels] are skipped. [radiusPixels] is
+         * called on each frame so it can follow the size of the view, which often isn't known when
+         * the flow is created.
+         *
+         * Emitted orientations aren't recycled and can be kept by observers. values[0] is the
+         * orientation and values[1] is the tilt, and any further values (e.g., the yaw) are the
+         * latest ones from this flow. The timestamp is the frame time, and the sequence is that of
+         * the latest orientation from this flow.
+         */
+        fun Flow<Orientation>.pacedToFrames(
+            radiusPixels: () -> Float,
+            smoothingTimeConstantSeconds: Double = NO_SMOOTHING,
+            minDeltaPixels: Float = DEFAULT_MIN_DELTA_PIXELS
+        ): Flow<Orientation> {
+            val upstream = this
+            return callbackFlow {
+                val pacer = OrientationFramePacer(smoothingTimeConstantSeconds)
+                val choreographer = Choreographer.getInstance()
+                // Only touched on the main thread
+                var latestValues = DoubleArray(0)
+                var latestSequence = 0L
+                var frameScheduled = false
+
+                val frameCallback = Choreographer.FrameCallback { frameTimeNanos ->
+                    frameScheduled = false
+                    val minDelta = degreesForPixels(minDeltaPixels, radiusPixels())
+                    if (pacer.onFrame(frameTimeNanos, latestValues[0], latestValues[1], minDelta)) {
+                        val values = latestValues.copyOf()
+                        values[0] = pacer.orientation
+                        values[1] = pacer.tilt
+                        trySend(Orientation(frameTimeNanos, values, latestSequence))
+                    }
+                }
+
+                val job = launch {
+                    upstream.collect {
+                        // Sensor orientations are recycled, so copy the values
+                        if (latestValues.size != it.values.size) {
+                            latestValues = DoubleArray(it.values.size)
+                        }
+                        it.values.copyInto(latestValues)
+                        latestSequence = it.sequence
+                        if (!frameScheduled) {
+                            frameScheduled = true
+                            choreographer.postFrameCallback(frameCallback)
+                        }
+                    }
+                }
+
+                awaitClose {
+                    job.cancel()
+                    choreographer.removeFrameCallback(frameCallback)
+                }
+            }
+                .buffer(Channel.CONFLATED)
+                .flowOn(Dispatchers.Main)
+        }
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.location.GnssMeasurement
+import android.location.GnssMeasurementsEvent
+import android.location.GnssStatus
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.Reader
+
+/**
+ * Computes pseudoranges from raw GNSS measurements (GnssClock and GnssMeasurement), one epoch
+ * (GnssMeasurementsEvent) at a time.
+ *
+ * The receive time of each signal is the GPS time of the receiver clock (TimeNanos + TimeOffsetNanos
+ * - FullBiasNanos - BiasNanos) converted to the time scale of the signal's constellation, and the
+ * pseudorange is the difference between the receive time and ReceivedSvTimeNanos times the speed of
+ * light:
+ *  - GPS, Galileo, QZSS and NavIC - time of week
+ *  - BeiDou - time of week in BDT, which is 14 seconds behind GPS time
+ *  - GLONASS - time of day in UTC(SU), which is UTC + 3 hours
+ *
+ * ReceivedSvTimeNanos is only a full time of week (or day for GLONASS) once the code is locked and
+ * the time of week has been decoded, so signals without the CODE_LOCK state, without the
+ * TOW_DECODED or TOW_KNOWN state (GLO_TOD_DECODED or GLO_TOD_KNOWN for GLONASS), with the
+ * MSEC_AMBIGUOUS state, or with a time uncertainty above [maxTimeUncertaintyNanos] are rejected,
+ * as are SBAS signals. When the receive time and the
+ * transmit time are in different weeks (or days), the difference is wrapped into the week (or
+ * day), so the week and day rollovers don't produce pseudoranges that are off by a week.
+ *
+ * Each epoch is written into the same [epoch] buffers, which only grow if an epoch has more
+ * signals than they can hold, so an update doesn't allocate. The values in [epoch] are only valid
+ * until the next epoch starts - copy them to keep them.
+ *
+ * Measurements can come from a GnssMeasurementsEvent with [update], from the primitive values
+ * with [beginEpoch] and [addMeasurement], or from a log file recorded by GPSTest with [readRawLog].
+ *
+ * This class isn't thread-safe - use an instance from one thread at a time.
+ */
+class PseudorangeCalculator(
+    capacity: Int = DEFAULT_CAPACITY,
+    private val maxTimeUncertaintyNanos: Long = DEFAULT_MAX_TIME_UNCERTAINTY_NANOS
+) {
+    /**
+     * Pseudoranges of one epoch, as columns indexed from 0 until [size]
+     */
+    class Epoch internal constructor(capacity: Int) {
+        private var svids = IntArray(capacity)
+        private var constellationTypes = IntArray(capacity)
+        private var carrierFrequenciesHz = DoubleArray(capacity)
+        private var cn0sDbHz = DoubleArray(capacity)
+        private var pseudorangesMeters = DoubleArray(capacity)
+        private var pseudorangeUncertaintiesMeters = DoubleArray(capacity)
+        private var pseudorangeRatesMetersPerSecond = DoubleArray(capacity)
+        private var pseudorangeRateUncertaintiesMetersPerSecond = DoubleArray(capacity)
+        private var transmitTimesOfWeekSeconds = DoubleArray(capacity)
+        private var accumulatedDeltaRangeStates = IntArray(capacity)
+        private var accumulatedDeltaRangesMeters = DoubleArray(capacity)
+
+        /**
+         * Number of signals with a pseudorange in this epoch
+         */
+        var size = 0
+            private set
+
+        /**
+         * Number of signals in this epoch that were rejected (see PseudorangeCalculator)
+         */
+        var rejectedCount = 0
+            private set
+
+        /**
+         * True if the clock of this epoch has a full bias, so pseudoranges can be computed
+         */
+        var isValid = false
+            private set
+
+        /**
+         * Receiver hardware clock time of this epoch (GnssClock.getTimeNanos())
+         */
+        var timeNanos = 0L
+            private set
+
+        /**
+         * Count of receiver hardware clock discontinuities (GnssClock.getHardwareClockDiscontinuityCount())
+         */
+        var hardwareClockDiscontinuityCount = 0
+            private set
+
+        /**
+         * Leap seconds between GPS time and UTC used for this epoch
+         */
+        var leapSecond = 0
+            private set
+
+        /**
+         * GPS week of this epoch, counted from January 6, 1980 (not rolled over at 1024)
+         */
+        var gpsWeek = 0
+            private set
+
+        /**
+         * GPS time of week of this epoch (at timeNanos), in seconds
+         */
+        var gpsTimeOfWeekSeconds = 0.0
+            private set
+
+        /**
+         * UTC time of this epoch in milliseconds since January 1, 1970, from the receiver clock
+         */
+        val utcTimeMillis: Long
+            get() = (gpsWeek * WEEK_NANOS + (gpsTimeOfWeekSeconds * 1e9).toLong()) / 1_000_000L +
+                    GPS_EPOCH_UTC_MILLIS - leapSecond * 1000L
+
+        fun svid(i: Int): Int = svids[i]
+
+        /**
+         * Constellation of signal [i], as a GnssStatus.CONSTELLATION_* value
+         */
+        fun constellationType(i: Int): Int = constellationTypes[i]
+
+        /**
+         * Carrier frequency of signal [i] in Hz, or NaN if the device didn't report it
+         */
+        fun carrierFrequencyHz(i: Int): Double = carrierFrequenciesHz[i]
+
+        fun cn0DbHz(i: Int): Double = cn0sDbHz[i]
+
+        fun pseudorangeMeters(i: Int): Double = pseudorangesMeters[i]
+
+        /**
+         * One-sigma uncertainty of the pseudorange of signal [i], in meters
+         */
+        fun pseudorangeUncertaintyMeters(i: Int): Double = pseudorangeUncertaintiesMeters[i]
+
+        fun pseudorangeRateMetersPerSecond(i: Int): Double = pseudorangeRatesMetersPerSecond[i]
+
+        fun pseudorangeRateUncertaintyMetersPerSecond(i: Int): Double = pseudorangeRateUncertaintiesMetersPerSecond[i]
+
+        /**
+         * GPS time of week when signal [i] was transmitted, in seconds, which is negative if it was
+         * transmitted in the previous week
+         */
+        fun transmitTimeOfWeekSeconds(i: Int): Double = transmitTimesOfWeekSeconds[i]
+
+        /**
+         * GnssMeasurement.getAccumulatedDeltaRangeState() of signal [i], or ADR_STATE_UNKNOWN
+         */
+        fun accumulatedDeltaRangeState(i: Int): Int = accumulatedDeltaRangeStates[i]
+
+        /**
+         * Accumulated delta range (carrier phase) of signal [i] in meters, or NaN if unknown
+         */
+        fun accumulatedDeltaRangeMeters(i: Int): Double = accumulatedDeltaRangesMeters[i]
+
+        internal fun begin(timeNanos: Long, hardwareClockDiscontinuityCount: Int) {
+            this.timeNanos = timeNanos
+            this.hardwareClockDiscontinuityCount = hardwareClockDiscontinuityCount
+            isValid = false
+            size = 0
+            rejectedCount = 0
+            leapSecond = 0
+            gpsWeek = 0
+            gpsTimeOfWeekSeconds = 0.0
+        }
+
+        internal fun setTime(leapSecond: Int, gpsWeek: Int, gpsTimeOfWeekSeconds: Double) {
+            isValid = true
+            this.leapSecond = leapSecond
+            this.gpsWeek = gpsWeek
+            this.gpsTimeOfWeekSeconds = gpsTimeOfWeekSeconds
+        }
+
+        internal fun reject() {
+            rejectedCount++
+        }
+
+        internal fun add(
+            svid: Int,
+            constellationType: Int,
+            carrierFrequencyHz: Double,
+            cn0DbHz: Double,
+            pseudorangeMeters: Double,
+            pseudorangeUncertaintyMeters: Double,
+            pseudorangeRateMetersPerSecond: Double,
+            pseudorangeRateUncertaintyMetersPerSecond: Double,
+            transmitTimeOfWeekSeconds: Double,
+            accumulatedDeltaRangeState: Int,
+            accumulatedDeltaRangeMeters: Double
+        ) {
+            if (size == svids.size) {
+                grow()
+            }
+            svids[size] = svid
+            constellationTypes[size] = constellationType
+            carrierFrequenciesHz[size] = carrierFrequencyHz
+            cn0sDbHz[size] = cn0DbHz
+            pseudorangesMeters[size] = pseudorangeMeters
+            pseudorangeUncertaintiesMeters[size] = pseudorangeUncertaintyMeters
+            pseudorangeRatesMetersPerSecond[size] = pseudorangeRateMetersPerSecond
+            pseudorangeRateUncertaintiesMetersPerSecond[size] = pseudorangeRateUncertaintyMetersPerSecond
+            transmitTimesOfWeekSeconds[size] = transmitTimeOfWeekSeconds
+            accumulatedDeltaRangeStates[size] = accumulatedDeltaRangeState
+            accumulatedDeltaRangesMeters[size] = accumulatedDeltaRangeMeters
+            size++
+        }
+
+        private fun grow() {
+            val capacity = svids.size * 2
+            svids = svids.copyOf(capacity)
+            constellationTypes = constellationTypes.copyOf(capacity)
+            carrierFrequenciesHz = carrierFrequenciesHz.copyOf(capacity)
+            cn0sDbHz = cn0sDbHz.copyOf(capacity)
+            pseudorangesMeters = pseudorangesMeters.copyOf(capacity)
+            pseudorangeUncertaintiesMeters = pseudorangeUncertaintiesMeters.copyOf(capacity)
+            pseudorangeRatesMetersPerSecond = pseudorangeRatesMetersPerSecond.copyOf(capacity)
+            pseudorangeRateUncertaintiesMetersPerSecond = pseudorangeRateUncertaintiesMetersPerSecond.copyOf(capacity)
+            transmitTimesOfWeekSeconds = transmitTimesOfWeekSeconds.copyOf(capacity)
+            accumulatedDeltaRangeStates = accumulatedDeltaRangeStates.copyOf(capacity)
+            accumulatedDeltaRangesMeters = accumulatedDeltaRangesMeters.copyOf(capacity)
+        }
+    }
+
+    /**
+     * The current epoch, overwritten by each update
+     */
+    val epoch = Epoch(capacity.coerceAtLeast(1))
+
+    // GPS time of the receiver clock in whole nanoseconds since the GPS epoch (TimeNanos - FullBiasNanos)
+    private var gpsTimeNanos = 0L
+
+    // GPS time of week of the receiver clock in whole nanoseconds
+    private var towNanos = 0L
+
+    // Sub-nanosecond part of the receiver clock's bias (-BiasNanos)
+    private var biasCorrectionNanos = 0.0
+
+    private var leapSecondNanos = 0L
+
+    /**
+     * Computes the pseudoranges of [event] into [epoch]
+     * @return true if the clock had a full bias so pseudoranges could be computed
+     */
+    fun update(event: GnssMeasurementsEvent): Boolean {
+        val clock = event.clock
+        val valid = beginEpoch(
+            clock.timeNanos,
+            clock.hasFullBiasNanos(),
+            if (clock.hasFullBiasNanos()) clock.fullBiasNanos else 0L,
+            if (clock.hasBiasNanos()) clock.biasNanos else 0.0,
+            if (clock.hasBiasUncertaintyNanos()) clock.biasUncertaintyNanos else Double.NaN,
+            if (clock.hasLeapSecond()) clock.leapSecond else DEFAULT_LEAP_SECONDS,
+            clock.hardwareClockDiscontinuityCount
+        )
+        for (m in event.measurements) {
+            addMeasurement(
+                m.constellationType,
+                m.svid,
+                m.state,
+                m.timeOffsetNanos,
+                m.receivedSvTimeNanos,
+                m.receivedSvTimeUncertaintyNanos,
+                m.cn0DbHz,
+                m.pseudorangeRateMetersPerSecond,
+                m.pseudorangeRateUncertaintyMetersPerSecond,
+                if (m.hasCarrierFrequencyHz()) m.carrierFrequencyHz.toDouble() else Double.NaN,
+                m.accumulatedDeltaRangeState,
+                m.accumulatedDeltaRangeMeters
+            )
+        }
+        return valid
+    }
+
+    /**
+     * Starts a new epoch from the values of its GnssClock. Missing values should be passed as
+     * 0 for [biasNanos], NaN for [biasUncertaintyNanos] and [DEFAULT_LEAP_SECONDS] for [leapSecond].
+     * @return true if the clock is good enough to compute pseudoranges - if not, measurements
+     * added to this epoch are rejected
+     */
+    fun beginEpoch(
+        timeNanos: Long,
+        hasFullBiasNanos: Boolean,
+        fullBiasNanos: Long,
+        biasNanos: Double,
+        biasUncertaintyNanos: Double,
+        leapSecond: Int,
+        hardwareClockDiscontinuityCount: Int
+    ): Boolean {
+        epoch.begin(timeNanos, hardwareClockDiscontinuityCount)
+        // Without a full bias the receiver clock isn't related to GPS time yet
+        if (!hasFullBiasNanos || biasUncertaintyNanos > MAX_BIAS_UNCERTAINTY_NANOS) {
+            return false
+        }
+        gpsTimeNanos = timeNanos - fullBiasNanos
+        biasCorrectionNanos = -biasNanos
+        leapSecondNanos = leapSecond * SECOND_NANOS
+        val week = Math.floorDiv(gpsTimeNanos, WEEK_NANOS)
+        towNanos = gpsTimeNanos - week * WEEK_NANOS
+        epoch.setTime(leapSecond, week.toInt(), (towNanos + biasCorrectionNanos) * 1e-9)
+        return true
+    }
+
+    /**
+     * Computes the pseudorange of one signal from the values of its GnssMeasurement and adds it to
+     * [epoch]. [carrierFrequencyHz] and [accumulatedDeltaRangeMeters] are NaN if they're missing.
+     * @return true if the signal was added, or false if it was rejected
+     */
+    fun addMeasurement(
+        constellationType: Int,
+        svid: Int,
+        state: Int,
+        timeOffsetNanos: Double,
+        receivedSvTimeNanos: Long,
+        receivedSvTimeUncertaintyNanos: Long,
+        cn0DbHz: Double,
+        pseudorangeRateMetersPerSecond: Double,
+        pseudorangeRateUncertaintyMetersPerSecond: Double,
+        carrierFrequencyHz: Double,
+        accumulatedDeltaRangeState: Int = GnssMeasurement.ADR_STATE_UNKNOWN,
+        accumulatedDeltaRangeMeters: Double = Double.NaN
+    ): Boolean {
+        if (!epoch.isValid || receivedSvTimeUncertaintyNanos > maxTimeUncertaintyNanos ||
+            (state and GnssMeasurement.STATE_CODE_LOCK) == 0 ||
+            (state and GnssMeasurement.STATE_MSEC_AMBIGUOUS) != 0) {
+            epoch.reject()
+            return false
+        }
+        // Receive time in the constellation's time scale, in whole nanoseconds, and its period
+        val receiveNanos: Long
+        val periodNanos: Long
+        when (constellationType) {
+            GnssStatus.CONSTELLATION_GPS, GnssStatus.CONSTELLATION_GALILEO,
+            GnssStatus.CONSTELLATION_QZSS, GnssStatus.CONSTELLATION_IRNSS,
+            GnssStatus.CONSTELLATION_BEIDOU -> {
+                if ((state and (GnssMeasurement.STATE_TOW_DECODED or GnssMeasurement.STATE_TOW_KNOWN)) == 0) {
+                    epoch.reject()
+                    return false
+                }
+                val offset = if (constellationType == GnssStatus.CONSTELLATION_BEIDOU) BDT_OFFSET_NANOS else 0L
+                receiveNanos = Math.floorMod(gpsTimeNanos - offset, WEEK_NANOS)
+                periodNanos = WEEK_NANOS
+            }
+            GnssStatus.CONSTELLATION_GLONASS -> {
+                if ((state and (GnssMeasurement.STATE_GLO_TOD_DECODED or GnssMeasurement.STATE_GLO_TOD_KNOWN)) == 0) {
+                    epoch.reject()
+                    return false
+                }
+                receiveNanos = Math.floorMod(gpsTimeNanos - leapSecondNanos + GLONASS_OFFSET_NANOS, DAY_NANOS)
+                periodNanos = DAY_NANOS
+            }
+            else -> {
+                // SBAS (and unknown constellations) only have a time of transmission within a second
+                epoch.reject()
+                return false
+            }
+        }
+
+        // Wrap into the period, in case the receive and transmit times are in different weeks (or days)
+        var travelNanos = receiveNanos - receivedSvTimeNanos
+        if (travelNanos > periodNanos / 2) {
+            travelNanos -= periodNanos
+        } else if (travelNanos < -periodNanos / 2) {
+            travelNanos += periodNanos
+        }
+        val travelTimeNanos = travelNanos + timeOffsetNanos + biasCorrectionNanos
+        if (travelTimeNanos < 0 || travelTimeNanos > MAX_TRAVEL_TIME_NANOS) {
+            epoch.reject()
+            return false
+        }
+
+        epoch.add(
+            svid,
+            constellationType,
+            carrierFrequencyHz,
+            cn0DbHz,
+            travelTimeNanos * NANOS_TO_METERS,
+            receivedSvTimeUncertaintyNanos * NANOS_TO_METERS,
+            pseudorangeRateMetersPerSecond,
+            pseudorangeRateUncertaintyMetersPerSecond,
+            (towNanos + timeOffsetNanos + biasCorrectionNanos - travelTimeNanos) * 1e-9,
+            accumulatedDeltaRangeState,
+            accumulatedDeltaRangeMeters
+        )
+        return true
+    }
+
+    companion object {
+        const val SPEED_OF_LIGHT_METERS_PER_SECOND = 299_792_458.0
+
+        /**
+         * Leap seconds between GPS time and UTC (since January 2017), used when the clock doesn't
+         * have them
+         */
+        const val DEFAULT_LEAP_SECONDS = 18
+
+        /**
+         * Default number of signals the epoch buffers hold before they grow
+         */
+        const val DEFAULT_CAPACITY = 128
+
+        /**
+         * Default maximum ReceivedSvTimeUncertaintyNanos of a signal (150 meters)
+         */
+        const val DEFAULT_MAX_TIME_UNCERTAINTY_NANOS = 500L
+
+        // Clocks with a larger bias uncertainty aren't accurate enough to use
+        private const val MAX_BIAS_UNCERTAINTY_NANOS = 1e6
+
+        // Longest plausible signal travel time (BeiDou GEO satellites are ~0.13 seconds away)
+        private const val MAX_TRAVEL_TIME_NANOS = 0.3e9
+
+        private const val NANOS_TO_METERS = SPEED_OF_LIGHT_METERS_PER_SECOND * 1e-9
+        private const val SECOND_NANOS = 1_000_000_000L
+        private const val DAY_NANOS = 86_400L * SECOND_NANOS
+        private const val WEEK_NANOS = 7L * DAY_NANOS
+        private const val BDT_OFFSET_NANOS = 14L * SECOND_NANOS
+        private const val GLONASS_OFFSET_NANOS = 3L * 3600L * SECOND_NANOS
+        private const val GPS_EPOCH_UTC_MILLIS = 315_964_800_000L
+
+        // Columns of "Raw" lines in GPSTest log files (see FormatUtils.toLog())
+        private const val RAW_TIME_NANOS = 2
+        private const val RAW_LEAP_SECOND = 3
+        private const val RAW_FULL_BIAS_NANOS = 5
+        private const val RAW_BIAS_NANOS = 6
+        private const val RAW_BIAS_UNCERTAINTY_NANOS = 7
+        private const val RAW_HARDWARE_CLOCK_DISCONTINUITY_COUNT = 10
+        private const val RAW_SVID = 11
+        private const val RAW_TIME_OFFSET_NANOS = 12
+        private const val RAW_STATE = 13
+        private const val RAW_RECEIVED_SV_TIME_NANOS = 14
+        private const val RAW_RECEIVED_SV_TIME_UNCERTAINTY_NANOS = 15
+        private const val RAW_CN0_DBHZ = 16
+        private const val RAW_PSEUDORANGE_RATE = 17
+        private const val RAW_PSEUDORANGE_RATE_UNCERTAINTY = 18
+        private const val RAW_ADR_STATE = 19
+        private const val RAW_ADR_METERS = 20
+        private const val RAW_CARRIER_FREQUENCY_HZ = 22
+        private const val RAW_CONSTELLATION_TYPE = 28
+
+        /**
+         * Reads the "Raw" lines of a GPSTest CSV log file and computes the pseudoranges of each
+         * epoch (consecutive lines with the same TimeNanos) with [calculator], calling [listener]
+         * with [calculator]'s epoch after each epoch. Other lines are skipped.
+         * @return the number of epochs read
+         * @throws IOException if the log can't be read or a Raw line can't be parsed
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun readRawLog(reader: Reader, calculator: PseudorangeCalculator, listener: (Epoch) -> Unit): Int {
+            var epochs = 0
+            var lineNumber = 0
+            var epochTimeNanos = 0L
+            BufferedReader(reader).useLines { lines ->
+                for (line in lines) {
+                    lineNumber++
+                    if (!line.startsWith("Raw,")) {
+                        continue
+                    }
+                    val fields = line.split(',')
+                    if (fields.size <= RAW_CONSTELLATION_TYPE) {
+                        throw IOException("Invalid Raw measurement on line $lineNumber: $line")
+                    }
+                    try {
+                        val timeNanos = fields[RAW_TIME_NANOS].toLong()
+                        if (epochs == 0 || timeNanos != epochTimeNanos) {
+                            if (epochs > 0) {
+                                listener(calculator.epoch)
+                            }
+                            epochs++
+                            epochTimeNanos = timeNanos
+                            val fullBias = fields[RAW_FULL_BIAS_NANOS]
+                            calculator.beginEpoch(
+                                timeNanos,
+                                fullBias.isNotEmpty(),
+                                if (fullBias.isNotEmpty()) fullBias.toLong() else 0L,
+                                fields[RAW_BIAS_NANOS].toDoubleOr(0.0),
+                                fields[RAW_BIAS_UNCERTAINTY_NANOS].toDoubleOr(Double.NaN),
+                                fields[RAW_LEAP_SECOND].let { if (it.isEmpty()) DEFAULT_LEAP_SECONDS else it.toInt() },
+                                fields[RAW_HARDWARE_CLOCK_DISCONTINUITY_COUNT].toInt()
+                            )
+                        }
+                        calculator.addMeasurement(
+                            fields[RAW_CONSTELLATION_TYPE].toInt(),
+                            fields[RAW_SVID].toInt(),
+                            fields[RAW_STATE].toInt(),
+                            fields[RAW_TIME_OFFSET_NANOS].toDoubleOr(0.0),
+                            fields[RAW_RECEIVED_SV_TIME_NANOS].toLong(),
+                            fields[RAW_RECEIVED_SV_TIME_UNCERTAINTY_NANOS].toLong(),
+                            fields[RAW_CN0_DBHZ].toDoubleOr(Double.NaN),
+                            fields[RAW_PSEUDORANGE_RATE].toDoubleOr(Double.NaN),
+                            fields[RAW_PSEUDORANGE_RATE_UNCERTAINTY].toDoubleOr(Double.NaN),
+                            fields[RAW_CARRIER_FREQUENCY_HZ].toDoubleOr(Double.NaN),
+                            fields[RAW_ADR_STATE].let { if (it.isEmpty()) GnssMeasurement.ADR_STATE_UNKNOWN else it.toInt() },
+                            fields[RAW_ADR_METERS].toDoubleOr(Double.NaN)
+                        )
+                    } catch (e: NumberFormatException) {
+                        throw IOException("Invalid Raw measurement on line $lineNumber: $line", e)
+                    }
+                }
+            }
+            if (epochs > 0) {
+                listener(calculator.epoch)
+            }
+            return epochs
+        }
+
+        private fun String.toDoubleOr(missing: Double): Double = if (isEmpty()) missing else toDouble()
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.location.GnssMeasurementsEvent
+import android.location.Location
+import com.android.gpstest.library.util.PseudorangeCalculator.Companion.SPEED_OF_LIGHT_METERS_PER_SECOND
+
+/**
+ * Computes locations from raw measurements, independently of the chipset's own fix: the
+ * pseudoranges of each epoch come from [calculator], the satellites are computed at their transmit
+ * times with [propagator], and the fix is solved by [solver], which holds the last solution.
+ *
+ * The clock corrections of [propagator] are for the first frequency, so only one signal of each
+ * satellite is used, preferring one in the L1/E1/B1/G1 band. Satellites without an ephemeris and
+ * unhealthy satellites are skipped.
+ *
+ * [propagator] can be shared with other users, so it's locked while the satellites of an epoch are
+ * computed and added to [solver].
+ *
+ * This class isn't thread-safe - use an instance from one thread at a time.
+ */
+class RawLocationCalculator @JvmOverloads constructor(
+    private val propagator: SatellitePropagator,
+    private val calculator: PseudorangeCalculator = PseudorangeCalculator(),
+    val solver: WlsSolver = WlsSolver()
+) {
+    // Signal of the epoch used for each satellite of the propagator, or -1
+    private var signals = IntArray(0)
+
+    /**
+     * Computes the location of the epoch in [event]
+     * @return the location, or null if the epoch doesn't have enough signals with an ephemeris
+     */
+    fun update(event: GnssMeasurementsEvent): Location? {
+        if (!calculator.update(event) || !solve(calculator.epoch)) {
+            return null
+        }
+        return solver.toLocation(WlsSolver.PROVIDER, calculator.epoch.utcTimeMillis)
+    }
+
+    /**
+     * Adds the signals of [epoch] to [solver] and solves them
+     * @return true if the position converged, or false if [epoch] doesn't have enough signals with
+     * an ephemeris
+     */
+    fun solve(epoch: PseudorangeCalculator.Epoch): Boolean {
+        solver.clear()
+        synchronized(propagator) {
+            propagator.update()
+            if (signals.size < propagator.size) {
+                signals = IntArray(propagator.size)
+            }
+            signals.fill(-1)
+            for (i in 0 until epoch.size) {
+                val sat = propagator.indexOf(epoch.constellationType(i), epoch.svid(i))
+                if (sat < 0 || !propagator.isHealthy(sat)) {
+                    continue
+                }
+                val used = signals[sat]
+                if (used < 0 || (!isFirstFrequency(epoch.carrierFrequencyHz(used)) &&
+                            isFirstFrequency(epoch.carrierFrequencyHz(i)))) {
+                    signals[sat] = i
+                }
+            }
+            for (sat in 0 until propagator.size) {
+                val i = signals[sat]
+                if (i < 0) continue
+                // The transmit time is in satellite time - correct it with the clock bias at that time
+                val transmitTime = epoch.transmitTimeOfWeekSeconds(i)
+                propagator.propagate(sat, transmitTime)
+                propagator.propagate(sat, transmitTime - propagator.clockBiasSeconds(sat))
+                solver.add(
+                    epoch.constellationType(i),
+                    propagator.x(sat), propagator.y(sat), propagator.z(sat),
+                    propagator.vx(sat), propagator.vy(sat), propagator.vz(sat),
+                    propagator.clockBiasSeconds(sat) * SPEED_OF_LIGHT_METERS_PER_SECOND,
+                    propagator.clockDriftSecondsPerSecond(sat) * SPEED_OF_LIGHT_METERS_PER_SECOND,
+                    epoch.pseudorangeMeters(i),
+                    epoch.pseudorangeUncertaintyMeters(i),
+                    epoch.pseudorangeRateMetersPerSecond(i),
+                    epoch.pseudorangeRateUncertaintyMetersPerSecond(i),
+                    epoch.cn0DbHz(i)
+                )
+            }
+        }
+        return solver.solve()
+    }
+
+    companion object {
+        // L1, E1, B1 and G1 are all between 1559 and 1610 MHz, and the other bands are below 1300 MHz
+        private const val MIN_FIRST_FREQUENCY_HZ = 1.5e9
+
+        /**
+         * True if [carrierFrequencyHz] is in the band of the first frequency, or unknown (as older
+         * devices only report the first frequency)
+         */
+        private fun isFirstFrequency(carrierFrequencyHz: Double): Boolean {
+            return carrierFrequencyHz.isNaN() || carrierFrequencyHz > MIN_FIRST_FREQUENCY_HZ
+        }
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.location.GnssStatus
+import com.android.gpstest.library.model.Ephemeris
+import com.android.gpstest.library.model.GlonassEphemeris
+import com.android.gpstest.library.model.KeplerEphemeris
+import com.android.gpstest.library.util.PseudorangeCalculator.Companion.DEFAULT_LEAP_SECONDS
+import kotlin.math.abs
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * Computes the ECEF positions, velocities and clock corrections of satellites from the latest
+ * ephemeris of each satellite in [cache], at GPS times of week.
+ *
+ * Keplerian orbits (GPS, QZSS, Galileo and BeiDou, IS-GPS-200 20.3.3.4.3) are propagated in
+ * stages over columns of parameters - time from ephemeris, mean anomaly, a fixed number of Newton
+ * iterations for the eccentric anomaly, then the corrected orbit - so each stage is a branch-free
+ * loop over arrays. BeiDou GEO satellites are rotated out of their inclined reference frame (BDS
+ * ICD 5.2.4.12). GLONASS orbits are integrated from the broadcast state vector with 4th order
+ * Runge-Kutta steps of at most [glonassStepSeconds] (GLONASS ICD A.3.1.2). Positions are in the
+ * ECEF frame at the given time (PZ-90 for GLONASS, which is within centimeters of WGS 84).
+ *
+ * Clock corrections are for the first frequency (L1, E1, B1I and G1) - they include the
+ * relativistic correction, and the group delay of the first frequency is subtracted.
+ *
+ * The result of each satellite is kept with the time it was computed for, so computing it again
+ * for the same time (e.g., for the solver, the sky view and an exporter in the same epoch) reuses
+ * it. Satellites are reloaded from [cache] when its version changes, which clears the results.
+ *
+ * This class isn't thread-safe - use an instance from one thread at a time. A shared instance (such
+ * as the one provided by DataModule) must be used while synchronized on it, from propagating until
+ * the results have been read.
+ */
+class SatellitePropagator @JvmOverloads constructor(
+    val cache: EphemerisCache,
+    private val leapSeconds: Int = DEFAULT_LEAP_SECONDS,
+    private val glonassStepSeconds: Double = DEFAULT_GLONASS_STEP_SECONDS
+) {
+    private var cacheVersion = -1
+
+    private val indexes = HashMap<Int, Int>()
+
+    // Satellites, with Keplerian orbits from 0 until keplerCount and GLONASS after
+    private var constellationTypes = IntArray(0)
+    private var svids = IntArray(0)
+    private var healths = IntArray(0)
+    private var keplerCount = 0
+
+    // Keplerian parameters
+    private var sqrtA = DoubleArray(0)
+    private var ecc = DoubleArray(0)
+    private var meanMotion = DoubleArray(0)
+    private var m0 = DoubleArray(0)
+    private var omega = DoubleArray(0)
+    private var omega0 = DoubleArray(0)
+    private var omegaDot = DoubleArray(0)
+    private var i0 = DoubleArray(0)
+    private var iDot = DoubleArray(0)
+    private var cuc = DoubleArray(0)
+    private var cus = DoubleArray(0)
+    private var crc = DoubleArray(0)
+    private var crs = DoubleArray(0)
+    private var cic = DoubleArray(0)
+    private var cis = DoubleArray(0)
+    private var toe = DoubleArray(0)
+    private var toc = DoubleArray(0)
+    private var af0 = DoubleArray(0)
+    private var af1 = DoubleArray(0)
+    private var af2 = DoubleArray(0)
+    private var tgd = DoubleArray(0)
+    private var earthRate = DoubleArray(0)
+    private var timeOffset = DoubleArray(0)
+    private var isGeo = BooleanArray(0)
+
+    // GLONASS state vectors at tb, indexed from keplerCount
+    private var glonass = arrayOfNulls<GlonassEphemeris>(0)
+
+    // Results and the GPS time of week they were computed for (NaN if not computed)
+    private var times = DoubleArray(0)
+    private var posX = DoubleArray(0)
+    private var posY = DoubleArray(0)
+    private var posZ = DoubleArray(0)
+    private var velX = DoubleArray(0)
+    private var velY = DoubleArray(0)
+    private var velZ = DoubleArray(0)
+    private var clockBiases = DoubleArray(0)
+    private var clockDrifts = DoubleArray(0)
+
+    // Scratch columns for the Kepler stages
+    private var pending = IntArray(0)
+    private var tk = DoubleArray(0)
+    private var meanAnomaly = DoubleArray(0)
+    private var eccAnomaly = DoubleArray(0)
+
+    // GLONASS integration state
+    private val state = DoubleArray(6)
+    private val k = Array(4) { DoubleArray(6) }
+    private val temp = DoubleArray(6)
+
+    /**
+     * Number of satellites with an ephemeris
+     */
+    var size = 0
+        private set
+
+    /**
+     * Number of satellite positions computed (not reused), for monitoring
+     */
+    var computeCount = 0L
+        private set
+
+    fun constellationType(i: Int): Int = constellationTypes[i]
+
+    fun svid(i: Int): Int = svids[i]
+
+    /**
+     * True if the ephemeris of satellite [i] doesn't flag it as unhealthy
+     */
+    fun isHealthy(i: Int): Boolean = healths[i] == 0
+
+    /**
+     * GPS time of week the results of satellite [i] were last computed for, or NaN
+     */
+    fun timeOfWeekSeconds(i: Int): Double = times[i]
+
+    fun x(i: Int): Double = posX[i]
+
+    fun y(i: Int): Double = posY[i]
+
+    fun z(i: Int): Double = posZ[i]
+
+    fun vx(i: Int): Double = velX[i]
+
+    fun vy(i: Int): Double = velY[i]
+
+    fun vz(i: Int): Double = velZ[i]
+
+    /**
+     * Clock bias of satellite [i] in seconds - subtract it from the transmit time to get system time
+     */
+    fun clockBiasSeconds(i: Int): Double = clockBiases[i]
+
+    fun clockDriftSecondsPerSecond(i: Int): Double = clockDrifts[i]
+
+    /**
+     * Returns the index of the satellite, or -1 if it has no ephemeris
+     */
+    fun indexOf(constellationType: Int, svid: Int): Int {
+        update()
+        return indexes[key(constellationType, svid)] ?: -1
+    }
+
+    /**
+     * Reloads the satellites from the cache if it changed, returning true if it did
+     */
+    fun update(): Boolean {
+        if (cache.version == cacheVersion) return false
+        cacheVersion = cache.version
+        val latest = HashMap<Int, Ephemeris>()
+        for (e in cache.all()) {
+            // all() lists the ephemerides of each satellite from the oldest
+            latest[key(e.constellationType, e.svid)] = e
+        }
+        val keplers = latest.values.filterIsInstance<KeplerEphemeris>()
+        val glonasses = latest.values.filterIsInstance<GlonassEphemeris>()
+        size = keplers.size + glonasses.size
+        keplerCount = keplers.size
+        allocate(size)
+        indexes.clear()
+        for ((i, e) in keplers.withIndex()) {
+            setKepler(i, e)
+        }
+        for ((j, e) in glonasses.withIndex()) {
+            val i = keplerCount + j
+            constellationTypes[i] = e.constellationType
+            svids[i] = e.svid
+            healths[i] = e.health
+            glonass[i] = e
+            indexes[key(e.constellationType, e.svid)] = i
+        }
+        times.fill(Double.NaN)
+        return true
+    }
+
+    /**
+     * Computes all satellites at [gpsTimeOfWeekSeconds], reusing the results of satellites already
+     * computed for that time
+     */
+    fun propagate(gpsTimeOfWeekSeconds: Double) {
+        update()
+        var count = 0
+        for (i in 0 until keplerCount) {
+            if (times[i] != gpsTimeOfWeekSeconds) pending[count++] = i
+        }
+        propagateKepler(count, gpsTimeOfWeekSeconds)
+        for (i in keplerCount until size) {
+            if (times[i] != gpsTimeOfWeekSeconds) propagateGlonass(i, gpsTimeOfWeekSeconds)
+        }
+    }
+
+    /**
+     * Computes satellite [i] at [gpsTimeOfWeekSeconds] (e.g., its transmit time), unless it was
+     * already computed for that time
+     */
+    fun propagate(i: Int, gpsTimeOfWeekSeconds: Double) {
+        if (times[i] == gpsTimeOfWeekSeconds) return
+        if (i < keplerCount) {
+            pending[0] = i
+            propagateKepler(1, gpsTimeOfWeekSeconds)
+        } else {
+            propagateGlonass(i, gpsTimeOfWeekSeconds)
+        }
+    }
+
+    private fun setKepler(i: Int, e: KeplerEphemeris) {
+        constellationTypes[i] = e.constellationType
+        svids[i] = e.svid
+        healths[i] = e.health
+        indexes[key(e.constellationType, e.svid)] = i
+        val beidou = e.constellationType == GnssStatus.CONSTELLATION_BEIDOU
+        val mu = if (e.constellationType == GnssStatus.CONSTELLATION_GPS ||
+            e.constellationType == GnssStatus.CONSTELLATION_QZSS
+        ) GPS_MU else CGCS2000_MU
+        val a = e.sqrtA * e.sqrtA
+        sqrtA[i] = e.sqrtA
+        ecc[i] = e.eccentricity
+        meanMotion[i] = sqrt(mu / (a * a * a)) + e.deltaN
+        m0[i] = e.m0
+        omega[i] = e.omega
+        omega0[i] = e.omega0
+        omegaDot[i] = e.omegaDot
+        i0[i] = e.i0
+        iDot[i] = e.iDot
+        cuc[i] = e.cuc
+        cus[i] = e.cus
+        crc[i] = e.crc
+        crs[i] = e.crs
+        cic[i] = e.cic
+        cis[i] = e.cis
+        toe[i] = e.toe
+        toc[i] = e.toc
+        af0[i] = e.af0
+        af1[i] = e.af1
+        af2[i] = e.af2
+        tgd[i] = e.tgd
+        earthRate[i] = if (beidou) BDS_EARTH_ROTATION_RATE else WlsSolver.EARTH_ROTATION_RATE
+        timeOffset[i] = if (beidou) -BDT_OFFSET_SECONDS else 0.0
+        isGeo[i] = beidou && (e.svid <= 5 || e.svid >= 59)
+    }
+
+    /**
+     * Computes the Keplerian satellites in the first [count] entries of pending at [t]
+     */
+    private fun propagateKepler(count: Int, t: Double) {
+        // Time from ephemeris reference epoch and mean anomaly
+        for (j in 0 until count) {
+            val i = pending[j]
+            val dt = wrapWeek(t + timeOffset[i] - toe[i])
+            tk[j] = dt
+            val m = m0[i] + meanMotion[i] * dt
+            meanAnomaly[j] = m
+            eccAnomaly[j] = m + ecc[i] * sin(m)
+        }
+        // Eccentric anomaly, with a fixed number of Newton iterations instead of a tolerance
+        for (iteration in 0 until KEPLER_ITERATIONS) {
+            for (j in 0 until count) {
+                val e = ecc[pending[j]]
+                val ea = eccAnomaly[j]
+                eccAnomaly[j] = ea - (ea - e * sin(ea) - meanAnomaly[j]) / (1 - e * cos(ea))
+            }
+        }
+        for (j in 0 until count) {
+            val i = pending[j]
+            computeOrbit(i, tk[j], eccAnomaly[j])
+            computeClock(i, wrapWeek(t + timeOffset[i] - toc[i]), eccAnomaly[j])
+            if (isGeo[i]) rotateGeo(i, tk[j])
+            times[i] = t
+            computeCount++
+        }
+    }
+
+    private fun computeOrbit(i: Int, dt: Double, ea: Double) {
+        val e = ecc[i]
+        val a = sqrtA[i] * sqrtA[i]
+        val sinE = sin(ea)
+        val cosE = cos(ea)
+        val oneMinusECosE = 1 - e * cosE
+        val sqrt1e2 = sqrt(1 - e * e)
+        val phi = atan2(sqrt1e2 * sinE, cosE - e) + omega[i]
+        val sin2p = sin(2 * phi)
+        val cos2p = cos(2 * phi)
+
+        val u = phi + cus[i] * sin2p + cuc[i] * cos2p
+        val r = a * oneMinusECosE + crs[i] * sin2p + crc[i] * cos2p
+        val inc = i0[i] + iDot[i] * dt + cis[i] * sin2p + cic[i] * cos2p
+
+        // Rates of the anomalies and corrected arguments
+        val eDot = meanMotion[i] / oneMinusECosE
+        val phiDot = sqrt1e2 * eDot / oneMinusECosE
+        val uDot = phiDot * (1 + 2 * (cus[i] * cos2p - cuc[i] * sin2p))
+        val rDot = a * e * sinE * eDot + 2 * phiDot * (crs[i] * cos2p - crc[i] * sin2p)
+        val incDot = iDot[i] + 2 * phiDot * (cis[i] * cos2p - cic[i] * sin2p)
+
+        // Position and velocity in the orbital plane
+        val cosU = cos(u)
+        val sinU = sin(u)
+        val xp = r * cosU
+        val yp = r * sinU
+        val xpDot = rDot * cosU - r * uDot * sinU
+        val ypDot = rDot * sinU + r * uDot * cosU
+
+        // Longitude of the ascending node - GEO satellites are computed in inertial axes first
+        val rate = earthRate[i]
+        val nodeRate = if (isGeo[i]) omegaDot[i] else omegaDot[i] - rate
+        val node = omega0[i] + nodeRate * dt - rate * toe[i]
+        val cosO = cos(node)
+        val sinO = sin(node)
+        val cosI = cos(inc)
+        val sinI = sin(inc)
+
+        val x = xp * cosO - yp * cosI * sinO
+        val y = xp * sinO + yp * cosI * cosO
+        posX[i] = x
+        posY[i] = y
+        posZ[i] = yp * sinI
+        velX[i] = xpDot * cosO - ypDot * cosI * sinO + yp * sinI * sinO * incDot - y * nodeRate
+        velY[i] = xpDot * sinO + ypDot * cosI * cosO - yp * sinI * cosO * incDot + x * nodeRate
+        velZ[i] = ypDot * sinI + yp * cosI * incDot
+    }
+
+    private fun computeClock(i: Int, dt: Double, ea: Double) {
+        val e = ecc[i]
+        val relativistic = RELATIVISTIC_F * e * sqrtA[i] * sin(ea)
+        val eDot = meanMotion[i] / (1 - e * cos(ea))
+        clockBiases[i] = af0[i] + (af1[i] + af2[i] * dt) * dt + relativistic - tgd[i]
+        clockDrifts[i] = af1[i] + 2 * af2[i] * dt + RELATIVISTIC_F * e * sqrtA[i] * cos(ea) * eDot
+    }
+
+    /**
+     * Rotates the position and velocity of BeiDou GEO satellite [i], computed in its reference
+     * frame inclined by -5 degrees, into the ECEF frame
+     */
+    private fun rotateGeo(i: Int, dt: Double) {
+        val rate = earthRate[i]
+        val z = rate * dt
+        val cosZ = cos(z)
+        val sinZ = sin(z)
+        // Rx(-5 degrees)
+        val x = posX[i]
+        val y = posY[i] * GEO_COS + posZ[i] * GEO_SIN
+        val zz = -posY[i] * GEO_SIN + posZ[i] * GEO_COS
+        val vx = velX[i]
+        val vy = velY[i] * GEO_COS + velZ[i] * GEO_SIN
+        val vz = -velY[i] * GEO_SIN + velZ[i] * GEO_COS
+        // Rz(rate * dt), including the rotation of the frame in the velocity
+        posX[i] = x * cosZ + y * sinZ
+        posY[i] = -x * sinZ + y * cosZ
+        posZ[i] = zz
+        velX[i] = vx * cosZ + vy * sinZ + rate * posY[i]
+        velY[i] = -vx * sinZ + vy * cosZ - rate * posX[i]
+        velZ[i] = vz
+    }
+
+    private fun propagateGlonass(i: Int, t: Double) {
+        val e = glonass[i]!!
+        // GPS time of week to Moscow time of day, and the time from tb within +/- half a day
+        val tod = ((t - leapSeconds + MOSCOW_OFFSET_SECONDS) % DAY_SECONDS + DAY_SECONDS) % DAY_SECONDS
+        var dt = tod - e.tb
+        if (dt > DAY_SECONDS / 2) dt -= DAY_SECONDS else if (dt < -DAY_SECONDS / 2) dt += DAY_SECONDS
+
+        state[0] = e.x
+        state[1] = e.y
+        state[2] = e.z
+        state[3] = e.vx
+        state[4] = e.vy
+        state[5] = e.vz
+        val steps = maxOf(1, Math.ceil(abs(dt) / glonassStepSeconds).toInt())
+        val h = dt / steps
+        for (s in 0 until steps) {
+            rungeKuttaStep(e, h)
+        }
+        posX[i] = state[0]
+        posY[i] = state[1]
+        posZ[i] = state[2]
+        velX[i] = state[3]
+        velY[i] = state[4]
+        velZ[i] = state[5]
+        clockBiases[i] = -e.tauN + e.gammaN * dt
+        clockDrifts[i] = e.gammaN
+        times[i] = t
+        computeCount++
+    }
+
+    private fun rungeKuttaStep(e: GlonassEphemeris, h: Double) {
+        derivatives(e, state, k[0])
+        for (n in 0 until 6) temp[n] = state[n] + k[0][n] * h / 2
+        derivatives(e, temp, k[1])
+        for (n in 0 until 6) temp[n] = state[n] + k[1][n] * h / 2
+        derivatives(e, temp, k[2])
+        for (n in 0 until 6) temp[n] = state[n] + k[2][n] * h
+        derivatives(e, temp, k[3])
+        for (n in 0 until 6) {
+            state[n] += h / 6 * (k[0][n] + 2 * k[1][n] + 2 * k[2][n] + k[3][n])
+        }
+    }
+
+    /**
+     * GLONASS equations of motion in the rotating PZ-90 frame with the J2 term and the broadcast
+     * lunisolar acceleration, writing the derivatives of [s] into [out]
+     */
+    private fun derivatives(e: GlonassEphemeris, s: DoubleArray, out: DoubleArray) {
+        val x = s[0]
+        val y = s[1]
+        val z = s[2]
+        val r2 = x * x + y * y + z * z
+        val r = sqrt(r2)
+        val mur3 = GLONASS_MU / (r2 * r)
+        val j2 = 1.5 * GLONASS_J2 * GLONASS_MU * GLONASS_AE * GLONASS_AE / (r2 * r2 * r)
+        val z2r2 = 5 * z * z / r2
+        val w2 = GLONASS_EARTH_ROTATION_RATE * GLONASS_EARTH_ROTATION_RATE
+        out[0] = s[3]
+        out[1] = s[4]
+        out[2] = s[5]
+        out[3] = -mur3 * x - j2 * x * (1 - z2r2) + w2 * x + 2 * GLONASS_EARTH_ROTATION_RATE * s[4] + e.ax
+        out[4] = -mur3 * y - j2 * y * (1 - z2r2) + w2 * y - 2 * GLONASS_EARTH_ROTATION_RATE * s[3] + e.ay
+        out[5] = -mur3 * z - j2 * z * (3 - z2r2) + e.az
+    }
+
+    private fun allocate(n: Int) {
+        if (constellationTypes.size >= n && constellationTypes.isNotEmpty()) return
+        val capacity = maxOf(n, 1)
+        constellationTypes = IntArray(capacity)
+        svids = IntArray(capacity)
+        healths = IntArray(capacity)
+        sqrtA = DoubleArray(capacity)
+        ecc = DoubleArray(capacity)
+        meanMotion = DoubleArray(capacity)
+        m0 = DoubleArray(capacity)
+        omega = DoubleArray(capacity)
+        omega0 = DoubleArray(capacity)
+        omegaDot = DoubleArray(capacity)
+        i0 = DoubleArray(capacity)
+        iDot = DoubleArray(capacity)
+        cuc = DoubleArray(capacity)
+        cus = DoubleArray(capacity)
+        crc = DoubleArray(capacity)
+        crs = DoubleArray(capacity)
+        cic = DoubleArray(capacity)
+        cis = DoubleArray(capacity)
+        toe = DoubleArray(capacity)
+        toc = DoubleArray(capacity)
+        af0 = DoubleArray(capacity)
+        af1 = DoubleArray(capacity)
+        af2 = DoubleArray(capacity)
+        tgd = DoubleArray(capacity)
+        earthRate = DoubleArray(capacity)
+        timeOffset = DoubleArray(capacity)
+        isGeo = BooleanArray(capacity)
+        glonass = arrayOfNulls(capacity)
+        times = DoubleArray(capacity)
+        posX = DoubleArray(capacity)
+        posY = DoubleArray(capacity)
+        posZ = DoubleArray(capacity)
+        velX = DoubleArray(capacity)
+        velY = DoubleArray(capacity)
+        velZ = DoubleArray(capacity)
+        clockBiases = DoubleArray(capacity)
+        clockDrifts = DoubleArray(capacity)
+        pending = IntArray(capacity)
+        tk = DoubleArray(capacity)
+        meanAnomaly = DoubleArray(capacity)
+        eccAnomaly = DoubleArray(capacity)
+    }
+
+    private fun key(constellationType: Int, svid: Int): Int = (constellationType shl 16) or (svid and 0xFFFF)
+
+    companion object {
+        const val DEFAULT_GLONASS_STEP_SECONDS = 60.0
+
+        // Newton iterations from M + e sin(M) - enough for machine precision below e = 0.1
+        private const val KEPLER_ITERATIONS = 4
+
+        private const val GPS_MU = 3.986005e14
+        // Galileo and BeiDou
+        private const val CGCS2000_MU = 3.986004418e14
+        private const val BDS_EARTH_ROTATION_RATE = 7.292115e-5
+        private const val RELATIVISTIC_F = -4.442807633e-10
+        private const val BDT_OFFSET_SECONDS = 14.0
+
+        private const val GLONASS_MU = 3.9860044e14
+        private const val GLONASS_AE = 6378136.0
+        private const val GLONASS_J2 = 1.0826257e-3
+        private const val GLONASS_EARTH_ROTATION_RATE = 7.292115e-5
+
+        private const val DAY_SECONDS = 86400.0
+        private const val HALF_WEEK_SECONDS = 302400.0
+        private const val MOSCOW_OFFSET_SECONDS = 3 * 3600.0
+
+        // cos and sin of -5 degrees, the inclination of the BeiDou GEO reference frame
+        private val GEO_COS = cos(Math.toRadians(-5.0))
+        private val GEO_SIN = sin(Math.toRadians(-5.0))
+
+        private fun wrapWeek(dt: Double): Double {
+            return when {
+                dt > HALF_WEEK_SECONDS -> dt - 2 * HALF_WEEK_SECONDS
+                dt < -HALF_WEEK_SECONDS -> dt + 2 * HALF_WEEK_SECONDS
+                else -> dt
+            }
+        }
+    }
+}
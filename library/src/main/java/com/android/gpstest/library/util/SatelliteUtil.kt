@@ -202,6 +202,34 @@ object SatelliteUtil {
         )
     }
 
+    /**
+     * Returns a numeric identifier for this signal that is stable across GnssStatus updates,
+     * packing the GnssType and SbasType ordinals, svid and the carrier frequency (in kHz) into a
+     * Long. Unlike [SatelliteUtils.createGnssStatusKey] it doesn't allocate, so it can be used
+     * as a key for per-signal state on every update.
+     *
+     * @return a numeric identifier for this signal that is stable across GnssStatus updates
+     */
+    fun SatelliteStatus.toSignalId(): Long {
+        val carrierFrequencyKhz = if (hasCarrierFrequency) Math.round(carrierFrequencyHz / 1000.0) else 0L
+        return (gnssType.ordinal.toLong() shl 60) or
+                (sbasType.ordinal.toLong() and 0xF shl 56) or
+                (svid.toLong() and 0xFFFF shl 40) or
+                (carrierFrequencyKhz and 0xFFFFFFFFFFL)
+    }
+
+    /**
+     * Returns a numeric identifier for the satellite that transmits this signal, which is the same
+     * as [toSignalId] without the carrier frequency, so all signals from a satellite share it
+     *
+     * @return a numeric identifier for the satellite that transmits this signal
+     */
+    fun SatelliteStatus.toSatelliteId(): Long {
+        return (gnssType.ordinal.toLong() shl 60) or
+                (sbasType.ordinal.toLong() and 0xF shl 56) or
+                (svid.toLong() and 0xFFFF shl 40)
+    }
+
     /**
      * Returns true if the speed accuracy is supported for this location, false if it does not
      *
@@ -249,7 +277,7 @@ object SatelliteUtil {
      *
      * @return GnssType for the given GnssStatus constellation type
      */
-    private fun Int.toGnssType(): GnssType {
+    fun Int.toGnssType(): GnssType {
         return when (this) {
             GnssStatus.CONSTELLATION_GPS -> GnssType.NAVSTAR
             GnssStatus.CONSTELLATION_GLONASS -> GnssType.GLONASS
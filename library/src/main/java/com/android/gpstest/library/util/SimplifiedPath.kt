@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import kotlin.math.cos
+import kotlin.math.hypot
+import kotlin.math.pow
+
+/**
+ * A path of locations (e.g., the fixes during an accuracy test) that is simplified as locations are
+ * added, so maps can draw a bounded number of vertices no matter how long the path is.
+ *
+ * The path is kept at [levels] levels of detail. Level k drops points that are within
+ * [baseToleranceMeters] * 2^k of the simplified line, so each level suits a range of map zoom
+ * levels. Points are simplified with a sliding window - a point is only kept as a vertex if a
+ * point after the last vertex is further than the tolerance from the line between the last vertex
+ * and the newest point, which keeps the same error bound as Douglas-Peucker without revisiting old
+ * points. The window is limited to [maxWindow] points so adding a point is O(1).
+ *
+ * Use [clip] to get the vertices to draw for a map viewport. This class isn't thread-safe and
+ * should only be used from the main thread.
+ */
+class SimplifiedPath @JvmOverloads constructor(
+    val levels: Int = DEFAULT_LEVELS,
+    val baseToleranceMeters: Double = DEFAULT_BASE_TOLERANCE_METERS,
+    private val maxWindow: Int = DEFAULT_MAX_WINDOW
+) {
+    init {
+        require(levels > 0) { "levels must be > 0" }
+        require(baseToleranceMeters > 0) { "baseToleranceMeters must be > 0" }
+        require(maxWindow >= 2) { "maxWindow must be >= 2" }
+    }
+
+    private val paths = Array(levels) { Level(baseToleranceMeters * 2.0.pow(it), maxWindow) }
+
+    /**
+     * Number of points added to the path
+     */
+    var size = 0
+        private set
+
+    /**
+     * Incremented each time the path changes, so views can skip redrawing if nothing changed
+     */
+    var version = 0L
+        private set
+
+    /**
+     * Adds a point to the end of the path
+     */
+    fun add(latitude: Double, longitude: Double) {
+        for (path in paths) {
+            path.add(latitude, longitude)
+        }
+        size++
+        version++
+    }
+
+    /**
+     * Removes all points
+     */
+    fun reset() {
+        for (path in paths) {
+            path.reset()
+        }
+        size = 0
+        version++
+    }
+
+    /**
+     * Returns the tolerance in meters of [level]
+     */
+    fun tolerance(level: Int): Double = paths[level].tolerance
+
+    /**
+     * Returns the most simplified level whose tolerance is no more than [toleranceMeters]
+     */
+    fun levelForTolerance(toleranceMeters: Double): Int {
+        var level = 0
+        while (level < levels - 1 && paths[level + 1].tolerance <= toleranceMeters) {
+            level++
+        }
+        return level
+    }
+
+    fun vertexCount(level: Int): Int = paths[level].vertexCount
+
+    fun latitude(level: Int, index: Int): Double = paths[level].latitude(index)
+
+    fun longitude(level: Int, index: Int): Double = paths[level].longitude(index)
+
+    /**
+     * Writes the vertices to draw for the viewport bounded by [south], [west], [north] and [east]
+     * to [runs], for a map that shows [metersPerPixel] at the viewport center.
+     *
+     * The level is chosen so the simplification error is under [PIXEL_TOLERANCE] pixels, and if
+     * that would need more than [maxVertices] vertices more simplified levels are used. If even
+     * the most simplified level needs more, only its newest [maxVertices] vertices are included.
+     * Only segments that cross the viewport (plus a margin on each side, so small pans don't need
+     * a new clip) are included, split into runs of connected vertices.
+     *
+     * @return true if [runs] changed and should be redrawn, or false if the runs from the last
+     * call already cover this viewport
+     */
+    @JvmOverloads
+    fun clip(
+        south: Double, west: Double, north: Double, east: Double,
+        metersPerPixel: Double,
+        runs: Runs,
+        maxVertices: Int = DEFAULT_MAX_VERTICES
+    ): Boolean {
+        val requestedLevel = levelForTolerance(metersPerPixel * PIXEL_TOLERANCE)
+        if (runs.version == version && runs.requestedLevel == requestedLevel &&
+            south >= runs.south && north <= runs.north && west >= runs.west && east <= runs.east) {
+            return false
+        }
+        val latMargin = (north - south) * VIEWPORT_MARGIN
+        val lonMargin = (east - west) * VIEWPORT_MARGIN
+        runs.south = south - latMargin
+        runs.north = north + latMargin
+        runs.west = west - lonMargin
+        runs.east = east + lonMargin
+        runs.version = version
+        runs.requestedLevel = requestedLevel
+
+        var level = requestedLevel
+        while (!paths[level].clip(runs, maxVertices) && level < levels - 1) {
+            level++
+        }
+        runs.level = level
+        return true
+    }
+
+    /**
+     * Vertices of a path clipped to a viewport, split into runs of connected vertices. Instances
+     * are reused by [clip] to avoid allocations.
+     */
+    class Runs {
+        private var lats = DoubleArray(INITIAL_CAPACITY)
+        private var lons = DoubleArray(INITIAL_CAPACITY)
+        private var runStarts = IntArray(8)
+
+        /**
+         * Total number of vertices in all runs
+         */
+        var vertexCount = 0
+            private set
+
+        /**
+         * Number of runs
+         */
+        var runCount = 0
+            private set
+
+        /**
+         * Level of the path the vertices are from
+         */
+        var level = -1
+            internal set
+
+        internal var requestedLevel = -1
+        internal var version = -1L
+        internal var south = 0.0
+        internal var west = 0.0
+        internal var north = 0.0
+        internal var east = 0.0
+
+        fun latitude(index: Int): Double = lats[index]
+
+        fun longitude(index: Int): Double = lons[index]
+
+        /**
+         * Index of the first vertex of [run]
+         */
+        fun runStart(run: Int): Int = runStarts[run]
+
+        /**
+         * Index after the last vertex of [run]
+         */
+        fun runEnd(run: Int): Int = if (run + 1 < runCount) runStarts[run + 1] else vertexCount
+
+        /**
+         * Removes all vertices, so the next clip() always returns true
+         */
+        fun clear() {
+            vertexCount = 0
+            runCount = 0
+            level = -1
+            requestedLevel = -1
+            version = -1
+        }
+
+        internal fun clearVertices() {
+            vertexCount = 0
+            runCount = 0
+        }
+
+        internal fun startRun() {
+            if (runCount == runStarts.size) {
+                runStarts = runStarts.copyOf(runCount * 2)
+            }
+            runStarts[runCount++] = vertexCount
+        }
+
+        internal fun addVertex(latitude: Double, longitude: Double) {
+            if (vertexCount == lats.size) {
+                lats = lats.copyOf(vertexCount * 2)
+                lons = lons.copyOf(vertexCount * 2)
+            }
+            lats[vertexCount] = latitude
+            lons[vertexCount] = longitude
+            vertexCount++
+        }
+
+        /**
+         * Reverses the order of the vertices and runs, for runs that were written from the newest
+         * vertex to the oldest
+         */
+        internal fun reverse() {
+            var i = 0
+            var j = vertexCount - 1
+            while (i < j) {
+                val lat = lats[i]
+                lats[i] = lats[j]
+                lats[j] = lat
+                val lon = lons[i]
+                lons[i] = lons[j]
+                lons[j] = lon
+                i++
+                j--
+            }
+            // The first run now starts at 0, and run k starts where old run (runCount - k) started,
+            // counted from the other end
+            i = 1
+            j = runCount - 1
+            while (i < j) {
+                val start = runStarts[i]
+                runStarts[i] = runStarts[j]
+                runStarts[j] = start
+                i++
+                j--
+            }
+            for (k in 1 until runCount) {
+                runStarts[k] = vertexCount - runStarts[k]
+            }
+        }
+    }
+
+    /**
+     * One level of detail - the vertices kept so far and the window of points after the last
+     * vertex. The newest point is always the last vertex of the level.
+     */
+    private class Level(val tolerance: Double, maxWindow: Int) {
+        private var lats = DoubleArray(INITIAL_CAPACITY)
+        private var lons = DoubleArray(INITIAL_CAPACITY)
+        private var count = 0
+
+        private val windowLats = DoubleArray(maxWindow)
+        private val windowLons = DoubleArray(maxWindow)
+        private var windowCount = 0
+
+        val vertexCount: Int
+            get() = count + if (windowCount > 0) 1 else 0
+
+        fun latitude(index: Int): Double = if (index < count) lats[index] else windowLats[windowCount - 1]
+
+        fun longitude(index: Int): Double = if (index < count) lons[index] else windowLons[windowCount - 1]
+
+        fun add(latitude: Double, longitude: Double) {
+            if (count == 0) {
+                keep(latitude, longitude)
+                return
+            }
+            if (windowCount == windowLats.size) {
+                // Window is full - keep the newest point in it so the work per point is bounded
+                keep(windowLats[windowCount - 1], windowLons[windowCount - 1])
+                windowCount = 0
+            }
+            windowLats[windowCount] = latitude
+            windowLons[windowCount] = longitude
+            windowCount++
+            if (windowCount >= 2 && !windowWithinTolerance()) {
+                // The previous point is needed to stay within tolerance, so keep it as a vertex
+                keep(windowLats[windowCount - 2], windowLons[windowCount - 2])
+                windowLats[0] = latitude
+                windowLons[0] = longitude
+                windowCount = 1
+            }
+        }
+
+        fun reset() {
+            count = 0
+            windowCount = 0
+        }
+
+        /**
+         * Returns true if all points in the window before the newest one are within tolerance of the
+         * line from the last vertex to the newest point
+         */
+        private fun windowWithinTolerance(): Boolean {
+            val lat0 = lats[count - 1]
+            val lon0 = lons[count - 1]
+            // Local equirectangular projection around the last vertex, which is accurate enough
+            // over the short distances within a window
+            val metersPerDegreeLon = METERS_PER_DEGREE * cos(Math.toRadians(lat0))
+            val bx = (windowLons[windowCount - 1] - lon0) * metersPerDegreeLon
+            val by = (windowLats[windowCount - 1] - lat0) * METERS_PER_DEGREE
+            val lengthSquared = bx * bx + by * by
+            for (i in 0 until windowCount - 1) {
+                val px = (windowLons[i] - lon0) * metersPerDegreeLon
+                val py = (windowLats[i] - lat0) * METERS_PER_DEGREE
+                val t = if (lengthSquared == 0.0) 0.0 else ((px * bx + py * by) / lengthSquared).coerceIn(0.0, 1.0)
+                if (hypot(px - t * bx, py - t * by) > tolerance) {
+                    return false
+                }
+            }
+            return true
+        }
+
+        private fun keep(latitude: Double, longitude: Double) {
+            if (count == lats.size) {
+                lats = lats.copyOf(count * 2)
+                lons = lons.copyOf(count * 2)
+            }
+            lats[count] = latitude
+            lons[count] = longitude
+            count++
+        }
+
+        /**
+         * Writes the runs of segments that intersect the bounds of [runs] to [runs]. Returns false
+         * if there are more than [maxVertices] vertices, in which case [runs] only holds the newest
+         * [maxVertices] of them.
+         */
+        fun clip(runs: Runs, maxVertices: Int): Boolean {
+            runs.clearVertices()
+            val n = vertexCount
+            var inRun = false
+            var complete = true
+            // Walk from the newest segment back, so the newest vertices are kept if there are
+            // too many, and then put the runs back in order
+            for (i in n - 2 downTo 0) {
+                val lat1 = latitude(i)
+                val lon1 = longitude(i)
+                val lat2 = latitude(i + 1)
+                val lon2 = longitude(i + 1)
+                val visible = Math.max(lat1, lat2) >= runs.south && Math.min(lat1, lat2) <= runs.north &&
+                        Math.max(lon1, lon2) >= runs.west && Math.min(lon1, lon2) <= runs.east
+                if (!visible) {
+                    inRun = false
+                    continue
+                }
+                if (runs.vertexCount + (if (inRun) 1 else 2) > maxVertices) {
+                    complete = false
+                    break
+                }
+                if (!inRun) {
+                    runs.startRun()
+                    runs.addVertex(lat2, lon2)
+                    inRun = true
+                }
+                runs.addVertex(lat1, lon1)
+            }
+            runs.reverse()
+            return complete
+        }
+    }
+
+    companion object {
+        /**
+         * Default number of levels of detail, with tolerances from 0.5 m to ~1 km
+         */
+        const val DEFAULT_LEVELS = 12
+
+        const val DEFAULT_BASE_TOLERANCE_METERS = 0.5
+
+        const val DEFAULT_MAX_WINDOW = 64
+
+        /**
+         * Default maximum number of vertices returned by clip()
+         */
+        const val DEFAULT_MAX_VERTICES = 2000
+
+        /**
+         * Maximum simplification error, in pixels, of the level chosen by clip()
+         */
+        const val PIXEL_TOLERANCE = 1.0
+
+        /**
+         * Fraction of the viewport's size added on each side when clipping
+         */
+        private const val VIEWPORT_MARGIN = 0.5
+
+        private const val INITIAL_CAPACITY = 64
+
+        private const val METERS_PER_DEGREE = GeodesyUtils.MEAN_EARTH_RADIUS * Math.PI / 180
+
+        /**
+         * Returns the meters per pixel at [latitude] for a Web Mercator map (256 pixel tiles) at
+         * [zoom], like Google Maps and osmdroid
+         */
+        @JvmStatic
+        fun metersPerPixel(latitude: Double, zoom: Double): Double {
+            return 2 * Math.PI * GeodesyUtils.WGS84_A * cos(Math.toRadians(latitude)) / (256 * 2.0.pow(zoom))
+        }
+    }
+}
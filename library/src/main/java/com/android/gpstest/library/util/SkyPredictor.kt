@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import com.android.gpstest.library.model.GnssType
+import com.android.gpstest.library.util.PseudorangeCalculator.Companion.DEFAULT_LEAP_SECONDS
+import com.android.gpstest.library.util.SatelliteUtil.toGnssType
+import kotlin.math.atan2
+import kotlin.math.floor
+import kotlin.math.hypot
+
+/**
+ * Predicts the azimuth and elevation of satellites from the ephemerides in [cache] over the next
+ * [durationMillis], every [stepMillis], so the sky view can show which satellites will rise or set
+ * at a location. Broadcast ephemerides are only fit for a few hours, but they're far more accurate
+ * than needed to plan where satellites will be in the sky over that time.
+ *
+ * Predictions are cached for the [maxCached] most recently used location tiles
+ * ([tileDegrees] square) and time buckets ([bucketMillis]) - all locations in a tile get the
+ * prediction for the center of the tile, starting at the start of the bucket, so a moving receiver
+ * only needs a new prediction when it leaves the tile or the bucket ends. A prediction is computed
+ * again when the ephemerides in the cache change, at most once a minute.
+ *
+ * The satellites are computed with [propagator], which can be shared with other users of the same
+ * [cache] - it's locked while it's used, so anyone else using it must synchronize on it too.
+ *
+ * [predict] takes tens of milliseconds, so it should be called on a background thread -
+ * [cached] is cheap and can be called from the main thread. Each [Prediction] is immutable, so it
+ * can be drawn directly on the main thread.
+ */
+class SkyPredictor @JvmOverloads constructor(
+    private val cache: EphemerisCache,
+    val durationMillis: Long = DEFAULT_DURATION_MILLIS,
+    val stepMillis: Long = DEFAULT_STEP_MILLIS,
+    val tileDegrees: Double = DEFAULT_TILE_DEGREES,
+    val bucketMillis: Long = DEFAULT_BUCKET_MILLIS,
+    private val maxCached: Int = DEFAULT_MAX_CACHED,
+    private val leapSeconds: Int = DEFAULT_LEAP_SECONDS,
+    private val propagator: SatellitePropagator = SatellitePropagator(cache, leapSeconds)
+) {
+    init {
+        require(stepMillis > 0 && durationMillis >= stepMillis) { "Invalid time grid" }
+        require(tileDegrees > 0 && bucketMillis > 0 && maxCached > 0) { "Invalid cache size" }
+        require(propagator.cache === cache) { "Propagator uses another cache" }
+    }
+
+    /**
+     * Predicted tracks of the satellites that are above the horizon at some time in the grid.
+     * The sample k of each track is at [startMillis] + k * [stepMillis].
+     */
+    class Prediction internal constructor(
+        val latitude: Double,
+        val longitude: Double,
+        val startMillis: Long,
+        val stepMillis: Long,
+        val size: Int,
+        val tracks: List<Track>,
+        internal val ephemerisVersion: Int,
+        internal val computedAtMillis: Long
+    ) {
+        val endMillis: Long
+            get() = startMillis + (size - 1) * stepMillis
+    }
+
+    class Track internal constructor(
+        val gnssType: GnssType,
+        val svid: Int,
+        private val azimuths: FloatArray,
+        private val elevations: FloatArray
+    ) {
+        val size: Int
+            get() = elevations.size
+
+        fun azimuthDegrees(k: Int): Float = azimuths[k]
+
+        /**
+         * Elevation of sample [k] in degrees - negative when the satellite is below the horizon
+         */
+        fun elevationDegrees(k: Int): Float = elevations[k]
+
+        fun isVisible(k: Int): Boolean = elevations[k] >= 0
+
+        /**
+         * Index of the first sample at or after [k] where the satellite rises above the horizon,
+         * or -1 if it doesn't
+         */
+        fun nextRise(k: Int): Int {
+            for (j in maxOf(k, 1) until size) {
+                if (isVisible(j) && !isVisible(j - 1)) return j
+            }
+            return -1
+        }
+
+        /**
+         * Index of the first sample at or after [k] where the satellite is below the horizon after
+         * being above it, or -1 if it doesn't set
+         */
+        fun nextSet(k: Int): Int {
+            for (j in maxOf(k, 1) until size) {
+                if (!isVisible(j) && isVisible(j - 1)) return j
+            }
+            return -1
+        }
+    }
+
+    // Most recently used predictions by tile, in access order
+    private val predictions = object : LinkedHashMap<Key, Prediction>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Prediction>): Boolean {
+            return size > maxCached
+        }
+    }
+
+    private val receiver = DoubleArray(3)
+    private val enu = DoubleArray(3)
+
+    /**
+     * Number of predictions computed (not from the cache), for monitoring
+     */
+    @Volatile
+    var computeCount = 0
+        private set
+
+    /**
+     * Returns the cached prediction for the tile of [latitude], [longitude] and the bucket of
+     * [timeMillis] (UTC), or null if it needs to be computed with [predict]
+     */
+    @Synchronized
+    fun cached(latitude: Double, longitude: Double, timeMillis: Long): Prediction? {
+        val prediction = predictions[key(latitude, longitude, timeMillis)] ?: return null
+        return if (isCurrent(prediction, timeMillis)) prediction else null
+    }
+
+    /**
+     * Returns the prediction for the tile of [latitude], [longitude] from the start of the bucket of
+     * [timeMillis] (UTC), computing it if it isn't cached
+     */
+    fun predict(latitude: Double, longitude: Double, timeMillis: Long): Prediction {
+        cached(latitude, longitude, timeMillis)?.let { return it }
+        val prediction = compute(latitude, longitude, timeMillis)
+        synchronized(this) {
+            predictions[key(latitude, longitude, timeMillis)] = prediction
+        }
+        return prediction
+    }
+
+    @Synchronized
+    fun clear() {
+        predictions.clear()
+    }
+
+    /**
+     * A prediction is current until the ephemerides change, but isn't computed again for each new
+     * ephemeris while they're being decoded
+     */
+    private fun isCurrent(prediction: Prediction, timeMillis: Long): Boolean {
+        return prediction.ephemerisVersion == cache.version ||
+                timeMillis - prediction.computedAtMillis < MIN_REFRESH_MILLIS
+    }
+
+    private fun compute(latitude: Double, longitude: Double, timeMillis: Long): Prediction {
+        // The propagator may be shared with other users, so lock it like they do
+        synchronized(propagator) {
+            val version = cache.version
+            val lat = tileCenter(latitude, 90.0)
+            val lon = tileCenter(longitude, 180.0)
+            val start = bucket(timeMillis) * bucketMillis
+            val size = (durationMillis / stepMillis).toInt() + 1
+
+            propagator.update()
+            val count = propagator.size
+            val azimuths = FloatArray(count * size)
+            val elevations = FloatArray(count * size)
+            GeodesyUtils.geodeticToEcef(lat, lon, 0.0, receiver)
+            for (k in 0 until size) {
+                propagator.propagate(gpsTimeOfWeekSeconds(start + k * stepMillis))
+                for (i in 0 until count) {
+                    GeodesyUtils.ecefVectorToEnu(
+                        propagator.x(i) - receiver[0],
+                        propagator.y(i) - receiver[1],
+                        propagator.z(i) - receiver[2],
+                        lat, lon, enu
+                    )
+                    val azimuth = Math.toDegrees(atan2(enu[0], enu[1]))
+                    azimuths[i * size + k] = (if (azimuth < 0) azimuth + 360 else azimuth).toFloat()
+                    elevations[i * size + k] = Math.toDegrees(atan2(enu[2], hypot(enu[0], enu[1]))).toFloat()
+                }
+            }
+
+            val tracks = ArrayList<Track>()
+            for (i in 0 until count) {
+                if (!propagator.isHealthy(i)) continue
+                val from = i * size
+                if ((from until from + size).none { elevations[it] >= 0 }) continue
+                tracks.add(
+                    Track(
+                        propagator.constellationType(i).toGnssType(),
+                        propagator.svid(i),
+                        azimuths.copyOfRange(from, from + size),
+                        elevations.copyOfRange(from, from + size)
+                    )
+                )
+            }
+            computeCount++
+            return Prediction(lat, lon, start, stepMillis, size, tracks, version, timeMillis)
+        }
+    }
+
+    private fun gpsTimeOfWeekSeconds(utcMillis: Long): Double {
+        val gpsMillis = utcMillis - GPS_EPOCH_UTC_MILLIS + leapSeconds * 1000L
+        return Math.floorMod(gpsMillis, WEEK_MILLIS) / 1000.0
+    }
+
+    private fun bucket(timeMillis: Long): Long = Math.floorDiv(timeMillis, bucketMillis)
+
+    private fun tileIndex(degrees: Double): Long = floor(degrees / tileDegrees).toLong()
+
+    /**
+     * Returns the center of the tile of [degrees], kept within +/- [limit]
+     */
+    private fun tileCenter(degrees: Double, limit: Double): Double {
+        return ((tileIndex(degrees) + 0.5) * tileDegrees).coerceIn(-limit, limit)
+    }
+
+    private fun key(latitude: Double, longitude: Double, timeMillis: Long): Key {
+        return Key(tileIndex(latitude), tileIndex(longitude), bucket(timeMillis))
+    }
+
+    private data class Key(val row: Long, val column: Long, val bucket: Long)
+
+    companion object {
+        const val DEFAULT_DURATION_MILLIS = 4 * 60 * 60 * 1000L
+        const val DEFAULT_STEP_MILLIS = 5 * 60 * 1000L
+        const val DEFAULT_TILE_DEGREES = 1.0
+        const val DEFAULT_BUCKET_MILLIS = 10 * 60 * 1000L
+        const val DEFAULT_MAX_CACHED = 8
+
+        private const val MIN_REFRESH_MILLIS = 60 * 1000L
+        private const val GPS_EPOCH_UTC_MILLIS = 315_964_800_000L
+        private const val WEEK_MILLIS = 7 * 24 * 60 * 60 * 1000L
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import com.android.gpstest.library.model.GnssType
+import com.android.gpstest.library.model.SatelliteStatus
+import com.android.gpstest.library.model.SbasType
+import com.android.gpstest.library.util.SatelliteUtil.toSatelliteId
+
+/**
+ * History of the positions of each satellite in the sky (azimuth, elevation) and its strongest
+ * C/N0, used to draw the tracks of satellites over the last [capacity] * [sampleIntervalMillis]
+ * milliseconds (one hour by default) to help diagnose obstructions and multipath.
+ *
+ * Each satellite has a fixed-capacity ring buffer of primitives, so memory use is bounded no matter
+ * how long the session runs. A sample is added at most once per [sampleIntervalMillis], and
+ * satellites that haven't been seen for the whole history window are dropped.
+ *
+ * This class isn't thread-safe and should only be used from the main thread.
+ */
+class SkyTrackHistory(
+    val capacity: Int = DEFAULT_CAPACITY,
+    val sampleIntervalMillis: Long = DEFAULT_SAMPLE_INTERVAL_MILLIS
+) {
+    private val tracks = LinkedHashMap<Long, Track>()
+
+    /**
+     * Incremented each time a sample is added or a track is removed, so observers can skip work
+     * if nothing changed
+     */
+    var version = 0L
+        private set
+
+    /**
+     * Ring buffer of samples for one satellite. Samples are indexed by [count] - the total number
+     * of samples ever added to this track - so index i is available while
+     * [firstIndex] <= i < [count].
+     */
+    class Track(
+        val id: Long,
+        val gnssType: GnssType,
+        val sbasType: SbasType,
+        val svid: Int,
+        capacity: Int
+    ) {
+        private val timesMillis = LongArray(capacity)
+        private val azimuths = FloatArray(capacity)
+        private val elevations = FloatArray(capacity)
+        private val cn0s = FloatArray(capacity)
+
+        /**
+         * Total number of samples added to this track
+         */
+        var count = 0L
+            private set
+
+        /**
+         * Index of the oldest sample that is still available
+         */
+        val firstIndex: Long
+            get() = Math.max(0L, count - timesMillis.size)
+
+        /**
+         * Time of the newest sample, in milliseconds, or Long.MIN_VALUE if there are no samples
+         */
+        val lastTimeMillis: Long
+            get() = if (count == 0L) Long.MIN_VALUE else timesMillis[slot(count - 1)]
+
+        fun timeMillis(index: Long): Long = timesMillis[slot(index)]
+
+        fun azimuthDegrees(index: Long): Float = azimuths[slot(index)]
+
+        fun elevationDegrees(index: Long): Float = elevations[slot(index)]
+
+        fun cn0DbHz(index: Long): Float = cn0s[slot(index)]
+
+        internal fun add(timeMillis: Long, azimuth: Float, elevation: Float, cn0: Float) {
+            val slot = (count % timesMillis.size).toInt()
+            timesMillis[slot] = timeMillis
+            azimuths[slot] = azimuth
+            elevations[slot] = elevation
+            cn0s[slot] = cn0
+            count++
+        }
+
+        /**
+         * Keeps the strongest C/N0 of all signals from this satellite for the newest sample
+         */
+        internal fun updateLastCn0(cn0: Float) {
+            val slot = slot(count - 1)
+            if (cn0 > cn0s[slot]) {
+                cn0s[slot] = cn0
+            }
+        }
+
+        private fun slot(index: Long): Int {
+            if (index < firstIndex || index >= count) {
+                throw IndexOutOfBoundsException("Index $index not in [$firstIndex, $count)")
+            }
+            return (index % timesMillis.size).toInt()
+        }
+    }
+
+    /**
+     * Returns the tracks of all satellites currently in the history
+     */
+    fun tracks(): Collection<Track> {
+        return tracks.values
+    }
+
+    /**
+     * Returns the track for the satellite with the provided [id] (see
+     * SatelliteUtil.toSatelliteId()), or null if it isn't in the history
+     */
+    fun track(id: Long): Track? {
+        return tracks[id]
+    }
+
+    /**
+     * Adds the positions of the satellites in [statuses], received at [timeMillis] (e.g.,
+     * SystemClock.elapsedRealtime()), to their tracks. Signals without an azimuth or elevation
+     * are ignored.
+     */
+    fun add(statuses: List<SatelliteStatus>, timeMillis: Long) {
+        for (s in statuses) {
+            if (s.elevationDegrees == SatelliteStatus.NO_DATA || s.azimuthDegrees == SatelliteStatus.NO_DATA) {
+                continue
+            }
+            val id = s.toSatelliteId()
+            var track = tracks[id]
+            if (track == null) {
+                track = Track(id, s.gnssType, s.sbasType, s.svid, capacity)
+                tracks[id] = track
+            }
+            val lastTime = track.lastTimeMillis
+            if (lastTime == timeMillis) {
+                // Another signal from the same satellite in this update
+                track.updateLastCn0(s.cn0DbHz)
+            } else if (track.count == 0L || timeMillis - lastTime >= sampleIntervalMillis) {
+                track.add(timeMillis, s.azimuthDegrees, s.elevationDegrees, s.cn0DbHz)
+                version++
+            }
+        }
+
+        // Drop satellites that haven't been seen for the whole history window
+        val oldest = timeMillis - capacity * sampleIntervalMillis
+        val iterator = tracks.values.iterator()
+        while (iterator.hasNext()) {
+            if (iterator.next().lastTimeMillis < oldest) {
+                iterator.remove()
+                version++
+            }
+        }
+    }
+
+    /**
+     * Removes all tracks
+     */
+    fun reset() {
+        tracks.clear()
+        version++
+    }
+
+    companion object {
+        /**
+         * Default number of samples kept for each satellite
+         */
+        const val DEFAULT_CAPACITY = 240
+
+        /**
+         * Default minimum time between samples for each satellite. Satellites move across the
+         * sky at around half a degree a minute, so more frequent samples wouldn't be visible.
+         */
+        const val DEFAULT_SAMPLE_INTERVAL_MILLIS = 15_000L
+    }
+}
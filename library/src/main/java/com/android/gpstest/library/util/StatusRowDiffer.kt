@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import com.android.gpstest.library.model.SatelliteStatus
+import com.android.gpstest.library.model.SatelliteStatusRow
+import com.android.gpstest.library.model.SatelliteStatusRows
+import com.android.gpstest.library.util.SatelliteUtil.toSignalId
+
+/**
+ * Converts sorted lists of [SatelliteStatus] into immutable [SatelliteStatusRows] and computes the
+ * difference from the list provided in the previous call. Rows that haven't changed are reused
+ * from the previous list so consumers can compare them by reference. The sums and counts of C/N0
+ * for signals in view and used in the fix are kept as running aggregates, updated only for rows
+ * that were inserted, changed or removed.
+ *
+ * Separate instances should be used for each list (e.g., GNSS and SBAS).
+ */
+class StatusRowDiffer {
+
+    private var previousRows: Map<Long, SatelliteStatusRow> = emptyMap()
+
+    private var cn0InViewSum = 0.0
+    private var numInView = 0
+    private var cn0UsedSum = 0.0
+    private var numUsed = 0
+
+    /**
+     * Returns the rows for the sorted list in [result] along with the difference from the
+     * previous call
+     */
+    fun update(result: IncrementalSorter.Result): SatelliteStatusRows {
+        val rows = ArrayList<SatelliteStatusRow>(result.sorted.size)
+        val currentRows = HashMap<Long, SatelliteStatusRow>(result.sorted.size * 2)
+        val inserted = HashSet<Long>()
+        val changed = HashSet<Long>()
+        for (status in result.sorted) {
+            var row = status.toStatusRow()
+            if (currentRows.containsKey(row.key)) {
+                // Duplicate signal in the same update - show it, but only count it once
+                rows.add(row)
+                continue
+            }
+            val previous = previousRows[row.key]
+            if (previous == null) {
+                inserted.add(row.key)
+                addCn0(row, 1)
+            } else if (previous == row) {
+                row = previous
+            } else {
+                changed.add(row.key)
+                addCn0(previous, -1)
+                addCn0(row, 1)
+            }
+            rows.add(row)
+            currentRows[row.key] = row
+        }
+        val removed = HashSet<Long>()
+        for (key in previousRows.keys) {
+            if (!currentRows.containsKey(key)) {
+                removed.add(key)
+                addCn0(previousRows.getValue(key), -1)
+            }
+        }
+        previousRows = currentRows
+        // Avoid accumulating rounding error when there is nothing to average
+        if (numInView == 0) cn0InViewSum = 0.0
+        if (numUsed == 0) cn0UsedSum = 0.0
+        return SatelliteStatusRows(
+            rows,
+            inserted,
+            removed,
+            changed,
+            result.moved,
+            cn0InViewSum,
+            numInView,
+            cn0UsedSum,
+            numUsed
+        )
+    }
+
+    /**
+     * Forgets the rows from the previous call
+     */
+    fun reset() {
+        previousRows = emptyMap()
+        cn0InViewSum = 0.0
+        numInView = 0
+        cn0UsedSum = 0.0
+        numUsed = 0
+    }
+
+    /**
+     * Adds ([sign] is 1) or removes ([sign] is -1) the C/N0 of [row] to the running aggregates
+     */
+    private fun addCn0(row: SatelliteStatusRow, sign: Int) {
+        if (row.cn0DbHz != SatelliteStatus.NO_DATA) {
+            cn0InViewSum += sign * row.cn0DbHz
+            numInView += sign
+        }
+        if (row.usedInFix) {
+            cn0UsedSum += sign * row.cn0DbHz
+            numUsed += sign
+        }
+    }
+
+    companion object {
+        /**
+         * Returns an immutable snapshot of this status to be shown as a row in a list
+         */
+        fun SatelliteStatus.toStatusRow(): SatelliteStatusRow {
+            return SatelliteStatusRow(
+                toSignalId(),
+                svid,
+                gnssType,
+                sbasType,
+                cn0DbHz,
+                hasAlmanac,
+                hasEphemeris,
+                usedInFix,
+                elevationDegrees,
+                azimuthDegrees,
+                hasCarrierFrequency,
+                carrierFrequencyHz,
+                CarrierFreqUtils.getCarrierFrequencyLabel(this)
+            )
+        }
+    }
+}
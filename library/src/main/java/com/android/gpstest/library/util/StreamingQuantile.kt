@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+/**
+ * Estimates the [quantile] (e.g., 0.95 for the 95th percentile) of a stream of values in constant
+ * memory and O(1) time per value using the P-square algorithm (Jain and Chlamtac, 1985), which
+ * keeps five markers whose heights are adjusted with piecewise-parabolic interpolation as values
+ * are added.
+ *
+ * This class isn't thread-safe - it should be confined to one thread, like the model that owns it.
+ */
+class StreamingQuantile(val quantile: Double) {
+
+    init {
+        require(quantile > 0.0 && quantile < 1.0) { "quantile must be in (0, 1)" }
+    }
+
+    // Marker heights
+    private val heights = DoubleArray(MARKERS)
+
+    // Actual marker positions (1-based)
+    private val positions = DoubleArray(MARKERS)
+
+    // Desired marker positions
+    private val desired = DoubleArray(MARKERS)
+
+    // Increments of the desired positions for each value
+    private val increments = doubleArrayOf(0.0, quantile / 2, quantile, (1 + quantile) / 2, 1.0)
+
+    /**
+     * Number of values added
+     */
+    var count = 0L
+        private set
+
+    /**
+     * The estimated quantile of the values added, or NaN if no values have been added. With fewer
+     * than five values the nearest-rank quantile of the values is returned.
+     */
+    val value: Double
+        get() {
+            if (count == 0L) {
+                return Double.NaN
+            }
+            if (count < MARKERS) {
+                // Heights are kept sorted until there are enough values for the markers
+                val rank = Math.ceil(quantile * count).toInt().coerceIn(1, count.toInt())
+                return heights[rank - 1]
+            }
+            return heights[2]
+        }
+
+    /**
+     * Adds [x] to the stream. NaN values are ignored.
+     */
+    fun add(x: Double) {
+        if (x.isNaN()) {
+            return
+        }
+        if (count < MARKERS) {
+            // Insertion sort the first values, which become the initial marker heights
+            var i = count.toInt()
+            while (i > 0 && heights[i - 1] > x) {
+                heights[i] = heights[i - 1]
+                i--
+            }
+            heights[i] = x
+            count++
+            if (count == MARKERS.toLong()) {
+                for (m in 0 until MARKERS) {
+                    positions[m] = m + 1.0
+                }
+                desired[0] = 1.0
+                desired[1] = 1 + 2 * quantile
+                desired[2] = 1 + 4 * quantile
+                desired[3] = 3 + 2 * quantile
+                desired[4] = 5.0
+            }
+            return
+        }
+        count++
+
+        // Find the cell containing x, extending the extreme markers if needed
+        val k: Int
+        if (x < heights[0]) {
+            heights[0] = x
+            k = 0
+        } else if (x >= heights[4]) {
+            heights[4] = x
+            k = 3
+        } else {
+            var cell = 0
+            while (x >= heights[cell + 1]) {
+                cell++
+            }
+            k = cell
+        }
+        for (m in k + 1 until MARKERS) {
+            positions[m]++
+        }
+        for (m in 0 until MARKERS) {
+            desired[m] += increments[m]
+        }
+
+        // Move the middle markers toward their desired positions
+        for (m in 1..3) {
+            val d = desired[m] - positions[m]
+            if ((d >= 1 && positions[m + 1] - positions[m] > 1) ||
+                (d <= -1 && positions[m - 1] - positions[m] < -1)) {
+                val step = if (d > 0) 1 else -1
+                val parabolic = parabolic(m, step)
+                heights[m] = if (heights[m - 1] < parabolic && parabolic < heights[m + 1]) {
+                    parabolic
+                } else {
+                    linear(m, step)
+                }
+                positions[m] += step
+            }
+        }
+    }
+
+    /**
+     * Removes all values
+     */
+    fun reset() {
+        count = 0
+    }
+
+    private fun parabolic(m: Int, step: Int): Double {
+        val n = positions
+        val q = heights
+        return q[m] + step / (n[m + 1] - n[m - 1]) *
+                ((n[m] - n[m - 1] + step) * (q[m + 1] - q[m]) / (n[m + 1] - n[m]) +
+                        (n[m + 1] - n[m] - step) * (q[m] - q[m - 1]) / (n[m] - n[m - 1]))
+    }
+
+    private fun linear(m: Int, step: Int): Double {
+        return heights[m] + step * (heights[m + step] - heights[m]) / (positions[m + step] - positions[m])
+    }
+
+    companion object {
+        private const val MARKERS = 5
+    }
+}
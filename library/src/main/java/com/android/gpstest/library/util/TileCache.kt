@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * A disk cache of map tiles in a single memory-mapped [file] that holds at most [maxBytes] of tiles,
+ * evicting the least recently used tiles when it's full. Tiles are keyed by [key].
+ *
+ * Tiles are appended to the file, each with a header holding its key, length and last access, and
+ * an in-memory index maps keys to offsets in LRU order. Evicted and replaced tiles are marked as
+ * dead in place, and the file is compacted when appending would run past the end of the mapping
+ * (which is 1.5x [maxBytes]). The index is rebuilt from the headers when the file is opened again,
+ * so tiles and their LRU order survive app restarts.
+ *
+ * Methods are synchronized so tiles can be loaded from multiple threads.
+ */
+class TileCache @JvmOverloads constructor(
+    val file: File,
+    val maxBytes: Long = DEFAULT_MAX_BYTES
+) : Closeable {
+
+    private class Entry(var offset: Int, val length: Int)
+
+    private val channel: FileChannel
+    private val buffer: MappedByteBuffer
+    private val capacity: Int
+
+    // Index of live tiles in access order, so the first entry is the least recently used
+    private val entries = LinkedHashMap<Long, Entry>(256, 0.75f, true)
+
+    private var writePosition = FILE_HEADER_SIZE
+    private var accessClock = 0L
+    private var scratch = ByteArray(COPY_CHUNK_SIZE)
+    private var closed = false
+
+    /**
+     * Bytes used by live tiles, including their headers
+     */
+    @get:Synchronized
+    var sizeBytes = 0L
+        private set
+
+    @get:Synchronized
+    var hitCount = 0L
+        private set
+
+    @get:Synchronized
+    var missCount = 0L
+        private set
+
+    @get:Synchronized
+    var evictionCount = 0L
+        private set
+
+    init {
+        require(maxBytes >= MIN_MAX_BYTES && maxBytes <= MAX_MAX_BYTES) {
+            "maxBytes must be between $MIN_MAX_BYTES and $MAX_MAX_BYTES"
+        }
+        capacity = (maxBytes + maxBytes / 2).toInt() + FILE_HEADER_SIZE + TERMINATOR_SIZE
+        file.parentFile?.mkdirs()
+        channel = RandomAccessFile(file, "rw").channel
+        if (channel.size() > capacity) {
+            // Budget shrank since the file was written - tiles past the new end are dropped
+            channel.truncate(capacity.toLong())
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity.toLong())
+        load()
+    }
+
+    /**
+     * Number of tiles in the cache
+     */
+    @get:Synchronized
+    val size: Int
+        get() = entries.size
+
+    /**
+     * Returns true if the tile with [key] is in the cache, without counting as an access
+     */
+    @Synchronized
+    operator fun contains(key: Long): Boolean = !closed && entries.containsKey(key)
+
+    /**
+     * Returns a copy of the tile with [key], or null if it's not in the cache
+     */
+    @Synchronized
+    operator fun get(key: Long): ByteArray? {
+        val entry = if (closed) null else entries[key]
+        if (entry == null) {
+            missCount++
+            return null
+        }
+        hitCount++
+        buffer.putLong(entry.offset + ACCESS_OFFSET, accessClock++)
+        val data = ByteArray(entry.length)
+        val source = buffer.duplicate()
+        source.position(entry.offset + ENTRY_HEADER_SIZE)
+        source.get(data)
+        return data
+    }
+
+    /**
+     * Adds [data] as the tile with [key], replacing any existing tile with that key and evicting
+     * least recently used tiles to stay within [maxBytes]
+     *
+     * @return true if the tile was added, or false if it's too large for the cache or the cache is
+     * closed
+     */
+    @Synchronized
+    @JvmOverloads
+    fun put(key: Long, data: ByteArray, length: Int = data.size): Boolean {
+        require(length in 0..data.size) { "length must be between 0 and data.size" }
+        val needed = ENTRY_HEADER_SIZE + length
+        if (closed || needed > maxBytes / MAX_ENTRY_FRACTION) {
+            return false
+        }
+        remove(key)
+        while (sizeBytes + needed > maxBytes) {
+            evictEldest()
+        }
+        if (writePosition + needed + TERMINATOR_SIZE > capacity) {
+            compact()
+        }
+        val offset = writePosition
+        // Write the magic number last, so a partially written tile isn't read when reopening
+        buffer.putInt(offset, DEAD_MAGIC)
+        buffer.putInt(offset + LENGTH_OFFSET, length)
+        buffer.putLong(offset + KEY_OFFSET, key)
+        buffer.putLong(offset + ACCESS_OFFSET, accessClock++)
+        val target = buffer.duplicate()
+        target.position(offset + ENTRY_HEADER_SIZE)
+        target.put(data, 0, length)
+        buffer.putInt(offset + needed, 0)
+        buffer.putInt(offset, LIVE_MAGIC)
+
+        entries[key] = Entry(offset, length)
+        sizeBytes += needed
+        writePosition += needed
+        return true
+    }
+
+    /**
+     * Removes the tile with [key]
+     * @return true if the tile was in the cache, false if it wasn't
+     */
+    @Synchronized
+    fun remove(key: Long): Boolean {
+        if (closed) {
+            return false
+        }
+        val entry = entries.remove(key) ?: return false
+        markDead(entry)
+        return true
+    }
+
+    /**
+     * Removes all tiles
+     */
+    @Synchronized
+    fun clear() {
+        if (closed) {
+            return
+        }
+        entries.clear()
+        sizeBytes = 0
+        format()
+    }
+
+    /**
+     * Writes changes to the file and closes it. Later calls behave as if the cache is empty.
+     */
+    @Synchronized
+    override fun close() {
+        if (closed) {
+            return
+        }
+        closed = true
+        entries.clear()
+        buffer.force()
+        channel.close()
+    }
+
+    private fun evictEldest() {
+        val iterator = entries.values.iterator()
+        val entry = iterator.next()
+        iterator.remove()
+        markDead(entry)
+        evictionCount++
+    }
+
+    private fun markDead(entry: Entry) {
+        buffer.putInt(entry.offset, DEAD_MAGIC)
+        sizeBytes -= ENTRY_HEADER_SIZE + entry.length
+    }
+
+    /**
+     * Moves live tiles to the start of the file, in file order, so the dead space is at the end
+     */
+    private fun compact() {
+        buffer.putInt(STATE_OFFSET, STATE_COMPACTING)
+        val live = ArrayList(entries.values)
+        live.sortBy { it.offset }
+        var position = FILE_HEADER_SIZE
+        for (entry in live) {
+            val entrySize = ENTRY_HEADER_SIZE + entry.length
+            if (entry.offset != position) {
+                move(entry.offset, position, entrySize)
+                entry.offset = position
+            }
+            position += entrySize
+        }
+        writePosition = position
+        buffer.putInt(writePosition, 0)
+        buffer.putInt(STATE_OFFSET, STATE_CLEAN)
+    }
+
+    /**
+     * Copies [length] bytes from [from] to [to], which must be before [from]. Copying forward in
+     * chunks is safe even if the ranges overlap.
+     */
+    private fun move(from: Int, to: Int, length: Int) {
+        val source = buffer.duplicate()
+        val target = buffer.duplicate()
+        source.position(from)
+        target.position(to)
+        var remaining = length
+        while (remaining > 0) {
+            val chunk = minOf(remaining, scratch.size)
+            source.get(scratch, 0, chunk)
+            target.put(scratch, 0, chunk)
+            remaining -= chunk
+        }
+    }
+
+    /**
+     * Rebuilds the index from the tile headers in the file, or formats the file if it's new or was
+     * left in a bad state
+     */
+    private fun load() {
+        if (buffer.getInt(0) != FILE_MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION ||
+            buffer.getInt(STATE_OFFSET) != STATE_CLEAN) {
+            format()
+            return
+        }
+        val live = ArrayList<Pair<Long, Entry>>()
+        val accessTimes = HashMap<Entry, Long>()
+        var position = FILE_HEADER_SIZE
+        while (position + ENTRY_HEADER_SIZE + TERMINATOR_SIZE <= capacity) {
+            val magic = buffer.getInt(position)
+            if (magic != LIVE_MAGIC && magic != DEAD_MAGIC) {
+                break
+            }
+            val length = buffer.getInt(position + LENGTH_OFFSET)
+            if (length < 0 || position + ENTRY_HEADER_SIZE + length + TERMINATOR_SIZE > capacity) {
+                break
+            }
+            if (magic == LIVE_MAGIC) {
+                val entry = Entry(position, length)
+                live.add(Pair(buffer.getLong(position + KEY_OFFSET), entry))
+                accessTimes[entry] = buffer.getLong(position + ACCESS_OFFSET)
+            }
+            position += ENTRY_HEADER_SIZE + length
+        }
+        writePosition = position
+        buffer.putInt(writePosition, 0)
+
+        // Insert in access order to restore the LRU order
+        live.sortBy { accessTimes[it.second] }
+        for ((key, entry) in live) {
+            val previous = entries.put(key, entry)
+            if (previous != null) {
+                markDead(previous)
+            }
+            sizeBytes += ENTRY_HEADER_SIZE + entry.length
+        }
+        accessClock = (accessTimes.values.maxOrNull() ?: -1L) + 1
+        while (sizeBytes > maxBytes) {
+            evictEldest()
+        }
+    }
+
+    private fun format() {
+        buffer.putInt(0, FILE_MAGIC)
+        buffer.putInt(VERSION_OFFSET, VERSION)
+        buffer.putInt(STATE_OFFSET, STATE_CLEAN)
+        buffer.putInt(FILE_HEADER_SIZE, 0)
+        writePosition = FILE_HEADER_SIZE
+        accessClock = 0
+    }
+
+    companion object {
+        /**
+         * Default byte budget of a cache
+         */
+        const val DEFAULT_MAX_BYTES = 64L * 1024 * 1024
+
+        private const val MIN_MAX_BYTES = 64L * 1024
+        private const val MAX_MAX_BYTES = 1024L * 1024 * 1024
+
+        /**
+         * Tiles larger than 1/MAX_ENTRY_FRACTION of the budget aren't cached
+         */
+        private const val MAX_ENTRY_FRACTION = 8
+
+        private const val FILE_MAGIC = 0x47505354 // "GPST"
+        private const val VERSION = 1
+        private const val VERSION_OFFSET = 4
+        private const val STATE_OFFSET = 8
+        private const val FILE_HEADER_SIZE = 12
+        private const val STATE_CLEAN = 0
+        private const val STATE_COMPACTING = 1
+
+        // Tile header - magic (live or dead), length, key, and last access
+        private const val LIVE_MAGIC = 0x54494c45 // "TILE"
+        private const val DEAD_MAGIC = 0x44454144 // "DEAD"
+        private const val LENGTH_OFFSET = 4
+        private const val KEY_OFFSET = 8
+        private const val ACCESS_OFFSET = 16
+        private const val ENTRY_HEADER_SIZE = 24
+        private const val TERMINATOR_SIZE = 4
+
+        private const val COPY_CHUNK_SIZE = 16 * 1024
+
+        /**
+         * Returns the cache key of the tile at [x], [y] (from the top left) at [zoom]
+         */
+        @JvmStatic
+        fun key(zoom: Int, x: Int, y: Int): Long {
+            return (zoom.toLong() shl 58) or (x.toLong() shl 29) or y.toLong()
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import androidx.annotation.WorkerThread
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.net.URL
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.floor
+import kotlin.math.ln
+import kotlin.math.tan
+
+/**
+ * Downloads Web Mercator map tiles over HTTP into a [TileCache], one tile at a time as the map
+ * needs them or for a whole region ahead of time (e.g., before going somewhere without coverage)
+ * via [prefetch].
+ *
+ * Downloads block the calling thread, so they must be called from a background thread.
+ */
+class TileDownloader @JvmOverloads constructor(
+    val cache: TileCache,
+    private val urlProvider: UrlProvider,
+    private val userAgent: String? = null,
+    private val timeoutMillis: Int = DEFAULT_TIMEOUT_MILLIS
+) {
+
+    /**
+     * Provides the URL of the tile at [x], [y] (from the top left) at [zoom]
+     */
+    fun interface UrlProvider {
+        fun url(zoom: Int, x: Int, y: Int): String
+    }
+
+    /**
+     * Called after each tile of a prefetch. Return false to cancel the prefetch.
+     */
+    fun interface ProgressListener {
+        fun onProgress(completed: Int, total: Int): Boolean
+    }
+
+    /**
+     * Result of a prefetch - the number of tiles in the region, and how many were downloaded, were
+     * already cached, or failed to download
+     */
+    data class PrefetchResult(
+        val total: Int,
+        val downloaded: Int,
+        val cached: Int,
+        val failed: Int
+    )
+
+    /**
+     * Returns the tile at [x], [y] at [zoom] from the cache, or downloads and caches it if it's not
+     * cached. Returns null if the tile isn't cached and can't be downloaded.
+     */
+    @WorkerThread
+    fun getTile(zoom: Int, x: Int, y: Int): ByteArray? {
+        val key = TileCache.key(zoom, x, y)
+        cache[key]?.let { return it }
+        return try {
+            download(zoom, x, y)
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    /**
+     * Downloads the tile at [x], [y] at [zoom] and adds it to the cache
+     * @return the tile, or null if the server doesn't have it
+     * @throws IOException if the tile couldn't be downloaded
+     */
+    @WorkerThread
+    @Throws(IOException::class)
+    fun download(zoom: Int, x: Int, y: Int): ByteArray? {
+        val connection = URL(urlProvider.url(zoom, x, y)).openConnection() as HttpURLConnection
+        try {
+            connection.connectTimeout = timeoutMillis
+            connection.readTimeout = timeoutMillis
+            if (userAgent != null) {
+                connection.setRequestProperty("User-Agent", userAgent)
+            }
+            if (connection.responseCode != HttpURLConnection.HTTP_OK) {
+                return null
+            }
+            val data = connection.inputStream.use { it.readBytes() }
+            if (data.isEmpty()) {
+                return null
+            }
+            cache.put(TileCache.key(zoom, x, y), data)
+            return data
+        } finally {
+            connection.disconnect()
+        }
+    }
+
+    /**
+     * Downloads all tiles that aren't already cached in the region bounded by [south], [west],
+     * [north] and [east] for zoom levels [minZoom] to [maxZoom] (inclusive). Tiles that fail to
+     * download are skipped.
+     *
+     * @param maxTiles the maximum number of tiles in the region, to avoid accidentally downloading
+     * huge regions at high zoom levels
+     * @param listener called after each tile, or null to not report progress
+     * @throws IllegalArgumentException if the region has more than [maxTiles] tiles
+     */
+    @WorkerThread
+    @JvmOverloads
+    fun prefetch(
+        south: Double, west: Double, north: Double, east: Double,
+        minZoom: Int, maxZoom: Int,
+        listener: ProgressListener? = null,
+        maxTiles: Int = DEFAULT_MAX_PREFETCH_TILES
+    ): PrefetchResult {
+        require(minZoom in 0..maxZoom && maxZoom <= MAX_ZOOM) { "Zoom levels must be between 0 and $MAX_ZOOM" }
+        require(south <= north) { "south must be <= north" }
+        val total = tileCount(south, west, north, east, minZoom, maxZoom)
+        require(total <= maxTiles) { "Region has $total tiles, more than the limit of $maxTiles" }
+        var downloaded = 0
+        var cached = 0
+        var failed = 0
+        for (zoom in minZoom..maxZoom) {
+            val minX = tileX(west, zoom)
+            val maxX = tileX(east, zoom)
+            val minY = tileY(north, zoom)
+            val maxY = tileY(south, zoom)
+            for (y in minY..maxY) {
+                for (x in tileXRange(minX, maxX, zoom)) {
+                    if (cache.contains(TileCache.key(zoom, x, y))) {
+                        cached++
+                    } else {
+                        val data = try {
+                            download(zoom, x, y)
+                        } catch (e: IOException) {
+                            null
+                        }
+                        if (data != null) downloaded++ else failed++
+                    }
+                    if (listener != null && !listener.onProgress(downloaded + cached + failed, total.toInt())) {
+                        return PrefetchResult(total.toInt(), downloaded, cached, failed)
+                    }
+                }
+            }
+        }
+        return PrefetchResult(total.toInt(), downloaded, cached, failed)
+    }
+
+    companion object {
+        const val DEFAULT_TIMEOUT_MILLIS = 15 * 1000
+
+        const val DEFAULT_MAX_PREFETCH_TILES = 10000
+
+        const val MAX_ZOOM = 22
+
+        /**
+         * Maximum latitude of Web Mercator tiles
+         */
+        private const val MAX_LATITUDE = 85.05112878
+
+        /**
+         * Returns the x index of the tile containing [longitude] at [zoom]
+         */
+        @JvmStatic
+        fun tileX(longitude: Double, zoom: Int): Int {
+            val tiles = 1 shl zoom
+            val x = floor((longitude + 180.0) / 360.0 * tiles).toInt()
+            return x.coerceIn(0, tiles - 1)
+        }
+
+        /**
+         * Returns the y index (from the top) of the tile containing [latitude] at [zoom]
+         */
+        @JvmStatic
+        fun tileY(latitude: Double, zoom: Int): Int {
+            val tiles = 1 shl zoom
+            val lat = Math.toRadians(latitude.coerceIn(-MAX_LATITUDE, MAX_LATITUDE))
+            val y = floor((1.0 - ln(tan(lat) + 1.0 / cos(lat)) / PI) / 2.0 * tiles).toInt()
+            return y.coerceIn(0, tiles - 1)
+        }
+
+        /**
+         * Returns the number of tiles in the region bounded by [south], [west], [north] and [east]
+         * for zoom levels [minZoom] to [maxZoom] (inclusive). If [west] is greater than [east] the
+         * region crosses the antimeridian.
+         */
+        @JvmStatic
+        fun tileCount(
+            south: Double, west: Double, north: Double, east: Double,
+            minZoom: Int, maxZoom: Int
+        ): Long {
+            var count = 0L
+            for (zoom in minZoom..maxZoom) {
+                val rows = tileY(south, zoom) - tileY(north, zoom) + 1L
+                val minX = tileX(west, zoom)
+                val maxX = tileX(east, zoom)
+                val columns = if (minX <= maxX) maxX - minX + 1L else (1L shl zoom) - minX + maxX + 1L
+                count += rows * columns
+            }
+            return count
+        }
+
+        /**
+         * Returns the x indices from [minX] to [maxX], wrapping around the antimeridian if [minX]
+         * is greater than [maxX]
+         */
+        private fun tileXRange(minX: Int, maxX: Int, zoom: Int): Iterable<Int> {
+            return if (minX <= maxX) minX..maxX else (minX until (1 shl zoom)) + (0..maxX)
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.location.Location
+import com.android.gpstest.library.model.MeasuredError
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.Reader
+import kotlin.math.abs
+import kotlin.math.floor
+import kotlin.math.hypot
+import kotlin.math.max
+
+/**
+ * Ground truth for a moving test - a route of timestamped reference positions (e.g., from a
+ * survey-grade receiver) that fixes are compared against, instead of a single static location.
+ *
+ * Reference positions are converted to local east/north coordinates around the first position
+ * (see GeodesyUtils), which are accurate to well under a meter for routes of tens of kilometers, and
+ * the route's segments are indexed in a uniform grid of [cellSizeMeters] cells so the nearest
+ * segment to a fix is found by only checking nearby cells. Times are kept sorted so the reference
+ * position at the time of a fix is found with a binary search.
+ *
+ * The route can't be changed after it's created, but measureError() reuses a buffer to avoid
+ * allocating for each fix, so this class isn't thread-safe - measure errors from one thread at a
+ * time (e.g., the main thread).
+ */
+class TrajectoryGroundTruth(
+    private val timesMillis: LongArray,
+    private val latitudes: DoubleArray,
+    private val longitudes: DoubleArray,
+    private val altitudes: DoubleArray,
+    private val cellSizeMeters: Double = DEFAULT_CELL_SIZE_METERS
+) {
+    // Local east/north coordinates of each reference position, in meters
+    private val xs: DoubleArray
+    private val ys: DoubleArray
+
+    // Distance along the route to each reference position, in meters
+    private val distances: DoubleArray
+
+    private val originLat = latitudes.firstOrNull() ?: 0.0
+    private val originLon = longitudes.firstOrNull() ?: 0.0
+
+    // Local east/north/up coordinates of the fix being measured, reused for each fix
+    private val enu = DoubleArray(3)
+
+    // Segment indexes in each grid cell, keyed by cellKey()
+    private val grid = HashMap<Long, IntArray>()
+    private var minCellX = 0
+    private var maxCellX = 0
+    private var minCellY = 0
+    private var maxCellY = 0
+
+    init {
+        val n = timesMillis.size
+        require(n >= 2) { "A trajectory needs at least two positions" }
+        require(latitudes.size == n && longitudes.size == n && altitudes.size == n) {
+            "All columns must have the same number of positions"
+        }
+        require(cellSizeMeters > 0) { "cellSizeMeters must be > 0" }
+        for (i in 1 until n) {
+            require(timesMillis[i] >= timesMillis[i - 1]) { "Times must be in increasing order" }
+        }
+
+        xs = DoubleArray(n)
+        ys = DoubleArray(n)
+        distances = DoubleArray(n)
+        // Positions are projected at altitude 0, as only horizontal distances are needed
+        GeodesyUtils.geodeticToEnu(
+            latitudes, longitudes, DoubleArray(n),
+            originLat, originLon, 0.0,
+            xs, ys, DoubleArray(n)
+        )
+        for (i in 1 until n) {
+            distances[i] = distances[i - 1] + hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1])
+        }
+        buildGrid()
+    }
+
+    /**
+     * Number of reference positions in the route
+     */
+    val size: Int
+        get() = timesMillis.size
+
+    /**
+     * Length of the route in meters
+     */
+    val lengthMeters: Double
+        get() = distances[distances.size - 1]
+
+    fun timeMillis(index: Int): Long = timesMillis[index]
+
+    fun latitude(index: Int): Double = latitudes[index]
+
+    fun longitude(index: Int): Double = longitudes[index]
+
+    /**
+     * Altitude of reference position [index] in meters, or NaN if it doesn't have one
+     */
+    fun altitude(index: Int): Double = altitudes[index]
+
+    /**
+     * Returns the error of the [location] compared to this route - see the other measureError()
+     */
+    fun measureError(location: Location): MeasuredError {
+        return measureError(
+            location.time,
+            location.latitude,
+            location.longitude,
+            if (location.hasAltitude()) location.altitude else Double.NaN
+        )
+    }
+
+    /**
+     * Returns the error of a fix at [timeMillis] (UTC, like the route) compared to this route:
+     *  - crossTrackError is the distance from the nearest point on the route, positive if the fix
+     *    is to the left of the direction of travel
+     *  - alongTrackError is the distance along the route between that nearest point and the
+     *    reference position at [timeMillis], positive if the fix is ahead
+     *  - error is the horizontal distance to the reference position at [timeMillis], or the
+     *    absolute cross-track error if [timeMillis] is outside the route's times
+     *  - vertError is the reference altitude minus [altitude], or NaN if either is missing
+     */
+    fun measureError(timeMillis: Long, latitude: Double, longitude: Double, altitude: Double): MeasuredError {
+        GeodesyUtils.geodeticToEnu(latitude, longitude, 0.0, originLat, originLon, 0.0, enu)
+        val x = enu[0]
+        val y = enu[1]
+
+        // Nearest point on the route
+        val segment = nearestSegment(x, y)
+        val t = projection(segment, x, y)
+        val ax = xs[segment]
+        val ay = ys[segment]
+        val dx = xs[segment + 1] - ax
+        val dy = ys[segment + 1] - ay
+        val px = ax + t * dx
+        val py = ay + t * dy
+        val side = if (dx * (y - ay) - dy * (x - ax) >= 0) 1 else -1
+        val crossTrack = side * hypot(x - px, y - py)
+        val nearestDistance = distances[segment] + t * (distances[segment + 1] - distances[segment])
+
+        // Reference position at the time of the fix
+        val i = timeIndex(timeMillis)
+        if (i < 0) {
+            val refAltitude = interpolate(altitudes, segment, t)
+            return MeasuredError(abs(crossTrack).toFloat(), refAltitude - altitude, Double.NaN, crossTrack)
+        }
+        val f = timeFraction(i, timeMillis)
+        val refX = xs[i] + f * (xs[i + 1] - xs[i])
+        val refY = ys[i] + f * (ys[i + 1] - ys[i])
+        val refDistance = interpolate(distances, i, f)
+        val refAltitude = interpolate(altitudes, i, f)
+        return MeasuredError(
+            hypot(x - refX, y - refY).toFloat(),
+            refAltitude - altitude,
+            nearestDistance - refDistance,
+            crossTrack
+        )
+    }
+
+    private fun cellOf(meters: Double): Int = floor(meters / cellSizeMeters).toInt()
+
+    private fun cellKey(cellX: Int, cellY: Int): Long = (cellX.toLong() shl 32) or (cellY.toLong() and 0xffffffffL)
+
+    private fun buildGrid() {
+        val cells = HashMap<Long, MutableList<Int>>()
+        minCellX = Int.MAX_VALUE
+        maxCellX = Int.MIN_VALUE
+        minCellY = Int.MAX_VALUE
+        maxCellY = Int.MIN_VALUE
+        for (s in 0 until size - 1) {
+            // Add the segment to each cell its bounding box covers
+            val x0 = cellOf(Math.min(xs[s], xs[s + 1]))
+            val x1 = cellOf(Math.max(xs[s], xs[s + 1]))
+            val y0 = cellOf(Math.min(ys[s], ys[s + 1]))
+            val y1 = cellOf(Math.max(ys[s], ys[s + 1]))
+            for (cx in x0..x1) {
+                for (cy in y0..y1) {
+                    cells.getOrPut(cellKey(cx, cy)) { ArrayList() }.add(s)
+                }
+            }
+            minCellX = Math.min(minCellX, x0)
+            maxCellX = Math.max(maxCellX, x1)
+            minCellY = Math.min(minCellY, y0)
+            maxCellY = Math.max(maxCellY, y1)
+        }
+        for ((key, segments) in cells) {
+            grid[key] = segments.toIntArray()
+        }
+    }
+
+    /**
+     * Returns the index of the segment nearest to ([x], [y]), checking rings of grid cells around
+     * the point until no unchecked cell can hold a closer segment
+     */
+    private fun nearestSegment(x: Double, y: Double): Int {
+        val cx = cellOf(x)
+        val cy = cellOf(y)
+        // Rings needed to cover the whole grid from this cell
+        val maxRing = max(
+            max(abs(cx - minCellX), abs(cx - maxCellX)),
+            max(abs(cy - minCellY), abs(cy - maxCellY))
+        )
+        if (maxRing > MAX_RINGS) {
+            // Far from the route, so checking cells would be slower than checking every segment
+            return nearestSegmentBruteForce(x, y)
+        }
+        var best = -1
+        var bestDistance = Double.MAX_VALUE
+        for (ring in 0..maxRing) {
+            // Walk the cells on the perimeter of the ring, 2 * ring cells per side
+            val cellsInRing = if (ring == 0) 1 else 8 * ring
+            for (k in 0 until cellsInRing) {
+                val i: Int
+                val j: Int
+                val side = if (ring == 0) -1 else k / (2 * ring)
+                val offset = if (ring == 0) 0 else k % (2 * ring)
+                when (side) {
+                    -1 -> { i = cx; j = cy }
+                    0 -> { i = cx - ring + offset; j = cy - ring }
+                    1 -> { i = cx + ring; j = cy - ring + offset }
+                    2 -> { i = cx + ring - offset; j = cy + ring }
+                    else -> { i = cx - ring; j = cy + ring - offset }
+                }
+                val segments = grid[cellKey(i, j)] ?: continue
+                for (s in segments) {
+                    val d = distanceToSegment(s, x, y)
+                    if (d < bestDistance) {
+                        bestDistance = d
+                        best = s
+                    }
+                }
+            }
+            // Any segment only in cells outside this ring is at least ring * cellSizeMeters away
+            if (best >= 0 && bestDistance <= ring * cellSizeMeters) {
+                break
+            }
+        }
+        return if (best >= 0) best else nearestSegmentBruteForce(x, y)
+    }
+
+    private fun nearestSegmentBruteForce(x: Double, y: Double): Int {
+        var best = 0
+        var bestDistance = Double.MAX_VALUE
+        for (s in 0 until size - 1) {
+            val d = distanceToSegment(s, x, y)
+            if (d < bestDistance) {
+                bestDistance = d
+                best = s
+            }
+        }
+        return best
+    }
+
+    /**
+     * Returns the fraction [0, 1] along [segment] of the point on it nearest to ([x], [y])
+     */
+    private fun projection(segment: Int, x: Double, y: Double): Double {
+        val dx = xs[segment + 1] - xs[segment]
+        val dy = ys[segment + 1] - ys[segment]
+        val lengthSquared = dx * dx + dy * dy
+        if (lengthSquared == 0.0) {
+            return 0.0
+        }
+        val t = ((x - xs[segment]) * dx + (y - ys[segment]) * dy) / lengthSquared
+        return t.coerceIn(0.0, 1.0)
+    }
+
+    private fun distanceToSegment(segment: Int, x: Double, y: Double): Double {
+        val t = projection(segment, x, y)
+        val px = xs[segment] + t * (xs[segment + 1] - xs[segment])
+        val py = ys[segment] + t * (ys[segment + 1] - ys[segment])
+        return hypot(x - px, y - py)
+    }
+
+    /**
+     * Returns the index i of the reference positions where times[i] <= [timeMillis] <= times[i + 1],
+     * or -1 if [timeMillis] is outside the route's times
+     */
+    private fun timeIndex(timeMillis: Long): Int {
+        if (timeMillis < timesMillis[0] || timeMillis > timesMillis[size - 1]) {
+            return -1
+        }
+        var low = 0
+        var high = size - 1
+        // Largest index with a time <= timeMillis, but not the last position
+        while (low < high) {
+            val mid = (low + high + 1) ushr 1
+            if (timesMillis[mid] <= timeMillis) {
+                low = mid
+            } else {
+                high = mid - 1
+            }
+        }
+        return Math.min(low, size - 2)
+    }
+
+    private fun timeFraction(i: Int, timeMillis: Long): Double {
+        val duration = timesMillis[i + 1] - timesMillis[i]
+        return if (duration == 0L) 0.0 else (timeMillis - timesMillis[i]).toDouble() / duration
+    }
+
+    private fun interpolate(values: DoubleArray, i: Int, f: Double): Double {
+        return values[i] + f * (values[i + 1] - values[i])
+    }
+
+    companion object {
+        /**
+         * Default size of grid cells used to find the nearest segment
+         */
+        const val DEFAULT_CELL_SIZE_METERS = 50.0
+
+        /**
+         * Rings of cells checked around a fix before falling back to checking every segment
+         */
+        private const val MAX_RINGS = 64
+
+        /**
+         * Reads a route from CSV text with one reference position per line:
+         *
+         *   time (UTC milliseconds),latitude,longitude[,altitude (meters)]
+         *
+         * Blank lines, lines starting with # and a header line are skipped. Missing altitudes are
+         * NaN.
+         *
+         * @throws IOException if the text can't be read or a line can't be parsed
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun fromCsv(reader: Reader): TrajectoryGroundTruth {
+            var times = LongArray(INITIAL_CAPACITY)
+            var lats = DoubleArray(INITIAL_CAPACITY)
+            var lons = DoubleArray(INITIAL_CAPACITY)
+            var alts = DoubleArray(INITIAL_CAPACITY)
+            var n = 0
+            var lineNumber = 0
+            var firstLine = true
+            BufferedReader(reader).useLines { lines ->
+                for (raw in lines) {
+                    lineNumber++
+                    val line = raw.trim()
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue
+                    }
+                    val fields = line.split(',')
+                    val time = fields[0].trim().toLongOrNull()
+                    if (time == null && firstLine) {
+                        // Header
+                        firstLine = false
+                        continue
+                    }
+                    firstLine = false
+                    if (time == null || fields.size < 3) {
+                        throw IOException("Invalid trajectory position on line $lineNumber: $line")
+                    }
+                    if (n == times.size) {
+                        times = times.copyOf(n * 2)
+                        lats = lats.copyOf(n * 2)
+                        lons = lons.copyOf(n * 2)
+                        alts = alts.copyOf(n * 2)
+                    }
+                    try {
+                        times[n] = time
+                        lats[n] = fields[1].trim().toDouble()
+                        lons[n] = fields[2].trim().toDouble()
+                        alts[n] = if (fields.size > 3 && fields[3].isNotBlank()) fields[3].trim().toDouble() else Double.NaN
+                    } catch (e: NumberFormatException) {
+                        throw IOException("Invalid trajectory position on line $lineNumber: $line", e)
+                    }
+                    n++
+                }
+            }
+            try {
+                return TrajectoryGroundTruth(times.copyOf(n), lats.copyOf(n), lons.copyOf(n), alts.copyOf(n))
+            } catch (e: IllegalArgumentException) {
+                throw IOException("Invalid trajectory: ${e.message}", e)
+            }
+        }
+
+        private const val INITIAL_CAPACITY = 1024
+    }
+}
@@ -0,0 +1,633 @@
+/*
+ * Copyright (C) 2023 Sean J. Barbeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.gpstest.library.util
+
+import android.location.Location
+import android.os.Build
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.hypot
+import kotlin.math.pow
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * Weighted least squares (WLS) position and velocity solver over raw measurements - pseudoranges,
+ * pseudorange rates (Doppler) and the positions, velocities and clock corrections of the
+ * satellites - so fixes can be computed independently of the chipset's own fix.
+ *
+ * Position is solved with Gauss-Newton iterations for x, y, z (ECEF) and one receiver clock bias per
+ * constellation, so inter-system biases don't distort the fix. Satellite positions are rotated by
+ * the Earth's rotation during the signal travel time (Sagnac effect). Atmospheric delays aren't
+ * modeled. Velocity and a single clock drift are then solved from the pseudorange rates at the
+ * solved position.
+ *
+ * Each measurement is weighted by the inverse of its variance, modeled from C/N0 and the
+ * uncertainty reported by the chipset as sigma^2 = uncertainty^2 + a + b * 10^(-C/N0 / 10), so
+ * weak signals (which are more affected by noise and multipath) count less.
+ *
+ * Add the measurements of an epoch with [add] after [clear], and then call [solve]. Inputs,
+ * outputs and the normal equations use preallocated arrays, so solving doesn't allocate.
+ *
+ * This class isn't thread-safe - use an instance from one thread at a time.
+ */
+class WlsSolver(
+    capacity: Int = DEFAULT_CAPACITY,
+    private val maxIterations: Int = DEFAULT_MAX_ITERATIONS
+) {
+    // Measurements, as columns indexed from 0 until size
+    private var constellationTypes = IntArray(capacity)
+    private var satX = DoubleArray(capacity)
+    private var satY = DoubleArray(capacity)
+    private var satZ = DoubleArray(capacity)
+    private var satVx = DoubleArray(capacity)
+    private var satVy = DoubleArray(capacity)
+    private var satVz = DoubleArray(capacity)
+    private var satClockBiases = DoubleArray(capacity)
+    private var satClockDrifts = DoubleArray(capacity)
+    private var pseudoranges = DoubleArray(capacity)
+    private var pseudorangeWeights = DoubleArray(capacity)
+    private var pseudorangeRates = DoubleArray(capacity)
+    private var pseudorangeRateWeights = DoubleArray(capacity)
+    private var residuals = DoubleArray(capacity)
+    private var rateResiduals = DoubleArray(capacity)
+
+    // Unit line-of-sight vectors from the receiver to each satellite at the solved position
+    private var losX = DoubleArray(capacity)
+    private var losY = DoubleArray(capacity)
+    private var losZ = DoubleArray(capacity)
+
+    // Clock slot of each constellation type in the unknowns, or -1 if it has no measurements
+    private val clockSlots = IntArray(MAX_CONSTELLATION_TYPE + 1)
+
+    // Clock biases from the last solution, indexed by constellation type
+    private val clockBiases = DoubleArray(MAX_CONSTELLATION_TYPE + 1) { Double.NaN }
+
+    // Normal equations, solution and scratch space
+    private val normal = DoubleArray(MAX_UNKNOWNS * MAX_UNKNOWNS)
+    private val rhs = DoubleArray(MAX_UNKNOWNS)
+    private val delta = DoubleArray(MAX_UNKNOWNS)
+    private val scratch = DoubleArray(MAX_UNKNOWNS)
+    private val clockEstimates = DoubleArray(MAX_UNKNOWNS)
+    private val covariance = DoubleArray(9)
+    private val out = DoubleArray(3)
+
+    /**
+     * Number of measurements added since [clear]
+     */
+    var size = 0
+        private set
+
+    /**
+     * True if the last [solve] converged to a position
+     */
+    var isValid = false
+        private set
+
+    /**
+     * True if the last [solve] also solved the velocity
+     */
+    var isVelocityValid = false
+        private set
+
+    /**
+     * Number of Gauss-Newton iterations used by the last [solve]
+     */
+    var iterations = 0
+        private set
+
+    /**
+     * Number of receiver clocks (constellations) estimated by the last [solve]
+     */
+    var numClocks = 0
+        private set
+
+    /**
+     * Solved ECEF position in meters
+     */
+    var x = 0.0
+        private set
+    var y = 0.0
+        private set
+    var z = 0.0
+        private set
+
+    /**
+     * Solved position as WGS84 latitude and longitude in degrees and altitude in meters
+     */
+    var latitude = Double.NaN
+        private set
+    var longitude = Double.NaN
+        private set
+    var altitude = Double.NaN
+        private set
+
+    /**
+     * Solved ECEF velocity in meters per second
+     */
+    var vx = Double.NaN
+        private set
+    var vy = Double.NaN
+        private set
+    var vz = Double.NaN
+        private set
+
+    /**
+     * Solved velocity in the local east/north/up frame, in meters per second
+     */
+    var eastVelocity = Double.NaN
+        private set
+    var northVelocity = Double.NaN
+        private set
+    var upVelocity = Double.NaN
+        private set
+
+    /**
+     * Solved receiver clock drift in meters per second
+     */
+    var clockDriftMetersPerSecond = Double.NaN
+        private set
+
+    /**
+     * One-sigma horizontal and vertical uncertainties of the solved position in meters, from the
+     * covariance of the solution
+     */
+    var horizontalAccuracyMeters = Double.NaN
+        private set
+    var verticalAccuracyMeters = Double.NaN
+        private set
+
+    /**
+     * Removes all measurements, keeping the last solution as the starting point of the next solve
+     */
+    fun clear() {
+        size = 0
+    }
+
+    /**
+     * Adds the measurement of one signal:
+     * @param constellationType constellation of the signal (GnssStatus.CONSTELLATION_*), which
+     * selects its receiver clock
+     * @param x ECEF position of the satellite at the time of transmission, in meters
+     * @param vx ECEF velocity of the satellite in meters per second, or NaN if unknown
+     * @param satClockBiasMeters satellite clock bias (times the speed of light) in meters
+     * @param satClockDriftMetersPerSecond satellite clock drift in meters per second
+     * @param pseudorangeMeters pseudorange in meters
+     * @param pseudorangeUncertaintyMeters one-sigma uncertainty of the pseudorange in meters
+     * @param pseudorangeRateMetersPerSecond pseudorange rate in meters per second, or NaN if unknown
+     * @param pseudorangeRateUncertaintyMetersPerSecond one-sigma uncertainty of the pseudorange rate
+     * @param cn0DbHz carrier-to-noise density of the signal, or NaN if unknown
+     */
+    fun add(
+        constellationType: Int,
+        x: Double, y: Double, z: Double,
+        vx: Double, vy: Double, vz: Double,
+        satClockBiasMeters: Double,
+        satClockDriftMetersPerSecond: Double,
+        pseudorangeMeters: Double,
+        pseudorangeUncertaintyMeters: Double,
+        pseudorangeRateMetersPerSecond: Double,
+        pseudorangeRateUncertaintyMetersPerSecond: Double,
+        cn0DbHz: Double
+    ) {
+        require(constellationType in 0..MAX_CONSTELLATION_TYPE) { "Invalid constellation type $constellationType" }
+        if (size == satX.size) {
+            grow()
+        }
+        val i = size++
+        constellationTypes[i] = constellationType
+        satX[i] = x
+        satY[i] = y
+        satZ[i] = z
+        satVx[i] = vx
+        satVy[i] = vy
+        satVz[i] = vz
+        satClockBiases[i] = satClockBiasMeters
+        satClockDrifts[i] = satClockDriftMetersPerSecond
+        pseudoranges[i] = pseudorangeMeters
+        pseudorangeRates[i] = pseudorangeRateMetersPerSecond
+        // Without a C/N0, only the reported uncertainty is used
+        val cn0Term = if (cn0DbHz.isNaN()) 0.0 else 10.0.pow(-cn0DbHz / 10)
+        pseudorangeWeights[i] = 1.0 / (square(pseudorangeUncertaintyMeters.orZero()) +
+                PSEUDORANGE_VARIANCE_A + PSEUDORANGE_VARIANCE_B * cn0Term)
+        pseudorangeRateWeights[i] = 1.0 / (square(pseudorangeRateUncertaintyMetersPerSecond.orZero()) +
+                RATE_VARIANCE_A + RATE_VARIANCE_B * cn0Term)
+    }
+
+    /**
+     * Solves the position, clock biases, velocity and clock drift from the measurements added
+     * since [clear]
+     * @return true if the position converged (see [isValid])
+     */
+    fun solve(): Boolean {
+        val wasValid = isValid
+        isValid = false
+        isVelocityValid = false
+        iterations = 0
+
+        // Assign one clock to each constellation
+        clockSlots.fill(-1)
+        numClocks = 0
+        for (i in 0 until size) {
+            val type = constellationTypes[i]
+            if (clockSlots[type] < 0) {
+                clockSlots[type] = numClocks++
+            }
+        }
+        val n = 3 + numClocks
+        if (numClocks == 0 || size < n || n > MAX_UNKNOWNS) {
+            clearSolution()
+            return false
+        }
+
+        // Start from the last solution, or the center of the Earth
+        if (!wasValid) {
+            x = 0.0
+            y = 0.0
+            z = 0.0
+        }
+        for (type in clockSlots.indices) {
+            val slot = clockSlots[type]
+            if (slot >= 0) {
+                clockEstimates[slot] = if (wasValid && !clockBiases[type].isNaN()) clockBiases[type] else 0.0
+            }
+        }
+
+        var converged = false
+        while (iterations < maxIterations) {
+            iterations++
+            buildPositionEquations(n)
+            if (!choleskySolve(n)) {
+                break
+            }
+            x += delta[0]
+            y += delta[1]
+            z += delta[2]
+            for (c in 0 until numClocks) {
+                clockEstimates[c] += delta[3 + c]
+            }
+            if (square(delta[0]) + square(delta[1]) + square(delta[2]) < square(CONVERGENCE_METERS)) {
+                converged = true
+                break
+            }
+        }
+        if (!converged) {
+            clearSolution()
+            return false
+        }
+
+        // Residuals, line-of-sight vectors and covariance at the solution
+        buildPositionEquations(n)
+        if (!choleskyFactor(n)) {
+            clearSolution()
+            return false
+        }
+        for (k in 0 until 3) {
+            rhs.fill(0.0, 0, n)
+            rhs[k] = 1.0
+            choleskySubstitute(n)
+            covariance[k * 3] = delta[0]
+            covariance[k * 3 + 1] = delta[1]
+            covariance[k * 3 + 2] = delta[2]
+        }
+        GeodesyUtils.ecefToGeodetic(x, y, z, out)
+        latitude = out[0]
+        longitude = out[1]
+        altitude = out[2]
+        setAccuracy()
+        clockBiases.fill(Double.NaN)
+        for (type in clockSlots.indices) {
+            val slot = clockSlots[type]
+            if (slot >= 0) {
+                clockBiases[type] = clockEstimates[slot]
+            }
+        }
+        isValid = true
+        isVelocityValid = solveVelocity()
+        return true
+    }
+
+    /**
+     * Returns the solved clock bias of the receiver for [constellationType] in meters, or NaN if
+     * it wasn't solved
+     */
+    fun clockBiasMeters(constellationType: Int): Double {
+        return if (isValid && constellationType in clockBiases.indices) clockBiases[constellationType] else Double.NaN
+    }
+
+    /**
+     * Returns the pseudorange residual (measured - modeled) of measurement [i] in meters
+     */
+    fun residual(i: Int): Double = residuals[i]
+
+    /**
+     * Returns the pseudorange rate residual of measurement [i] in meters per second, or NaN if
+     * it has no rate or the velocity wasn't solved
+     */
+    fun rateResidual(i: Int): Double = rateResiduals[i]
+
+    /**
+     * Returns the solution as a Location with [provider] at [timeMillis] (UTC), including speed
+     * and bearing if the velocity was solved, or null if there's no solution
+     */
+    fun toLocation(provider: String, timeMillis: Long): Location? {
+        if (!isValid) {
+            return null
+        }
+        val location = Location(provider)
+        location.time = timeMillis
+        location.latitude = latitude
+        location.longitude = longitude
+        location.altitude = altitude
+        location.accuracy = horizontalAccuracyMeters.toFloat()
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            location.verticalAccuracyMeters = verticalAccuracyMeters.toFloat()
+        }
+        if (isVelocityValid) {
+            location.speed = hypot(eastVelocity, northVelocity).toFloat()
+            location.bearing = ((Math.toDegrees(atan2(eastVelocity, northVelocity)) + 360) % 360).toFloat()
+        }
+        return location
+    }
+
+    /**
+     * Fills the normal equations (H^T W H) delta = H^T W r for the current estimate, and the
+     * residuals and line-of-sight vectors
+     */
+    private fun buildPositionEquations(n: Int) {
+        normal.fill(0.0, 0, n * n)
+        rhs.fill(0.0, 0, n)
+        for (i in 0 until size) {
+            // Rotate the satellite by the Earth's rotation during the travel time
+            val dx0 = satX[i] - x
+            val dy0 = satY[i] - y
+            val dz0 = satZ[i] - z
+            val theta = EARTH_ROTATION_RATE * sqrt(dx0 * dx0 + dy0 * dy0 + dz0 * dz0) /
+                    PseudorangeCalculator.SPEED_OF_LIGHT_METERS_PER_SECOND
+            val cosTheta = cos(theta)
+            val sinTheta = sin(theta)
+            val dx = satX[i] * cosTheta + satY[i] * sinTheta - x
+            val dy = -satX[i] * sinTheta + satY[i] * cosTheta - y
+            val dz = dz0
+            val range = sqrt(dx * dx + dy * dy + dz * dz)
+            val ux = dx / range
+            val uy = dy / range
+            val uz = dz / range
+            losX[i] = ux
+            losY[i] = uy
+            losZ[i] = uz
+            val clock = 3 + clockSlots[constellationTypes[i]]
+            val residual = pseudoranges[i] - (range + clockEstimates[clock - 3] - satClockBiases[i])
+            residuals[i] = residual
+
+            // H row is [-ux, -uy, -uz, 0 ... 1 (clock) ... 0]
+            val w = pseudorangeWeights[i]
+            addRow(n, w, -ux, -uy, -uz, clock, residual)
+        }
+    }
+
+    /**
+     * Solves the velocity and clock drift with the line-of-sight vectors of the solved position
+     */
+    private fun solveVelocity(): Boolean {
+        rateResiduals.fill(Double.NaN, 0, size)
+        normal.fill(0.0, 0, 16)
+        rhs.fill(0.0, 0, 4)
+        var count = 0
+        for (i in 0 until size) {
+            if (pseudorangeRates[i].isNaN() || satVx[i].isNaN()) {
+                continue
+            }
+            // rate = (vSat - v) . los + drift - satDrift
+            val observed = pseudorangeRates[i] - (satVx[i] * losX[i] + satVy[i] * losY[i] + satVz[i] * losZ[i]) +
+                    satClockDrifts[i]
+            addRow(4, pseudorangeRateWeights[i], -losX[i], -losY[i], -losZ[i], 3, observed)
+            count++
+        }
+        if (count < 4 || !choleskySolve(4)) {
+            vx = Double.NaN
+            vy = Double.NaN
+            vz = Double.NaN
+            eastVelocity = Double.NaN
+            northVelocity = Double.NaN
+            upVelocity = Double.NaN
+            clockDriftMetersPerSecond = Double.NaN
+            return false
+        }
+        vx = delta[0]
+        vy = delta[1]
+        vz = delta[2]
+        clockDriftMetersPerSecond = delta[3]
+        for (i in 0 until size) {
+            if (pseudorangeRates[i].isNaN() || satVx[i].isNaN()) {
+                continue
+            }
+            val modeled = (satVx[i] - vx) * losX[i] + (satVy[i] - vy) * losY[i] + (satVz[i] - vz) * losZ[i] +
+                    clockDriftMetersPerSecond - satClockDrifts[i]
+            rateResiduals[i] = pseudorangeRates[i] - modeled
+        }
+        GeodesyUtils.ecefVectorToEnu(vx, vy, vz, latitude, longitude, out)
+        eastVelocity = out[0]
+        northVelocity = out[1]
+        upVelocity = out[2]
+        return true
+    }
+
+    /**
+     * Adds w * h h^T to the normal matrix and w * h * r to the right-hand side, where
+     * h = [hx, hy, hz, 0 ... 1 (at [clock]) ... 0]
+     */
+    private fun addRow(n: Int, w: Double, hx: Double, hy: Double, hz: Double, clock: Int, r: Double) {
+        scratch.fill(0.0, 0, n)
+        scratch[0] = hx
+        scratch[1] = hy
+        scratch[2] = hz
+        scratch[clock] = 1.0
+        for (row in 0 until n) {
+            val h = scratch[row]
+            if (h == 0.0) {
+                continue
+            }
+            val wh = w * h
+            rhs[row] += wh * r
+            // Upper triangle only, as the matrix is symmetric
+            for (col in row until n) {
+                normal[row * n + col] += wh * scratch[col]
+            }
+        }
+    }
+
+    /**
+     * Solves normal * delta = rhs, overwriting normal with its Cholesky factor
+     * @return false if the matrix isn't positive definite (degenerate geometry)
+     */
+    private fun choleskySolve(n: Int): Boolean {
+        if (!choleskyFactor(n)) {
+            return false
+        }
+        choleskySubstitute(n)
+        return true
+    }
+
+    /**
+     * Replaces the upper triangle of normal with U, where normal = U^T U
+     */
+    private fun choleskyFactor(n: Int): Boolean {
+        for (i in 0 until n) {
+            var d = normal[i * n + i]
+            for (k in 0 until i) {
+                d -= square(normal[k * n + i])
+            }
+            if (d <= MIN_PIVOT) {
+                return false
+            }
+            val u = sqrt(d)
+            normal[i * n + i] = u
+            for (j in i + 1 until n) {
+                var s = normal[i * n + j]
+                for (k in 0 until i) {
+                    s -= normal[k * n + i] * normal[k * n + j]
+                }
+                normal[i * n + j] = s / u
+            }
+        }
+        return true
+    }
+
+    /**
+     * Solves U^T U delta = rhs with the factor from choleskyFactor()
+     */
+    private fun choleskySubstitute(n: Int) {
+        // U^T y = rhs
+        for (i in 0 until n) {
+            var s = rhs[i]
+            for (k in 0 until i) {
+                s -= normal[k * n + i] * scratch[k]
+            }
+            scratch[i] = s / normal[i * n + i]
+        }
+        // U delta = y
+        for (i in n - 1 downTo 0) {
+            var s = scratch[i]
+            for (k in i + 1 until n) {
+                s -= normal[i * n + k] * delta[k]
+            }
+            delta[i] = s / normal[i * n + i]
+        }
+    }
+
+    /**
+     * Sets the horizontal and vertical accuracy by rotating the position covariance into the
+     * local east/north/up frame
+     */
+    private fun setAccuracy() {
+        val phi = Math.toRadians(latitude)
+        val lambda = Math.toRadians(longitude)
+        val sinPhi = sin(phi)
+        val cosPhi = cos(phi)
+        val sinLambda = sin(lambda)
+        val cosLambda = cos(lambda)
+        val east = quadraticForm(-sinLambda, cosLambda, 0.0)
+        val north = quadraticForm(-sinPhi * cosLambda, -sinPhi * sinLambda, cosPhi)
+        val up = quadraticForm(cosPhi * cosLambda, cosPhi * sinLambda, sinPhi)
+        horizontalAccuracyMeters = sqrt(east + north)
+        verticalAccuracyMeters = sqrt(up)
+    }
+
+    private fun quadraticForm(a: Double, b: Double, c: Double): Double {
+        return a * (covariance[0] * a + covariance[1] * b + covariance[2] * c) +
+                b * (covariance[3] * a + covariance[4] * b + covariance[5] * c) +
+                c * (covariance[6] * a + covariance[7] * b + covariance[8] * c)
+    }
+
+    private fun clearSolution() {
+        isValid = false
+        isVelocityValid = false
+        latitude = Double.NaN
+        longitude = Double.NaN
+        altitude = Double.NaN
+        vx = Double.NaN
+        vy = Double.NaN
+        vz = Double.NaN
+        eastVelocity = Double.NaN
+        northVelocity = Double.NaN
+        upVelocity = Double.NaN
+        clockDriftMetersPerSecond = Double.NaN
+        horizontalAccuracyMeters = Double.NaN
+        verticalAccuracyMeters = Double.NaN
+        clockBiases.fill(Double.NaN)
+    }
+
+    private fun grow() {
+        val capacity = satX.size * 2
+        constellationTypes = constellationTypes.copyOf(capacity)
+        satX = satX.copyOf(capacity)
+        satY = satY.copyOf(capacity)
+        satZ = satZ.copyOf(capacity)
+        satVx = satVx.copyOf(capacity)
+        satVy = satVy.copyOf(capacity)
+        satVz = satVz.copyOf(capacity)
+        satClockBiases = satClockBiases.copyOf(capacity)
+        satClockDrifts = satClockDrifts.copyOf(capacity)
+        pseudoranges = pseudoranges.copyOf(capacity)
+        pseudorangeWeights = pseudorangeWeights.copyOf(capacity)
+        pseudorangeRates = pseudorangeRates.copyOf(capacity)
+        pseudorangeRateWeights = pseudorangeRateWeights.copyOf(capacity)
+        residuals = residuals.copyOf(capacity)
+        rateResiduals = rateResiduals.copyOf(capacity)
+        losX = losX.copyOf(capacity)
+        losY = losY.copyOf(capacity)
+        losZ = losZ.copyOf(capacity)
+    }
+
+    private fun square(v: Double): Double = v * v
+
+    private fun Double.orZero(): Double = if (isNaN()) 0.0 else this
+
+    companion object {
+        /**
+         * Provider of Locations from [toLocation] that are shown in the Accuracy screen
+         */
+        const val PROVIDER = "wls"
+
+        const val DEFAULT_CAPACITY = 64
+        const val DEFAULT_MAX_ITERATIONS = 10
+
+        /**
+         * Earth's rotation rate (WGS84) in radians per second
+         */
+        const val EARTH_ROTATION_RATE = 7.2921151467e-5
+
+        // Largest GnssStatus.CONSTELLATION_* value
+        private const val MAX_CONSTELLATION_TYPE = 7
+
+        // Position and one clock per constellation
+        private const val MAX_UNKNOWNS = 3 + MAX_CONSTELLATION_TYPE + 1
+
+        // Position updates smaller than this end the iterations
+        private const val CONVERGENCE_METERS = 1e-4
+
+        // Pivots below this mean the geometry can't be solved
+        private const val MIN_PIVOT = 1e-12
+
+        // Variance models a + b * 10^(-C/N0 / 10), in m^2 and (m/s)^2 - about 2.7 m and 0.13 m/s
+        // at 45 dB-Hz, and 25 m and 0.8 m/s at 25 dB-Hz
+        private const val PSEUDORANGE_VARIANCE_A = 1.0
+        private const val PSEUDORANGE_VARIANCE_B = 2.0e5
+        private const val RATE_VARIANCE_A = 0.01
+        private const val RATE_VARIANCE_B = 200.0
+    }
+}